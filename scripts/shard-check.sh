@@ -0,0 +1,198 @@
+#!/usr/bin/env bash
+# 分布式查询的本机验证：把同一批 html 文档分成 N 个分区各自制作索引，在随机端口上启动 N 个分片节点和一个协调节点，
+# 再用整批文档制作一份单机索引启动一个单机节点，同样的查询分别发给协调节点和单机节点，比较两边的结果
+#   - 命中总数必须完全一样（每个分片的命中数加起来），结果不能是 partial
+#   - 一页一页地取出所有的结果，两边命中的文档（url）必须完全一样，协调节点翻页的时候不能有重复的
+#   - 第一页（前 SIZE 个）在分数相同的意义下必须一样：协调节点第 i 个结果在单机上的分数必须等于单机第 i 个结果的分数
+#     单机的分数通过单机节点自己的 /shard/search 取（见 ShardHits），分数相同时单机按 docId 排序，
+#     协调节点按 (分片, docId) 排序，同分的文档之间的顺序本来就不一样，所以只比较分数
+#     权重是每个分区制作索引的时候按照自己的统计信息量化好的，分片按照全局的 idf 换算之后再取整，
+#     平均文档长度也是分片自己的（见 ShardCoordinator），每个查询词的权重和单机时可能差一两个单位，
+#     所以比较分数时允许的差默认是查询词个数的 2 倍，可以通过环境变量 TOLERANCE 指定
+#   - 邻近度加权默认关掉（PROXIMITY_BOOST=0）：加权只给按照权重之和排在前 proximityWindow 的文档，
+#     窗口边界上同分的文档哪些进窗口取决于同分时的顺序，单机和协调节点不一样，加权之后的分数就对不上了
+# 用法：scripts/shard-check.sh <html 文档根目录> [分区数，默认 3] [查询...]
+# 需要先 mvn compile；依赖的 classpath 用 mvn dependency:build-classpath 取，也可以通过环境变量 CP 指定
+set -euo pipefail
+
+INPUT=${1:?用法: scripts/shard-check.sh <html 文档根目录> [分区数] [查询...]}
+N=${2:-3}
+shift $(( $# >= 2 ? 2 : 1 ))
+QUERIES=("$@")
+if [ ${#QUERIES[@]} -eq 0 ]; then
+    QUERIES=("list" "hash map" "concurrent queue" "string builder" "stream buffer" "thread OR executor" "collection -hash")
+fi
+SIZE=${SIZE:-10}
+TOLERANCE=${TOLERANCE:-}
+PROXIMITY_BOOST=${PROXIMITY_BOOST:-0}
+
+ROOT=$(cd "$(dirname "$0")/.." && pwd)
+if [ -z "${CP:-}" ]; then
+    (cd "$ROOT" && mvn -B -q dependency:build-classpath -Dmdep.outputFile=target/classpath.txt >/dev/null)
+    CP=$ROOT/target/classes:$(cat "$ROOT/target/classpath.txt")
+fi
+WORK=$(mktemp -d)
+PIDS=()
+cleanup() {
+    for pid in "${PIDS[@]}"; do
+        kill "$pid" 2>/dev/null || true
+    done
+    if [ -z "${KEEP:-}" ]; then rm -rf "$WORK"; else echo "保留了临时目录: $WORK"; fi
+}
+trap cleanup EXIT
+
+free_port() {
+    python3 -c 'import socket; s=socket.socket(); s.bind(("127.0.0.1",0)); print(s.getsockname()[1]); s.close()'
+}
+
+build_index() { # <索引目录> [分区]
+    local partition=()
+    if [ -n "${2:-}" ]; then
+        partition=(-Ddocsearch.partition="$2")
+    fi
+    java -Dfile.encoding=UTF-8 -cp "$CP" -Ddocsearch.inputPath="$INPUT" -Ddocsearch.indexPath="$1" "${partition[@]}" \
+        com.bite.parser.Parser > "$1.log" 2>&1
+}
+
+start_node() { # <端口> <日志> [其它 -D 参数...]
+    local port=$1 log=$2
+    shift 2
+    java -Xmx300m -Dfile.encoding=UTF-8 -cp "$CP" -Dserver.port="$port" -Ddocsearch.proximityBoost="$PROXIMITY_BOOST" "$@" \
+        com.bite.DemoApplication > "$log" 2>&1 &
+    PIDS+=($!)
+}
+
+wait_ready() { # <端口>
+    for _ in $(seq 120); do
+        if curl -sf "http://127.0.0.1:$1/docsearch/metrics" > /dev/null; then
+            # 第一次查询要初始化分词器，比协调节点等待分片的时间（FileConfig.shardTimeout）还长，先查一次预热
+            curl -sf "http://127.0.0.1:$1/docsearch/searcher?query=warmup" > /dev/null
+            return 0
+        fi
+        sleep 0.5
+    done
+    echo "节点没有启动: $1" >&2
+    exit 1
+}
+
+echo "制作索引: 单机 + $N 个分区"
+build_index "$WORK/single"
+for i in $(seq 0 $((N - 1))); do
+    build_index "$WORK/part$i" "$i/$N"
+done
+
+SINGLE=$(free_port)
+start_node "$SINGLE" "$WORK/single.out" -Ddocsearch.indexPath="$WORK/single"
+SHARDS=()
+PORTS=()
+for i in $(seq 0 $((N - 1))); do
+    port=$(free_port)
+    start_node "$port" "$WORK/part$i.out" -Ddocsearch.indexPath="$WORK/part$i"
+    SHARDS+=("http://127.0.0.1:$port/docsearch")
+    PORTS+=("$port")
+done
+COORDINATOR=$(free_port)
+start_node "$COORDINATOR" "$WORK/coordinator.out" -Ddocsearch.shards="$(IFS=,; echo "${SHARDS[*]}")"
+wait_ready "$SINGLE"
+for port in "${PORTS[@]}"; do
+    wait_ready "$port"
+done
+wait_ready "$COORDINATOR"
+
+FAILED=0
+for query in "${QUERIES[@]}"; do
+    if ! python3 - "$query" "http://127.0.0.1:$SINGLE/docsearch" "http://127.0.0.1:$COORDINATOR/docsearch" "$SIZE" "$TOLERANCE" <<'PY'
+import json, struct, sys, urllib.parse, urllib.request
+query, single, cluster, size, tolerance = sys.argv[1], sys.argv[2], sys.argv[3], int(sys.argv[4]), sys.argv[5]
+
+def get(base, path, params):
+    with urllib.request.urlopen(base + path + "?" + urllib.parse.urlencode(params)) as response:
+        return response.read()
+
+# 一页一页地取出所有的结果（每页最多 100 个，最多 10000 个），返回 (总数, 是否 partial, 按顺序的 url)
+def fetch(base):
+    urls, total, partial, page = [], 0, False, 1
+    while True:
+        body = get(base, "/searcher", {"query": query, "page": page, "size": 100})
+        if not body:
+            return 0, False, []
+        result = json.loads(body)
+        total, partial = result["total"], partial or result["partial"]
+        urls += [r["url"] for r in result["results"]]
+        if len(result["results"]) < 100 or len(urls) >= min(total, 10000):
+            return total, partial, urls
+        page += 1
+
+# 解析 /shard/search 返回的二进制结果（格式见 ShardHits.writeTo），返回 (索引版本, 查询词个数, [(docId, 分数)])
+def shard_hits(data):
+    if struct.unpack(">I", data[:4])[0] != 0x44534852 or data[4] != 4:
+        raise SystemExit("不认识的 ShardHits 格式")
+    pos = 5
+    def utf():
+        nonlocal pos
+        n = struct.unpack(">H", data[pos:pos + 2])[0]
+        pos += 2 + n
+        return data[pos - n:pos].decode("utf-8")
+    def vint():
+        nonlocal pos
+        value, shift = 0, 0
+        while True:
+            b = data[pos]
+            pos += 1
+            value |= (b & 0x7F) << shift
+            if b < 0x80:
+                return value
+            shift += 7
+    generation = utf()
+    utf()
+    vint(), vint()
+    pos += 3  # totalExact、partial、globalStats
+    words = vint()
+    for _ in range(words):
+        utf(), vint()
+    hits = []
+    for _ in range(vint()):
+        doc, score = vint(), vint()
+        for _ in range(words):
+            vint()
+        hits.append((doc, score))
+    return generation, words, hits
+
+# 单机上前 10000 个文档的分数，按 url 索引；只取分数不低于第 size 个减去允许的差的文档的 url（包括边界上所有同分的文档）
+# 返回 (单机前 size 个的分数, url -> 分数, 允许的差)
+def single_scores():
+    global tolerance
+    generation, words, hits = shard_hits(get(single, "/shard/search", {"query": query, "limit": 10000}))
+    tolerance = int(tolerance) if tolerance else 2 * words
+    if not hits:
+        return [], {}
+    floor = hits[min(size, len(hits)) - 1][1] - tolerance
+    needed = [doc for doc, score in hits if score >= floor]
+    scores = dict(hits)
+    by_url = {}
+    for i in range(0, len(needed), 100):
+        ids = needed[i:i + 100]
+        docs = json.loads(get(single, "/shard/docs", {"query": query, "generation": generation or "", "ids": ",".join(map(str, ids))}))
+        for doc, result in zip(ids, docs):
+            by_url[result["url"]] = scores[doc]
+    return [score for _, score in hits[:size]], by_url
+
+total_a, _, a = fetch(single)
+total_b, partial, b = fetch(cluster)
+ok = total_a == total_b and not partial and len(b) == len(set(b)) and set(a) == set(b)
+
+# 第一页：协调节点第 i 个结果在单机上的分数和单机第 i 个结果的分数一样（允许差 TOLERANCE）
+expected, by_url = single_scores()
+actual = [by_url.get(url) for url in b[:size]]
+first_page = len(actual) == len(expected) and all(
+    got is not None and abs(got - want) <= tolerance for got, want in zip(actual, expected))
+ok = ok and first_page
+print("%-4s %-24s total %6d / %-6d 第一页%s" % ("ok" if ok else "FAIL", query, total_a, total_b,
+      "一样（分数允许差 %d）" % tolerance if first_page else "不一样: 单机 %s 协调节点 %s" % (expected, actual)))
+sys.exit(0 if ok else 1)
+PY
+    then
+        FAILED=1
+    fi
+done
+exit $FAILED
@@ -0,0 +1,103 @@
+package com.bite.benchmark;
+
+import com.bite.parser.Parser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+// 提取正文的三种方法：parseContent（逐字符读文件）、parseContentByRegex（正则）、parseContentFast（HtmlExtractor）
+// 默认用的是写到临时目录中的模拟语料，不需要先下载 Javadoc，结果可以在不同机器之间对比；
+// 要在真实的 Javadoc 页面上测的时候用 -p docs=文档目录 指定，取其中前 files 个 html 文件
+// 每次调用处理一遍全部文件，文件第一次读过之后都在 page cache 中，三种方法读文件的条件是一样的
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HtmlStripBenchmark {
+
+    @Param({"500"})
+    public int files;
+
+    // 为空的时候用模拟语料
+    @Param({""})
+    public String docs;
+
+    private final Parser parser = new Parser();
+    private File dir;
+    private List<File> corpus;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        if (!docs.isEmpty()) {
+            try (Stream<Path> paths = Files.walk(Paths.get(docs))) {
+                corpus = paths.filter(path -> path.getFileName().toString().endsWith(".html"))
+                        .limit(files).map(Path::toFile).collect(Collectors.toList());
+            }
+            return;
+        }
+        dir = Files.createTempDirectory("jmh-html").toFile();
+        corpus = new SyntheticJavadoc(42).writeTo(dir, files);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        // 真实的文档不能删
+        if (dir == null) {
+            return;
+        }
+        for (File file : corpus) {
+            file.delete();
+        }
+        File[] packages = dir.listFiles();
+        if (packages != null) {
+            for (File file : packages) {
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    @Benchmark
+    public void parseContent(Blackhole blackhole) {
+        for (File file : corpus) {
+            blackhole.consume(parser.parseContent(file));
+        }
+    }
+
+    @Benchmark
+    public void parseContentByRegex(Blackhole blackhole) {
+        for (File file : corpus) {
+            blackhole.consume(parser.parseContentByRegex(file));
+        }
+    }
+
+    @Benchmark
+    public void parseContentFast(Blackhole blackhole) {
+        for (File file : corpus) {
+            blackhole.consume(parser.parseContentFast(file));
+        }
+    }
+}
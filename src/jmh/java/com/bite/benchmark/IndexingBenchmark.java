@@ -0,0 +1,102 @@
+package com.bite.benchmark;
+
+import com.bite.config.FileConfig;
+import com.bite.index.Index;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// 制作索引的三个阶段：多线程 addDoc、save（合并段 + 写二进制索引）、load（打开二进制索引）
+// 索引写到 target/jmh-index/indexing 中（-Ddocsearch.indexPath），不会覆盖真正的索引
+@BenchmarkMode(Mode.AverageTime)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Ddocsearch.indexPath=target/jmh-index/indexing")
+public class IndexingBenchmark {
+
+    private static final int PAGES = 1000;
+
+    // 已经提取好正文的语料，addDoc 的时候只测分词和写入段
+    @State(Scope.Benchmark)
+    public static class Corpus {
+        List<SyntheticJavadoc.Page> pages;
+        String[] contents;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            pages = new SyntheticJavadoc(42).pages(PAGES);
+            contents = new String[PAGES];
+            for (int i = 0; i < PAGES; i++) {
+                contents[i] = pages.get(i).content();
+            }
+        }
+    }
+
+    // 四个线程往同一个 Index 中加文档，和 Parser.runByThread 一样，观察段的分配、docId 的分配有没有竞争
+    // 每一轮换一个新的 Index，避免内存中的段一直变大
+    @State(Scope.Benchmark)
+    public static class Shared {
+        Index index;
+        final AtomicInteger next = new AtomicInteger();
+
+        @Setup(Level.Iteration)
+        public void setUp() {
+            index = new Index();
+        }
+    }
+
+    @Benchmark
+    @Threads(4)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public void addDoc(Corpus corpus, Shared shared) {
+        int i = shared.next.getAndIncrement() % PAGES;
+        SyntheticJavadoc.Page page = corpus.pages.get(i);
+        shared.index.addDoc(page.title, page.url, corpus.contents[i]);
+    }
+
+    // 加好了全部语料的索引，save 第一次调用的时候合并段，之后每次调用只测写文件
+    @State(Scope.Benchmark)
+    public static class Built {
+        Index index;
+
+        @Setup(Level.Trial)
+        public void setUp(Corpus corpus) {
+            new File(FileConfig.indexPath).mkdirs();
+            index = new Index();
+            for (int i = 0; i < PAGES; i++) {
+                SyntheticJavadoc.Page page = corpus.pages.get(i);
+                index.addDoc(page.title, page.url, corpus.contents[i]);
+            }
+            index.save();
+        }
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void save(Built built) {
+        built.index.save();
+    }
+
+    // 加载之后查一个词，包含映射文件、读段信息、查词典的开销
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public Object load(Built built) {
+        Index index = new Index();
+        index.load();
+        return index.getInverted("iterator");
+    }
+}
@@ -0,0 +1,92 @@
+package com.bite.benchmark;
+
+import com.bite.config.FileConfig;
+import com.bite.index.Index;
+import com.bite.search.DocSearcher;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// 端到端的查询：分词、取倒排拉链、合并算分（OR 的时候 exhaustive 走的就是 DocSearcher.mergeResult）、取前 k 个、读正排、生成描述
+// 按查询的长度分成几类，和三种求值方式（FileConfig.queryMode）、默认运算符（FileConfig.defaultOperator）交叉组合
+// AND 的多词查询和短语查询走的是 BooleanScorer 求交集，和 queryMode 无关
+// 关闭了查询结果缓存（-Ddocsearch.queryCacheMB=0），否则除了第一次都是直接命中缓存
+// 索引建在 target/jmh-index/search 中，第一次运行的时候制作，之后直接复用
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Ddocsearch.indexPath=target/jmh-index/search", "-Ddocsearch.queryCacheMB=0"})
+public class SearchBenchmark {
+
+    private static final int PAGES = 5000;
+
+    // 每一类轮流使用的几个查询，词都来自 SyntheticJavadoc.WORDS，有高频词也有低频词
+    private static final String[][] QUERIES = {
+            {"iterator", "concurrent", "socket", "returns", "serializable"},
+            {"hash map", "thread pool", "linked queue", "file reader", "load factor"},
+            {"concurrent hash map iterator", "thread pool executor future", "file reader buffer charset",
+                    "the specified element returns"},
+            {"\"the specified element\"", "\"hash map\"", "\"thread pool\" executor", "\"returns null\""},
+    };
+
+    @Param({"1", "2", "4", "phrase"})
+    public String terms;
+
+    @Param({"exhaustive", DocSearcher.QUERY_MODE_WAND, DocSearcher.QUERY_MODE_BMW})
+    public String queryMode;
+
+    @Param({"and", "or"})
+    public String defaultOperator;
+
+    private DocSearcher searcher;
+    private String[] queries;
+    private int next = 0;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        File dir = new File(FileConfig.indexPath);
+        if (Index.currentGeneration() == null) {
+            dir.mkdirs();
+            Index index = new Index();
+            SyntheticJavadoc corpus = new SyntheticJavadoc(42);
+            for (int i = 0; i < PAGES; i++) {
+                SyntheticJavadoc.Page page = corpus.page(i);
+                index.addDoc(page.title, page.url, page.content());
+            }
+            index.save();
+            Files.write(new File(dir, "stop_word.txt").toPath(), Arrays.asList("the", "of", "a", "to", "and", "is"),
+                    StandardCharsets.UTF_8);
+        }
+        FileConfig.queryMode = queryMode;
+        FileConfig.defaultOperator = defaultOperator;
+        // 测的是完整求值的耗时，不能让时间预算把慢的查询截断
+        FileConfig.searchTimeout = 0;
+        searcher = new DocSearcher();
+        List<String> classes = Arrays.asList("1", "2", "4", "phrase");
+        queries = QUERIES[classes.indexOf(terms)];
+    }
+
+    @Benchmark
+    public Object search() {
+        return searcher.search(queries[next++ % queries.length], 0, DocSearcher.DEFAULT_LIMIT);
+    }
+}
@@ -0,0 +1,62 @@
+package com.bite.benchmark;
+
+import com.bite.search.SnippetGenerator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// 给结果生成描述（原来的 GenDesc，现在是 SnippetGenerator）
+// 每次调用处理 SyntheticJavadoc.HUGE_EVERY 个页面，其中有一个 index-all 那样的大页面
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SnippetBenchmark {
+
+    private final SnippetGenerator generator = new SnippetGenerator(Arrays.asList("hash", "map", "iterator"));
+    private String[] contents;
+    private int[] regionStarts;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        List<SyntheticJavadoc.Page> pages = new SyntheticJavadoc(42).pages(SyntheticJavadoc.HUGE_EVERY);
+        contents = new String[pages.size()];
+        regionStarts = new int[pages.size()];
+        for (int i = 0; i < contents.length; i++) {
+            contents[i] = pages.get(i).content();
+            // 从最后一次出现的查询词前面开始，相当于 SnippetLocator 找到的最好的一段在正文靠后的位置
+            regionStarts[i] = Math.max(contents[i].lastIndexOf("iterator") - 60, 0);
+        }
+    }
+
+    // 扫描整篇正文
+    @Benchmark
+    public void fullScan(Blackhole blackhole) {
+        for (String content : contents) {
+            blackhole.consume(generator.generate(content));
+        }
+    }
+
+    // 只扫描给定位置开始的一段（SnippetGenerator.REGION_LENGTH 个字符）
+    @Benchmark
+    public void region(Blackhole blackhole) {
+        for (int i = 0; i < contents.length; i++) {
+            blackhole.consume(generator.generate(contents[i], regionStarts[i]));
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package com.bite.benchmark;
+
+import com.bite.parser.HtmlExtractor;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+// 基准测试使用的模拟 Javadoc 语料，给定 seed 之后每次生成的内容完全一样，不同的机器、不同的改动之间的结果才能直接对比
+// 页面的结构参照真实的 Javadoc：head 中的 script、导航栏、类的说明、带实体的代码块、方法概要表格
+// 用词按照 Zipf 分布从一个 Javadoc 常见词表中抽取，少数几个词出现在几乎所有页面中，和真实的倒排拉链长度分布类似
+// 每 HUGE_EVERY 个页面中有一个是 index-all 那种特别大的页面
+final class SyntheticJavadoc {
+
+    static final int HUGE_EVERY = 97;
+
+    // Javadoc 中常见的词，越靠前出现得越频繁；查询基准测试中的查询词都从这里取
+    static final String[] WORDS = ("the of a to and is this in returns if null element specified java list "
+            + "map string object collection value key method class interface thread set iterator array "
+            + "hash index throws exception int boolean size add remove contains get put equals tree "
+            + "concurrent pool stream linked queue deque builder buffer reader writer file lock atomic "
+            + "comparator comparable serializable cloneable synchronized implementation default abstract "
+            + "capacity load factor entry node modification unsupported operation illegal argument state "
+            + "runtime character sequence charset socket channel selector future executor callable runnable").split(" ");
+
+    private static final String[] PACKAGES = {"java/util/", "java/util/concurrent/", "java/io/", "java/lang/",
+            "java/nio/", "java/net/"};
+
+    private final long seed;
+
+    SyntheticJavadoc(long seed) {
+        this.seed = seed;
+    }
+
+    // 一个页面：标题、线上的 url、html 原文
+    static final class Page {
+        final String title;
+        final String url;
+        final String html;
+
+        Page(String title, String url, String html) {
+            this.title = title;
+            this.url = url;
+            this.html = html;
+        }
+
+        // 去掉标签之后的正文，和制作索引时的正文一样
+        String content() {
+            return new HtmlExtractor().extract(html);
+        }
+    }
+
+    // 第 i 个页面，只和 seed、i 有关，和生成的顺序无关，多个线程可以各自生成不同的页面
+    Page page(int i) {
+        Random random = new Random(seed * 31 + i);
+        String className = className(random) + i;
+        String pkg = PACKAGES[i % PACKAGES.length];
+        int paragraphs = i % HUGE_EVERY == HUGE_EVERY - 1 ? 400 : 4 + random.nextInt(24);
+
+        StringBuilder html = new StringBuilder(paragraphs * 600 + 2048);
+        html.append("<!DOCTYPE HTML PUBLIC \"-//W3C//DTD HTML 4.01 Transitional//EN\">\n<html lang=\"en\">\n<head>\n")
+                .append("<title>").append(className).append(" (Java Platform SE 8 )</title>\n")
+                .append("<script type=\"text/javascript\">\n<!--\n    try {\n        if (location.href.indexOf('is-external=true') == -1) {\n")
+                .append("            parent.document.title=\"").append(className).append(" (Java Platform SE 8 )\";\n        }\n    }\n")
+                .append("    catch(err) {\n    }\n//-->\n</script>\n</head>\n<body>\n")
+                .append("<div class=\"topNav\"><a name=\"navbar.top\">\n<!--   -->\n</a>\n<ul class=\"navList\" title=\"Navigation\">\n")
+                .append("<li><a href=\"../../overview-summary.html\">Overview</a></li>\n<li><a href=\"package-summary.html\">Package</a></li>\n")
+                .append("<li class=\"navBarCell1Rev\">Class</li>\n<li><a href=\"package-tree.html\">Tree</a></li>\n</ul>\n</div>\n")
+                .append("<div class=\"header\">\n<div class=\"subTitle\">").append(pkg.replace('/', '.')).append("</div>\n")
+                .append("<h2 title=\"Class ").append(className).append("\" class=\"title\">Class ").append(className).append("&lt;E&gt;</h2>\n</div>\n")
+                .append("<div class=\"contentContainer\">\n<div class=\"description\">\n");
+        for (int p = 0; p < paragraphs; p++) {
+            html.append("<div class=\"block\">");
+            sentence(html, random, 20 + random.nextInt(60));
+            html.append("</div>\n");
+            if (p % 4 == 3) {
+                html.append("<pre>   List&lt;String&gt; list = Collections.synchronizedList(new ArrayList&lt;&gt;());\n")
+                        .append("   synchronized (list) {\n       Iterator i = list.iterator(); // Must be in synchronized block\n")
+                        .append("       while (i.hasNext())\n           foo(i.next());\n   }</pre>\n");
+            }
+            if (p % 6 == 5) {
+                html.append("<table class=\"memberSummary\" border=\"0\" cellpadding=\"3\" cellspacing=\"0\">\n")
+                        .append("<tr class=\"altColor\">\n<td class=\"colFirst\"><code>boolean</code></td>\n")
+                        .append("<td class=\"colLast\"><code><span class=\"memberNameLink\"><a href=\"#add-E-\">add</a></span>(")
+                        .append("<a href=\"../../java/util/ArrayList.html\" title=\"type parameter in ArrayList\">E</a>&nbsp;e)</code>\n")
+                        .append("<div class=\"block\">");
+                sentence(html, random, 10 + random.nextInt(10));
+                html.append("</div>\n</td>\n</tr>\n</table>\n");
+            }
+        }
+        html.append("</div>\n</div>\n<div class=\"bottomNav\"><ul class=\"navList\"><li>Class</li></ul></div>\n")
+                .append("<p class=\"legalCopy\"><small>Copyright &#x00a9; 1993, 2020, Oracle and/or its affiliates.</small></p>\n")
+                .append("</body>\n</html>\n");
+        return new Page(className, "https://docs.oracle.com/javase/8/docs/api/" + pkg + className + ".html", html.toString());
+    }
+
+    List<Page> pages(int count) {
+        List<Page> pages = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            pages.add(page(i));
+        }
+        return pages;
+    }
+
+    // 把前 count 个页面按照 Javadoc 的目录结构写到 dir 中，返回写出来的文件
+    List<File> writeTo(File dir, int count) throws IOException {
+        List<File> files = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            Page page = page(i);
+            File file = new File(dir, PACKAGES[i % PACKAGES.length] + page.title + ".html");
+            file.getParentFile().mkdirs();
+            Files.write(file.toPath(), page.html.getBytes(StandardCharsets.UTF_8));
+            files.add(file);
+        }
+        return files;
+    }
+
+    private static void sentence(StringBuilder html, Random random, int words) {
+        for (int w = 0; w < words; w++) {
+            if (w > 0) {
+                html.append(' ');
+            }
+            String word = word(random);
+            if (w == 0) {
+                html.append(Character.toUpperCase(word.charAt(0))).append(word, 1, word.length());
+            } else if (random.nextInt(12) == 0) {
+                html.append("<code>").append(word).append("</code>");
+            } else {
+                html.append(word);
+            }
+        }
+        html.append('.');
+    }
+
+    // 按照 Zipf 分布抽一个词：下标越小的词被抽到的概率越大
+    private static String word(Random random) {
+        double x = random.nextDouble();
+        return WORDS[(int) (WORDS.length * x * x * x)];
+    }
+
+    private static String className(Random random) {
+        String a = WORDS[30 + random.nextInt(WORDS.length - 30)];
+        String b = WORDS[30 + random.nextInt(WORDS.length - 30)];
+        return Character.toUpperCase(a.charAt(0)) + a.substring(1) + Character.toUpperCase(b.charAt(0)) + b.substring(1);
+    }
+}
@@ -0,0 +1,61 @@
+package com.bite.benchmark;
+
+import com.bite.index.Index;
+import org.ansj.splitWord.analysis.ToAnalysis;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// 分词的开销：ToAnalysis.parse 单独分词，以及 Index.tokenize（分词 + 统计词频 + 记录位置 + 字符位置采样）
+// 两者的差就是制作索引时在分词之外额外做的事情
+// 每次调用处理一个页面，按顺序轮流使用语料中的页面，大页面也会按照它在语料中的比例被测到
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TokenizerBenchmark {
+
+    private static final int PAGES = 200;
+
+    private final Index index = new Index();
+    private List<SyntheticJavadoc.Page> pages;
+    private String[] contents;
+    private int next = 0;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        pages = new SyntheticJavadoc(42).pages(PAGES);
+        contents = new String[PAGES];
+        for (int i = 0; i < PAGES; i++) {
+            contents[i] = pages.get(i).content();
+        }
+        // ansj 第一次分词的时候才加载词典，不要算到第一轮预热里
+        ToAnalysis.parse("warm up");
+    }
+
+    @Benchmark
+    public Object toAnalysis() {
+        int i = next++ % PAGES;
+        return ToAnalysis.parse(contents[i]).getTerms();
+    }
+
+    @Benchmark
+    public Object tokenize() {
+        int i = next++ % PAGES;
+        SyntheticJavadoc.Page page = pages.get(i);
+        return index.tokenize(page.title, page.url, contents[i]);
+    }
+}
@@ -0,0 +1,57 @@
+package com.bite.benchmark;
+
+import com.bite.search.TopKCollector;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// 从全部命中的文档中挑出分数最高的前 k 个，原来是把全部结果整体排序，现在是 TopKCollector 的小根堆
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TopKBenchmark {
+
+    // 命中的文档数，对应一个高频词的倒排拉链长度
+    @Param({"10000", "100000"})
+    public int hits;
+
+    @Param({"10", "100"})
+    public int k;
+
+    private int[] scores;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Random random = new Random(42);
+        scores = new int[hits];
+        for (int i = 0; i < hits; i++) {
+            // 分数集中在低分段，高分的文档很少，和 BM25 的分布类似
+            double x = random.nextDouble();
+            scores[i] = (int) (x * x * x * 100000);
+        }
+    }
+
+    @Benchmark
+    public int[] topK() {
+        TopKCollector collector = new TopKCollector(k);
+        for (int docId = 0; docId < scores.length; docId++) {
+            collector.collect(docId, scores[docId]);
+        }
+        return collector.drainDocIds();
+    }
+}
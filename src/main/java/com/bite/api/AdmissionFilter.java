@@ -0,0 +1,83 @@
+package com.bite.api;
+
+import com.bite.config.FileConfig;
+import com.bite.metrics.Metrics;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// 查询接口的准入控制：同时最多有 FileConfig.maxConcurrentSearches 个查询在求值，其它的排队等待
+// 队列满了（maxQueuedSearches），或者排队超过 queueTimeout 毫秒还没轮到，直接返回 503 和 Retry-After
+// 负载超过处理能力的时候，多出来的请求很快被拒绝，客户端可以稍后重试；已经开始求值的查询不会因为线程太多互相拖慢，
+// 不会所有人一起等到超时。单个查询跑多久由时间预算控制，见 FileConfig.searchTimeout
+// 只管求值的接口，补全、/metrics、/admin 这些很轻的请求不受影响，过载的时候也能看到指标
+@Component
+public class AdmissionFilter extends OncePerRequestFilter {
+
+    private static final Set<String> PATHS = new HashSet<>(Arrays.asList("/searcher", "/shard/search", "/shard/docs"));
+
+    // 公平的信号量，排队的请求按照先来后到拿到许可；不限制的时候为 null
+    private final Semaphore permits = FileConfig.maxConcurrentSearches > 0
+            ? new Semaphore(FileConfig.maxConcurrentSearches, true) : null;
+    // 正在排队的请求数
+    private final AtomicInteger waiting = new AtomicInteger();
+
+    public AdmissionFilter() {
+        if (permits != null) {
+            Metrics.gauge("docsearch_search_inflight", "正在求值的查询数", "",
+                    () -> FileConfig.maxConcurrentSearches - permits.availablePermits());
+            Metrics.gauge("docsearch_search_queued", "排队等待求值的查询数", "", waiting::get);
+        }
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return permits == null || !PATHS.contains(request.getServletPath());
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        if (!acquire()) {
+            Metrics.SEARCH_REJECTED.increment();
+            response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+            response.setHeader("Retry-After", String.valueOf(FileConfig.retryAfter));
+            return;
+        }
+        try {
+            chain.doFilter(request, response);
+        } finally {
+            permits.release();
+        }
+    }
+
+    // 有空闲的许可直接拿走，否则排队等待，返回 false 表示要拒绝这个请求
+    private boolean acquire() {
+        if (permits.tryAcquire()) {
+            return true;
+        }
+        if (waiting.incrementAndGet() > FileConfig.maxQueuedSearches) {
+            waiting.decrementAndGet();
+            return false;
+        }
+        try {
+            return permits.tryAcquire(FileConfig.queueTimeout, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            waiting.decrementAndGet();
+        }
+    }
+}
@@ -1,33 +1,312 @@
 package com.bite.api;
 
+import com.bite.config.FileConfig;
+import com.bite.index.Suggestion;
+import com.bite.metrics.Metrics;
+import com.bite.search.CacheStats;
 import com.bite.search.DocSearcher;
+import com.bite.search.ReloadResult;
 import com.bite.search.Result;
+import com.bite.search.SearchFilter;
+import com.bite.search.SearchResult;
+import com.bite.search.ShardCoordinator;
+import com.bite.search.ShardHits;
+import com.bite.search.ShardStats;
+import com.bite.search.TaggedResult;
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
-
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Collections;
 import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
 
 @RestController
 public class DocSearchController {
 
-   private static DocSearcher docSearcher = new DocSearcher();
+   // 配置了 FileConfig.shards 的时候这个服务是分布式查询的协调节点，不加载本地的索引，docSearcher 为 null
+   private static DocSearcher docSearcher = FileConfig.shards==null?new DocSearcher():null;
+   private static ShardCoordinator coordinator = FileConfig.shards==null?null:new ShardCoordinator(FileConfig.shards);
+
+   static {
+       if(docSearcher!=null){
+           // 用上次保存的热门查询预热结果缓存，关闭服务的时候再把热门查询保存下来
+           docSearcher.warmUpCache();
+           Runtime.getRuntime().addShutdownHook(new Thread(docSearcher::saveQueryLog,"query-log-saver"));
+           // 后台检查 CURRENT，制作出新版本的索引之后不需要重启服务
+           docSearcher.startWatching(FileConfig.reloadInterval);
+       }
+   }
+
+   // 每页最多允许返回的条数，避免一次请求拉取过多的结果
+   private static final int MAX_PAGE_SIZE = 100;
+   // 分片节点一次最多返回多少个命中，协调节点翻到很后面的页的时候也不会让分片返回太多
+   private static final int MAX_SHARD_HITS = 10000;
+   // /searcher 最多能翻到第几个结果（offset + size），再往后的页按照最后一页返回
+   // 求值的时候要挑出前 offset + size 个文档，不限制的话一个 page=30000000 的请求就能让服务分配几个 GB 的堆
+   private static final int MAX_RESULT_DEPTH = MAX_SHARD_HITS;
 
    @Autowired
    private ObjectMapper objectMapper;
 
-    @RequestMapping(value = "/searcher",produces = "application/json;charset=utf-8")
-    public String getResult(@RequestParam("query") String query) throws JsonProcessingException {
+    // 结果用 Jackson 的流式接口直接写到响应的输出流中（见 SearchResult.writeTo），不会先拼出一个完整的字符串
+    // 客户端支持的时候用 gzip 压缩；单机查询时带上 ETag（见 DocSearcher.search），
+    // 浏览器再次发出同样的查询时带着 If-None-Match，索引没有变就直接返回 304，不求值也不返回内容；超时的部分结果不带 ETag
+    // 并发的查询太多的时候，请求在进到这里之前就可能被 AdmissionFilter 拒绝（503）
+    // pkg、kind、module、facets 这几个参数由 Spring 绑定到 filter 上，例如 &pkg=java.util.concurrent&kind=class&facets=true，见 SearchFilter
+    @RequestMapping(value = "/searcher")
+    public void getResult(@RequestParam("query") String query,
+                          @RequestParam(value = "page",defaultValue = "1") int page,
+                          @RequestParam(value = "size",defaultValue = "10") int size,
+                          SearchFilter filter,
+                          HttpServletRequest request, HttpServletResponse response) throws IOException {
+        response.setContentType("application/json;charset=utf-8");
         if(query==null || query.equals("")){
+            return;
+        }
+        long start = Metrics.now();
+
+        // 页码从1开始，对不合法的分页参数进行修正
+        if(page<1){
+            page=1;
+        }
+        if(size<1){
+            size=DocSearcher.DEFAULT_LIMIT;
+        }
+        if(size>MAX_PAGE_SIZE){
+            size=MAX_PAGE_SIZE;
+        }
+        long offset = (long)(page-1)*size;
+        if(offset>MAX_RESULT_DEPTH-size){
+            offset=MAX_RESULT_DEPTH-size;
+        }
+
+        // 分布式查询时各个分片的索引版本各自变化，协调节点不返回 ETag
+        // 单机查询时 ETag 和结果在同一次分词、同一个索引版本上得到，If-None-Match 对上了就不求值，直接返回 304
+        String etag = null;
+        SearchResult searchResult;
+        if(coordinator!=null){
+            searchResult = coordinator.search(query,filter,(int)offset,size);
+        }else{
+            String ifNoneMatch = request.getHeader("If-None-Match");
+            TaggedResult tagged = docSearcher.search(query,filter,(int)offset,size,tag -> matches(ifNoneMatch,tag));
+            etag = tagged.getEtag();
+            if(tagged.getSearchResult()==null){
+                setCacheHeaders(response,etag);
+                response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+                Metrics.SEARCH_REQUEST.since(start);
+                return;
+            }
+            searchResult = tagged.getSearchResult();
+        }
+
+        if(searchResult.isPartial()){
+            // 超时或者有分片失败的结果不完整，不能让浏览器拿着 ETag 一直用下去
+            response.setHeader("Cache-Control","no-store");
+        }else if(etag!=null){
+            setCacheHeaders(response,etag);
+        }
+        long t = Metrics.now();
+        OutputStream out = response.getOutputStream();
+        response.setHeader("Vary","Accept-Encoding");
+        if(FileConfig.gzip && acceptsGzip(request.getHeader("Accept-Encoding"))){
+            response.setHeader("Content-Encoding","gzip");
+            out = new GZIPOutputStream(out,8192);
+        }
+        try(JsonGenerator generator = objectMapper.getFactory().createGenerator(out,JsonEncoding.UTF8)){
+            searchResult.writeTo(generator);
+        }
+        Metrics.SEARCH_SERIALIZE.since(t);
+        Metrics.SEARCH_REQUEST.since(start);
+    }
+
+    // 结果只和索引版本有关，允许缓存，但是每次都要先问一下服务器有没有变
+    private static void setCacheHeaders(HttpServletResponse response,String etag){
+        response.setHeader("Cache-Control","no-cache");
+        response.setHeader("ETag",etag);
+    }
+
+    // If-None-Match 中可能有多个 ETag，用逗号分隔，也可能是 *
+    private static boolean matches(String ifNoneMatch,String etag){
+        if(ifNoneMatch==null){
+            return false;
+        }
+        for(String tag:ifNoneMatch.split(",")){
+            tag = tag.trim();
+            // 比较的时候不区分弱 ETag 和强 ETag（弱比较），有的代理会把强 ETag 改成弱的
+            if(tag.equals("*") || stripWeak(tag).equals(stripWeak(etag))){
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String stripWeak(String tag){
+        return tag.startsWith("W/")?tag.substring(2):tag;
+    }
+
+    // Accept-Encoding 中有 gzip 并且没有 q=0
+    private static boolean acceptsGzip(String acceptEncoding){
+        if(acceptEncoding==null){
+            return false;
+        }
+        for(String coding:acceptEncoding.split(",")){
+            String[] parts = coding.trim().split(";");
+            if(parts[0].trim().equalsIgnoreCase("gzip")){
+                for(int i=1;i<parts.length;i++){
+                    String param = parts[i].trim().replace(" ","");
+                    if(param.startsWith("q=") && param.matches("q=0(\\.0*)?")){
+                        return false;
+                    }
+                }
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // 搜索框的前缀补全，页面在用户输入的时候调用
+    @RequestMapping(value = "/suggest",produces = "application/json;charset=utf-8")
+    public String suggest(@RequestParam("prefix") String prefix,
+                          @RequestParam(value = "limit",defaultValue = "8") int limit) throws JsonProcessingException {
+        // 协调节点没有本地的索引，前缀补全不做分布式
+        List<Suggestion> suggestions = docSearcher==null?Collections.emptyList():docSearcher.suggest(prefix,limit);
+        return objectMapper.writeValueAsString(suggestions);
+    }
+
+    // 手动触发热加载索引，只允许本机调用
+    @RequestMapping(value = "/admin/reload",method = RequestMethod.POST,produces = "application/json;charset=utf-8")
+    public String reload(@RequestParam(value = "force",defaultValue = "false") boolean force,
+                         HttpServletRequest request, HttpServletResponse response) throws JsonProcessingException {
+        if(!isLoopback(request.getRemoteAddr())){
+            response.setStatus(HttpServletResponse.SC_FORBIDDEN);
             return "";
         }
+        if(docSearcher==null){
+            response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+            return "";
+        }
+        ReloadResult reloadResult = docSearcher.reload(force);
+        return objectMapper.writeValueAsString(reloadResult);
+    }
+
+    // 查询结果缓存的命中率等统计信息，只允许本机调用
+    @RequestMapping(value = "/admin/cache",produces = "application/json;charset=utf-8")
+    public String cacheStats(HttpServletRequest request, HttpServletResponse response) throws JsonProcessingException {
+        if(!isLoopback(request.getRemoteAddr())){
+            response.setStatus(HttpServletResponse.SC_FORBIDDEN);
+            return "";
+        }
+        if(docSearcher==null){
+            response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+            return "";
+        }
+        CacheStats cacheStats = docSearcher.getCacheStats();
+        return objectMapper.writeValueAsString(cacheStats);
+    }
+
+    // 分布式查询时协调节点调用：查询词在这个分片中的文档频率和有效文档数，见 ShardStats
+    @RequestMapping(value = "/shard/stats",produces = "application/json;charset=utf-8")
+    public String shardStats(@RequestParam("query") String query,
+                             HttpServletResponse response) throws JsonProcessingException {
+        if(docSearcher==null){
+            response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+            return "";
+        }
+        return objectMapper.writeValueAsString(docSearcher.shardStats(query));
+    }
+
+    // 分布式查询时协调节点调用：这个分片的前 limit 个 (docId, 分数) 和算分用的统计信息，二进制格式见 ShardHits
+    // stats 是协调节点汇总的全局统计信息（ShardStats 的 JSON），带上的时候分片按照全局的 idf 求值
+    @RequestMapping(value = "/shard/search",produces = "application/octet-stream")
+    public byte[] shardSearch(@RequestParam("query") String query,
+                              @RequestParam(value = "limit",defaultValue = "10") int limit,
+                              @RequestParam(value = "stats",required = false) String stats,
+                              SearchFilter filter,
+                              HttpServletResponse response) throws IOException {
+        if(docSearcher==null){
+            response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+            return new byte[0];
+        }
+        ShardStats global = null;
+        if(stats!=null && !stats.isEmpty()){
+            try {
+                global = objectMapper.readValue(stats,ShardStats.class);
+            } catch (JsonProcessingException e) {
+                response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+                return new byte[0];
+            }
+        }
+        ShardHits hits = docSearcher.searchShard(query,filter,Math.min(Math.max(limit,0),MAX_SHARD_HITS),global);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(256+hits.size()*8);
+        hits.writeTo(out);
+        return out.toByteArray();
+    }
+
+    // 分布式查询时协调节点调用：取最终一页中属于这个分片的文档，ids 用逗号分隔，返回的结果和 ids 的顺序一样
+    // 分片在 /shard/search 之后热加载了新的索引时（generation 对不上）返回 409，协调节点把这个分片的结果丢掉
+    @RequestMapping(value = "/shard/docs",produces = "application/json;charset=utf-8")
+    public String shardDocs(@RequestParam("query") String query,
+                            @RequestParam(value = "generation",defaultValue = "") String generation,
+                            @RequestParam("ids") String ids,
+                            HttpServletResponse response) throws JsonProcessingException {
+        if(docSearcher==null){
+            response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+            return "";
+        }
+        String[] parts = ids.isEmpty()?new String[0]:ids.split(",");
+        if(parts.length>MAX_PAGE_SIZE){
+            response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+            return "";
+        }
+        int[] docIds = new int[parts.length];
+        try {
+            for(int i=0;i<parts.length;i++){
+                docIds[i] = Integer.parseInt(parts[i].trim());
+            }
+        } catch (NumberFormatException e) {
+            response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+            return "";
+        }
+        List<Result> results = docSearcher.fetchShardDocs(query,generation,docIds);
+        if(results==null){
+            response.setStatus(HttpServletResponse.SC_CONFLICT);
+            return "";
+        }
+        return objectMapper.writeValueAsString(results);
+    }
+
+    // 查询、制作索引各个阶段的耗时和计数，Prometheus 的文本格式，给 Prometheus 定时抓取
+    // 关闭了统计（-Ddocsearch.metrics=false）的时候返回 404
+    @RequestMapping(value = "/metrics",produces = "text/plain;version=0.0.4;charset=utf-8")
+    public String metrics(HttpServletResponse response) {
+        if(!Metrics.ENABLED){
+            response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+            return "";
+        }
+        return Metrics.scrape();
+    }
 
-        List<Result> list = docSearcher.search(query);
-        return objectMapper.writeValueAsString(list);
+    private static boolean isLoopback(String address){
+        try {
+            return address!=null && InetAddress.getByName(address).isLoopbackAddress();
+        } catch (UnknownHostException e) {
+            return false;
+        }
     }
 
 }
@@ -6,4 +6,109 @@ public class FileConfig {
 
     public static boolean isOnline = true;
 
+    // 多个词查询时的求值方式，可以通过 -Ddocsearch.queryMode=xxx 指定
+    // exhaustive：全量合并所有词的倒排拉链（默认）
+    // wand：WAND 动态剪枝
+    // bmw：Block-Max WAND 动态剪枝
+    public static String queryMode = System.getProperty("docsearch.queryMode","exhaustive");
+
+    // 制作索引时使用的相关性公式，可以通过 -Ddocsearch.similarity=xxx 指定
+    // bm25f：BM25F，标题和正文按各自的长度归一化（默认）
+    // classic：最初的 标题次数*10+正文次数，用于对比
+    // 权重是在制作索引的时候算好的，修改之后需要重新制作索引
+    public static String similarity = System.getProperty("docsearch.similarity","bm25f");
+
+    // 索引目录，默认是线上、线下各自固定的目录，可以通过 -Ddocsearch.indexPath=xxx 指定
+    // 指定了的时候，停用词表和查询日志也从这个目录中读写，基准测试用它把索引建在一个临时目录中，不会覆盖真正的索引
+    public static String indexPath = System.getProperty("docsearch.indexPath");
+
+    // 制作索引时 html 文档的根目录，可以通过 -Ddocsearch.inputPath=xxx 指定
+    public static String inputPath = System.getProperty("docsearch.inputPath","C:/Users/rain7/Desktop/docs/api/");
+
+    // 流水线制作索引时每个阶段的线程数，以及阶段之间队列的容量，都可以通过 -Ddocsearch.xxx 指定
+    // 读文件主要是 IO，去标签和写索引都很快，分词最耗 CPU，所以默认把大部分线程给分词阶段
+    private static final int CORES = Runtime.getRuntime().availableProcessors();
+    public static int readThreads = Integer.getInteger("docsearch.readThreads",2);
+    public static int stripThreads = Integer.getInteger("docsearch.stripThreads",Math.max(CORES/4,1));
+    public static int tokenizeThreads = Integer.getInteger("docsearch.tokenizeThreads",CORES);
+    public static int indexThreads = Integer.getInteger("docsearch.indexThreads",Math.max(CORES/4,1));
+    public static int queueCapacity = Integer.getInteger("docsearch.queueCapacity",256);
+
+    // 增量制作索引之后，已删除的文档占的比例超过这个值就自动合并一次，可以通过 -Ddocsearch.compactRatio=xxx 指定
+    public static double compactRatio = Double.parseDouble(System.getProperty("docsearch.compactRatio","0.2"));
+
+    // 制作索引时是否记录每个词在文档中出现的位置，短语查询（加引号的查询）和邻近度加权要用到
+    // 位置单独保存在 positions.dat 中，不用位置的查询不会读它，可以通过 -Ddocsearch.indexPositions=false 关闭
+    public static boolean indexPositions = Boolean.parseBoolean(System.getProperty("docsearch.indexPositions","true"));
+    // 多个词的查询，前 proximityWindow 个结果按照查询词在文档中的距离重新排序，
+    // 所有查询词紧挨着出现的文档得分乘以 1 + proximityBoost，离得越远加得越少，proximityBoost <= 0 表示不做
+    public static double proximityBoost = Double.parseDouble(System.getProperty("docsearch.proximityBoost","0.3"));
+    public static int proximityWindow = Integer.getInteger("docsearch.proximityWindow",100);
+    // 查询语句中没有写运算符的多个词之间的关系（见 QueryParser）：and 表示都要包含，or 表示包含其中一个就行（以前的行为）
+    public static String defaultOperator = System.getProperty("docsearch.defaultOperator","and");
+
+    // 一个查询最多拆成几个分片（按照 docId 区间）并行求值，也是并行求值的线程池的线程数，<= 1 表示不拆
+    // 只有要扫描的倒排拉链总长度（文档数）达到 shardMinPostings 的查询才会拆开，短的查询拆开反而更慢
+    // 都可以通过 -Ddocsearch.xxx 指定
+    public static int searchShards = Integer.getInteger("docsearch.searchShards",CORES);
+    public static long shardMinPostings = Long.getLong("docsearch.shardMinPostings",50000L);
+
+    // 一次查询的时间预算（毫秒），求值、合并、生成描述的时候检查，超时就返回已经找到的最好的结果并标记 partial，<= 0 表示不限制
+    // 一个查询最多保留多少个查询词（包括短语中的词），多出来的词直接丢掉，例如整段粘贴进来的异常堆栈；
+    // 查询语句超过 maxQueryLength 个字符的部分在分词之前就截掉，分词本身也要花时间
+    // 都可以通过 -Ddocsearch.xxx 指定
+    public static long searchTimeout = Long.getLong("docsearch.searchTimeout",500L);
+    public static int maxQueryTerms = Integer.getInteger("docsearch.maxQueryTerms",32);
+    public static int maxQueryLength = Integer.getInteger("docsearch.maxQueryLength",1000);
+
+    // 准入控制（见 AdmissionFilter）：同时最多有几个查询在求值，其它的排队，队列最多 maxQueuedSearches 个，
+    // 排队超过 queueTimeout 毫秒还没轮到，或者队列满了，直接返回 503 和 Retry-After（秒），而不是让所有的查询一起变慢
+    // maxConcurrentSearches <= 0 表示不限制，都可以通过 -Ddocsearch.xxx 指定
+    public static int maxConcurrentSearches = Integer.getInteger("docsearch.maxConcurrentSearches",CORES*2);
+    public static int maxQueuedSearches = Integer.getInteger("docsearch.maxQueuedSearches",CORES*8);
+    public static long queueTimeout = Long.getLong("docsearch.queueTimeout",200L);
+    public static int retryAfter = Integer.getInteger("docsearch.retryAfter",1);
+
+    // 搜索服务每隔多少毫秒检查一次 CURRENT 文件，发现新版本的索引就在后台加载并替换，<= 0 表示不检查
+    // 不检查的时候也可以通过 POST /admin/reload 手动触发，可以通过 -Ddocsearch.reloadInterval=xxx 指定
+    public static long reloadInterval = Long.getLong("docsearch.reloadInterval",5000L);
+    // 加载新索引时预热的读文件速度（MB/s），限制住 IO 才不会拖慢正在用旧索引查询的请求，<= 0 表示不限速
+    public static long reloadWarmupRate = Long.getLong("docsearch.reloadWarmupRate",64L);
+
+    // 每个索引段缓存最近解压过的多少个正排文档块（见 DocStore），一页结果、合并索引时顺序读文档大多落在同一个块里
+    public static int docBlockCacheSize = Integer.getInteger("docsearch.docBlockCacheSize",32);
+
+    // 返回分面统计（/searcher?facets=true）的时候，每个字段最多返回多少个取值，按照命中的文档数降序
+    public static int facetLimit = Integer.getInteger("docsearch.facetLimit",20);
+
+    // 查询结果缓存最多占用多少内存（MB），<= 0 表示不缓存，可以通过 -Ddocsearch.queryCacheMB=xxx 指定
+    public static long queryCacheMB = Long.getLong("docsearch.queryCacheMB",64L);
+    // 启动的时候从保存的查询日志中取前多少个查询预热缓存，关闭服务的时候也最多保存这么多个热门查询
+    public static int cacheWarmupQueries = Integer.getInteger("docsearch.cacheWarmupQueries",1000);
+
+    // 分布式查询：不为空的时候这个服务是协调节点，不加载本地的索引，把查询分发给各个分片节点再合并结果，见 ShardCoordinator
+    // 分片之间用逗号分隔，同一个分片的多个副本用 | 分隔，每一个都是分片节点上这个服务的根地址，例如：
+    //   -Ddocsearch.shards=http://127.0.0.1:9091/docsearch,http://127.0.0.1:9092/docsearch|http://127.0.0.1:9093/docsearch
+    // 分片节点就是普通的搜索服务，各自加载自己那个分区的索引（制作索引时指定 -Ddocsearch.partition=i/n）
+    public static String shards = System.getProperty("docsearch.shards");
+    // 协调节点等待分片返回的最长时间（毫秒），取前 K 个和取一页内容的时候各自计时，超时的分片不再等待，结果标记为 partial
+    public static long shardTimeout = Long.getLong("docsearch.shardTimeout",1000L);
+    // 请求发出去多少毫秒之后还没有返回，就向这个分片的下一个副本再发一次（对冲请求），哪个先返回用哪个，<= 0 表示不发
+    public static long hedgeDelay = Long.getLong("docsearch.hedgeDelay",100L);
+    // 协调节点是否先向所有分片取一次查询词的文档频率（/shard/stats），再把全局的统计信息带给 /shard/search，
+    // 分片按照全局的 idf 挑自己的前 K 个；关掉的时候少一次往返，但是分片按照自己的 idf 挑前 K 个，合并出来的结果是近似的，见 ShardCoordinator
+    public static boolean shardGlobalStats = Boolean.parseBoolean(System.getProperty("docsearch.shardGlobalStats","true"));
+    // 制作索引时只处理属于这个分区的文件，格式是 i/n（i 从 0 开始），按照文件相对路径的哈希值分区，不指定就处理所有文件
+    public static String partition = System.getProperty("docsearch.partition");
+
+    // 客户端支持的时候（Accept-Encoding: gzip）是否压缩 /searcher 返回的结果，可以通过 -Ddocsearch.gzip=false 关闭，
+    // 例如前面的 nginx 已经做了压缩的时候
+    public static boolean gzip = Boolean.parseBoolean(System.getProperty("docsearch.gzip","true"));
+
+    // 是否统计查询、制作索引各个阶段的耗时和计数（见 Metrics），通过 /metrics 接口导出
+    // 关闭之后统计的代码会被 JIT 优化掉，可以通过 -Ddocsearch.metrics=false 关闭
+    public static boolean metrics = Boolean.parseBoolean(System.getProperty("docsearch.metrics","true"));
+    // 制作索引的进程结束时把指标写到这个文件中（Prometheus 文本格式），不指定就不写，可以通过 -Ddocsearch.metricsFile=xxx 指定
+    public static String metricsFile = System.getProperty("docsearch.metricsFile");
+
 }
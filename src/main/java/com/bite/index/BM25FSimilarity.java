@@ -0,0 +1,63 @@
+package com.bite.index;
+
+// BM25F 相关性公式，把标题和正文两个字段的词频按照各自的长度归一化之后加权合并：
+//   tf' = Σ boost_f * tf_f / (1 - b_f + b_f * len_f / avgLen_f)
+//   score = idf * tf' * (k1 + 1) / (k1 + tf')
+//   idf = ln(1 + (N - df + 0.5) / (df + 0.5))
+// 长文档的词频会被它的长度 "稀释"，不会再因为页面长就排到前面
+//
+// score 的上限是 idf(df=1) * (k1 + 1)，按这个上限把分数线性量化到 [1, MAX_IMPACT] 的整数，
+// MAX_IMPACT 不超过 2 个字节的 varint，倒排拉链中的权重仍然很紧凑
+public class BM25FSimilarity implements Similarity {
+
+    public static final String NAME = "bm25f";
+
+    // 量化之后的最大权重，2^14-1 正好用 2 个字节的 varint 保存
+    static final int MAX_IMPACT = 16383;
+
+    private final double k1;
+    private final double titleBoost;
+    private final double titleB;
+    private final double contentB;
+
+    public BM25FSimilarity() {
+        this(1.2, 5.0, 0.3, 0.75);
+    }
+
+    public BM25FSimilarity(double k1, double titleBoost, double titleB, double contentB) {
+        this.k1 = k1;
+        this.titleBoost = titleBoost;
+        this.titleB = titleB;
+        this.contentB = contentB;
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    // idf 和最大的 idf（df = 1 的时候）的比值，量化之后的权重正比于它（见 termScorer 中的 scale）
+    // 分布式查询时，协调节点用它把各个分片按照自己的统计信息算出来的权重换算到全局的统计信息上，见 ShardCoordinator
+    public static double relativeIdf(long docFreq, long docCount) {
+        long n = Math.max(docCount, 1);
+        double maxIdf = Math.log(1 + (n - 1 + 0.5) / 1.5);
+        return maxIdf > 0 ? Math.log(1 + (n - docFreq + 0.5) / (docFreq + 0.5)) / maxIdf : 0;
+    }
+
+    @Override
+    public TermScorer termScorer(int docFreq, CollectionStats stats) {
+        int n = Math.max(stats.getDocCount(), 1);
+        double idf = Math.log(1 + (n - docFreq + 0.5) / (docFreq + 0.5));
+        double maxScore = Math.log(1 + (n - 1 + 0.5) / 1.5) * (k1 + 1);
+        double scale = maxScore > 0 ? MAX_IMPACT / maxScore : 0;
+        double avgTitle = Math.max(stats.getAvgTitleLength(), 1);
+        double avgContent = Math.max(stats.getAvgContentLength(), 1);
+        return (titleFreq, contentFreq, titleLength, contentLength) -> {
+            double tf = titleBoost * titleFreq / (1 - titleB + titleB * titleLength / avgTitle)
+                    + contentFreq / (1 - contentB + contentB * contentLength / avgContent);
+            double score = idf * tf * (k1 + 1) / (k1 + tf);
+            int impact = (int) Math.round(score * scale);
+            return Math.min(Math.max(impact, 1), MAX_IMPACT);
+        };
+    }
+}
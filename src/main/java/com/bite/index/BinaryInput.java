@@ -0,0 +1,70 @@
+package com.bite.index;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+// 通过这个类从映射到内存的索引文件中读取数据
+// 只使用 ByteBuffer 的绝对位置读取方法，不会修改共享 ByteBuffer 的 position，所以多个线程可以同时读同一个文件
+final class BinaryInput {
+
+    private final ByteBuffer buffer;
+    private int pos;
+
+    BinaryInput(ByteBuffer buffer, int pos) {
+        this.buffer = buffer;
+        this.pos = pos;
+    }
+
+    int position() {
+        return pos;
+    }
+
+    void seek(int pos) {
+        this.pos = pos;
+    }
+
+    void skip(int n) {
+        pos += n;
+    }
+
+    byte readByte() {
+        return buffer.get(pos++);
+    }
+
+    int readInt() {
+        int v = buffer.getInt(pos);
+        pos += 4;
+        return v;
+    }
+
+    long readLong() {
+        long v = buffer.getLong(pos);
+        pos += 8;
+        return v;
+    }
+
+    int readVInt() {
+        byte b = buffer.get(pos++);
+        int v = b & 0x7F;
+        for (int shift = 7; b < 0; shift += 7) {
+            b = buffer.get(pos++);
+            v |= (b & 0x7F) << shift;
+        }
+        return v;
+    }
+
+    byte[] readBytes(int length) {
+        byte[] bytes = new byte[length];
+        // 复制一个视图再做批量读取，共享 buffer 的 position 不受影响
+        ByteBuffer view = buffer.duplicate();
+        view.position(pos);
+        view.get(bytes);
+        pos += length;
+        return bytes;
+    }
+
+    String readString() {
+        int length = readVInt();
+        return new String(readBytes(length), StandardCharsets.UTF_8);
+    }
+}
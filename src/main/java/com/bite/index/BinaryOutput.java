@@ -0,0 +1,113 @@
+package com.bite.index;
+
+import java.io.Closeable;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+
+// 通过这个类往索引文件中写入二进制数据
+// 自己维护一个写缓冲区，写的同时计算 CRC32 校验和并记录当前写到的位置
+final class BinaryOutput implements Closeable {
+
+    private final OutputStream out;
+    private final byte[] buffer = new byte[64 * 1024];
+    private int bufferSize = 0;
+    private final CRC32 crc = new CRC32();
+    // 已经写入的总字节数，也就是下一个字节在文件中的位置
+    private long position = 0;
+
+    BinaryOutput(OutputStream out) {
+        this.out = out;
+    }
+
+    long position() {
+        return position;
+    }
+
+    // 到目前为止写入的所有数据的 CRC32 校验和，调用之前会先把缓冲区中的数据算进去
+    long checksum() throws IOException {
+        flushBuffer();
+        return crc.getValue();
+    }
+
+    void writeByte(int b) throws IOException {
+        if (bufferSize == buffer.length) {
+            flushBuffer();
+        }
+        buffer[bufferSize++] = (byte) b;
+        position++;
+    }
+
+    void writeInt(int v) throws IOException {
+        writeByte(v >>> 24);
+        writeByte(v >>> 16);
+        writeByte(v >>> 8);
+        writeByte(v);
+    }
+
+    void writeLong(long v) throws IOException {
+        writeInt((int) (v >>> 32));
+        writeInt((int) v);
+    }
+
+    // 变长整数：每个字节的低7位保存数据，最高位为1表示后面还有字节
+    // 倒排拉链中的 docId 差值和权重通常都很小，大部分只需要1个字节
+    void writeVInt(int v) throws IOException {
+        while ((v & ~0x7F) != 0) {
+            writeByte((v & 0x7F) | 0x80);
+            v >>>= 7;
+        }
+        writeByte(v);
+    }
+
+    void writeBytes(byte[] bytes, int offset, int length) throws IOException {
+        if (length > buffer.length - bufferSize) {
+            flushBuffer();
+            if (length > buffer.length) {
+                // 数据比缓冲区还大，直接写出去
+                crc.update(bytes, offset, length);
+                out.write(bytes, offset, length);
+                position += length;
+                return;
+            }
+        }
+        System.arraycopy(bytes, offset, buffer, bufferSize, length);
+        bufferSize += length;
+        position += length;
+    }
+
+    void writeBytes(byte[] bytes) throws IOException {
+        writeBytes(bytes, 0, bytes.length);
+    }
+
+    // 写入一个字符串：先写 UTF-8 字节的长度，再写字节内容
+    void writeString(String s) throws IOException {
+        byte[] bytes = s == null ? new byte[0] : s.getBytes(StandardCharsets.UTF_8);
+        writeVInt(bytes.length);
+        writeBytes(bytes);
+    }
+
+    private void flushBuffer() throws IOException {
+        if (bufferSize > 0) {
+            crc.update(buffer, 0, bufferSize);
+            out.write(buffer, 0, bufferSize);
+            bufferSize = 0;
+        }
+    }
+
+    // 关闭的时候要保证数据真正落盘，之后才能进行改名操作
+    @Override
+    public void close() throws IOException {
+        try {
+            flushBuffer();
+            out.flush();
+            if (out instanceof FileOutputStream) {
+                ((FileOutputStream) out).getFD().sync();
+            }
+        } finally {
+            out.close();
+        }
+    }
+}
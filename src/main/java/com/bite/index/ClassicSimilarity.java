@@ -0,0 +1,18 @@
+package com.bite.index;
+
+// 最初的权重公式：weight = 标题中出现的次数*10 + 正文中出现的次数
+// 这个公式会明显偏向 package-tree.html 这种很长的页面，保留下来用于和 BM25F 做对比
+public class ClassicSimilarity implements Similarity {
+
+    public static final String NAME = "classic";
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public TermScorer termScorer(int docFreq, CollectionStats stats) {
+        return (titleFreq, contentFreq, titleLength, contentLength) -> titleFreq * 10 + contentFreq;
+    }
+}
@@ -0,0 +1,23 @@
+package com.bite.index;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+// 整个索引的统计信息，在制作索引的时候算好，计算 BM25F 这种相关性公式时需要用到
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class CollectionStats {
+    private int docCount;// 文档总数
+    private long totalTitleLength;// 所有文档标题的分词个数之和
+    private long totalContentLength;// 所有文档正文的分词个数之和
+
+    public double getAvgTitleLength() {
+        return docCount == 0 ? 0 : (double) totalTitleLength / docCount;
+    }
+
+    public double getAvgContentLength() {
+        return docCount == 0 ? 0 : (double) totalContentLength / docCount;
+    }
+}
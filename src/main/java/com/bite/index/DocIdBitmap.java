@@ -0,0 +1,274 @@
+package com.bite.index;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+// 一组 docId 的压缩位图，分面过滤（见 Facets）使用，和 Roaring Bitmap 的思路一样：
+// docId 按照高 16 位分成若干个容器，每个容器只保存低 16 位，根据容器中的文档个数选择两种存储方式之一：
+// 1、文档不超过 ARRAY_MAX 个的时候用排好序的数组，每个文档 2 个字节，"java.util.concurrent" 这种小的分面值只占几百字节
+// 2、超过的时候用 65536 位的位图，固定 8 KB，"kind=class" 这种大半个索引都是的分面值，每个文档只占 1 位
+// 两种方式在 ARRAY_MAX = 4096 个文档的时候大小一样，所以每个容器总是选择更小的那种
+// 位图是不可变的，多个线程可以同时用 cursor() 遍历
+final class DocIdBitmap {
+
+    private static final int ARRAY_MAX = 4096;
+    private static final int WORDS = 65536 / 64;
+
+    // 每个容器的高 16 位，升序
+    private final int[] keys;
+    // 每个容器的内容，数组容器是 char[]（低 16 位，升序），位图容器是 long[WORDS]
+    private final Object[] containers;
+    private final int cardinality;
+
+    private DocIdBitmap(int[] keys, Object[] containers, int cardinality) {
+        this.keys = keys;
+        this.containers = containers;
+        this.cardinality = cardinality;
+    }
+
+    int cardinality() {
+        return cardinality;
+    }
+
+    boolean contains(int docId) {
+        int i = Arrays.binarySearch(keys, docId >>> 16);
+        if (i < 0) {
+            return false;
+        }
+        Object container = containers[i];
+        int low = docId & 0xFFFF;
+        if (container instanceof char[]) {
+            return Arrays.binarySearch((char[]) container, (char) low) >= 0;
+        }
+        return (((long[]) container)[low >>> 6] & (1L << low)) != 0;
+    }
+
+    // 按照 docId 升序遍历，权重都是 0，这样可以直接和倒排拉链一起放进求交集的匹配器中（见 BooleanScorer）
+    PostingsCursor cursor() {
+        return new Cursor();
+    }
+
+    // 按照 docId 严格递增的顺序添加文档，攒满一个容器就压缩一个
+    static final class Builder {
+        private int[] keys = new int[4];
+        private Object[] containers = new Object[4];
+        private int size = 0;
+        private int cardinality = 0;
+
+        private int key = -1;
+        private char[] buffer = new char[64];
+        private int count = 0;
+        private int last = -1;
+
+        void add(int docId) {
+            if (docId <= last) {
+                throw new IllegalArgumentException("docId 必须严格递增: " + last + " -> " + docId);
+            }
+            last = docId;
+            int high = docId >>> 16;
+            if (high != key) {
+                flush();
+                key = high;
+            }
+            if (count == buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.min(count * 2, 65536));
+            }
+            buffer[count++] = (char) docId;
+        }
+
+        private void flush() {
+            if (count == 0) {
+                return;
+            }
+            Object container;
+            if (count <= ARRAY_MAX) {
+                container = Arrays.copyOf(buffer, count);
+            } else {
+                long[] words = new long[WORDS];
+                for (int i = 0; i < count; i++) {
+                    words[buffer[i] >>> 6] |= 1L << buffer[i];
+                }
+                container = words;
+            }
+            append(key, container, count);
+            count = 0;
+        }
+
+        private void append(int key, Object container, int count) {
+            if (size == keys.length) {
+                keys = Arrays.copyOf(keys, size * 2);
+                containers = Arrays.copyOf(containers, size * 2);
+            }
+            keys[size] = key;
+            containers[size++] = container;
+            cardinality += count;
+        }
+
+        DocIdBitmap build() {
+            flush();
+            return new DocIdBitmap(Arrays.copyOf(keys, size), Arrays.copyOf(containers, size), cardinality);
+        }
+    }
+
+    // 格式：容器个数 + 每个容器的 高 16 位/文档个数 + 内容
+    // 数组容器的内容是低 16 位的差值（varint），位图容器是 WORDS 个 long
+    void write(BinaryOutput out) throws IOException {
+        out.writeVInt(keys.length);
+        for (int i = 0; i < keys.length; i++) {
+            out.writeVInt(keys[i]);
+            Object container = containers[i];
+            if (container instanceof char[]) {
+                char[] values = (char[]) container;
+                out.writeVInt(values.length);
+                int prev = 0;
+                for (char value : values) {
+                    out.writeVInt(value - prev);
+                    prev = value;
+                }
+            } else {
+                long[] words = (long[]) container;
+                int count = 0;
+                for (long word : words) {
+                    count += Long.bitCount(word);
+                }
+                out.writeVInt(count);
+                for (long word : words) {
+                    out.writeLong(word);
+                }
+            }
+        }
+    }
+
+    static DocIdBitmap read(BinaryInput in) {
+        int size = in.readVInt();
+        int[] keys = new int[size];
+        Object[] containers = new Object[size];
+        int cardinality = 0;
+        for (int i = 0; i < size; i++) {
+            keys[i] = in.readVInt();
+            int count = in.readVInt();
+            if (count <= ARRAY_MAX) {
+                char[] values = new char[count];
+                int prev = 0;
+                for (int j = 0; j < count; j++) {
+                    prev += in.readVInt();
+                    values[j] = (char) prev;
+                }
+                containers[i] = values;
+            } else {
+                long[] words = new long[WORDS];
+                for (int j = 0; j < WORDS; j++) {
+                    words[j] = in.readLong();
+                }
+                containers[i] = words;
+            }
+            cardinality += count;
+        }
+        return new DocIdBitmap(keys, containers, cardinality);
+    }
+
+    private final class Cursor extends PostingsCursor {
+        // 当前所在的容器，以及在容器中的位置（数组容器是下标，位图容器是低 16 位）
+        private int container = 0;
+        private int index = -1;
+        private int docId = -1;
+
+        @Override
+        public int docId() {
+            return docId;
+        }
+
+        @Override
+        public int weight() {
+            return 0;
+        }
+
+        @Override
+        public int nextDoc() {
+            if (docId == NO_MORE_DOCS) {
+                return docId;
+            }
+            return advance(docId + 1);
+        }
+
+        @Override
+        public int advance(int target) {
+            if (target <= docId) {
+                return docId;
+            }
+            int high = target >>> 16;
+            // 先跳到高 16 位 >= target 的容器，整个容器都在 target 前面的直接跳过
+            while (container < keys.length && keys[container] < high) {
+                container++;
+                index = -1;
+            }
+            while (container < keys.length) {
+                int low = keys[container] == high ? target & 0xFFFF : 0;
+                int found = next(containers[container], low);
+                if (found >= 0) {
+                    return docId = keys[container] << 16 | found;
+                }
+                container++;
+                index = -1;
+            }
+            return docId = NO_MORE_DOCS;
+        }
+
+        // 容器中第一个 >= low 的低 16 位，没有返回 -1
+        private int next(Object c, int low) {
+            if (c instanceof char[]) {
+                char[] values = (char[]) c;
+                int i = index < 0 ? 0 : index;
+                if (i < values.length && values[i] < low) {
+                    int found = Arrays.binarySearch(values, i, values.length, (char) low);
+                    i = found >= 0 ? found : -found - 1;
+                }
+                if (i >= values.length) {
+                    return -1;
+                }
+                index = i;
+                return values[i];
+            }
+            long[] words = (long[]) c;
+            int w = low >>> 6;
+            long word = words[w] & (-1L << low);
+            while (true) {
+                if (word != 0) {
+                    index = w << 6 | Long.numberOfTrailingZeros(word);
+                    return index;
+                }
+                if (++w == WORDS) {
+                    return -1;
+                }
+                word = words[w];
+            }
+        }
+
+        @Override
+        public int cost() {
+            return cardinality;
+        }
+
+        @Override
+        public int maxWeight() {
+            return 0;
+        }
+
+        // 块就是容器：返回 target 所在的容器能表示的最后一个 docId
+        @Override
+        public int advanceShallow(int target) {
+            int high = target >>> 16;
+            for (int i = container; i < keys.length; i++) {
+                if (keys[i] >= high) {
+                    return keys[i] << 16 | 0xFFFF;
+                }
+            }
+            return NO_MORE_DOCS;
+        }
+
+        @Override
+        public int blockMaxWeight() {
+            return 0;
+        }
+    }
+}
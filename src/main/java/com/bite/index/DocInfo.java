@@ -12,4 +12,11 @@ public class DocInfo {// 与构建正排索引有关的类
     private String title;
     private String url;
     private String content;
+    private int titleLength;// 标题的分词个数，BM25F 按字段长度归一化词频的时候使用
+    private int contentLength;// 正文的分词个数
+    // 正文中第一个词在倒排拉链中的位置（标题的位置在它前面，见 Index.tokenize）
+    private int contentPositionBase;
+    // 正文中每 Index.OFFSET_SAMPLE_INTERVAL 个词采样一个词在正文中的字符位置，生成描述的时候根据词的位置直接定位到正文中的那一段
+    // 没有记录位置（见 FileConfig.indexPositions）的时候为 null
+    private int[] offsetSamples;
 }
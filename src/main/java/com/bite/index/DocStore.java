@@ -0,0 +1,314 @@
+package com.bite.index;
+
+import com.bite.config.FileConfig;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+// 通过这个类读写一个段的正排文档 docs.dat
+// 正文是整个索引中最大的部分，而查询的时候只有当前页的十来个文档才需要正文，所以：
+// 1、正文按照文档的顺序拼起来，每攒够 IndexFormat.DOC_BLOCK_SIZE 字节压缩成一个块（Deflate），
+//    javadoc 的正文重复的内容很多，压缩之后只有原来的几分之一
+// 2、url 只保存相对于公共前缀的部分，公共前缀（例如 https://docs.oracle.com/javase/8/docs/api/）整个文件只存一份
+// 3、标题放在一个去重的标题池中，每个文档只记录标题的编号，package-summary 这种标题在每个包中都有一份
+// 4、读文档的时候只解压它所在的那个块，最近解压过的块放在一个很小的 LRU 缓存中，
+//    同一页的结果、合并索引时按顺序读文档，大多落在同一个块里
+//
+// 文件格式：文件头 + 压缩块 + 标题池 + url 公共前缀 + 每个文档的记录
+//          + 标题偏移量表 + 块偏移量表（块数 + 1 个）+ 每个块解压之后的长度 + 文档偏移量表
+//          + 标题数 + 标题偏移量表的位置 + 块数 + 块偏移量表的位置 + url 公共前缀的位置 + 文档数 + 文档偏移量表的位置
+// 每个文档的记录：标题编号 + url 去掉公共前缀的部分 + 所在的块 + 正文在块中的位置 + 正文的字节数
+//                + 标题的分词个数 + 正文的分词个数 + 正文第一个词的位置 + 字符位置采样的个数 + 每个采样和前一个的差值
+final class DocStore {
+
+    private final ByteBuffer buffer;
+    private final int docCount;
+    private final int docTableStart;
+    private final int titleTableStart;
+    private final int blockTableStart;
+    private final int blockCount;
+    private final String urlBase;
+
+    // 最近解压过的块，key 是块的编号，按照访问顺序排列，只能在持有 blockCache 的锁的时候访问
+    private final BlockCache blockCache;
+
+    private DocStore(ByteBuffer buffer) throws IOException {
+        IndexFormat.checkHeader(buffer, IndexFormat.DOCS_FILE);
+        this.buffer = buffer;
+        int end = buffer.capacity();
+        docCount = buffer.getInt(end - 8);
+        docTableStart = buffer.getInt(end - 4);
+        int urlBaseOffset = buffer.getInt(end - 12);
+        blockTableStart = buffer.getInt(end - 16);
+        blockCount = buffer.getInt(end - 20);
+        titleTableStart = buffer.getInt(end - 24);
+        urlBase = new BinaryInput(buffer, urlBaseOffset).readString();
+        int cacheSize = Math.max(FileConfig.docBlockCacheSize, 1);
+        blockCache = new BlockCache(cacheSize);
+    }
+
+    static DocStore open(File file) throws IOException {
+        return new DocStore(IndexReader.map(file));
+    }
+
+    int docCount() {
+        return docCount;
+    }
+
+    // 根据段内的 docId 读取文档，只解压正文所在的块
+    DocInfo document(int docId) {
+        if (docId < 0 || docId >= docCount) {
+            throw new IndexOutOfBoundsException("docId: " + docId + ", docCount: " + docCount);
+        }
+        BinaryInput in = new BinaryInput(buffer, buffer.getInt(docTableStart + docId * 4));
+        int titleOrd = in.readVInt();
+        String url = in.readString();
+        int block = in.readVInt();
+        int offset = in.readVInt();
+        int length = in.readVInt();
+        DocInfo docInfo = new DocInfo();
+        docInfo.setDocId(docId);
+        docInfo.setTitle(new BinaryInput(buffer, buffer.getInt(titleTableStart + titleOrd * 4)).readString());
+        docInfo.setUrl(urlBase + url);
+        docInfo.setContent(new String(block(block), offset, length, StandardCharsets.UTF_8));
+        docInfo.setTitleLength(in.readVInt());
+        docInfo.setContentLength(in.readVInt());
+        docInfo.setContentPositionBase(in.readVInt());
+        int sampleCount = in.readVInt();
+        if (sampleCount > 0) {
+            int[] samples = new int[sampleCount];
+            int sample = 0;
+            for (int i = 0; i < sampleCount; i++) {
+                sample += in.readVInt();
+                samples[i] = sample;
+            }
+            docInfo.setOffsetSamples(samples);
+        }
+        return docInfo;
+    }
+
+    // 取出第 block 个块解压之后的内容，先查 LRU 缓存
+    // 解压不加锁，两个线程同时解压同一个块只是多做一次，结果是一样的
+    private byte[] block(int block) {
+        synchronized (blockCache) {
+            byte[] cached = blockCache.get(block);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        int start = buffer.getInt(blockTableStart + block * 4);
+        int end = buffer.getInt(blockTableStart + (block + 1) * 4);
+        int length = buffer.getInt(blockTableStart + (blockCount + 1 + block) * 4);
+        byte[] compressed = new BinaryInput(buffer, start).readBytes(end - start);
+        byte[] data = new byte[length];
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(compressed);
+            int n = 0;
+            while (n < length && !inflater.finished()) {
+                int read = inflater.inflate(data, n, length - n);
+                if (read == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                n += read;
+            }
+            if (n != length) {
+                throw new IllegalStateException(IndexFormat.DOCS_FILE + " 第 " + block + " 个块已经损坏");
+            }
+        } catch (DataFormatException e) {
+            throw new IllegalStateException(IndexFormat.DOCS_FILE + " 第 " + block + " 个块已经损坏", e);
+        } finally {
+            inflater.end();
+        }
+        synchronized (blockCache) {
+            blockCache.put(block, data);
+        }
+        return data;
+    }
+
+    // 写正排文件，返回 文件长度/校验和
+    static long[] write(File file, List<DocInfo> forwardIndex) throws IOException {
+        int docCount = forwardIndex.size();
+        String urlBase = urlBase(forwardIndex);
+
+        // 每个文档的记录先在内存中攒好，等压缩块都写完了再写到文件中
+        Map<String, Integer> titleOrds = new HashMap<>();
+        List<String> titles = new ArrayList<>();
+        List<Integer> blockOffsets = new ArrayList<>();
+        List<Integer> blockLengths = new ArrayList<>();
+        ByteArrayOutputStream records = new ByteArrayOutputStream();
+        int[] recordOffsets = new int[docCount];
+        long rawBytes = 0;
+
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        byte[] compressBuffer = new byte[IndexFormat.DOC_BLOCK_SIZE];
+        ByteArrayOutputStream block = new ByteArrayOutputStream(IndexFormat.DOC_BLOCK_SIZE * 2);
+        try (BinaryOutput out = new BinaryOutput(new FileOutputStream(file))) {
+            out.writeInt(IndexFormat.MAGIC);
+            out.writeInt(IndexFormat.VERSION);
+            for (int docId = 0; docId < docCount; docId++) {
+                DocInfo docInfo = forwardIndex.get(docId);
+                String title = docInfo.getTitle() == null ? "" : docInfo.getTitle();
+                Integer titleOrd = titleOrds.get(title);
+                if (titleOrd == null) {
+                    titleOrd = titles.size();
+                    titleOrds.put(title, titleOrd);
+                    titles.add(title);
+                }
+                String url = docInfo.getUrl() == null ? "" : docInfo.getUrl();
+                byte[] content = docInfo.getContent() == null ? new byte[0]
+                        : docInfo.getContent().getBytes(StandardCharsets.UTF_8);
+                rawBytes += content.length;
+                if (block.size() > 0 && content.length >= IndexFormat.DOC_BLOCK_SIZE) {
+                    // 很大的文档单独成块，读它旁边的小文档的时候就不用跟着把它也解压一遍
+                    writeBlock(out, deflater, block, compressBuffer, blockOffsets, blockLengths);
+                }
+
+                recordOffsets[docId] = records.size();
+                putVInt(records, titleOrd);
+                byte[] relativeUrl = url.substring(urlBase.length()).getBytes(StandardCharsets.UTF_8);
+                putVInt(records, relativeUrl.length);
+                records.write(relativeUrl, 0, relativeUrl.length);
+                putVInt(records, blockOffsets.size());
+                putVInt(records, block.size());
+                putVInt(records, content.length);
+                putVInt(records, docInfo.getTitleLength());
+                putVInt(records, docInfo.getContentLength());
+                putVInt(records, docInfo.getContentPositionBase());
+                int[] samples = docInfo.getOffsetSamples();
+                putVInt(records, samples == null ? 0 : samples.length);
+                int prevSample = 0;
+                for (int i = 0; samples != null && i < samples.length; i++) {
+                    putVInt(records, samples[i] - prevSample);
+                    prevSample = samples[i];
+                }
+
+                block.write(content, 0, content.length);
+                if (block.size() >= IndexFormat.DOC_BLOCK_SIZE) {
+                    writeBlock(out, deflater, block, compressBuffer, blockOffsets, blockLengths);
+                }
+            }
+            if (block.size() > 0) {
+                writeBlock(out, deflater, block, compressBuffer, blockOffsets, blockLengths);
+            }
+            long compressedBytes = out.position() - IndexFormat.HEADER_LENGTH;
+
+            int[] titleOffsets = new int[titles.size()];
+            for (int i = 0; i < titles.size(); i++) {
+                titleOffsets[i] = IndexWriter.checkedPosition(out);
+                out.writeString(titles.get(i));
+            }
+            int urlBaseOffset = IndexWriter.checkedPosition(out);
+            out.writeString(urlBase);
+            int recordsStart = IndexWriter.checkedPosition(out);
+            out.writeBytes(records.toByteArray());
+
+            int titleTableStart = IndexWriter.checkedPosition(out);
+            for (int offset : titleOffsets) {
+                out.writeInt(offset);
+            }
+            int blockTableStart = IndexWriter.checkedPosition(out);
+            for (int offset : blockOffsets) {
+                out.writeInt(offset);
+            }
+            // 最后一个块的结束位置，压缩块是紧跟在文件头后面的
+            out.writeInt((int) (IndexFormat.HEADER_LENGTH + compressedBytes));
+            for (int length : blockLengths) {
+                out.writeInt(length);
+            }
+            int docTableStart = IndexWriter.checkedPosition(out);
+            for (int offset : recordOffsets) {
+                out.writeInt(recordsStart + offset);
+            }
+            out.writeInt(titles.size());
+            out.writeInt(titleTableStart);
+            out.writeInt(blockOffsets.size());
+            out.writeInt(blockTableStart);
+            out.writeInt(urlBaseOffset);
+            out.writeInt(docCount);
+            out.writeInt(docTableStart);
+            System.out.printf("正排文档 %s: 正文 %.2f MB 压缩成 %.2f MB（%d 个块），%d 个文档共 %d 个不同的标题，url 公共前缀: %s%n",
+                    IndexFormat.DOCS_FILE, rawBytes / 1048576.0, compressedBytes / 1048576.0, blockOffsets.size(),
+                    docCount, titles.size(), urlBase);
+            return new long[]{out.position(), out.checksum()};
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static void writeBlock(BinaryOutput out, Deflater deflater, ByteArrayOutputStream block, byte[] buffer,
+                                   List<Integer> blockOffsets, List<Integer> blockLengths) throws IOException {
+        blockOffsets.add(IndexWriter.checkedPosition(out));
+        blockLengths.add(block.size());
+        deflater.reset();
+        deflater.setInput(block.toByteArray());
+        deflater.finish();
+        while (!deflater.finished()) {
+            int n = deflater.deflate(buffer);
+            out.writeBytes(buffer, 0, n);
+        }
+        block.reset();
+    }
+
+    // 所有 url 的公共前缀，截到最后一个 '/' 为止，这样剩下的部分是一个完整的相对路径
+    private static String urlBase(List<DocInfo> forwardIndex) {
+        String base = null;
+        for (DocInfo docInfo : forwardIndex) {
+            String url = docInfo.getUrl() == null ? "" : docInfo.getUrl();
+            if (base == null) {
+                base = url;
+                continue;
+            }
+            int length = Math.min(base.length(), url.length());
+            int i = 0;
+            while (i < length && base.charAt(i) == url.charAt(i)) {
+                i++;
+            }
+            base = base.substring(0, i);
+            if (base.isEmpty()) {
+                break;
+            }
+        }
+        if (base == null) {
+            return "";
+        }
+        return base.substring(0, base.lastIndexOf('/') + 1);
+    }
+
+    private static void putVInt(ByteArrayOutputStream out, int v) {
+        while ((v & ~0x7F) != 0) {
+            out.write((v & 0x7F) | 0x80);
+            v >>>= 7;
+        }
+        out.write(v);
+    }
+
+    // 按照访问顺序淘汰的 LRU，超过 capacity 个块之后去掉最久没有访问的
+    private static final class BlockCache extends LinkedHashMap<Integer, byte[]> {
+        private static final long serialVersionUID = 1L;
+
+        private final int capacity;
+
+        BlockCache(int capacity) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, byte[]> eldest) {
+            return size() > capacity;
+        }
+    }
+}
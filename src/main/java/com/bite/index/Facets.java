@@ -0,0 +1,321 @@
+package com.bite.index;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeMap;
+
+// 通过这个类记录每个文档的分面：所在的模块、包，以及页面的类型，查询的时候用来过滤（/searcher 的 pkg=、kind=）和统计
+// 分面都是从 url 的路径（见 Parser.parseUrl）推出来的，例如
+//   java/util/concurrent/ConcurrentHashMap.html        pkg=java.util.concurrent kind=class
+//   java/util/class-use/List.html                      pkg=java.util            kind=class-use
+//   java/util/package-summary.html                     pkg=java.util            kind=package-summary
+//   java.base/java/util/List.html（Java 9 之后的文档）   module=java.base pkg=java.util kind=class
+//   overview-summary.html、index-files/index-1.html   kind=other
+// 每个分面的每个取值保存成一个 docId 的压缩位图（见 DocIdBitmap），每个段一个 facets.dat，制作索引的时候写入
+// 打开一次提交的时候把所有段的位图按照 docBase 拼起来，再从位图中还原出每个文档的取值序号，统计分面的时候直接查数组
+public final class Facets {
+
+    public static final String MODULE = "module";
+    public static final String PACKAGE = "pkg";
+    public static final String KIND = "kind";
+    // 字段的顺序，也是 facets.dat 中的顺序
+    public static final List<String> FIELDS = Collections.unmodifiableList(Arrays.asList(MODULE, PACKAGE, KIND));
+
+    public static final String KIND_CLASS = "class";
+    public static final String KIND_CLASS_USE = "class-use";
+    public static final String KIND_OTHER = "other";
+
+    // 没有任何分面信息（之前版本写的段没有 facets.dat）
+    static final Facets EMPTY = new Facets(0, new String[FIELDS.size()][0], new DocIdBitmap[FIELDS.size()][0]);
+
+    private final int maxDoc;
+    // values[field] 是这个字段的所有取值，按字符串排好序，bitmaps[field][ord] 是取值为 values[field][ord] 的文档
+    private final String[][] values;
+    private final DocIdBitmap[][] bitmaps;
+    // ords[field][docId] 是文档在这个字段上的取值序号，没有取值的是 -1
+    private final int[][] ords;
+
+    private Facets(int maxDoc, String[][] values, DocIdBitmap[][] bitmaps) {
+        this.maxDoc = maxDoc;
+        this.values = values;
+        this.bitmaps = bitmaps;
+        this.ords = new int[values.length][maxDoc];
+        for (int field = 0; field < values.length; field++) {
+            Arrays.fill(ords[field], -1);
+            for (int ord = 0; ord < bitmaps[field].length; ord++) {
+                PostingsCursor cursor = bitmaps[field][ord].cursor();
+                for (int docId = cursor.nextDoc(); docId != PostingsCursor.NO_MORE_DOCS; docId = cursor.nextDoc()) {
+                    ords[field][docId] = ord;
+                }
+            }
+        }
+    }
+
+    // 根据 url 推出文档在每个字段上的取值，顺序和 FIELDS 一样，没有的是 null
+    public static String[] of(String url) {
+        String[] result = new String[FIELDS.size()];
+        String path = apiPath(url);
+        if (path.isEmpty()) {
+            return result;
+        }
+        String[] parts = path.split("/");
+        int start = 0;
+        int end = parts.length - 1;
+        String name = parts[end];
+        if (name.endsWith(".html")) {
+            name = name.substring(0, name.length() - ".html".length());
+        }
+        // Java 9 之后的文档第一层目录是模块名，模块名中带 '.'，包对应的目录名中不会有
+        if (end > 0 && parts[0].indexOf('.') > 0) {
+            result[0] = parts[0];
+            start = 1;
+        }
+        // 包名是前面连续的 合法标识符 目录，后面还有 class-use、doc-files 这种目录的话，页面不是类的文档
+        int packageEnd = start;
+        while (packageEnd < end && isIdentifier(parts[packageEnd])) {
+            packageEnd++;
+        }
+        if (packageEnd > start) {
+            result[1] = String.join(".", Arrays.asList(parts).subList(start, packageEnd));
+        }
+        if (packageEnd < end) {
+            result[2] = packageEnd == end - 1 && parts[packageEnd].equals(KIND_CLASS_USE) ? KIND_CLASS_USE : KIND_OTHER;
+        } else if (name.startsWith("package-")) {
+            // package-summary、package-tree、package-frame、package-use
+            result[2] = name;
+        } else if (result[1] != null && !name.isEmpty() && Character.isUpperCase(name.charAt(0))) {
+            // 类、接口、枚举、注解，内部类是 Map.Entry.html 这种
+            result[2] = KIND_CLASS;
+        } else {
+            result[2] = KIND_OTHER;
+        }
+        return result;
+    }
+
+    // url 中 api/ 后面的部分，例如 https://docs.oracle.com/javase/8/docs/api/java/util/List.html 中的 java/util/List.html
+    // 没有 api/ 的话去掉协议和主机名，再去掉 # 和 ? 后面的部分
+    private static String apiPath(String url) {
+        if (url == null) {
+            return "";
+        }
+        String path = url;
+        int api = path.indexOf("/api/");
+        if (api >= 0) {
+            path = path.substring(api + "/api/".length());
+        } else {
+            int scheme = path.indexOf("://");
+            if (scheme >= 0) {
+                int slash = path.indexOf('/', scheme + 3);
+                path = slash < 0 ? "" : path.substring(slash + 1);
+            }
+        }
+        for (char c : new char[]{'#', '?'}) {
+            int i = path.indexOf(c);
+            if (i >= 0) {
+                path = path.substring(0, i);
+            }
+        }
+        return path;
+    }
+
+    private static boolean isIdentifier(String name) {
+        if (name.isEmpty() || !Character.isJavaIdentifierStart(name.charAt(0))) {
+            return false;
+        }
+        for (int i = 1; i < name.length(); i++) {
+            if (!Character.isJavaIdentifierPart(name.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // 根据正排文档的 url 构建分面，docId 就是文档在 docs 中的下标
+    static Facets build(List<DocInfo> docs) {
+        List<TreeMap<String, DocIdBitmap.Builder>> builders = new ArrayList<>();
+        for (int field = 0; field < FIELDS.size(); field++) {
+            builders.add(new TreeMap<>());
+        }
+        for (int docId = 0; docId < docs.size(); docId++) {
+            String[] facets = of(docs.get(docId).getUrl());
+            for (int field = 0; field < facets.length; field++) {
+                if (facets[field] != null) {
+                    builders.get(field).computeIfAbsent(facets[field], k -> new DocIdBitmap.Builder()).add(docId);
+                }
+            }
+        }
+        String[][] values = new String[FIELDS.size()][];
+        DocIdBitmap[][] bitmaps = new DocIdBitmap[FIELDS.size()][];
+        for (int field = 0; field < FIELDS.size(); field++) {
+            TreeMap<String, DocIdBitmap.Builder> map = builders.get(field);
+            values[field] = map.keySet().toArray(new String[0]);
+            bitmaps[field] = new DocIdBitmap[map.size()];
+            int ord = 0;
+            for (DocIdBitmap.Builder builder : map.values()) {
+                bitmaps[field][ord++] = builder.build();
+            }
+        }
+        return new Facets(docs.size(), values, bitmaps);
+    }
+
+    // 把每个段的分面按照 docBase 拼成整个索引的分面，segments[i] 为 null 的段没有分面信息
+    static Facets merge(Facets[] segments, int[] docBases, int maxDoc) {
+        String[][] values = new String[FIELDS.size()][];
+        DocIdBitmap[][] bitmaps = new DocIdBitmap[FIELDS.size()][];
+        for (int field = 0; field < FIELDS.size(); field++) {
+            TreeMap<String, DocIdBitmap.Builder> map = new TreeMap<>();
+            // 段是按照 docId 的顺序排列的，依次追加就是升序的
+            for (int s = 0; s < segments.length; s++) {
+                if (segments[s] == null) {
+                    continue;
+                }
+                for (int ord = 0; ord < segments[s].values[field].length; ord++) {
+                    DocIdBitmap.Builder builder = map.computeIfAbsent(segments[s].values[field][ord], k -> new DocIdBitmap.Builder());
+                    PostingsCursor cursor = segments[s].bitmaps[field][ord].cursor();
+                    for (int docId = cursor.nextDoc(); docId != PostingsCursor.NO_MORE_DOCS; docId = cursor.nextDoc()) {
+                        builder.add(docBases[s] + docId);
+                    }
+                }
+            }
+            values[field] = map.keySet().toArray(new String[0]);
+            bitmaps[field] = new DocIdBitmap[map.size()];
+            int ord = 0;
+            for (DocIdBitmap.Builder builder : map.values()) {
+                bitmaps[field][ord++] = builder.build();
+            }
+        }
+        return new Facets(maxDoc, values, bitmaps);
+    }
+
+    // facets.dat：文件头 + 字段数 + 每个字段的 名字/取值个数/每个取值的 名字 + 位图 + 校验和，返回文件的 长度/校验和
+    long[] write(File file) throws IOException {
+        try (BinaryOutput out = new BinaryOutput(new FileOutputStream(file))) {
+            out.writeInt(IndexFormat.MAGIC);
+            out.writeInt(IndexFormat.VERSION);
+            out.writeInt(values.length);
+            for (int field = 0; field < values.length; field++) {
+                out.writeString(FIELDS.get(field));
+                out.writeVInt(values[field].length);
+                for (int ord = 0; ord < values[field].length; ord++) {
+                    out.writeString(values[field][ord]);
+                    bitmaps[field][ord].write(out);
+                }
+            }
+            out.writeLong(out.checksum());
+            // meta.dat 中记录的是整个文件的校验和，包括最后这 8 个字节
+            return new long[]{out.position(), out.checksum()};
+        }
+    }
+
+    // 读取一个段的 facets.dat，文件中字段的顺序和 FIELDS 不一样、或者少了字段的时候，按照名字对应起来
+    static Facets read(File file, int maxDoc) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+        IndexFormat.checkHeader(buffer, file.getName());
+        IndexFormat.checkFooter(buffer, file.getName());
+        BinaryInput in = new BinaryInput(buffer, IndexFormat.HEADER_LENGTH);
+        String[][] values = new String[FIELDS.size()][0];
+        DocIdBitmap[][] bitmaps = new DocIdBitmap[FIELDS.size()][0];
+        int fieldCount = in.readInt();
+        for (int i = 0; i < fieldCount; i++) {
+            int field = FIELDS.indexOf(in.readString());
+            int count = in.readVInt();
+            String[] fieldValues = new String[count];
+            DocIdBitmap[] fieldBitmaps = new DocIdBitmap[count];
+            for (int ord = 0; ord < count; ord++) {
+                fieldValues[ord] = in.readString();
+                fieldBitmaps[ord] = DocIdBitmap.read(in);
+            }
+            if (field >= 0) {
+                values[field] = fieldValues;
+                bitmaps[field] = fieldBitmaps;
+            }
+        }
+        return new Facets(maxDoc, values, bitmaps);
+    }
+
+    int maxDoc() {
+        return maxDoc;
+    }
+
+    // 字段的编号，不认识的字段返回 -1
+    public static int field(String name) {
+        return FIELDS.indexOf(name);
+    }
+
+    public int valueCount(int field) {
+        return values[field].length;
+    }
+
+    public String value(int field, int ord) {
+        return values[field][ord];
+    }
+
+    // 包含这个取值的文档个数，包括已经删除的文档
+    public int docCount(int field, int ord) {
+        return bitmaps[field][ord].cardinality();
+    }
+
+    // 文档在这个字段上的取值序号，没有取值返回 -1
+    public int ordinal(int field, int docId) {
+        return docId < maxDoc ? ords[field][docId] : -1;
+    }
+
+    // 和 pattern 匹配的取值序号，升序；pattern 以 * 结尾的时候匹配所有以前面的部分开头的取值，
+    // 例如 java.util* 匹配 java.util、java.util.concurrent、java.util.function 等等
+    public int[] find(int field, String pattern) {
+        String[] fieldValues = values[field];
+        if (!pattern.endsWith("*")) {
+            int ord = Arrays.binarySearch(fieldValues, pattern);
+            return ord >= 0 ? new int[]{ord} : new int[0];
+        }
+        String prefix = pattern.substring(0, pattern.length() - 1);
+        int from = Arrays.binarySearch(fieldValues, prefix);
+        if (from < 0) {
+            from = -from - 1;
+        }
+        int to = from;
+        while (to < fieldValues.length && fieldValues[to].startsWith(prefix)) {
+            to++;
+        }
+        int[] ords = new int[to - from];
+        for (int i = 0; i < ords.length; i++) {
+            ords[i] = from + i;
+        }
+        return ords;
+    }
+
+    // 按照 docId 升序遍历取值为 value(field, ord) 的文档，权重都是 0，已经删除的文档也会遍历到
+    public PostingsCursor cursor(int field, int ord) {
+        return bitmaps[field][ord].cursor();
+    }
+
+    // 取值属于 selected 中任意一个的文档，selected 是空的时候返回 null
+    // 多个取值的时候不逐个合并位图，而是按照每个文档的取值序号扫一遍，现做一个位图，pkg=java.* 这种有上百个取值的也只扫一遍
+    public PostingsCursor cursor(int field, int[] selected) {
+        if (selected.length == 0) {
+            return null;
+        }
+        if (selected.length == 1) {
+            return cursor(field, selected[0]);
+        }
+        boolean[] mask = new boolean[values[field].length];
+        for (int ord : selected) {
+            mask[ord] = true;
+        }
+        DocIdBitmap.Builder builder = new DocIdBitmap.Builder();
+        int[] fieldOrds = this.ords[field];
+        for (int docId = 0; docId < maxDoc; docId++) {
+            if (fieldOrds[docId] >= 0 && mask[fieldOrds[docId]]) {
+                builder.add(docId);
+            }
+        }
+        return builder.build().cursor();
+    }
+}
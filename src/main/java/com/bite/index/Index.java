@@ -3,12 +3,16 @@ package com.bite.index;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.bite.config.FileConfig;
+import com.bite.metrics.Metrics;
 import org.ansj.domain.Term;
 import org.ansj.splitWord.analysis.ToAnalysis;
 
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -21,13 +25,18 @@ public class Index {
     private static String INDEX_PATH = null;
 
     static {
-        if (FileConfig.isOnline) {
+        if (FileConfig.indexPath != null) {
+            INDEX_PATH = FileConfig.indexPath;
+        } else if (FileConfig.isOnline) {
             INDEX_PATH = "/root/javadoc/";
         } else {
             INDEX_PATH = "C:/Users/rain7/Desktop/";
         }
     }
 
+    // 这个索引读写的目录，默认是上面的 INDEX_PATH，测试的时候指定一个临时目录
+    private final String indexPath;
+
     private ObjectMapper objectMapper = new ObjectMapper();
 
     // 使用数组下标表示 docId
@@ -36,42 +45,225 @@ public class Index {
 
     // 使用哈希表表示倒排索引
     // key-->词
-    // value --> 词关联的文章
-    private HashMap<String,ArrayList<Weight>> invertedIndex = new HashMap<>();//倒排索引的数据结构
+    // value --> 词关联的文章，使用基本类型数组保存 (docId, weight)，不再为每个文档创建一个 Weight 对象
+    // 查询时先读这个 volatile 字段，已经合并好了就不用进 freeze 的锁，只有第一次查询（还没有合并）的时候才加锁
+    // freeze、loadJson 中最后才给它赋值，读到不为 null 的时候，正排索引、统计信息这些也都已经是完整的了
+    private volatile HashMap<String,Postings> frozenIndex = null;//倒排索引的数据结构
+
+    // 制作索引的时候，每个线程往自己私有的段（IndexSegment）中加文档，不需要加锁，
+    // 全部加完之后通过 freeze 把所有的段合并成上面的正排、倒排索引
+    private final List<IndexSegment> segments = new ArrayList<>();
+    private final ThreadLocal<IndexSegment> localSegment = new ThreadLocal<>();
+
+    // 从二进制索引文件加载的时候，正排和倒排都直接从映射的文件中读取，不再放到上面两个结构中
+    // 一次提交可能包含多个段以及删除位图，见 IndexCommit
+    private IndexCommit commit = null;
+
+    // 制作索引时使用的相关性公式，见 FileConfig.similarity
+    private Similarity similarity = Similarity.forName(FileConfig.similarity);
+    // 文档总数、标题和正文的总长度，在 freeze 的时候统计出来，保存索引的时候一起写到 meta.dat 中
+    private CollectionStats stats = null;
+    // 每个文档的源文件信息，在 freeze 的时候合并出来，保存索引的时候写到 manifest.dat 中，增量制作索引时使用
+    private List<ManifestEntry> manifest = new ArrayList<>();
+    // 加载旧的 JSON 格式的索引时，根据正排文档的 url 现算出来的分面
+    private Facets jsonFacets = null;
+
+    public Index(){
+        this(INDEX_PATH);
+    }
+
+    public Index(String indexPath){
+        this.indexPath = indexPath;
+    }
 
     // 这个类要提供的方法
     //1、给定一个 docID,在正排索引当中查询文档的详细信息，通过正排索引查询文档数据
     public DocInfo getDocInfo(int docId){
+        if(commit!=null){
+            return commit.document(docId);// 通过偏移量表直接定位，也是o1复杂度
+        }
         return forwardIndex.get(docId); // o1复杂度，查询高效
     }
 
     //2、给定一个词，在倒排索引当中，查询那些文档与这个词相关联
     // 思考这里的返回值，单纯的返回整数的list是否可行呢？不太好
     // 词和文档之间存在一定的相关性，
-    public List<Weight> getInverted(String term){//通过倒排索引得到与查询词相关的一组文档Weight(只需要直到docId)
-        return invertedIndex.get(term); // o1复杂度，查询高效
+    // 返回的是一个游标，按照 docId 升序遍历倒排拉链，遍历过程中不会创建对象，找不到这个词返回 null
+    public PostingsCursor getInverted(String term){//通过倒排索引得到与查询词相关的一组文档(只需要直到docId和权重)
+        if(commit!=null){
+            return commit.postings(term);// 在映射的词典上二分查找，游标直接在映射的文件上解码，已经删除的文档会被跳过
+        }
+        HashMap<String,Postings> frozen = frozenIndex;
+        if(frozen==null){
+            frozen = freeze();
+        }
+        Postings postings = frozen.get(term); // o1复杂度，查询高效
+        return postings==null?null:postings.cursor();
+    }
+
+    // 索引中的文档总数，包括已经删除但是还没有合并掉的文档，也就是 docId 的上限
+    public int getDocCount(){
+        return commit!=null?commit.maxDoc():forwardIndex.size();
+    }
+
+    // 已经删除但是还没有合并掉的文档个数
+    public int getDeletedDocCount(){
+        return commit!=null?commit.deletedDocCount():0;
+    }
+
+    // 文档是否有效（没有被删除）
+    public boolean isLive(int docId){
+        return commit==null || commit.isLive(docId);
+    }
+
+    // 每个文档的模块、包、页面类型，查询时按照它们过滤、统计，见 Facets
+    public Facets getFacets(){
+        if(commit!=null){
+            return commit.facets();
+        }
+        return jsonFacets!=null?jsonFacets:Facets.EMPTY;
+    }
+
+    // 制作索引时使用的相关性公式
+    public String getSimilarityName(){
+        return commit!=null?commit.similarityName():similarity.getName();
+    }
+
+    // 搜索框的前缀补全：以 prefix 开头的、包含它的文档最多的前 count 个词
+    // 只有二进制索引提供补全，JSON 格式的索引返回空的结果
+    public List<Suggestion> suggest(String prefix,int count){
+        if(commit==null){
+            return Collections.emptyList();
+        }
+        return commit.suggest(prefix,count);
+    }
+
+    // 当前加载的索引的清单，key 是源文件的路径，没有清单的话返回空的 Map
+    public Map<String,ManifestEntry> getManifest() throws IOException {
+        Map<String,ManifestEntry> result = new HashMap<>();
+        List<ManifestEntry> entries = commit!=null?commit.readManifest():manifest;
+        for(ManifestEntry entry:entries){
+            result.put(entry.getPath(),entry);
+        }
+        return result;
+    }
+
+    // 构建完成之后，把所有线程的段合并成按 docId 排好序的只读索引
+    // 这个时候所有文档都已经加进来了，合并的时候统计出文档总数、平均长度，再把倒排拉链中的词频换算成权重
+    private synchronized HashMap<String,Postings> freeze(){
+        if(frozenIndex==null){
+            long start = System.currentTimeMillis();
+            List<IndexSegment> toMerge = takeSegments();
+            SegmentMerger merger = new SegmentMerger(toMerge,similarity,Runtime.getRuntime().availableProcessors());
+            forwardIndex = merger.mergeDocs();
+            stats = merger.getStats();
+            manifest = merger.getManifest();
+            HashMap<String,Postings> frozen = merger.mergePostings();
+            frozenIndex = frozen;
+            long end = System.currentTimeMillis();
+            System.out.println("合并 "+toMerge.size()+" 个索引段，文档数: "+forwardIndex.size()
+                    +" 词数: "+frozen.size()+" 消耗时间: "+(end-start)+" ms");
+            return frozen;
+        }
+        return frozenIndex;
+    }
+
+    // 取出所有线程的段准备合并，之后这些段就不能再写了，线程再加文档的时候会创建新的段
+    private List<IndexSegment> takeSegments(){
+        List<IndexSegment> toMerge;
+        synchronized (segments){
+            toMerge = new ArrayList<>(segments);
+            segments.clear();
+        }
+        for(IndexSegment segment:toMerge){
+            segment.merged = true;
+        }
+        return toMerge;
+    }
+
+    // 当前线程私有的段，第一次使用的时候创建并登记下来，合并的时候需要找到所有的段
+    private IndexSegment currentSegment(){
+        IndexSegment segment = localSegment.get();
+        if(segment==null || segment.merged){
+            segment = new IndexSegment();
+            localSegment.set(segment);
+            synchronized (segments){// 每个线程只会走到这里一次
+                segments.add(segment);
+            }
+        }
+        return segment;
     }
 
     //3、往索引当中新增一个文档,用于parser类中parseHTML方法解析完一个html文件之后要构建索引保存到内存的数据结构中
     public void addDoc(String title,String url,String content){
         // 新增文档操作需要同时给正排索引和倒排索引新增信息，将文档的信息构建成正排、倒排保存到内存中
+        // 分成分词统计、写入索引两步，流水线制作索引的时候这两步放在不同的阶段里执行
+        addTokenized(tokenize(title,url,content));
+    }
 
-        // 构建正排索引
-        DocInfo docInfo = buildForword(title,url,content);
+    // 分词统计之后的文档，还没有加入索引，也还没有分配 docId
+    public static class TokenizedDoc{
+        private final DocInfo docInfo;
+        // 用来统计分词在（标题、正文）词频的数据结构,总的出现频数
+        private final HashMap<String,WordCount> wordCounts;
+        private final ManifestEntry source;
 
-        // 构建倒排索引
-        buildInverted(docInfo);
-    }
+        private TokenizedDoc(DocInfo docInfo,HashMap<String,WordCount> wordCounts,ManifestEntry source){
+            this.docInfo = docInfo;
+            this.wordCounts = wordCounts;
+            this.source = source;
+        }
 
-    // 构建倒排索引,这里只是针对一个文档进行构建而已，其实在遍历每个文件的时候都会遍历所有分词构建倒排索引
-    private void buildInverted(DocInfo docInfo) {
+        // 源文件的信息，不是从文件制作的文档（addDoc）为 null
+        public ManifestEntry getSource(){
+            return source;
+        }
+    }
 
-        class WordCount{
-           //表示这个词在标题中出现的次数
-           public int titleCount;
-           //表示这个词在正文中出现的次数
-           public int contentCount;
+    private static class WordCount{
+        //表示这个词在标题中出现的次数
+        public int titleCount;
+        //表示这个词在正文中出现的次数
+        public int contentCount;
+        // 这个词在文档中出现的位置，不记录位置的时候为 null（见 FileConfig.indexPositions）
+        public int[] positions;
+        public int positionCount;
+
+        void addPosition(int position){
+            if(positions==null){
+                positions = new int[4];
+            }else if(positionCount==positions.length){
+                positions = Arrays.copyOf(positions,positionCount*2);
+            }
+            positions[positionCount++] = position;
         }
+    }
+
+    // 记录词的位置时，正文的位置从 标题的词数 + POSITION_GAP 开始，这样短语不会跨过标题和正文匹配上
+    private static final int POSITION_GAP = 100;
+
+    // 正文中每隔多少个词记录一次这个词在正文中的字符位置（见 DocInfo.offsetSamples）
+    // 间隔越小，生成描述的时候要扫描的正文越少，但是正排文件越大
+    public static final int OFFSET_SAMPLE_INTERVAL = 16;
+
+    // 位置只按照非空白的词计数：分词结果中词和词之间的空格也是一个词，不计数的话，
+    // 正文中的 "thread pool" 和查询中的 "thread pool" 两个词的位置都是相邻的；空白的词本身也不记录位置
+    public static boolean isBlank(String word){
+        return word.trim().isEmpty();
+    }
+
+    public TokenizedDoc tokenize(String title,String url,String content){
+        return tokenize(title,url,content,null);
+    }
+
+    // 对一个文档的标题和正文进行分词并统计词频，这一步最耗时，但是不访问索引，可以放在任意线程中执行
+    // source 是文档对应的源文件信息，记录到清单中，增量制作索引时使用，可以为 null
+    public TokenizedDoc tokenize(String title,String url,String content,ManifestEntry source){
+        // 将解析的文档内容构造成一个类
+        DocInfo docInfo = new DocInfo();
+        docInfo.setTitle(title);
+        docInfo.setUrl(url);
+        docInfo.setContent(content);
 
         // 用来统计分词在（标题、正文）词频的数据结构,总的出现频数
         HashMap<String,WordCount> wordCountHashMap = new HashMap<>();
@@ -79,6 +271,9 @@ public class Index {
         //=======================标题频数统计======================
         //1、针对文档标题进行分词
         List<Term> terms = ToAnalysis.parse(docInfo.getTitle()).getTerms();
+        docInfo.setTitleLength(terms.size());// 记录下字段的长度，BM25F 要用到
+        boolean withPositions = FileConfig.indexPositions;
+        int position = 0;
 
         //2、遍历分词结果，统计出每个词出现的次数
        for(Term term:terms){
@@ -88,143 +283,407 @@ public class Index {
 
            // 在标题中出现0次，在正文中也出现0次
           if(wordCount==null){//如果不存在，就创建一个新的键值对，titleCount=1
-              WordCount newWordCnt = new WordCount();
-              newWordCnt.titleCount=1;
-              newWordCnt.contentCount=0;
-              wordCountHashMap.put(word,newWordCnt);
+              wordCount = new WordCount();
+              wordCount.titleCount=1;
+              wordCount.contentCount=0;
+              wordCountHashMap.put(word,wordCount);
           }else{ //如果已经存在，就找到之前的值，对应的titleCount+1
               wordCount.titleCount++;
           }
+          if(withPositions && !isBlank(word)){
+              wordCount.addPosition(position++);
+          }
        }
+       position += POSITION_GAP;
+       docInfo.setContentPositionBase(withPositions?position:0);
 
        //==========================正文频数统计===============================
         //3、针对正文进行分词
         terms = ToAnalysis.parse(docInfo.getContent()).getTerms();
+        docInfo.setContentLength(terms.size());
+        int[] offsetSamples = withPositions?new int[16]:null;
+        int sampleCount = 0;
 
         //4、遍历分词结果，统计每个词出现的次数
         for(Term term:terms){
             String word = term.getName();
             WordCount wordCount = wordCountHashMap.get(word);
             if(wordCount==null){
-                WordCount newWordCount = new WordCount();
-                newWordCount.titleCount=0;
-                newWordCount.contentCount=1;
-                wordCountHashMap.put(word,newWordCount);
+                wordCount = new WordCount();
+                wordCount.titleCount=0;
+                wordCount.contentCount=1;
+                wordCountHashMap.put(word,wordCount);
             }else {
                 wordCount.contentCount+=1;
             }
+            if(withPositions && !isBlank(word)){
+                int index = position-docInfo.getContentPositionBase();
+                if(index%OFFSET_SAMPLE_INTERVAL==0){
+                    if(sampleCount==offsetSamples.length){
+                        offsetSamples = Arrays.copyOf(offsetSamples,sampleCount*2);
+                    }
+                    offsetSamples[sampleCount++] = term.getOffe();
+                }
+                wordCount.addPosition(position++);
+            }
+        }
+        if(withPositions){
+            docInfo.setOffsetSamples(Arrays.copyOf(offsetSamples,sampleCount));
         }
 
         //==========================汇总分词的频数===========================================
 
         //5、把上面的结果汇总到一个 hashMap 当中,此时所有分词的出现频数都放到了 WordCountHashMap 当中
+        return new TokenizedDoc(docInfo,wordCountHashMap,source);
+    }
+
+    // 把分词统计好的文档加入到当前线程的段中
+    public void addTokenized(TokenizedDoc doc){
+        // 多个线程同时调用的时候，每个线程写的都是自己的段，所以这里不需要加锁
+        IndexSegment segment = currentSegment();
+
+        // 构建正排索引
+        buildForword(segment,doc.docInfo,doc.source);
+
+        // 构建倒排索引
+        buildInverted(segment,doc);
+        Metrics.INDEX_DOCS.increment();
+    }
+
+    // 构建倒排索引,这里只是针对一个文档进行构建而已，其实在遍历每个文件的时候都会遍历所有分词构建倒排索引
+    private void buildInverted(IndexSegment segment,TokenizedDoc doc) {
 
-        // 最终文档的权重设定成 weight = 标题中出现的次数*10+ 正文中出现的次数（实际上公式很复杂，这个权重公式是拍脑门拍出来的）
+        // 最初文档的权重设定成 weight = 标题中出现的次数*10+ 正文中出现的次数（这个权重公式是拍脑门拍出来的，会偏向很长的页面）
+        // 现在改成由 Similarity 计算，默认使用 BM25F，但是它需要文档总数、平均长度、文档频率这些全局的统计信息，
+        // 这里还拿不到，所以先只记录原始的词频，等 freeze 的时候再统一换算成权重
 
         //6、遍历hashMap,依次更新倒排索引中的结构
 
         //======================遍历所有分词，查询倒排索引的数据库，倒排拉链插入文档信息==================================================
-        for(Map.Entry<String,WordCount> entry:wordCountHashMap.entrySet()){
-
-            synchronized (invertedIndex) {
-                // 倒排拉链 (一个String的词 后面 跟着一个List   word -> docId1 docId2 docId3)
-                List<Weight> invertedList = invertedIndex.get(entry.getKey());
-
-                if(invertedList==null){//如果为null，那就插入一个新的键值对
-                    ArrayList<Weight> newInvertedList = new ArrayList<>();
-                    // 把新的文档（当前 docInfo）构造成 weight对象，插入进来
-                    Weight weight =  new Weight();
-                    weight.setDocId(docInfo.getDocId());
-                    // 权重计算公式=标题次数*10+正文次数
-                    weight.setWeight(entry.getValue().titleCount*10+entry.getValue().contentCount);
-
-                    newInvertedList.add(weight);
-
-                    invertedIndex.put(entry.getKey(),newInvertedList);
-
-                }else{//如果非空那么就把当前文档，构造出一个weight对象，插入到倒排拉链的后面
-                    Weight weight =  new Weight();
-                    weight.setDocId(docInfo.getDocId());
-                    // 权重计算公式=标题次数*10+正文次数
-                    weight.setWeight(entry.getValue().titleCount*10+entry.getValue().contentCount);
-                    invertedList.add(weight);
-                }
+        // 段是当前线程私有的，所以这里不需要加锁
+        int docId = doc.docInfo.getDocId();
+        for(Map.Entry<String,WordCount> entry:doc.wordCounts.entrySet()){
+
+            // 倒排拉链 (一个String的词 后面 跟着一个List   word -> docId1 docId2 docId3)
+            Postings.Builder invertedList = segment.terms.get(entry.getKey());
+
+            if(invertedList==null){//如果为null，那就插入一个新的键值对
+                invertedList = new Postings.Builder();
+                segment.terms.put(entry.getKey(),invertedList);
+            }
+            // 把当前文档的 (段内 docId, 词频) 追加到倒排拉链的后面，段内的 docId 是递增的，拉链天然有序
+            WordCount wordCount = entry.getValue();
+            int packed = Postings.Builder.packFreqs(wordCount.titleCount,wordCount.contentCount);
+            if(wordCount.positions!=null){
+                invertedList.add(docId,packed,wordCount.positions,wordCount.positionCount);
+            }else{
+                invertedList.add(docId,packed);
             }
         }
 
     }
 
     // 构建正排索引
-    private DocInfo buildForword(String title,String url,String content) {
-        // 将解析的文档内容构造成一个类
-        DocInfo docInfo = new DocInfo();
-        docInfo.setTitle(title);
-        docInfo.setUrl(url);
-        docInfo.setContent(content);
-
-        synchronized (forwardIndex) {
-            // 新加入的docId 放在 forwordIndex 数组的最后，所以id就是数组的长度
-            docInfo.setDocId(forwardIndex.size());
-
-            // 往正排索引中插入文档数据
-            forwardIndex.add(docInfo);
-        }
-        return docInfo;
+    private void buildForword(IndexSegment segment,DocInfo docInfo,ManifestEntry source) {
+        // 新加入的文档放在段的最后，先使用段内的 docId，也就是段内数组的长度
+        // 合并的时候再加上段的起始位置，换算成全局的 docId
+        docInfo.setDocId(segment.docs.size());
+
+        // 往段的正排索引中插入文档数据
+        segment.docs.add(docInfo);
+        segment.sources.add(source);
     }
 
     //4、把内存当中的索引结构保存到磁盘当中
+    // 保存成二进制的索引格式（见 IndexFormat），先写到临时目录，写完后通过原子改名切换过去
     public void save(){
         long start = System.currentTimeMillis();
+        long t = Metrics.now();
         System.out.println("保存索引开始!");
 
-        // 1、先判断索引文件保存的路径是否存在
-        File indexPathFile = new File(INDEX_PATH);
-        if(!indexPathFile.exists()){
-            indexPathFile.mkdirs();
+        try {
+            HashMap<String,Postings> frozen = freeze();
+            File genDir = IndexWriter.write(new File(indexPath),forwardIndex,frozen,similarity.getName(),stats,manifest);
+            System.out.println("索引保存到: "+genDir.getAbsolutePath());
+        } catch (IOException e) {
+            e.printStackTrace();
         }
 
-        // 保存正排索引的信息
-        File forwordIndexFile = new File(INDEX_PATH+"forword.txt");
-        // 保存倒排索引的信息
-        File invertedIndexFile = new File(INDEX_PATH+"inverted.txt");
+        long end = System.currentTimeMillis();
+        System.out.println("保存索引完成!");
+        Metrics.INDEX_SAVE.since(t);
+
+        System.out.println("保存消耗时间为 "+(end-start)+" ms");
+    }
+
+    // 增量保存：在当前加载的索引（load）的基础上，只写入这次新加的文档，不需要重新制作整个索引
+    // deletedPaths 是被删除或者被新版本替换的源文件，它们对应的旧文档在删除位图中标记为删除（墓碑）
+    // touched 是内容没有变、只是修改时间变了的源文件，只需要更新一下清单
+    // 这次新加的文档合并成一个新的段，docId 排在已有的文档后面，和已有的段一起组成一次新的提交
+    public void saveIncremental(Collection<String> deletedPaths,Collection<ManifestEntry> touched){
+        if(commit==null){
+            System.out.println("没有已经存在的二进制索引，执行全量保存");
+            save();
+            return;
+        }
+        long start = System.currentTimeMillis();
+        System.out.println("增量保存索引开始!");
 
         try {
-           // 将内存中的索引信息进行序列化
-            objectMapper.writeValue(forwordIndexFile,forwardIndex);
-            objectMapper.writeValue(invertedIndexFile,invertedIndex);
+            //1、根据清单找到被删除、被替换的文档，标记到删除位图中
+            Map<String,ManifestEntry> entries = getManifest();
+            List<IndexCommit.SegmentRef> refs = commit.copySegmentRefs();
+            int deleted = 0;
+            for(String path:deletedPaths){
+                ManifestEntry entry = entries.remove(path);
+                if(entry==null){
+                    continue;
+                }
+                int segment = commit.segmentOf(entry.getDocId());
+                IndexCommit.SegmentRef ref = refs.get(segment);
+                if(ref.liveDocs==null){
+                    ref.liveDocs = new LiveDocs(ref.docCount);
+                }
+                if(ref.liveDocs.delete(entry.getDocId()-commit.docBase(segment))){
+                    deleted++;
+                }
+            }
+            for(ManifestEntry entry:touched){
+                ManifestEntry old = entries.get(entry.getPath());
+                if(old!=null){
+                    entry.setDocId(old.getDocId());
+                    entries.put(entry.getPath(),entry);
+                }
+            }
+
+            //2、新加的文档合并成一个段，权重按照整个索引的统计信息计算，并且沿用已有索引的相关性公式
+            List<IndexSegment> toMerge = takeSegments();
+            List<DocInfo> newDocs = null;
+            HashMap<String,Postings> newPostings = null;
+            CollectionStats newStats = null;
+            int added = 0;
+            for(IndexSegment segment:toMerge){
+                added += segment.docs.size();
+            }
+            if(added>0){
+                IndexCommit base = commit;
+                SegmentMerger merger = new SegmentMerger(toMerge,Similarity.forName(base.similarityName()),
+                        Runtime.getRuntime().availableProcessors(),base.stats(),base::docFreq);
+                newDocs = merger.mergeDocs();
+                newStats = merger.getStats();
+                newPostings = merger.mergePostings();
+                for(ManifestEntry entry:merger.getManifest()){
+                    entry.setDocId(entry.getDocId()+base.maxDoc());
+                    entries.put(entry.getPath(),entry);
+                }
+            }
+
+            //3、写一次新的提交
+            List<ManifestEntry> list = new ArrayList<>(entries.values());
+            list.sort((a,b)->Integer.compare(a.getDocId(),b.getDocId()));
+            File genDir = IndexWriter.commit(new File(indexPath),newDocs,newPostings,commit.similarityName(),newStats,refs,list);
+            commit = IndexCommit.openCurrent(new File(indexPath));
+            System.out.println("索引保存到: "+genDir.getAbsolutePath()+" 新增文档: "+added+" 删除文档: "+deleted
+                    +" 段数: "+commit.segmentCount()+" 已删除未合并的文档: "+commit.deletedDocCount());
         } catch (IOException e) {
             e.printStackTrace();
         }
 
         long end = System.currentTimeMillis();
-        System.out.println("保存索引完成!");
+        System.out.println("增量保存索引完成! 消耗时间为 "+(end-start)+" ms");
+    }
 
-        System.out.println("保存消耗时间为 "+(end-start)+" ms");
+    // 合并：把当前加载的索引的所有段中有效的文档重新编号，合并成一个段，真正去掉已经删除的文档
+    // 倒排拉链中的权重直接沿用，不需要重新分词，所以很快；
+    // 权重是按照当时的统计信息算的，和全量重新制作相比会有一点点差别，需要完全一致的时候重新全量制作一次即可
+    public void compact(){
+        if(commit==null){
+            System.out.println("没有可以合并的二进制索引");
+            return;
+        }
+        long start = System.currentTimeMillis();
+        System.out.println("合并索引开始! 段数: "+commit.segmentCount()+" 已删除的文档: "+commit.deletedDocCount());
+
+        try {
+            //1、有效的文档按照原来的顺序重新编号
+            int maxDoc = commit.maxDoc();
+            int[] newDocIds = new int[maxDoc];
+            ArrayList<DocInfo> docs = new ArrayList<>(commit.liveDocCount());
+            long totalTitleLength = 0;
+            long totalContentLength = 0;
+            for(int docId=0;docId<maxDoc;docId++){
+                if(!commit.isLive(docId)){
+                    newDocIds[docId] = -1;
+                    continue;
+                }
+                DocInfo docInfo = commit.document(docId);
+                newDocIds[docId] = docs.size();
+                docInfo.setDocId(docs.size());
+                docs.add(docInfo);
+                totalTitleLength += docInfo.getTitleLength();
+                totalContentLength += docInfo.getContentLength();
+            }
+
+            //2、按段的顺序把每个词的倒排拉链拼起来，跳过已经删除的文档
+            HashMap<String,Postings.Builder> builders = new HashMap<>();
+            for(int segment=0;segment<commit.segmentCount();segment++){
+                IndexReader segmentReader = commit.reader(segment);
+                int docBase = commit.docBase(segment);
+                for(int ord=0;ord<segmentReader.termCount();ord++){
+                    PostingsCursor cursor = segmentReader.postings(ord);
+                    Postings.Builder builder = null;
+                    for(int docId=cursor.nextDoc();docId!=PostingsCursor.NO_MORE_DOCS;docId=cursor.nextDoc()){
+                        int newDocId = newDocIds[docBase+docId];
+                        if(newDocId<0){
+                            continue;
+                        }
+                        if(builder==null){
+                            builder = builders.computeIfAbsent(segmentReader.term(ord),k->new Postings.Builder());
+                        }
+                        // 位置信息原样保留，位置是文档内部的，和 docId 的编号无关
+                        int[] positions = cursor.positions();
+                        if(positions!=null){
+                            builder.add(newDocId,cursor.weight(),positions,positions.length);
+                        }else{
+                            builder.add(newDocId,cursor.weight());
+                        }
+                    }
+                }
+            }
+            HashMap<String,Postings> postings = new HashMap<>(builders.size()*4/3+1);
+            for(Map.Entry<String,Postings.Builder> entry:builders.entrySet()){
+                postings.put(entry.getKey(),entry.getValue().freeze());
+            }
+
+            //3、清单中的 docId 也换成新的编号
+            List<ManifestEntry> entries = new ArrayList<>();
+            for(ManifestEntry entry:commit.readManifest()){
+                int newDocId = newDocIds[entry.getDocId()];
+                if(newDocId>=0){
+                    entry.setDocId(newDocId);
+                    entries.add(entry);
+                }
+            }
+            entries.sort((a,b)->Integer.compare(a.getDocId(),b.getDocId()));
+
+            File genDir = IndexWriter.commit(new File(indexPath),docs,postings,commit.similarityName(),
+                    new CollectionStats(docs.size(),totalTitleLength,totalContentLength),new ArrayList<>(),entries);
+            commit = IndexCommit.openCurrent(new File(indexPath));
+            System.out.println("索引保存到: "+genDir.getAbsolutePath()+" 文档数: "+docs.size());
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
+        long end = System.currentTimeMillis();
+        System.out.println("合并索引完成! 消耗时间为 "+(end-start)+" ms");
     }
 
     //5、把文件中的索引数据加载到内存当中
+    // 优先加载二进制索引，只需要把文件映射到内存中，不需要解析；没有的话再加载旧的 JSON 格式的索引
     public void load(){
         long start = System.currentTimeMillis();
+        long t = Metrics.now();
         System.out.println("加载索引开始!");
 
+        try {
+            commit = IndexCommit.openCurrent(new File(indexPath));
+            if(commit==null){
+                System.out.println("没有找到二进制索引，加载 JSON 格式的索引，可以通过 IndexConverter 转换成二进制格式");
+                loadJson();
+            }else{
+                System.out.println("加载二进制索引: "+commit.getDir().getAbsolutePath()+" 段数: "+commit.segmentCount()
+                        +" 文档数: "+commit.liveDocCount()+" 已删除: "+commit.deletedDocCount()
+                        +" 相关性公式: "+commit.similarityName());
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
+        long end = System.currentTimeMillis();
+        System.out.println("加载索引结束!");
+        Metrics.INDEX_LOAD.since(t);
+
+        System.out.println("加载消耗时间为 "+(end-start)+" ms");
+    }
+
+    //6、热加载索引：搜索服务运行的过程中，在后台打开一个新版本的索引，替换掉正在使用的旧索引，见 DocSearcher.reload
+    // 和 load 不同，打开失败的时候直接抛出异常，不会退回 JSON 索引，调用方继续使用旧的索引
+    public static Index openCurrent() throws IOException {
+        IndexCommit commit = IndexCommit.openCurrent(new File(INDEX_PATH));
+        if(commit==null){
+            throw new IOException("没有找到二进制索引: "+INDEX_PATH);
+        }
+        Index index = new Index();
+        index.commit = commit;
+        return index;
+    }
+
+    // CURRENT 文件当前指向的版本目录名，例如 gen_3，没有二进制索引的时候返回 null
+    // 只读一个很小的文件，可以频繁调用，用来判断有没有新版本的索引
+    public static String currentGeneration() throws IOException {
+        File genDir = IndexFormat.currentGeneration(new File(INDEX_PATH));
+        return genDir==null?null:genDir.getName();
+    }
+
+    // 当前加载的索引的版本目录名，加载的是 JSON 索引的时候返回 null
+    public String getGeneration(){
+        return commit!=null?commit.getDir().getName():null;
+    }
+
+    // 预热词典和倒排拉链，bytesPerSecond 限制读文件的速度，<= 0 表示不限速
+    public void warmUp(long bytesPerSecond) throws InterruptedException {
+        if(commit!=null){
+            commit.warmUp(bytesPerSecond);
+        }
+    }
+
+    // 旧版本的索引不再有查询使用之后调用，去掉对映射文件的引用，映射的内存在 GC 的时候释放
+    public void close(){
+        commit = null;
+        forwardIndex = new ArrayList<>();
+        frozenIndex = null;
+        jsonFacets = null;
+    }
+
+    // 加载旧的 JSON 格式的索引文件 forword.txt、inverted.txt
+    public void loadJson(){
         //1、设置加载索引的路径
-        File forwordFile = new File(INDEX_PATH+"forword.txt");
-        File invertedFile = new File(INDEX_PATH+"inverted.txt");
+        File forwordFile = new File(indexPath,"forword.txt");
+        File invertedFile = new File(indexPath,"inverted.txt");
 
         //2、从文件中解析索引数据
         try {
             // 反序列化的时候 需要指定把文件中字符串 转换成什么类型的数据 ，TypeReference<> 通过泛型参数指定实际类型
             forwardIndex = objectMapper.readValue(forwordFile,new TypeReference<ArrayList<DocInfo>>(){});
-            invertedIndex = objectMapper.readValue(invertedFile,new TypeReference<HashMap<String,ArrayList<Weight>>>(){});
+            HashMap<String,ArrayList<Weight>> jsonIndex = objectMapper.readValue(invertedFile,new TypeReference<HashMap<String,ArrayList<Weight>>>(){});
+            // JSON 中的倒排拉链转换成基本类型数组的形式
+            HashMap<String,Postings> frozen = new HashMap<>(jsonIndex.size()*4/3+1);
+            for(Map.Entry<String,ArrayList<Weight>> entry:jsonIndex.entrySet()){
+                Postings.Builder builder = new Postings.Builder();
+                for(Weight weight:entry.getValue()){
+                    builder.add(weight.getDocId(),weight.getWeight());
+                }
+                frozen.put(entry.getKey(),builder.freeze());
+            }
+            synchronized (this){
+                // JSON 索引中保存的是按照旧公式算好的权重，也没有记录字段长度
+                similarity = new ClassicSimilarity();
+                stats = new CollectionStats(forwardIndex.size(),0,0);
+                jsonFacets = Facets.build(forwardIndex);
+                frozenIndex = frozen;
+            }
+            commit = null;
 
         } catch (IOException e) {
             e.printStackTrace();
         }
+    }
 
-        long end = System.currentTimeMillis();
-        System.out.println("加载索引结束!");
-
-        System.out.println("加载消耗时间为 "+(end-start)+" ms");
+    // 校验当前加载的二进制索引文件的校验和
+    public void verify() throws IOException {
+        if(commit!=null){
+            commit.verifyChecksums();
+        }
     }
 
     public static void main(String[] args) {
@@ -0,0 +1,317 @@
+package com.bite.index;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+// 通过这个类打开一次提交（CURRENT 指向的 gen_N 目录），文件格式见 IndexFormat
+// 一次提交由若干个段组成，每个段的 docId 都从 0 开始，按照 segments.dat 中的顺序依次加上前面段的文档数，
+// 就得到整个索引的 docId；被删除的文档记录在删除位图中，查询的时候跳过
+final class IndexCommit {
+
+    private final File dir;
+    private final List<SegmentRef> segmentRefs;
+    private final IndexReader[] readers;
+    // 每个段的第一个文档在整个索引中的 docId，最后多放一个总文档数
+    private final int[] docBases;
+    // 整个索引的删除位图，没有删除任何文档的时候为 null
+    private final LiveDocs liveDocs;
+    private final CollectionStats stats;
+    // 补全词典，之前版本写的提交中没有，为 null
+    private final SuggestDictionary suggestDictionary;
+    // 所有段的分面拼起来的结果，没有 facets.dat 的段中的文档没有任何分面
+    private final Facets facets;
+
+    private IndexCommit(File indexDir, File dir) throws IOException {
+        this.dir = dir;
+        segmentRefs = readSegments(dir);
+        readers = new IndexReader[segmentRefs.size()];
+        docBases = new int[segmentRefs.size() + 1];
+        int deleted = 0;
+        long totalTitleLength = 0;
+        long totalContentLength = 0;
+        for (int i = 0; i < readers.length; i++) {
+            SegmentRef ref = segmentRefs.get(i);
+            readers[i] = IndexReader.open(new File(indexDir, ref.name));
+            if (readers[i].docCount() != ref.docCount) {
+                throw new IOException("段 " + ref.name + " 的文档数和 segments.dat 中记录的不一致");
+            }
+            docBases[i + 1] = docBases[i] + ref.docCount;
+            if (ref.liveDocs != null) {
+                deleted += ref.liveDocs.deletedCount();
+            }
+            totalTitleLength += readers[i].stats().getTotalTitleLength();
+            totalContentLength += readers[i].stats().getTotalContentLength();
+        }
+        stats = new CollectionStats(docBases[readers.length], totalTitleLength, totalContentLength);
+        suggestDictionary = SuggestDictionary.open(dir);
+        facets = mergeFacets();
+
+        if (deleted == 0) {
+            liveDocs = null;
+        } else {
+            liveDocs = new LiveDocs(maxDoc());
+            for (int i = 0; i < readers.length; i++) {
+                if (segmentRefs.get(i).liveDocs != null) {
+                    liveDocs.copyFrom(segmentRefs.get(i).liveDocs, docBases[i]);
+                }
+            }
+        }
+    }
+
+    private Facets mergeFacets() {
+        Facets[] segments = new Facets[readers.length];
+        for (int i = 0; i < readers.length; i++) {
+            segments[i] = readers[i].facets();
+            if (segments[i] == null) {
+                System.out.println("段 " + readers[i].getDir().getName() + " 没有 " + IndexFormat.FACETS_FILE
+                        + "，按照分面过滤的时候不会命中其中的文档，重新制作索引之后就有了");
+            }
+        }
+        // 只有一个段的时候直接用段自己的，不需要再拼一遍
+        if (readers.length == 1 && segments[0] != null) {
+            return segments[0];
+        }
+        return Facets.merge(segments, docBases, maxDoc());
+    }
+
+    // 打开 indexDir 中 CURRENT 指向的提交，没有二进制索引的话返回 null
+    static IndexCommit openCurrent(File indexDir) throws IOException {
+        File genDir = IndexFormat.currentGeneration(indexDir);
+        if (genDir == null) {
+            return null;
+        }
+        return new IndexCommit(indexDir, genDir);
+    }
+
+    // 依次预热每个段以及补全词典，见 IndexReader.warmUp
+    void warmUp(long bytesPerSecond) throws InterruptedException {
+        for (IndexReader reader : readers) {
+            reader.warmUp(bytesPerSecond);
+        }
+        if (suggestDictionary != null) {
+            suggestDictionary.warmUp(bytesPerSecond);
+        }
+    }
+
+    // 以 prefix 开头的文档数最多的前 count 个词，见 SuggestDictionary
+    List<Suggestion> suggest(String prefix, int count) {
+        if (suggestDictionary == null) {
+            return Collections.emptyList();
+        }
+        return suggestDictionary.suggest(prefix, count);
+    }
+
+    File getDir() {
+        return dir;
+    }
+
+    Facets facets() {
+        return facets;
+    }
+
+    // 包括已经删除的文档在内的文档总数，也就是 docId 的上限
+    int maxDoc() {
+        return docBases[readers.length];
+    }
+
+    int liveDocCount() {
+        return maxDoc() - deletedDocCount();
+    }
+
+    int deletedDocCount() {
+        return liveDocs == null ? 0 : liveDocs.deletedCount();
+    }
+
+    boolean isLive(int docId) {
+        return liveDocs == null || liveDocs.isLive(docId);
+    }
+
+    int segmentCount() {
+        return readers.length;
+    }
+
+    // 所有段的统计信息加起来，包括已经删除的文档
+    CollectionStats stats() {
+        return stats;
+    }
+
+    String similarityName() {
+        return readers.length == 0 ? ClassicSimilarity.NAME : readers[0].similarityName();
+    }
+
+    // 打开一个词的倒排拉链游标，找不到这个词返回 null
+    // 只有一个段并且没有删除的时候直接返回段的游标，否则把每个段的游标首尾相接，并跳过已经删除的文档
+    PostingsCursor postings(String term) {
+        if (readers.length == 1 && liveDocs == null) {
+            return readers[0].postings(term);
+        }
+        PostingsCursor[] subs = new PostingsCursor[readers.length];
+        boolean found = false;
+        for (int i = 0; i < readers.length; i++) {
+            subs[i] = readers[i].postings(term);
+            found |= subs[i] != null;
+        }
+        return found ? new MultiPostingsCursor(subs, docBases, liveDocs) : null;
+    }
+
+    // 所有段中包含这个词的文档个数，包括已经删除的文档
+    int docFreq(String term) {
+        int df = 0;
+        for (IndexReader reader : readers) {
+            int ord = reader.findTerm(term);
+            if (ord >= 0) {
+                df += reader.docFreq(ord);
+            }
+        }
+        return df;
+    }
+
+    DocInfo document(int docId) {
+        int segment = segmentOf(docId);
+        DocInfo docInfo = readers[segment].document(docId - docBases[segment]);
+        docInfo.setDocId(docId);
+        return docInfo;
+    }
+
+    // 找到 docId 所在的段
+    int segmentOf(int docId) {
+        if (docId < 0 || docId >= maxDoc()) {
+            throw new IndexOutOfBoundsException("docId: " + docId + ", maxDoc: " + maxDoc());
+        }
+        int low = 0;
+        int high = readers.length - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (docBases[mid] <= docId) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    int docBase(int segment) {
+        return docBases[segment];
+    }
+
+    IndexReader reader(int segment) {
+        return readers[segment];
+    }
+
+    // 这次提交中的段，liveDocs 是复制出来的，可以修改之后用于下一次提交
+    List<SegmentRef> copySegmentRefs() {
+        List<SegmentRef> refs = new ArrayList<>();
+        for (SegmentRef ref : segmentRefs) {
+            refs.add(new SegmentRef(ref.name, ref.docCount, ref.liveDocs == null ? null : ref.liveDocs.copy()));
+        }
+        return refs;
+    }
+
+    List<ManifestEntry> readManifest() throws IOException {
+        return readManifest(dir);
+    }
+
+    void verifyChecksums() throws IOException {
+        for (IndexReader reader : readers) {
+            reader.verifyChecksums();
+        }
+    }
+
+    // 一次提交中的一个段
+    static final class SegmentRef {
+        final String name;
+        final int docCount;
+        // 这个段的删除位图，没有删除的时候为 null
+        LiveDocs liveDocs;
+
+        SegmentRef(String name, int docCount, LiveDocs liveDocs) {
+            this.name = name;
+            this.docCount = docCount;
+            this.liveDocs = liveDocs;
+        }
+
+        String liveDocsFile() {
+            return IndexFormat.LIVEDOCS_PREFIX + name + ".dat";
+        }
+    }
+
+    // segments.dat：文件头 + 段数 + 每个段的 名字/文档数/删除位图文件名（没有则为空字符串） + 校验和
+    static void writeSegments(File dir, List<SegmentRef> refs) throws IOException {
+        for (SegmentRef ref : refs) {
+            if (ref.liveDocs != null && ref.liveDocs.deletedCount() > 0) {
+                ref.liveDocs.write(new File(dir, ref.liveDocsFile()));
+            }
+        }
+        try (BinaryOutput out = new BinaryOutput(new FileOutputStream(new File(dir, IndexFormat.SEGMENTS_FILE)))) {
+            out.writeInt(IndexFormat.MAGIC);
+            out.writeInt(IndexFormat.VERSION);
+            out.writeInt(refs.size());
+            for (SegmentRef ref : refs) {
+                out.writeString(ref.name);
+                out.writeInt(ref.docCount);
+                boolean hasDeletes = ref.liveDocs != null && ref.liveDocs.deletedCount() > 0;
+                out.writeString(hasDeletes ? ref.liveDocsFile() : "");
+            }
+            out.writeLong(out.checksum());
+        }
+    }
+
+    static List<SegmentRef> readSegments(File dir) throws IOException {
+        File file = new File(dir, IndexFormat.SEGMENTS_FILE);
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+        IndexFormat.checkHeader(buffer, IndexFormat.SEGMENTS_FILE);
+        IndexFormat.checkFooter(buffer, IndexFormat.SEGMENTS_FILE);
+        BinaryInput in = new BinaryInput(buffer, IndexFormat.HEADER_LENGTH);
+        int count = in.readInt();
+        List<SegmentRef> refs = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String name = in.readString();
+            int docCount = in.readInt();
+            String liveDocsFile = in.readString();
+            LiveDocs liveDocs = liveDocsFile.isEmpty() ? null : LiveDocs.read(new File(dir, liveDocsFile));
+            refs.add(new SegmentRef(name, docCount, liveDocs));
+        }
+        return refs;
+    }
+
+    // manifest.dat：文件头 + 项数 + 每一项的 路径/大小/修改时间/哈希值/docId + 校验和
+    static void writeManifest(File dir, List<ManifestEntry> manifest) throws IOException {
+        try (BinaryOutput out = new BinaryOutput(new FileOutputStream(new File(dir, IndexFormat.MANIFEST_FILE)))) {
+            out.writeInt(IndexFormat.MAGIC);
+            out.writeInt(IndexFormat.VERSION);
+            out.writeInt(manifest.size());
+            for (ManifestEntry entry : manifest) {
+                out.writeString(entry.getPath());
+                out.writeLong(entry.getSize());
+                out.writeLong(entry.getMtime());
+                out.writeLong(entry.getHash());
+                out.writeInt(entry.getDocId());
+            }
+            out.writeLong(out.checksum());
+        }
+    }
+
+    static List<ManifestEntry> readManifest(File dir) throws IOException {
+        File file = new File(dir, IndexFormat.MANIFEST_FILE);
+        if (!file.exists()) {
+            return Collections.emptyList();
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+        IndexFormat.checkHeader(buffer, IndexFormat.MANIFEST_FILE);
+        IndexFormat.checkFooter(buffer, IndexFormat.MANIFEST_FILE);
+        BinaryInput in = new BinaryInput(buffer, IndexFormat.HEADER_LENGTH);
+        int count = in.readInt();
+        List<ManifestEntry> manifest = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            manifest.add(new ManifestEntry(in.readString(), in.readLong(), in.readLong(), in.readLong(), in.readInt()));
+        }
+        return manifest;
+    }
+}
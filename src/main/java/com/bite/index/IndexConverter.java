@@ -0,0 +1,27 @@
+package com.bite.index;
+
+import java.io.IOException;
+
+// 通过这个类把旧的 JSON 格式的索引（forword.txt、inverted.txt）转换成二进制格式的索引
+// 转换完成后重新打开新的索引，校验一遍所有文件的校验和
+public class IndexConverter {
+
+    public static void main(String[] args) throws IOException {
+        long start = System.currentTimeMillis();
+
+        Index index = new Index();
+        System.out.println("开始加载 JSON 格式的索引!");
+        index.loadJson();
+
+        // 保存成二进制格式
+        index.save();
+
+        // 重新加载二进制索引并校验
+        Index binary = new Index();
+        binary.load();
+        binary.verify();
+
+        long end = System.currentTimeMillis();
+        System.out.println("索引转换完成，校验通过! 消耗时间为 "+(end-start)+" ms");
+    }
+}
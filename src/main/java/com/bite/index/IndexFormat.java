@@ -0,0 +1,133 @@
+package com.bite.index;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.zip.CRC32;
+
+// 通过这个类来描述二进制索引文件的格式，以及读写时共用的一些工具方法
+//
+// 索引目录结构：
+//   INDEX_PATH/CURRENT          当前生效的索引版本目录名，例如 gen_3
+//   INDEX_PATH/gen_3/meta.dat   元信息：文档数、词数、相关性公式、字段总长度、其它文件的长度和 CRC32 校验和
+//   INDEX_PATH/gen_3/terms.dat  按 UTF-8 字节序排好序的词典，可以直接在映射的文件上二分查找
+//   INDEX_PATH/gen_3/postings.dat 倒排拉链，按 docId 升序，每 BLOCK_SIZE 个文档一个块，块内 docId 差值 + varint 压缩
+//   INDEX_PATH/gen_3/positions.dat 每个词在每个文档中出现的位置（可选，见 FileConfig.indexPositions），短语查询使用
+//   INDEX_PATH/gen_3/docs.dat   正排文档，正文分块压缩，url 只存相对路径，标题去重，见 DocStore
+//   INDEX_PATH/gen_3/facets.dat 每个文档的模块、包、页面类型，每个取值一个压缩的 docId 位图，见 Facets
+//   INDEX_PATH/gen_3/segments.dat 这次提交包含哪些段（按 docId 的顺序），以及每个段的删除位图文件
+//   INDEX_PATH/gen_3/livedocs_gen_1.dat 段 gen_1 在这次提交中的删除位图（没有删除的段没有这个文件）
+//   INDEX_PATH/gen_3/manifest.dat 制作索引时的清单：每个源文件的路径、大小、修改时间、哈希值和 docId
+//   INDEX_PATH/gen_3/suggest.dat 这次提交所有段的词典合并之后的前缀压缩词典，搜索框补全使用，见 SuggestDictionary
+//
+// 每个 gen_N 目录既是一次提交，也可以带一个段（meta/terms/postings/docs 四个文件，以及可选的 positions、facets）
+// positions.dat 是可选的，没有它的段依然是合法的索引，只是短语查询退化成普通的 AND 查询
+// facets.dat 也是可选的，之前版本写的段没有它，按照 pkg=、kind= 过滤的时候这些段中的文档都不会命中，重新制作一次索引即可
+// 全量制作索引的提交只有自己这一个段；增量制作索引的提交引用之前的段，再加上自己这个只包含新文档的段，
+// 被删除或者替换的旧文档通过删除位图标记，合并（compact）之后又变回只有一个段
+//
+// 每次保存都写到一个新的 gen_N.tmp 目录中，写完之后改名成 gen_N，最后再原子地替换 CURRENT 文件，
+// 所以读索引的一方要么看到旧的完整索引，要么看到新的完整索引，不会看到写了一半的文件
+final class IndexFormat {
+
+    private IndexFormat() {
+    }
+
+    // 文件头的魔数 "JDOC"
+    static final int MAGIC = 0x4A444F43;
+    // 文件格式的版本号，格式有不兼容的改动时加一
+    // 版本2：词典中增加了每个词的最大权重，倒排拉链的块头中增加了块内的最大权重（WAND 查询使用）
+    // 版本3：元信息中增加了相关性公式的名字和字段总长度，正排文档中增加了标题、正文的分词个数（BM25F 使用）
+    // 版本4：增加了 segments.dat、manifest.dat 以及删除位图，一次提交可以包含多个段
+    // 版本5：docs.dat 改成分块压缩的格式（见 DocStore）
+    // 版本6：正排文档的记录中增加了正文中词的字符位置采样（见 DocInfo.offsetSamples）
+    static final int VERSION = 6;
+
+    static final String CURRENT_FILE = "CURRENT";
+    static final String GEN_PREFIX = "gen_";
+    static final String TMP_SUFFIX = ".tmp";
+
+    static final String META_FILE = "meta.dat";
+    static final String TERMS_FILE = "terms.dat";
+    static final String POSTINGS_FILE = "postings.dat";
+    static final String POSITIONS_FILE = "positions.dat";
+    static final String DOCS_FILE = "docs.dat";
+    static final String SEGMENTS_FILE = "segments.dat";
+    static final String MANIFEST_FILE = "manifest.dat";
+    static final String LIVEDOCS_PREFIX = "livedocs_";
+    static final String SUGGEST_FILE = "suggest.dat";
+    static final String FACETS_FILE = "facets.dat";
+
+    // 倒排拉链中每个块包含的文档个数
+    static final int BLOCK_SIZE = 128;
+
+    // 正排文档中每个压缩块的正文字节数（攒够这么多就压缩成一个块，一个很大的文档单独成块）
+    // 块越大压缩率越高，但是读一个文档要解压的数据也越多
+    static final int DOC_BLOCK_SIZE = 32 * 1024;
+
+    // 文件头的长度：魔数 + 版本号
+    static final int HEADER_LENGTH = 8;
+
+    // 读取 CURRENT 文件，得到当前生效的索引版本目录，不存在的话返回 null
+    static File currentGeneration(File indexDir) throws IOException {
+        File current = new File(indexDir, CURRENT_FILE);
+        if (!current.exists()) {
+            return null;
+        }
+        String name = new String(Files.readAllBytes(current.toPath()), StandardCharsets.UTF_8).trim();
+        File genDir = new File(indexDir, name);
+        if (!genDir.isDirectory()) {
+            throw new IOException("CURRENT 指向的索引目录不存在: " + genDir);
+        }
+        return genDir;
+    }
+
+    // 从目录名 gen_N 中解析出版本号 N，不是版本目录的话返回 -1
+    static long generationOf(String name) {
+        if (!name.startsWith(GEN_PREFIX) || name.endsWith(TMP_SUFFIX)) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(name.substring(GEN_PREFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    static void checkHeader(ByteBuffer buffer, String fileName) throws IOException {
+        if (buffer.capacity() < HEADER_LENGTH || buffer.getInt(0) != MAGIC) {
+            throw new IOException(fileName + " 不是一个合法的索引文件");
+        }
+        int version = buffer.getInt(4);
+        if (version != VERSION) {
+            throw new IOException(fileName + " 的格式版本是 " + version + "，当前只支持版本 " + VERSION);
+        }
+    }
+
+    // 检查文件最后 8 个字节记录的 CRC32 校验和
+    static void checkFooter(ByteBuffer buffer, String fileName) throws IOException {
+        int length = buffer.capacity() - 8;
+        CRC32 crc = new CRC32();
+        ByteBuffer view = buffer.duplicate();
+        view.position(0);
+        view.limit(length);
+        crc.update(view);
+        if (crc.getValue() != buffer.getLong(length)) {
+            throw new IOException(fileName + " 校验和错误");
+        }
+    }
+
+    // 按照 UTF-8 字节序（无符号）比较两个词，这和按 unicode 码点的顺序是一致的
+    static int compareBytes(byte[] a, byte[] b) {
+        int length = Math.min(a.length, b.length);
+        for (int i = 0; i < length; i++) {
+            int diff = (a[i] & 0xFF) - (b[i] & 0xFF);
+            if (diff != 0) {
+                return diff;
+            }
+        }
+        return a.length - b.length;
+    }
+}
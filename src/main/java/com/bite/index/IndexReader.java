@@ -0,0 +1,265 @@
+package com.bite.index;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+// 通过这个类读取一个段的二进制索引文件，文件格式见 IndexFormat
+// 所有的文件都通过 mmap 映射到内存中，打开索引只需要读取几个文件尾，几乎不花时间
+// 数据页由操作系统的 page cache 管理，同一台机器上的多个 JVM 可以共享
+final class IndexReader {
+
+    private final File dir;
+
+    private final ByteBuffer terms;
+    private final ByteBuffer postings;
+    private final DocStore docs;
+    // 位置信息，制作索引的时候没有记录位置的话为 null
+    private final ByteBuffer positions;
+    private final int positionsTableStart;
+    // 分面的位图，之前版本写的段没有 facets.dat，为 null
+    private final Facets facets;
+
+    private final int docCount;
+    private final int termCount;
+    // 偏移量表在文件中的位置
+    private final int termTableStart;
+
+    // meta.dat 中记录的相关性公式和统计信息
+    private final String similarityName;
+    private final CollectionStats stats;
+
+    private IndexReader(File dir) throws IOException {
+        this.dir = dir;
+        ByteBuffer meta = map(new File(dir, IndexFormat.META_FILE));
+        IndexFormat.checkHeader(meta, IndexFormat.META_FILE);
+        BinaryInput metaIn = new BinaryInput(meta, IndexFormat.HEADER_LENGTH);
+        int metaDocCount = metaIn.readInt();
+        metaIn.readInt();// 词数
+        similarityName = metaIn.readString();
+        stats = new CollectionStats(metaDocCount, metaIn.readLong(), metaIn.readLong());
+
+        terms = map(new File(dir, IndexFormat.TERMS_FILE));
+        postings = map(new File(dir, IndexFormat.POSTINGS_FILE));
+        docs = DocStore.open(new File(dir, IndexFormat.DOCS_FILE));
+        IndexFormat.checkHeader(terms, IndexFormat.TERMS_FILE);
+        IndexFormat.checkHeader(postings, IndexFormat.POSTINGS_FILE);
+
+        // 词数、文档数以及偏移量表的位置都记录在文件的最后8个字节
+        termCount = terms.getInt(terms.capacity() - 8);
+        termTableStart = terms.getInt(terms.capacity() - 4);
+        docCount = docs.docCount();
+
+        File positionsFile = new File(dir, IndexFormat.POSITIONS_FILE);
+        if (positionsFile.exists()) {
+            positions = map(positionsFile);
+            IndexFormat.checkHeader(positions, IndexFormat.POSITIONS_FILE);
+            positionsTableStart = positions.getInt(positions.capacity() - 4);
+        } else {
+            positions = null;
+            positionsTableStart = -1;
+        }
+
+        // 位图很小，直接读到堆中
+        File facetsFile = new File(dir, IndexFormat.FACETS_FILE);
+        facets = facetsFile.exists() ? Facets.read(facetsFile, docCount) : null;
+    }
+
+    // 打开一个段，一次提交中有哪些段见 IndexCommit
+    static IndexReader open(File genDir) throws IOException {
+        return new IndexReader(genDir);
+    }
+
+    File getDir() {
+        return dir;
+    }
+
+    int docCount() {
+        return docCount;
+    }
+
+    int termCount() {
+        return termCount;
+    }
+
+    boolean hasPositions() {
+        return positions != null;
+    }
+
+    Facets facets() {
+        return facets;
+    }
+
+    String similarityName() {
+        return similarityName;
+    }
+
+    CollectionStats stats() {
+        return stats;
+    }
+
+    // 在词典中二分查找一个词，返回词的序号，找不到返回 -1
+    // 比较的时候直接读映射的文件，不需要为每个词创建 String
+    int findTerm(String term) {
+        byte[] target = term.getBytes(StandardCharsets.UTF_8);
+        int low = 0;
+        int high = termCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = compareTerm(mid, target);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    private int compareTerm(int ord, byte[] target) {
+        BinaryInput in = new BinaryInput(terms, termOffset(ord));
+        int length = in.readVInt();
+        int start = in.position();
+        int min = Math.min(length, target.length);
+        for (int i = 0; i < min; i++) {
+            int diff = (terms.get(start + i) & 0xFF) - (target[i] & 0xFF);
+            if (diff != 0) {
+                return diff;
+            }
+        }
+        return length - target.length;
+    }
+
+    private int termOffset(int ord) {
+        return terms.getInt(termTableStart + ord * 4);
+    }
+
+    // 取出第 ord 个词
+    String term(int ord) {
+        return new BinaryInput(terms, termOffset(ord)).readString();
+    }
+
+    // 取出第 ord 个词的 UTF-8 字节
+    byte[] termBytes(int ord) {
+        BinaryInput in = new BinaryInput(terms, termOffset(ord));
+        return in.readBytes(in.readVInt());
+    }
+
+    // 包含第 ord 个词的文档个数
+    int docFreq(int ord) {
+        BinaryInput in = new BinaryInput(terms, termOffset(ord));
+        in.skip(in.readVInt());
+        return in.readVInt();
+    }
+
+    // 打开一个词的倒排拉链游标，找不到这个词返回 null
+    PostingsCursor postings(String term) {
+        int ord = findTerm(term);
+        if (ord < 0) {
+            return null;
+        }
+        return postings(ord);
+    }
+
+    // 打开第 ord 个词的倒排拉链游标
+    PostingsCursor postings(int ord) {
+        BinaryInput in = new BinaryInput(terms, termOffset(ord));
+        in.skip(in.readVInt());
+        int df = in.readVInt();
+        int maxWeight = in.readVInt();
+        int postingsOffset = in.readInt();
+        // 位置信息只有游标的 positions() 被调用的时候才会去读
+        int positionsOffset = positions == null ? -1 : positions.getInt(positionsTableStart + ord * 4);
+        return new MappedPostingsCursor(postings, postingsOffset, df, maxWeight, positions, positionsOffset);
+    }
+
+    // 根据 docId 读取正排文档，只解压正文所在的块，见 DocStore
+    DocInfo document(int docId) {
+        return docs.document(docId);
+    }
+
+    // 根据 meta.dat 中记录的长度和 CRC32 校验所有的索引文件，校验失败抛出 IOException
+    // 校验需要把整个文件读一遍，所以默认加载索引的时候不做，由转换工具或者需要的时候显式调用
+    void verifyChecksums() throws IOException {
+        ByteBuffer meta = map(new File(dir, IndexFormat.META_FILE));
+        IndexFormat.checkHeader(meta, IndexFormat.META_FILE);
+        long expectedMetaCrc = meta.getLong(meta.capacity() - 8);
+        if (crc32(meta, meta.capacity() - 8) != expectedMetaCrc) {
+            throw new IOException(IndexFormat.META_FILE + " 校验和错误");
+        }
+        BinaryInput in = new BinaryInput(meta, IndexFormat.HEADER_LENGTH);
+        in.readInt();// 文档数
+        in.readInt();// 词数
+        in.readString();// 相关性公式
+        in.readLong();// 标题总长度
+        in.readLong();// 正文总长度
+        int fileCount = in.readInt();
+        for (int i = 0; i < fileCount; i++) {
+            String name = in.readString();
+            long length = in.readLong();
+            long crc = in.readLong();
+            ByteBuffer buffer = map(new File(dir, name));
+            if (buffer.capacity() != length || crc32(buffer, buffer.capacity()) != crc) {
+                throw new IOException(name + " 校验和错误");
+            }
+        }
+    }
+
+    private static long crc32(ByteBuffer buffer, int length) {
+        CRC32 crc = new CRC32();
+        ByteBuffer view = buffer.duplicate();
+        view.position(0);
+        view.limit(length);
+        crc.update(view);
+        return crc.getValue();
+    }
+
+    // 预热：按页读一遍词典和倒排拉链，让它们进入 page cache，重新加载索引之后的第一批查询就不会因为缺页变慢
+    // 正文很大而且只有结果页才会读到，所以不预热
+    // bytesPerSecond 限制读的速度，避免预热占满磁盘 IO，影响正在用旧索引查询的请求，<= 0 表示不限速
+    void warmUp(long bytesPerSecond) throws InterruptedException {
+        touch(terms, bytesPerSecond);
+        touch(postings, bytesPerSecond);
+    }
+
+    private static final int PAGE_SIZE = 4096;
+    // 每读这么多字节检查一次速度
+    private static final int CHECK_INTERVAL = 1 << 20;
+    // 读到的字节累加到这里，避免 JIT 认为读操作没有用而把它优化掉
+    private static volatile int warmSink;
+
+    static void touch(ByteBuffer buffer, long bytesPerSecond) throws InterruptedException {
+        long start = System.nanoTime();
+        int sum = 0;
+        int capacity = buffer.capacity();
+        for (int position = 0; position < capacity; position += PAGE_SIZE) {
+            sum += buffer.get(position);
+            if (bytesPerSecond > 0 && position % CHECK_INTERVAL == 0) {
+                long expected = position * 1_000_000_000L / bytesPerSecond;
+                long elapsed = System.nanoTime() - start;
+                if (expected > elapsed) {
+                    Thread.sleep((expected - elapsed) / 1_000_000);
+                }
+            }
+        }
+        warmSink += sum;
+    }
+
+    static MappedByteBuffer map(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException(file + " 超过了 2GB 的限制");
+            }
+            // 映射建立之后即使关闭 channel 也依然有效
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package com.bite.index;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+// 制作索引的时候每个线程私有的一段索引，包括自己的正排文档和倒排拉链
+// 一个段只会被一个线程写入，所以往里面加文档不需要任何锁
+// 段内的 docId 从 0 开始编号，合并的时候再加上这个段的起始 docId，得到全局的 docId，
+// 因为同一个段的文档是按顺序加进来的，段内的倒排拉链天然就是按 docId 升序的
+final class IndexSegment {
+
+    // 段内的正排索引，下标就是段内的 docId
+    final ArrayList<DocInfo> docs = new ArrayList<>();
+    // 每个文档对应的源文件信息，和 docs 一一对应，没有的为 null
+    final ArrayList<ManifestEntry> sources = new ArrayList<>();
+    // 段内的倒排索引，倒排拉链中保存的是 Postings.Builder.packFreqs 打包的原始词频
+    final HashMap<String, Postings.Builder> terms = new HashMap<>();
+
+    // 已经被合并过的段不能再写入了
+    boolean merged = false;
+
+    // 合并时使用：按词排好序的词和倒排拉链
+    String[] sortedTerms;
+    Postings.Builder[] sortedPostings;
+    // 这个段在全局 docId 中的起始位置
+    int docBase;
+
+    // 把词按字典序排好，得到一个有序的 run，合并的时候多个段的 run 做多路归并
+    void sortTerms() {
+        sortedTerms = terms.keySet().toArray(new String[0]);
+        Arrays.sort(sortedTerms);
+        sortedPostings = new Postings.Builder[sortedTerms.length];
+        for (int i = 0; i < sortedTerms.length; i++) {
+            sortedPostings[i] = terms.get(sortedTerms[i]);
+        }
+    }
+
+    // 有序的词中第一个 >= term 的位置，term 为 null 表示正无穷
+    int lowerBound(String term) {
+        if (term == null) {
+            return sortedTerms.length;
+        }
+        int pos = Arrays.binarySearch(sortedTerms, term);
+        return pos >= 0 ? pos : -pos - 1;
+    }
+
+    // 从有序的词中均匀地抽取一部分，用来确定并行合并时每个任务负责的词的范围
+    void sample(List<String> samples, int count) {
+        if (sortedTerms.length == 0 || count <= 0) {
+            return;
+        }
+        int step = Math.max(sortedTerms.length / count, 1);
+        for (int i = step / 2; i < sortedTerms.length; i += step) {
+            samples.add(sortedTerms[i]);
+        }
+    }
+}
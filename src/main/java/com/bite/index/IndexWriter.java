@@ -0,0 +1,383 @@
+package com.bite.index;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// 通过这个类把内存中的索引结构写成二进制的索引文件，文件格式见 IndexFormat
+final class IndexWriter {
+
+    private IndexWriter() {
+    }
+
+    // 全量制作索引：把正排、倒排索引写成一个段，作为一次只包含这一个段的新提交
+    // similarityName、stats 是倒排拉链中的权重所使用的相关性公式以及统计信息，记录在元信息文件中
+    // 返回新的版本目录
+    static File write(File indexDir, List<DocInfo> forwardIndex, Map<String, Postings> invertedIndex,
+                      String similarityName, CollectionStats stats, List<ManifestEntry> manifest) throws IOException {
+        return commit(indexDir, forwardIndex, invertedIndex, similarityName, stats,
+                new ArrayList<>(), manifest);
+    }
+
+    // 写一次新的提交：segments 是沿用的之前的段（可以带着新的删除位图），
+    // forwardIndex 不为 null 的时候再把它和 invertedIndex 写成一个新的段，放在 segments 的最后
+    static File commit(File indexDir, List<DocInfo> forwardIndex, Map<String, Postings> invertedIndex,
+                       String similarityName, CollectionStats stats,
+                       List<IndexCommit.SegmentRef> segments, List<ManifestEntry> manifest) throws IOException {
+        if (!indexDir.exists()) {
+            indexDir.mkdirs();
+        }
+
+        //1、先写到临时目录 gen_N.tmp 中
+        long generation = nextGeneration(indexDir);
+        String genName = IndexFormat.GEN_PREFIX + generation;
+        File tmpDir = new File(indexDir, genName + IndexFormat.TMP_SUFFIX);
+        deleteRecursively(tmpDir);
+        if (!tmpDir.mkdirs()) {
+            throw new IOException("创建索引临时目录失败: " + tmpDir);
+        }
+
+        //2、写新的段
+        List<IndexCommit.SegmentRef> refs = new ArrayList<>(segments);
+        if (forwardIndex != null) {
+            writeSegment(tmpDir, forwardIndex, invertedIndex, similarityName, stats);
+            refs.add(new IndexCommit.SegmentRef(genName, forwardIndex.size(), null));
+        }
+
+        //3、写这次提交包含的段、删除位图、清单以及补全词典
+        IndexCommit.writeSegments(tmpDir, refs);
+        IndexCommit.writeManifest(tmpDir, manifest);
+        List<IndexReader> readers = new ArrayList<>(refs.size());
+        for (IndexCommit.SegmentRef ref : refs) {
+            // 新的段这时候还在临时目录中
+            readers.add(IndexReader.open(ref.name.equals(genName) ? tmpDir : new File(indexDir, ref.name)));
+        }
+        SuggestDictionary.write(new File(tmpDir, IndexFormat.SUGGEST_FILE), readers);
+
+        //4、临时目录改名成正式的版本目录，然后原子地替换 CURRENT 文件
+        File previous = IndexFormat.currentGeneration(indexDir);
+        File genDir = new File(indexDir, genName);
+        Files.move(tmpDir.toPath(), genDir.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        File currentTmp = new File(indexDir, IndexFormat.CURRENT_FILE + IndexFormat.TMP_SUFFIX);
+        try (FileOutputStream out = new FileOutputStream(currentTmp)) {
+            out.write(genName.getBytes(StandardCharsets.UTF_8));
+            out.getFD().sync();
+        }
+        Files.move(currentTmp.toPath(), new File(indexDir, IndexFormat.CURRENT_FILE).toPath(),
+                StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+
+        //5、清理掉不再使用的版本，只保留当前提交和上一个提交（上一个提交可能还有正在进行的查询在使用）引用到的目录
+        Set<String> keep = new HashSet<>();
+        keep.add(genName);
+        for (IndexCommit.SegmentRef ref : refs) {
+            keep.add(ref.name);
+        }
+        if (previous != null) {
+            keep.add(previous.getName());
+            try {
+                for (IndexCommit.SegmentRef ref : IndexCommit.readSegments(previous)) {
+                    keep.add(ref.name);
+                }
+            } catch (IOException e) {
+                // 上一个提交读不出来的话，就只保留它自己的目录
+                e.printStackTrace();
+            }
+        }
+        deleteUnreferenced(indexDir, keep);
+        return genDir;
+    }
+
+    // 把一个段的文件写到 dir 中
+    private static void writeSegment(File dir, List<DocInfo> forwardIndex, Map<String, Postings> invertedIndex,
+                                     String similarityName, CollectionStats stats) throws IOException {
+        List<String> fileNames = new ArrayList<>();
+        List<long[]> fileInfos = new ArrayList<>();
+
+        //1、写正排文档
+        long[] docsInfo = DocStore.write(new File(dir, IndexFormat.DOCS_FILE), forwardIndex);
+        fileNames.add(IndexFormat.DOCS_FILE);
+        fileInfos.add(docsInfo);
+
+        //2、写词典以及倒排拉链，记录了位置信息的话再写 positions.dat
+        boolean withPositions = false;
+        for (Postings list : invertedIndex.values()) {
+            if (list.hasPositions()) {
+                withPositions = true;
+                break;
+            }
+        }
+        long[][] termInfos = writeTermsAndPostings(new File(dir, IndexFormat.TERMS_FILE),
+                new File(dir, IndexFormat.POSTINGS_FILE),
+                withPositions ? new File(dir, IndexFormat.POSITIONS_FILE) : null, invertedIndex);
+        fileNames.add(IndexFormat.TERMS_FILE);
+        fileInfos.add(termInfos[0]);
+        fileNames.add(IndexFormat.POSTINGS_FILE);
+        fileInfos.add(termInfos[1]);
+        if (withPositions) {
+            fileNames.add(IndexFormat.POSITIONS_FILE);
+            fileInfos.add(termInfos[2]);
+            // 位置信息带来的索引体积的增加，和 docs.dat 一起算的话正文占了大头，所以也单独和倒排拉链比较一下
+            long total = 0;
+            for (long[] info : fileInfos) {
+                total += info[0];
+            }
+            System.out.printf("位置信息 %s: %.2f MB，占整个段的 %.1f%%，是倒排拉链的 %.1f%%%n",
+                    IndexFormat.POSITIONS_FILE, termInfos[2][0] / 1048576.0,
+                    termInfos[2][0] * 100.0 / total, termInfos[2][0] * 100.0 / termInfos[1][0]);
+        }
+
+        //3、写分面的位图，pkg=、kind= 过滤和分面统计使用，见 Facets
+        fileNames.add(IndexFormat.FACETS_FILE);
+        fileInfos.add(Facets.build(forwardIndex).write(new File(dir, IndexFormat.FACETS_FILE)));
+
+        //4、最后写元信息文件，记录每个文件的长度和校验和
+        writeMeta(new File(dir, IndexFormat.META_FILE), forwardIndex.size(), invertedIndex.size(),
+                similarityName, stats, fileNames, fileInfos);
+    }
+
+    // 词典文件：文件头 + 每个词的记录 + 偏移量表 + 词数 + 偏移量表的位置
+    // 每个词的记录：词的 UTF-8 字节 + 文档频率 + 最大权重 + 倒排拉链在 postings.dat 中的位置
+    // positionsFile 为 null 表示不写位置信息，返回值中依次是词典、倒排拉链、位置信息文件的 长度/校验和
+    private static long[][] writeTermsAndPostings(File termsFile, File postingsFile, File positionsFile,
+                                                  Map<String, Postings> invertedIndex) throws IOException {
+        // 按照 UTF-8 字节序对词进行排序，读的时候才能在映射的文件上直接二分查找
+        int termCount = invertedIndex.size();
+        byte[][] termBytes = new byte[termCount][];
+        String[] termNames = new String[termCount];
+        Integer[] order = new Integer[termCount];
+        int i = 0;
+        for (String term : invertedIndex.keySet()) {
+            termNames[i] = term;
+            termBytes[i] = term.getBytes(StandardCharsets.UTF_8);
+            order[i] = i;
+            i++;
+        }
+        Arrays.sort(order, (a, b) -> IndexFormat.compareBytes(termBytes[a], termBytes[b]));
+
+        int[] termOffsets = new int[termCount];
+        int[] positionOffsets = positionsFile == null ? null : new int[termCount];
+        byte[] block = new byte[IndexFormat.BLOCK_SIZE * 10];
+        try (BinaryOutput terms = new BinaryOutput(new FileOutputStream(termsFile));
+             BinaryOutput postings = new BinaryOutput(new FileOutputStream(postingsFile));
+             BinaryOutput positions = positionsFile == null ? null : new BinaryOutput(new FileOutputStream(positionsFile))) {
+            terms.writeInt(IndexFormat.MAGIC);
+            terms.writeInt(IndexFormat.VERSION);
+            postings.writeInt(IndexFormat.MAGIC);
+            postings.writeInt(IndexFormat.VERSION);
+            if (positions != null) {
+                positions.writeInt(IndexFormat.MAGIC);
+                positions.writeInt(IndexFormat.VERSION);
+            }
+
+            for (int ord = 0; ord < termCount; ord++) {
+                int index = order[ord];
+                // Postings 在构建完成的时候已经按照 docId 排好序了
+                Postings list = invertedIndex.get(termNames[index]);
+
+                int postingsOffset = checkedPosition(postings);
+                writePostings(postings, list, block);
+                if (positions != null) {
+                    positionOffsets[ord] = list.hasPositions() ? writePositions(positions, list) : -1;
+                }
+
+                termOffsets[ord] = checkedPosition(terms);
+                terms.writeVInt(termBytes[index].length);
+                terms.writeBytes(termBytes[index]);
+                terms.writeVInt(list.size());
+                terms.writeVInt(list.maxWeight());
+                terms.writeInt(postingsOffset);
+            }
+
+            int tableStart = checkedPosition(terms);
+            for (int offset : termOffsets) {
+                terms.writeInt(offset);
+            }
+            terms.writeInt(termCount);
+            terms.writeInt(tableStart);
+            if (positions == null) {
+                return new long[][]{
+                        {terms.position(), terms.checksum()},
+                        {postings.position(), postings.checksum()}
+                };
+            }
+            int positionsTableStart = checkedPosition(positions);
+            for (int offset : positionOffsets) {
+                positions.writeInt(offset);
+            }
+            positions.writeInt(termCount);
+            positions.writeInt(positionsTableStart);
+            return new long[][]{
+                    {terms.position(), terms.checksum()},
+                    {postings.position(), postings.checksum()},
+                    {positions.position(), positions.checksum()}
+            };
+        }
+    }
+
+    // 一个词的位置信息：块表 + 每个文档的记录，返回块表的位置
+    // 块表和倒排拉链的块一一对应，记录每个块的第一个文档的记录在文件中的位置，
+    // 查询时游标停在倒排拉链的第 i 个文档上，先通过块表找到 i 所在的块，最多再跳过 BLOCK_SIZE - 1 个记录就能找到
+    // 每个文档的记录：位置的个数 + 后面数据的字节数 + 每个位置与前一个位置的差值（第一个是位置本身），都用 varint 编码
+    // 位置和 docId/权重 分开存放，不用位置的查询完全不会读到这个文件
+    private static int writePositions(BinaryOutput out, Postings list) throws IOException {
+        int tableStart = checkedPosition(out);
+        int size = list.size();
+        int blockCount = (size + IndexFormat.BLOCK_SIZE - 1) / IndexFormat.BLOCK_SIZE;
+        // 先算出每个记录的长度，得到块表，再写记录，不需要先把记录写到临时的缓冲区中
+        long offset = tableStart + 4L * blockCount;
+        for (int i = 0; i < size; i++) {
+            if (i % IndexFormat.BLOCK_SIZE == 0) {
+                if (offset > Integer.MAX_VALUE) {
+                    throw new IOException("索引文件超过了 2GB 的限制");
+                }
+                out.writeInt((int) offset);
+            }
+            int length = positionsLength(list, i);
+            offset += vIntSize(list.positionCount(i)) + vIntSize(length) + length;
+        }
+        for (int i = 0; i < size; i++) {
+            int count = list.positionCount(i);
+            out.writeVInt(count);
+            out.writeVInt(positionsLength(list, i));
+            int prev = 0;
+            for (int j = 0; j < count; j++) {
+                int position = list.position(i, j);
+                out.writeVInt(position - prev);
+                prev = position;
+            }
+        }
+        return tableStart;
+    }
+
+    // 第 i 个文档的位置差值编码之后的字节数
+    private static int positionsLength(Postings list, int i) {
+        int length = 0;
+        int prev = 0;
+        for (int j = 0; j < list.positionCount(i); j++) {
+            int position = list.position(i, j);
+            length += vIntSize(position - prev);
+            prev = position;
+        }
+        return length;
+    }
+
+    private static int vIntSize(int v) {
+        int size = 1;
+        while ((v & ~0x7F) != 0) {
+            v >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    // 一个词的倒排拉链按块写入，每个块：文档个数 + 最后一个 docId 的差值 + 块内最大权重 + 块数据的字节数 + 块数据
+    // 块数据中每个文档：docId 与前一个 docId 的差值 + 权重，都用 varint 编码
+    // 块头中记录了块的最后一个 docId 和字节数，查找的时候可以整块跳过；块内最大权重用于 Block-Max WAND 估计分数上限
+    // block 是编码一个块用的缓冲区，至少 BLOCK_SIZE * 10 个字节；包内可见，测试中用它在内存里构造 MappedPostingsCursor
+    static void writePostings(BinaryOutput out, Postings list, byte[] block) throws IOException {
+        int prevDocId = -1;
+        for (int start = 0; start < list.size(); start += IndexFormat.BLOCK_SIZE) {
+            int end = Math.min(start + IndexFormat.BLOCK_SIZE, list.size());
+            int blockPrev = prevDocId;
+            int length = 0;
+            for (int j = start; j < end; j++) {
+                int docId = list.docId(j);
+                int weight = list.weight(j);
+                if (docId <= prevDocId) {
+                    // 查询的时候依赖倒排拉链是按 docId 严格递增的，这里不满足的话说明构建过程有问题
+                    throw new IOException("倒排拉链没有按照 docId 升序排列: " + prevDocId + " -> " + docId);
+                }
+                length = putVInt(block, length, docId - prevDocId);
+                length = putVInt(block, length, weight);
+                prevDocId = docId;
+            }
+            out.writeVInt(end - start);
+            out.writeVInt(prevDocId - blockPrev);
+            out.writeVInt(list.blockMaxWeight(start / IndexFormat.BLOCK_SIZE));
+            out.writeVInt(length);
+            out.writeBytes(block, 0, length);
+        }
+    }
+
+    private static int putVInt(byte[] buffer, int pos, int v) {
+        while ((v & ~0x7F) != 0) {
+            buffer[pos++] = (byte) ((v & 0x7F) | 0x80);
+            v >>>= 7;
+        }
+        buffer[pos++] = (byte) v;
+        return pos;
+    }
+
+    // 元信息文件：文件头 + 文档数 + 词数 + 相关性公式 + 标题总长度 + 正文总长度 + 每个文件的 名字/长度/校验和
+    private static void writeMeta(File file, int docCount, int termCount, String similarityName, CollectionStats stats,
+                                  List<String> fileNames, List<long[]> fileInfos) throws IOException {
+        try (BinaryOutput out = new BinaryOutput(new FileOutputStream(file))) {
+            out.writeInt(IndexFormat.MAGIC);
+            out.writeInt(IndexFormat.VERSION);
+            out.writeInt(docCount);
+            out.writeInt(termCount);
+            out.writeString(similarityName);
+            out.writeLong(stats.getTotalTitleLength());
+            out.writeLong(stats.getTotalContentLength());
+            out.writeInt(fileNames.size());
+            for (int i = 0; i < fileNames.size(); i++) {
+                out.writeString(fileNames.get(i));
+                out.writeLong(fileInfos.get(i)[0]);
+                out.writeLong(fileInfos.get(i)[1]);
+            }
+            // 元信息文件本身的校验和放在最后
+            out.writeLong(out.checksum());
+        }
+    }
+
+    // 单个文件通过一次 mmap 映射，所以文件大小不能超过 2GB
+    static int checkedPosition(BinaryOutput out) throws IOException {
+        long position = out.position();
+        if (position > Integer.MAX_VALUE) {
+            throw new IOException("索引文件超过了 2GB 的限制");
+        }
+        return (int) position;
+    }
+
+    private static long nextGeneration(File indexDir) {
+        long max = 0;
+        String[] names = indexDir.list();
+        if (names != null) {
+            for (String name : names) {
+                max = Math.max(max, IndexFormat.generationOf(name));
+            }
+        }
+        return max + 1;
+    }
+
+    private static void deleteUnreferenced(File indexDir, Set<String> keep) {
+        String[] names = indexDir.list();
+        if (names == null) {
+            return;
+        }
+        for (String name : names) {
+            if (IndexFormat.generationOf(name) >= 0 && !keep.contains(name)) {
+                deleteRecursively(new File(indexDir, name));
+            }
+        }
+    }
+
+    static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,99 @@
+package com.bite.index;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+// 通过一个位图记录一个段中哪些文档还是有效的（没有被删除）
+// 增量制作索引的时候，被删除或者被新版本替换的文档不会马上从段中去掉，只是在这里把对应的位清零（墓碑），
+// 查询的时候跳过这些文档，等到合并（compact）的时候再真正删掉
+final class LiveDocs {
+
+    private final long[] bits;
+    private final int maxDoc;
+    private int deleted;
+
+    // 所有文档都有效
+    LiveDocs(int maxDoc) {
+        this.maxDoc = maxDoc;
+        this.bits = new long[(maxDoc + 63) >>> 6];
+        Arrays.fill(bits, -1L);
+        if ((maxDoc & 63) != 0) {
+            bits[bits.length - 1] = (1L << (maxDoc & 63)) - 1;
+        }
+    }
+
+    private LiveDocs(long[] bits, int maxDoc, int deleted) {
+        this.bits = bits;
+        this.maxDoc = maxDoc;
+        this.deleted = deleted;
+    }
+
+    boolean isLive(int docId) {
+        return (bits[docId >>> 6] & (1L << docId)) != 0;
+    }
+
+    // 删除一个文档，返回它之前是不是有效的
+    boolean delete(int docId) {
+        long mask = 1L << docId;
+        int word = docId >>> 6;
+        if ((bits[word] & mask) == 0) {
+            return false;
+        }
+        bits[word] &= ~mask;
+        deleted++;
+        return true;
+    }
+
+    int maxDoc() {
+        return maxDoc;
+    }
+
+    int deletedCount() {
+        return deleted;
+    }
+
+    LiveDocs copy() {
+        return new LiveDocs(bits.clone(), maxDoc, deleted);
+    }
+
+    // 把 other 的内容复制到自己从 docBase 开始的位置上，用来把每个段的位图拼成整个索引的位图
+    void copyFrom(LiveDocs other, int docBase) {
+        for (int docId = 0; docId < other.maxDoc; docId++) {
+            if (!other.isLive(docId)) {
+                delete(docBase + docId);
+            }
+        }
+    }
+
+    // 文件格式：文件头 + 文档数 + 删除的文档数 + 位图 + 校验和
+    void write(File file) throws IOException {
+        try (BinaryOutput out = new BinaryOutput(new FileOutputStream(file))) {
+            out.writeInt(IndexFormat.MAGIC);
+            out.writeInt(IndexFormat.VERSION);
+            out.writeInt(maxDoc);
+            out.writeInt(deleted);
+            for (long word : bits) {
+                out.writeLong(word);
+            }
+            out.writeLong(out.checksum());
+        }
+    }
+
+    static LiveDocs read(File file) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+        IndexFormat.checkHeader(buffer, file.getName());
+        IndexFormat.checkFooter(buffer, file.getName());
+        BinaryInput in = new BinaryInput(buffer, IndexFormat.HEADER_LENGTH);
+        int maxDoc = in.readInt();
+        int deleted = in.readInt();
+        long[] bits = new long[(maxDoc + 63) >>> 6];
+        for (int i = 0; i < bits.length; i++) {
+            bits[i] = in.readLong();
+        }
+        return new LiveDocs(bits, maxDoc, deleted);
+    }
+}
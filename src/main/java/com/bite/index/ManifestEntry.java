@@ -0,0 +1,18 @@
+package com.bite.index;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+// 制作索引时的清单中的一项，记录一个源文件的信息以及它对应的文档
+// 增量制作索引的时候，大小和修改时间都没变的文件直接跳过，变了的再比较内容的哈希值
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class ManifestEntry {
+    private String path;// 相对于文档根目录的路径，分隔符统一是 /
+    private long size;// 文件大小
+    private long mtime;// 最后修改时间，毫秒
+    private long hash;// 文件内容的哈希值
+    private int docId;// 对应的文档在索引中的 docId
+}
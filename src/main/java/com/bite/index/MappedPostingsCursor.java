@@ -0,0 +1,225 @@
+package com.bite.index;
+
+import java.nio.ByteBuffer;
+
+// 直接在映射的 postings.dat 上解码倒排拉链的游标，块格式见 IndexWriter.writePostings
+// positions() 按需读取 positions.dat 中当前文档的位置，只有短语查询、邻近度加权对候选文档才会调用
+// 解码时只读 ByteBuffer 的绝对位置，不会创建任何对象
+// advance 的时候利用块头中记录的最后一个 docId 和块的字节数，不需要的块整块跳过
+final class MappedPostingsCursor extends PostingsCursor {
+
+    private final ByteBuffer buffer;
+    private final int df;
+    private final int maxWeight;
+    // 位置信息文件以及这个词的块表的位置，没有位置信息的时候为 null、-1，格式见 IndexWriter.writePositions
+    private final ByteBuffer positionsBuffer;
+    private final int positionsOffset;
+
+    // ============== 解码状态 ==============
+    private int pos;
+    // 还没有读取的文档个数（包括还没有解码的块）
+    private int docsLeft;
+    // 当前块中还没有解码的文档个数
+    private int blockLeft = 0;
+    // 当前块的最后一个 docId，以及块数据的结束位置
+    private int blockLastDoc = -1;
+    private int blockEnd;
+    // 当前解码的块的块头信息，advanceShallow 重新开始的时候要用到
+    private int currentHeaderPos;
+    private int currentPrevLast;
+    private int currentDocsLeft;
+
+    private int docId = -1;
+    private int weight = 0;
+
+    // ============== advanceShallow 的块头游标，只读块头，独立于解码状态 ==============
+    private boolean shallowValid = false;
+    // 块头的位置、前一个块的最后一个 docId、从这个块开始还剩多少个文档
+    private int shallowHeaderPos;
+    private int shallowPrevLast;
+    private int shallowDocsLeft;
+    // 块中的文档数、最后一个 docId、最大权重、块数据的结束位置
+    private int shallowCount;
+    private int shallowLastDoc;
+    private int shallowMaxWeight;
+    private int shallowEnd;
+
+    MappedPostingsCursor(ByteBuffer buffer, int offset, int df, int maxWeight,
+                         ByteBuffer positionsBuffer, int positionsOffset) {
+        this.buffer = buffer;
+        this.pos = offset;
+        this.df = df;
+        this.docsLeft = df;
+        this.maxWeight = maxWeight;
+        this.positionsBuffer = positionsBuffer;
+        this.positionsOffset = positionsOffset;
+    }
+
+    @Override
+    public int docId() {
+        return docId;
+    }
+
+    @Override
+    public int weight() {
+        return weight;
+    }
+
+    @Override
+    public int nextDoc() {
+        if (blockLeft == 0) {
+            if (docsLeft == 0) {
+                return docId = NO_MORE_DOCS;
+            }
+            readBlockHeader();
+        }
+        docId += readVInt();
+        weight = readVInt();
+        blockLeft--;
+        docsLeft--;
+        return docId;
+    }
+
+    @Override
+    public int advance(int target) {
+        if (docId >= target) {
+            return docId;
+        }
+        // 块头游标已经走到了后面的块上，直接从那个块开始，不用再一个一个块头地读
+        if (shallowValid && shallowPrevLast >= docId && shallowPrevLast < target) {
+            pos = shallowHeaderPos;
+            docId = shallowPrevLast;
+            docsLeft = shallowDocsLeft;
+            blockLeft = 0;
+        }
+        while (true) {
+            if (blockLeft == 0) {
+                if (docsLeft == 0) {
+                    return docId = NO_MORE_DOCS;
+                }
+                readBlockHeader();
+            }
+            if (blockLastDoc < target) {
+                // 整个块中都没有满足条件的文档，直接跳过这个块
+                pos = blockEnd;
+                docsLeft -= blockLeft;
+                blockLeft = 0;
+                docId = blockLastDoc;
+                continue;
+            }
+            // 块的最后一个 docId >= target，所以在这个块中一定能找到
+            while (nextDoc() < target) {
+            }
+            return docId;
+        }
+    }
+
+    // 当前文档是倒排拉链中的第 ordinal 个，通过块表找到它所在的块的第一个记录，再跳过块内前面的记录
+    @Override
+    public int[] positions() {
+        if (positionsBuffer == null || positionsOffset < 0 || docId < 0 || docId == NO_MORE_DOCS) {
+            return null;
+        }
+        int ordinal = df - docsLeft - 1;
+        BinaryInput in = new BinaryInput(positionsBuffer,
+                positionsBuffer.getInt(positionsOffset + (ordinal / IndexFormat.BLOCK_SIZE) * 4));
+        for (int i = ordinal % IndexFormat.BLOCK_SIZE; i > 0; i--) {
+            in.readVInt();// 位置的个数
+            in.skip(in.readVInt());
+        }
+        int count = in.readVInt();
+        in.readVInt();// 字节数
+        int[] result = new int[count];
+        int position = 0;
+        for (int i = 0; i < count; i++) {
+            position += in.readVInt();
+            result[i] = position;
+        }
+        return result;
+    }
+
+    @Override
+    public int cost() {
+        return df;
+    }
+
+    @Override
+    public int maxWeight() {
+        return maxWeight;
+    }
+
+    @Override
+    public int advanceShallow(int target) {
+        if (docId == NO_MORE_DOCS) {
+            shallowValid = false;
+            return NO_MORE_DOCS;
+        }
+        if (!shallowValid || shallowLastDoc < docId || shallowPrevLast >= target) {
+            // 块头游标落后于解码状态了（或者已经走过了 target 所在的块），从解码状态所在的块（或者下一个块）重新开始
+            if (blockLeft > 0) {
+                shallowHeaderPos = currentHeaderPos;
+                shallowPrevLast = currentPrevLast;
+                shallowDocsLeft = currentDocsLeft;
+            } else {
+                if (docsLeft == 0) {
+                    shallowValid = false;
+                    return NO_MORE_DOCS;
+                }
+                shallowHeaderPos = pos;
+                shallowPrevLast = docId;
+                shallowDocsLeft = docsLeft;
+            }
+            readShallowHeader();
+        }
+        while (shallowLastDoc < target) {
+            if (shallowDocsLeft - shallowCount == 0) {
+                shallowValid = false;
+                return NO_MORE_DOCS;
+            }
+            // 移动到下一个块头
+            shallowDocsLeft -= shallowCount;
+            shallowPrevLast = shallowLastDoc;
+            shallowHeaderPos = shallowEnd;
+            readShallowHeader();
+        }
+        return shallowLastDoc;
+    }
+
+    @Override
+    public int blockMaxWeight() {
+        return shallowValid ? shallowMaxWeight : 0;
+    }
+
+    private void readBlockHeader() {
+        currentHeaderPos = pos;
+        currentPrevLast = docId;
+        currentDocsLeft = docsLeft;
+        blockLeft = readVInt();
+        blockLastDoc = docId + readVInt();
+        readVInt();// 块中最大的权重，解码的时候用不到
+        int length = readVInt();
+        blockEnd = pos + length;
+    }
+
+    private void readShallowHeader() {
+        int savedPos = pos;
+        pos = shallowHeaderPos;
+        shallowCount = readVInt();
+        shallowLastDoc = shallowPrevLast + readVInt();
+        shallowMaxWeight = readVInt();
+        int length = readVInt();
+        shallowEnd = pos + length;
+        pos = savedPos;
+        shallowValid = true;
+    }
+
+    private int readVInt() {
+        byte b = buffer.get(pos++);
+        int v = b & 0x7F;
+        for (int shift = 7; b < 0; shift += 7) {
+            b = buffer.get(pos++);
+            v |= (b & 0x7F) << shift;
+        }
+        return v;
+    }
+}
@@ -0,0 +1,140 @@
+package com.bite.index;
+
+// 把多个段中同一个词的游标首尾相接成一个游标，同时跳过已经被删除的文档
+// 段的 docId 范围是按段的顺序递增且互不重叠的，所以依次遍历每个段，docId 加上段的起始位置，得到的就是升序的整个索引的 docId
+final class MultiPostingsCursor extends PostingsCursor {
+
+    // 这个词在每个段中的游标，段中没有这个词的为 null
+    private final PostingsCursor[] subs;
+    private final int[] docBases;
+    // 删除位图，没有删除的时候为 null
+    private final LiveDocs liveDocs;
+    private final int cost;
+    private final int maxWeight;
+
+    // 当前所在的段
+    private int current = -1;
+    private PostingsCursor sub = null;
+    private int docId = -1;
+    // advanceShallow 所在的段
+    private int shallowSegment = -1;
+
+    MultiPostingsCursor(PostingsCursor[] subs, int[] docBases, LiveDocs liveDocs) {
+        this.subs = subs;
+        this.docBases = docBases;
+        this.liveDocs = liveDocs;
+        int cost = 0;
+        int maxWeight = 0;
+        for (PostingsCursor cursor : subs) {
+            if (cursor != null) {
+                cost += cursor.cost();
+                maxWeight = Math.max(maxWeight, cursor.maxWeight());
+            }
+        }
+        this.cost = cost;
+        this.maxWeight = maxWeight;
+    }
+
+    @Override
+    public int docId() {
+        return docId;
+    }
+
+    @Override
+    public int weight() {
+        return sub.weight();
+    }
+
+    @Override
+    public int[] positions() {
+        return sub.positions();
+    }
+
+    @Override
+    public int nextDoc() {
+        return skipDeleted(sub == null ? NO_MORE_DOCS : sub.nextDoc());
+    }
+
+    @Override
+    public int advance(int target) {
+        if (docId >= target) {
+            return docId;
+        }
+        // 目标在后面的段中，直接跳过去
+        while (current + 1 < subs.length && docBases[current + 1] <= target) {
+            current++;
+            sub = subs[current];
+        }
+        if (sub == null) {
+            return skipDeleted(NO_MORE_DOCS);
+        }
+        return skipDeleted(sub.advance(Math.max(target - docBases[current], 0)));
+    }
+
+    // d 是当前段中游标的位置，当前段遍历完了就换到下一个段，遇到已经删除的文档继续往后找
+    private int skipDeleted(int d) {
+        while (true) {
+            if (d == NO_MORE_DOCS) {
+                if (!nextSegment()) {
+                    return docId = NO_MORE_DOCS;
+                }
+                d = sub.nextDoc();
+                continue;
+            }
+            int global = docBases[current] + d;
+            if (liveDocs == null || liveDocs.isLive(global)) {
+                return docId = global;
+            }
+            d = sub.nextDoc();
+        }
+    }
+
+    private boolean nextSegment() {
+        while (current + 1 < subs.length) {
+            current++;
+            sub = subs[current];
+            if (sub != null) {
+                return true;
+            }
+        }
+        sub = null;
+        return false;
+    }
+
+    @Override
+    public int cost() {
+        return cost;
+    }
+
+    @Override
+    public int maxWeight() {
+        return maxWeight;
+    }
+
+    @Override
+    public int advanceShallow(int target) {
+        // 块的信息只是用来估计分数的上限，删除的文档不影响结果的正确性，所以这里不用管删除位图
+        int segment = Math.max(current, 0);
+        while (segment + 1 < subs.length && docBases[segment + 1] <= target) {
+            segment++;
+        }
+        for (; segment < subs.length; segment++) {
+            PostingsCursor cursor = subs[segment];
+            if (cursor == null) {
+                continue;
+            }
+            int last = cursor.advanceShallow(Math.max(target - docBases[segment], 0));
+            if (last != NO_MORE_DOCS) {
+                shallowSegment = segment;
+                return docBases[segment] + last;
+            }
+        }
+        shallowSegment = -1;
+        return NO_MORE_DOCS;
+    }
+
+    @Override
+    public int blockMaxWeight() {
+        return shallowSegment < 0 ? 0 : subs[shallowSegment].blockMaxWeight();
+    }
+}
@@ -0,0 +1,46 @@
+package com.bite.index;
+
+// 通过这个类按照 docId 升序遍历一个词的倒排拉链
+// 遍历的过程中只移动游标，不会为每个文档创建 Weight 对象
+// 使用方式：
+//   for (int docId = cursor.nextDoc(); docId != PostingsCursor.NO_MORE_DOCS; docId = cursor.nextDoc()) {
+//       int weight = cursor.weight();
+//   }
+public abstract class PostingsCursor {
+
+    // 倒排拉链已经遍历完了
+    public static final int NO_MORE_DOCS = Integer.MAX_VALUE;
+
+    // 当前所在的 docId，还没开始遍历的时候是 -1，遍历完了是 NO_MORE_DOCS
+    public abstract int docId();
+
+    // 当前文档和这个词的相关性权重
+    public abstract int weight();
+
+    // 移动到下一个文档，返回它的 docId
+    public abstract int nextDoc();
+
+    // 移动到第一个 docId >= target 的文档，返回它的 docId
+    // 如果当前文档已经满足条件，就停在当前文档不动
+    public abstract int advance(int target);
+
+    // 倒排拉链的总长度，也就是包含这个词的文档个数
+    public abstract int cost();
+
+    // 整个倒排拉链中最大的权重，WAND 用它来估计一个文档分数的上限
+    public abstract int maxWeight();
+
+    // 把 "块级别" 的信息移动到包含 target（第一个 docId >= target 的文档）的块上，只读块头，不解码块中的文档
+    // 返回这个块的最后一个 docId，没有这样的块返回 NO_MORE_DOCS
+    // 不会改变 docId() 的结果，之后调用 advance 的时候可以直接从这个块开始找
+    public abstract int advanceShallow(int target);
+
+    // advanceShallow 所在的块中最大的权重，Block-Max WAND 用它来估计更紧的分数上限
+    public abstract int blockMaxWeight();
+
+    // 当前文档中这个词出现的位置，升序，每次调用都会重新解码，只应该对通过了其它条件的候选文档调用
+    // 索引中没有记录位置（见 FileConfig.indexPositions）的时候返回 null
+    public int[] positions() {
+        return null;
+    }
+}
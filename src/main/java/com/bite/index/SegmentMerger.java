@@ -0,0 +1,258 @@
+package com.bite.index;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.ToIntFunction;
+
+// 通过这个类把多个线程各自制作的 IndexSegment 合并成最终的索引
+// 1、按段的顺序给每个段分配一段连续的全局 docId，拼出正排索引
+// 2、每个段把自己的词排好序，得到一个有序的 run（并行）
+// 3、从所有 run 中抽样确定若干个分割点，把整个词的范围切成 N 份，每份由一个任务做多路归并（并行）
+//    因为段的 docId 范围是按段的顺序递增且互不重叠的，同一个词在各个段中的倒排拉链按段的顺序首尾相接，
+//    就已经是按全局 docId 升序的了，不需要再排序
+// 4、归并的同时用全局的统计信息把词频换算成权重
+final class SegmentMerger {
+
+    // 每个合并任务大约从每个段中抽样多少个词
+    private static final int SAMPLES_PER_TASK = 8;
+
+    private final List<IndexSegment> segments;
+    private final Similarity similarity;
+    private final int threads;
+
+    // 增量制作索引的时候，新文档的权重也要按照整个索引的统计信息计算：
+    // baseStats 是已有的段的统计信息，baseDocFreq 返回一个词在已有的段中的文档频率；全量制作索引的时候都为 null
+    private final CollectionStats baseStats;
+    private final ToIntFunction<String> baseDocFreq;
+
+    private int[] titleLengths;
+    private int[] contentLengths;
+    // 合并出来的这些文档自己的统计信息，记录在段的元信息中
+    private CollectionStats stats;
+    // 计算权重时使用的统计信息，加上了已有的段
+    private CollectionStats scoringStats;
+    private List<ManifestEntry> manifest;
+
+    SegmentMerger(List<IndexSegment> segments, Similarity similarity, int threads) {
+        this(segments, similarity, threads, null, null);
+    }
+
+    SegmentMerger(List<IndexSegment> segments, Similarity similarity, int threads,
+                  CollectionStats baseStats, ToIntFunction<String> baseDocFreq) {
+        this.segments = segments;
+        this.similarity = similarity;
+        this.threads = Math.max(threads, 1);
+        this.baseStats = baseStats;
+        this.baseDocFreq = baseDocFreq;
+    }
+
+    CollectionStats getStats() {
+        return stats;
+    }
+
+    // 合并之后每个文档的源文件信息，docId 是合并之后的 docId，没有源文件信息的文档不在里面
+    List<ManifestEntry> getManifest() {
+        return manifest;
+    }
+
+    // 合并所有段的正排文档，docId 改成全局的 docId
+    ArrayList<DocInfo> mergeDocs() {
+        int docCount = 0;
+        for (IndexSegment segment : segments) {
+            segment.docBase = docCount;
+            docCount += segment.docs.size();
+        }
+        ArrayList<DocInfo> forwardIndex = new ArrayList<>(docCount);
+        titleLengths = new int[docCount];
+        contentLengths = new int[docCount];
+        long totalTitleLength = 0;
+        long totalContentLength = 0;
+        manifest = new ArrayList<>();
+        for (IndexSegment segment : segments) {
+            for (int i = 0; i < segment.docs.size(); i++) {
+                DocInfo docInfo = segment.docs.get(i);
+                int docId = segment.docBase + docInfo.getDocId();
+                docInfo.setDocId(docId);
+                ManifestEntry source = segment.sources.get(i);
+                if (source != null) {
+                    source.setDocId(docId);
+                    manifest.add(source);
+                }
+                forwardIndex.add(docInfo);
+                titleLengths[docId] = docInfo.getTitleLength();
+                contentLengths[docId] = docInfo.getContentLength();
+                totalTitleLength += docInfo.getTitleLength();
+                totalContentLength += docInfo.getContentLength();
+            }
+        }
+        stats = new CollectionStats(docCount, totalTitleLength, totalContentLength);
+        scoringStats = baseStats == null ? stats : new CollectionStats(baseStats.getDocCount() + docCount,
+                baseStats.getTotalTitleLength() + totalTitleLength,
+                baseStats.getTotalContentLength() + totalContentLength);
+        return forwardIndex;
+    }
+
+    // 合并所有段的倒排索引，必须在 mergeDocs 之后调用
+    HashMap<String, Postings> mergePostings() {
+        ExecutorService executorService = Executors.newFixedThreadPool(threads);
+        try {
+            //1、每个段各自把词排好序
+            List<Callable<Void>> sortTasks = new ArrayList<>();
+            for (IndexSegment segment : segments) {
+                sortTasks.add(() -> {
+                    segment.sortTerms();
+                    return null;
+                });
+            }
+            waitAll(executorService.invokeAll(sortTasks));
+
+            //2、抽样确定分割点，第 i 个任务负责 [splits[i-1], splits[i]) 范围内的词
+            int taskCount = threads * 4;
+            List<String> samples = new ArrayList<>();
+            for (IndexSegment segment : segments) {
+                segment.sample(samples, taskCount * SAMPLES_PER_TASK / Math.max(segments.size(), 1) + 1);
+            }
+            Collections.sort(samples);
+            List<String> splits = new ArrayList<>();
+            for (int i = 1; i < taskCount && !samples.isEmpty(); i++) {
+                String split = samples.get((int) ((long) samples.size() * i / taskCount));
+                if (splits.isEmpty() || split.compareTo(splits.get(splits.size() - 1)) > 0) {
+                    splits.add(split);
+                }
+            }
+
+            //3、每个范围做一次多路归并
+            List<Callable<MergedRange>> mergeTasks = new ArrayList<>();
+            for (int i = 0; i <= splits.size(); i++) {
+                String from = i == 0 ? null : splits.get(i - 1);
+                String to = i == splits.size() ? null : splits.get(i);
+                mergeTasks.add(() -> mergeRange(from, to));
+            }
+            List<Future<MergedRange>> futures = executorService.invokeAll(mergeTasks);
+            waitAll(futures);
+
+            //4、汇总每个范围的结果
+            int termCount = 0;
+            List<MergedRange> ranges = new ArrayList<>();
+            for (Future<MergedRange> future : futures) {
+                MergedRange range = future.get();
+                ranges.add(range);
+                termCount += range.terms.size();
+            }
+            HashMap<String, Postings> frozen = new HashMap<>(termCount * 4 / 3 + 1);
+            for (MergedRange range : ranges) {
+                for (int i = 0; i < range.terms.size(); i++) {
+                    frozen.put(range.terms.get(i), range.postings.get(i));
+                }
+            }
+            return frozen;
+        } catch (InterruptedException | ExecutionException e) {
+            throw new IllegalStateException("合并索引段失败", e);
+        } finally {
+            executorService.shutdown();
+        }
+    }
+
+    // 对 [from, to) 范围内的词做多路归并，from 为 null 表示从头开始，to 为 null 表示一直到最后
+    private MergedRange mergeRange(String from, String to) {
+        PriorityQueue<RunCursor> queue = new PriorityQueue<>(Math.max(segments.size(), 1),
+                (a, b) -> a.term().compareTo(b.term()));
+        for (IndexSegment segment : segments) {
+            int start = from == null ? 0 : segment.lowerBound(from);
+            int end = segment.lowerBound(to);
+            if (start < end) {
+                queue.add(new RunCursor(segment, start, end));
+            }
+        }
+
+        MergedRange range = new MergedRange();
+        List<RunCursor> same = new ArrayList<>();
+        while (!queue.isEmpty()) {
+            // 取出当前最小的词在各个段中的倒排拉链，按段的顺序拼起来
+            String term = queue.peek().term();
+            same.clear();
+            int df = 0;
+            int positionCount = 0;
+            boolean withPositions = false;
+            while (!queue.isEmpty() && queue.peek().term().equals(term)) {
+                RunCursor cursor = queue.poll();
+                same.add(cursor);
+                df += cursor.postings().size();
+                positionCount += cursor.postings().positionCount();
+                withPositions |= cursor.postings().hasPositions();
+            }
+            same.sort((a, b) -> Integer.compare(a.segment.docBase, b.segment.docBase));
+
+            int[] docIds = new int[df];
+            int[] freqs = new int[df];
+            // 位置信息跟着倒排拉链一起拼接，位置是文档内部的，不需要加上段的起始位置
+            int[] positions = withPositions ? new int[positionCount] : null;
+            int[] positionStarts = withPositions ? new int[df + 1] : null;
+            int length = 0;
+            int positionLength = 0;
+            for (RunCursor cursor : same) {
+                if (withPositions) {
+                    positionLength = cursor.postings().copyPositionsTo(positions, positionStarts, length, positionLength);
+                }
+                length = cursor.postings().copyTo(docIds, freqs, length, cursor.segment.docBase);
+                if (cursor.next()) {
+                    queue.add(cursor);
+                }
+            }
+            if (withPositions) {
+                positionStarts[df] = positionLength;
+            }
+            int totalDf = baseDocFreq == null ? df : df + baseDocFreq.applyAsInt(term);
+            Similarity.TermScorer scorer = similarity.termScorer(totalDf, scoringStats);
+            range.terms.add(term);
+            range.postings.add(Postings.fromFreqs(docIds, freqs, scorer, titleLengths, contentLengths,
+                    positions, positionStarts));
+        }
+        return range;
+    }
+
+    private static <T> void waitAll(List<Future<T>> futures) throws InterruptedException, ExecutionException {
+        for (Future<T> future : futures) {
+            future.get();
+        }
+    }
+
+    // 一个段的有序 run 上的游标
+    private static final class RunCursor {
+        final IndexSegment segment;
+        int pos;
+        final int end;
+
+        RunCursor(IndexSegment segment, int pos, int end) {
+            this.segment = segment;
+            this.pos = pos;
+            this.end = end;
+        }
+
+        String term() {
+            return segment.sortedTerms[pos];
+        }
+
+        Postings.Builder postings() {
+            return segment.sortedPostings[pos];
+        }
+
+        boolean next() {
+            return ++pos < end;
+        }
+    }
+
+    // 一个合并任务的结果，词是有序的
+    private static final class MergedRange {
+        final List<String> terms = new ArrayList<>();
+        final List<Postings> postings = new ArrayList<>();
+    }
+}
@@ -0,0 +1,27 @@
+package com.bite.index;
+
+// 通过这个接口描述一个 "词-文档" 相关性权重的计算公式
+// 权重在制作索引的时候就算好并量化成整数保存在倒排拉链中，查询的时候只需要把各个词的权重加起来，不需要任何浮点运算
+public interface Similarity {
+
+    String getName();
+
+    // 针对某一个词，创建一个计算权重的对象；docFreq 是包含这个词的文档个数
+    TermScorer termScorer(int docFreq, CollectionStats stats);
+
+    interface TermScorer {
+        // 根据词在标题、正文中出现的次数以及这篇文档标题、正文的长度，算出量化之后的整数权重
+        int impact(int titleFreq, int contentFreq, int titleLength, int contentLength);
+    }
+
+    // 根据名字找到对应的公式：classic 是最初的 标题次数*10+正文次数，bm25f 是 BM25F
+    static Similarity forName(String name) {
+        if (ClassicSimilarity.NAME.equalsIgnoreCase(name)) {
+            return new ClassicSimilarity();
+        }
+        if (BM25FSimilarity.NAME.equalsIgnoreCase(name)) {
+            return new BM25FSimilarity();
+        }
+        throw new IllegalArgumentException("不支持的相关性公式: " + name);
+    }
+}
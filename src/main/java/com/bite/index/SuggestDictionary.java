@@ -0,0 +1,386 @@
+package com.bite.index;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+
+// 通过这个类实现搜索框的前缀补全：给出一个前缀，返回以它开头的、包含它的文档最多的前 N 个词
+// 每次提交的时候把所有段的词典合并成一个 suggest.dat 文件（见 IndexFormat），同一个词在多个段中的文档数相加
+//
+// 文件格式：文件头 + 若干个块 + 块的偏移量表 + 词数 + 块数 + 偏移量表的位置 + CRC32
+// 词按照 UTF-8 字节序排好序，每 BLOCK_SIZE 个词一个块，块内使用前缀压缩（front coding）：
+//   每个词：和前一个词相同的前缀长度 + 剩下部分的长度 + 剩下部分的字节 + 文档数，块的第一个词相同的前缀长度不写
+// 排好序的词典中相邻的词大多有很长的公共前缀，压缩之后只有原始词典的一小部分大小
+// 偏移量表中每个块还记录了块内最大的文档数，查询的时候已经找到 N 个更好的词的话，整块跳过不用解码
+//
+// 补全的请求比搜索多很多（每输入一个字符一次），所以查询的过程中除了返回的结果之外基本不创建对象
+final class SuggestDictionary {
+
+    // 每个块包含的词数
+    static final int BLOCK_SIZE = 16;
+
+    private final ByteBuffer buffer;
+    private final int termCount;
+    private final int blockCount;
+    private final int tableStart;
+
+    // 解码词用的缓冲区，每个线程一个
+    private static final ThreadLocal<byte[]> scratch = ThreadLocal.withInitial(() -> new byte[256]);
+
+    private SuggestDictionary(ByteBuffer buffer) throws IOException {
+        IndexFormat.checkHeader(buffer, IndexFormat.SUGGEST_FILE);
+        IndexFormat.checkFooter(buffer, IndexFormat.SUGGEST_FILE);
+        this.buffer = buffer;
+        int end = buffer.capacity() - 8;
+        termCount = buffer.getInt(end - 12);
+        blockCount = buffer.getInt(end - 8);
+        tableStart = buffer.getInt(end - 4);
+    }
+
+    // 打开一次提交的补全词典，之前版本写的提交中没有这个文件，返回 null
+    static SuggestDictionary open(File genDir) throws IOException {
+        File file = new File(genDir, IndexFormat.SUGGEST_FILE);
+        if (!file.exists()) {
+            return null;
+        }
+        return new SuggestDictionary(IndexReader.map(file));
+    }
+
+    // 预热，见 IndexReader.warmUp
+    void warmUp(long bytesPerSecond) throws InterruptedException {
+        IndexReader.touch(buffer, bytesPerSecond);
+    }
+
+    int termCount() {
+        return termCount;
+    }
+
+    // 查找以 prefix 开头的词，按照文档数从高到低返回前 count 个，文档数相同的时候字节序小的在前
+    List<Suggestion> suggest(String prefix, int count) {
+        byte[] target = prefix.getBytes(StandardCharsets.UTF_8);
+        if (blockCount == 0 || count <= 0) {
+            return Collections.emptyList();
+        }
+
+        //1、在块的第一个词上二分查找，找到最后一个第一个词小于 prefix 的块，以 prefix 开头的词从这个块开始
+        int low = 0;
+        int high = blockCount - 1;
+        int start = 0;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (compareFirstTerm(mid, target) < 0) {
+                start = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+
+        //2、依次扫描后面的块，把以 prefix 开头的词放到一个大小为 count 的小根堆中
+        TopTerms top = new TopTerms(count);
+        byte[] term = scratch.get();
+        for (int block = start; block < blockCount; block++) {
+            if (block > start && comparePrefix(blockOffset(block), target) > 0) {
+                // 块的第一个词已经排在所有以 prefix 开头的词后面了
+                break;
+            }
+            if (top.isFull() && blockMaxDocFreq(block) <= top.minDocFreq()) {
+                // 这个块中最好的词也比不过已经找到的词（后面的词文档数相同的时候排在后面），不用解码
+                continue;
+            }
+            BinaryInput in = new BinaryInput(buffer, blockOffset(block));
+            int blockTerms = Math.min(BLOCK_SIZE, termCount - block * BLOCK_SIZE);
+            boolean done = false;
+            for (int i = 0; i < blockTerms; i++) {
+                int shared = i == 0 ? 0 : in.readVInt();
+                int suffix = in.readVInt();
+                if (shared + suffix > term.length) {
+                    term = Arrays.copyOf(term, Math.max(shared + suffix, term.length * 2));
+                    scratch.set(term);
+                }
+                for (int j = 0; j < suffix; j++) {
+                    term[shared + j] = in.readByte();
+                }
+                int docFreq = in.readVInt();
+                int cmp = comparePrefix(term, shared + suffix, target);
+                if (cmp < 0) {
+                    continue;
+                }
+                if (cmp > 0) {
+                    done = true;
+                    break;
+                }
+                top.offer(docFreq, block * BLOCK_SIZE + i);
+            }
+            if (done) {
+                break;
+            }
+        }
+
+        //3、只对最终返回的词解码出字符串
+        int[] ords = new int[top.size];
+        int[] docFreqs = new int[top.size];
+        for (int i = top.size - 1; i >= 0; i--) {
+            ords[i] = top.ords[0];
+            docFreqs[i] = top.docFreqs[0];
+            top.poll();
+        }
+        List<Suggestion> suggestions = new ArrayList<>(ords.length);
+        for (int i = 0; i < ords.length; i++) {
+            suggestions.add(new Suggestion(term(ords[i]), docFreqs[i]));
+        }
+        return suggestions;
+    }
+
+    // 解码第 ord 个词
+    private String term(int ord) {
+        int block = ord / BLOCK_SIZE;
+        BinaryInput in = new BinaryInput(buffer, blockOffset(block));
+        byte[] term = new byte[64];
+        int length = 0;
+        for (int i = 0; i <= ord % BLOCK_SIZE; i++) {
+            int shared = i == 0 ? 0 : in.readVInt();
+            int suffix = in.readVInt();
+            if (shared + suffix > term.length) {
+                term = Arrays.copyOf(term, Math.max(shared + suffix, term.length * 2));
+            }
+            for (int j = 0; j < suffix; j++) {
+                term[shared + j] = in.readByte();
+            }
+            in.readVInt();// 文档数
+            length = shared + suffix;
+        }
+        return new String(term, 0, length, StandardCharsets.UTF_8);
+    }
+
+    private int blockOffset(int block) {
+        return buffer.getInt(tableStart + block * 8);
+    }
+
+    private int blockMaxDocFreq(int block) {
+        return buffer.getInt(tableStart + block * 8 + 4);
+    }
+
+    private int compareFirstTerm(int block, byte[] target) {
+        BinaryInput in = new BinaryInput(buffer, blockOffset(block));
+        int length = in.readVInt();
+        int start = in.position();
+        int min = Math.min(length, target.length);
+        for (int i = 0; i < min; i++) {
+            int diff = (buffer.get(start + i) & 0xFF) - (target[i] & 0xFF);
+            if (diff != 0) {
+                return diff;
+            }
+        }
+        return length - target.length;
+    }
+
+    // 以 prefix 开头返回 0，排在所有以 prefix 开头的词前面返回负数，后面返回正数
+    private int comparePrefix(int termOffset, byte[] prefix) {
+        BinaryInput in = new BinaryInput(buffer, termOffset);
+        int length = in.readVInt();
+        int start = in.position();
+        int min = Math.min(length, prefix.length);
+        for (int i = 0; i < min; i++) {
+            int diff = (buffer.get(start + i) & 0xFF) - (prefix[i] & 0xFF);
+            if (diff != 0) {
+                return diff;
+            }
+        }
+        return length >= prefix.length ? 0 : -1;
+    }
+
+    private static int comparePrefix(byte[] term, int length, byte[] prefix) {
+        int min = Math.min(length, prefix.length);
+        for (int i = 0; i < min; i++) {
+            int diff = (term[i] & 0xFF) - (prefix[i] & 0xFF);
+            if (diff != 0) {
+                return diff;
+            }
+        }
+        return length >= prefix.length ? 0 : -1;
+    }
+
+    // 把一次提交的所有段的词典合并起来，写成 suggest.dat
+    static void write(File file, List<IndexReader> readers) throws IOException {
+        // 多路归并：每个段的词典都是排好序的，每次取出最小的词，把所有段中这个词的文档数加起来
+        PriorityQueue<TermCursor> queue = new PriorityQueue<>((a, b) -> IndexFormat.compareBytes(a.term, b.term));
+        for (IndexReader reader : readers) {
+            TermCursor cursor = new TermCursor(reader);
+            if (cursor.next()) {
+                queue.add(cursor);
+            }
+        }
+
+        List<int[]> table = new ArrayList<>();
+        try (BinaryOutput out = new BinaryOutput(new FileOutputStream(file))) {
+            out.writeInt(IndexFormat.MAGIC);
+            out.writeInt(IndexFormat.VERSION);
+            int termCount = 0;
+            byte[] previous = null;
+            int blockMax = 0;
+            while (!queue.isEmpty()) {
+                TermCursor cursor = queue.poll();
+                byte[] term = cursor.term;
+                int docFreq = cursor.docFreq();
+                if (cursor.next()) {
+                    queue.add(cursor);
+                }
+                while (!queue.isEmpty() && IndexFormat.compareBytes(queue.peek().term, term) == 0) {
+                    TermCursor same = queue.poll();
+                    docFreq += same.docFreq();
+                    if (same.next()) {
+                        queue.add(same);
+                    }
+                }
+
+                if (termCount % BLOCK_SIZE == 0) {
+                    if (!table.isEmpty()) {
+                        table.get(table.size() - 1)[1] = blockMax;
+                    }
+                    table.add(new int[]{IndexWriter.checkedPosition(out), 0});
+                    blockMax = 0;
+                    out.writeVInt(term.length);
+                    out.writeBytes(term, 0, term.length);
+                } else {
+                    int shared = 0;
+                    int min = Math.min(previous.length, term.length);
+                    while (shared < min && previous[shared] == term[shared]) {
+                        shared++;
+                    }
+                    out.writeVInt(shared);
+                    out.writeVInt(term.length - shared);
+                    out.writeBytes(term, shared, term.length - shared);
+                }
+                out.writeVInt(docFreq);
+                blockMax = Math.max(blockMax, docFreq);
+                previous = term;
+                termCount++;
+            }
+            if (!table.isEmpty()) {
+                table.get(table.size() - 1)[1] = blockMax;
+            }
+
+            int tableStart = IndexWriter.checkedPosition(out);
+            for (int[] entry : table) {
+                out.writeInt(entry[0]);
+                out.writeInt(entry[1]);
+            }
+            out.writeInt(termCount);
+            out.writeInt(table.size());
+            out.writeInt(tableStart);
+            out.writeLong(out.checksum());
+        }
+    }
+
+    // 按顺序遍历一个段的词典
+    private static final class TermCursor {
+        final IndexReader reader;
+        int ord = -1;
+        byte[] term;
+
+        TermCursor(IndexReader reader) {
+            this.reader = reader;
+        }
+
+        boolean next() {
+            ord++;
+            if (ord >= reader.termCount()) {
+                return false;
+            }
+            term = reader.termBytes(ord);
+            return true;
+        }
+
+        int docFreq() {
+            return reader.docFreq(ord);
+        }
+    }
+
+    // 文档数最高的前 N 个词，用小根堆实现，堆顶是当前最差的词：文档数最少，文档数相同的时候字节序最大
+    private static final class TopTerms {
+        final int[] docFreqs;
+        final int[] ords;
+        int size = 0;
+
+        TopTerms(int capacity) {
+            docFreqs = new int[capacity];
+            ords = new int[capacity];
+        }
+
+        boolean isFull() {
+            return size == docFreqs.length;
+        }
+
+        int minDocFreq() {
+            return docFreqs[0];
+        }
+
+        void offer(int docFreq, int ord) {
+            if (!isFull()) {
+                docFreqs[size] = docFreq;
+                ords[size] = ord;
+                siftUp(size++);
+            } else if (docFreq > docFreqs[0]) {
+                // 词是按顺序扫描的，后来的词字节序更大，文档数相同的时候比不过堆顶
+                docFreqs[0] = docFreq;
+                ords[0] = ord;
+                siftDown(0);
+            }
+        }
+
+        void poll() {
+            size--;
+            docFreqs[0] = docFreqs[size];
+            ords[0] = ords[size];
+            siftDown(0);
+        }
+
+        // a 比 b 差
+        private boolean worse(int a, int b) {
+            return docFreqs[a] < docFreqs[b] || (docFreqs[a] == docFreqs[b] && ords[a] > ords[b]);
+        }
+
+        private void siftUp(int i) {
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (!worse(i, parent)) {
+                    break;
+                }
+                swap(i, parent);
+                i = parent;
+            }
+        }
+
+        private void siftDown(int i) {
+            while (true) {
+                int left = i * 2 + 1;
+                if (left >= size) {
+                    break;
+                }
+                int child = left + 1 < size && worse(left + 1, left) ? left + 1 : left;
+                if (!worse(child, i)) {
+                    break;
+                }
+                swap(i, child);
+                i = child;
+            }
+        }
+
+        private void swap(int a, int b) {
+            int docFreq = docFreqs[a];
+            docFreqs[a] = docFreqs[b];
+            docFreqs[b] = docFreq;
+            int ord = ords[a];
+            ords[a] = ords[b];
+            ords[b] = ord;
+        }
+    }
+}
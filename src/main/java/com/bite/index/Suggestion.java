@@ -0,0 +1,14 @@
+package com.bite.index;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+// 这个类表示一个搜索框的补全结果，/suggest 接口直接返回它
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class Suggestion {
+    private String term;// 补全出来的词
+    private int docFreq;// 包含这个词的文档个数，按照它从高到低排序
+}
@@ -0,0 +1,29 @@
+package com.bite.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+// 只增不减的计数器，例如扫描过的倒排拉链长度、算过分的文档数
+// 用 LongAdder 而不是 AtomicLong，多个查询线程同时累加的时候不会在同一个缓存行上竞争
+public class Counter {
+
+    private final LongAdder value = new LongAdder();
+
+    Counter() {
+    }
+
+    public void increment() {
+        if (Metrics.ENABLED) {
+            value.increment();
+        }
+    }
+
+    public void add(long delta) {
+        if (Metrics.ENABLED) {
+            value.add(delta);
+        }
+    }
+
+    public long get() {
+        return value.sum();
+    }
+}
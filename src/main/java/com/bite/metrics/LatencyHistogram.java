@@ -0,0 +1,113 @@
+package com.bite.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+// 耗时的直方图，和 HdrHistogram 一样按照对数分桶：每个 2 的幂次的区间再等分成 SUB_BUCKETS 个小桶
+// 这样不管是几微秒还是几秒，分位数的相对误差都不超过 1 / (2 * SUB_BUCKETS)，而桶的个数是固定的，记录一次只是一次原子加
+// 单位是纳秒，超过 2^MAX_EXPONENT 纳秒（大约 18 分钟）的都算在最后一个桶里
+public class LatencyHistogram {
+
+    private static final int SUB_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    private static final int MAX_EXPONENT = 40;
+    private static final int BUCKETS = (MAX_EXPONENT - SUB_BITS + 2) * SUB_BUCKETS;
+
+    // 导出的分位数
+    static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder sum = new LongAdder();
+
+    LatencyHistogram() {
+    }
+
+    // 记录从 start（Metrics.now() 的返回值）到现在的耗时，返回现在的时间，连续的几个阶段可以这样串起来：
+    // long t = Metrics.now(); ...; t = A.since(t); ...; t = B.since(t);
+    // 关闭统计的时候什么都不做，返回 0
+    public long since(long start) {
+        if (!Metrics.ENABLED) {
+            return 0;
+        }
+        long now = System.nanoTime();
+        record(now - start);
+        return now;
+    }
+
+    public void record(long nanos) {
+        if (!Metrics.ENABLED) {
+            return;
+        }
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        counts.incrementAndGet(bucketOf(nanos));
+        sum.add(nanos);
+    }
+
+    static int bucketOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        if (exponent > MAX_EXPONENT) {
+            return BUCKETS - 1;
+        }
+        // 最高位后面的 SUB_BITS 位决定落在这个幂次的哪个小桶里
+        int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    // 桶中的值的下限
+    static long lowerBound(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = bucket / SUB_BUCKETS - 1;
+        return (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+    }
+
+    // 桶的宽度
+    static long width(int bucket) {
+        return bucket < SUB_BUCKETS ? 1 : 1L << (bucket / SUB_BUCKETS - 1);
+    }
+
+    // 某一时刻的快照，导出的时候用，各个分位数和总数来自同一份计数
+    Snapshot snapshot() {
+        long[] copy = new long[BUCKETS];
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            copy[i] = counts.get(i);
+            count += copy[i];
+        }
+        return new Snapshot(copy, count, sum.sum());
+    }
+
+    static final class Snapshot {
+        final long[] counts;
+        final long count;
+        final long sumNanos;
+
+        Snapshot(long[] counts, long count, long sumNanos) {
+            this.counts = counts;
+            this.count = count;
+            this.sumNanos = sumNanos;
+        }
+
+        // 第 q 分位数（纳秒），取所在的桶的中点
+        long quantile(double q) {
+            if (count == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(q * count);
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank && counts[i] > 0) {
+                    return lowerBound(i) + width(i) / 2;
+                }
+            }
+            return lowerBound(counts.length - 1);
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package com.bite.metrics;
+
+import com.bite.config.FileConfig;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.DoubleSupplier;
+
+// 查询、制作索引各个阶段的耗时和计数，通过 /metrics 接口以 Prometheus 的文本格式导出
+// 每个阶段一个 LatencyHistogram，导出成 summary（几个分位数 + _sum + _count），计数器导出成 counter
+//
+// 开关 ENABLED 是 static final 的，关闭之后（-Ddocsearch.metrics=false）所有的 since、record、add 里面的判断
+// 都会被 JIT 当成常量折叠掉，连 System.nanoTime() 都不会调用，查询的热路径上相当于没有这些代码
+public final class Metrics {
+
+    public static final boolean ENABLED = FileConfig.metrics;
+
+    // 同一个名字的指标是一族，族里面按照标签区分，例如 docsearch_search_stage_seconds{stage="analyze"}
+    private static final Map<String, Family> FAMILIES = new LinkedHashMap<>();
+
+    // 查询：从收到请求到返回 JSON 的总耗时，以及 DocSearcher 中每个阶段的耗时
+    public static final LatencyHistogram SEARCH_REQUEST = histogram("docsearch_search_request_seconds",
+            "/searcher 请求的总耗时", "");
+    public static final LatencyHistogram SEARCH_ANALYZE = searchStage("analyze");
+    public static final LatencyHistogram SEARCH_CACHE = searchStage("cache");
+    public static final LatencyHistogram SEARCH_POSTINGS = searchStage("postings");
+    public static final LatencyHistogram SEARCH_SCORE = searchStage("score");
+    public static final LatencyHistogram SEARCH_TOPK = searchStage("topk");
+    public static final LatencyHistogram SEARCH_DOCS = searchStage("docs");
+    public static final LatencyHistogram SEARCH_SNIPPET = searchStage("snippet");
+    public static final LatencyHistogram SEARCH_SERIALIZE = searchStage("serialize");
+
+    public static final Counter SEARCH_POSTINGS_SCANNED = counter("docsearch_search_postings_total",
+            "查询用到的倒排拉链的总长度（文档数）");
+    public static final Counter SEARCH_DOCS_SCORED = counter("docsearch_search_scored_docs_total",
+            "算过分的文档数，WAND 剪枝跳过的文档不算");
+    public static final Counter SEARCH_SHARDED = counter("docsearch_search_sharded_total",
+            "拆成多个分片并行求值的查询数");
+    public static final Counter SEARCH_CACHE_HITS = counter("docsearch_search_cache_hits_total",
+            "直接从查询结果缓存返回的查询数");
+    public static final Counter SEARCH_TIMEOUTS = counter("docsearch_search_timeouts_total",
+            "超过时间预算、返回了部分结果的查询数");
+    public static final Counter SEARCH_REJECTED = counter("docsearch_search_rejected_total",
+            "排队的查询太多或者等待超时，直接返回 503 的请求数");
+
+    // 分布式查询：协调节点上每个分片请求（包括对冲请求在内）从发出到拿到结果的耗时，失败的分片数，发出的对冲请求数
+    public static final LatencyHistogram CLUSTER_SHARD_REQUEST = histogram("docsearch_cluster_shard_request_seconds",
+            "协调节点请求一个分片的耗时", "");
+    public static final Counter CLUSTER_SHARD_FAILURES = counter("docsearch_cluster_shard_failures_total",
+            "超时或者出错的分片请求数");
+    public static final Counter CLUSTER_HEDGES = counter("docsearch_cluster_hedged_requests_total",
+            "发出的对冲请求数");
+
+    // 制作索引：流水线每个阶段处理一个文档的耗时，以及保存、加载整个索引的耗时
+    public static final LatencyHistogram INDEX_READ = indexStage("read");
+    public static final LatencyHistogram INDEX_STRIP = indexStage("strip");
+    public static final LatencyHistogram INDEX_TOKENIZE = indexStage("tokenize");
+    public static final LatencyHistogram INDEX_WRITE = indexStage("write");
+    public static final LatencyHistogram INDEX_SAVE = histogram("docsearch_index_commit_seconds",
+            "保存、加载整个索引的耗时", "op=\"save\"");
+    public static final LatencyHistogram INDEX_LOAD = histogram("docsearch_index_commit_seconds",
+            "保存、加载整个索引的耗时", "op=\"load\"");
+
+    public static final Counter INDEX_DOCS = counter("docsearch_index_docs_total", "加入索引的文档数");
+
+    private Metrics() {
+    }
+
+    // 一个阶段开始的时间，关闭统计的时候返回 0，配合 LatencyHistogram.since 使用
+    public static long now() {
+        return ENABLED ? System.nanoTime() : 0;
+    }
+
+    // 注册一个瞬时值，每次导出的时候调用 supplier 取值，同一个名字、标签再注册一次会替换掉之前的
+    // 例如流水线每个阶段的队列长度、吞吐量，当前索引的文档数
+    public static void gauge(String name, String help, String labels, DoubleSupplier supplier) {
+        if (ENABLED) {
+            register(name, help, "gauge", labels, supplier);
+        }
+    }
+
+    private static LatencyHistogram searchStage(String stage) {
+        return histogram("docsearch_search_stage_seconds", "查询每个阶段的耗时", "stage=\"" + stage + "\"");
+    }
+
+    private static LatencyHistogram indexStage(String stage) {
+        return histogram("docsearch_index_stage_seconds", "制作索引时流水线每个阶段处理一个文档的耗时",
+                "stage=\"" + stage + "\"");
+    }
+
+    private static LatencyHistogram histogram(String name, String help, String labels) {
+        LatencyHistogram histogram = new LatencyHistogram();
+        register(name, help, "summary", labels, histogram);
+        return histogram;
+    }
+
+    private static Counter counter(String name, String help) {
+        Counter counter = new Counter();
+        register(name, help, "counter", "", counter);
+        return counter;
+    }
+
+    private static synchronized void register(String name, String help, String type, String labels, Object metric) {
+        Family family = FAMILIES.get(name);
+        if (family == null) {
+            family = new Family(help, type);
+            FAMILIES.put(name, family);
+        }
+        family.children.put(labels, metric);
+    }
+
+    // 以 Prometheus 的文本格式（0.0.4）导出所有的指标，耗时的单位是秒
+    public static synchronized String scrape() {
+        StringBuilder sb = new StringBuilder(8192);
+        for (Map.Entry<String, Family> entry : FAMILIES.entrySet()) {
+            String name = entry.getKey();
+            Family family = entry.getValue();
+            sb.append("# HELP ").append(name).append(' ').append(family.help).append('\n');
+            sb.append("# TYPE ").append(name).append(' ').append(family.type).append('\n');
+            for (Map.Entry<String, Object> child : family.children.entrySet()) {
+                String labels = child.getKey();
+                Object metric = child.getValue();
+                if (metric instanceof LatencyHistogram) {
+                    LatencyHistogram.Snapshot snapshot = ((LatencyHistogram) metric).snapshot();
+                    String prefix = labels.isEmpty() ? "" : labels + ",";
+                    for (double q : LatencyHistogram.QUANTILES) {
+                        // 还没有记录过的时候分位数是 NaN，和 Prometheus 官方客户端一样
+                        double value = snapshot.count == 0 ? Double.NaN : snapshot.quantile(q) / 1e9;
+                        sample(sb, name, prefix + "quantile=\"" + q + "\"", value);
+                    }
+                    sample(sb, name + "_sum", labels, snapshot.sumNanos / 1e9);
+                    sample(sb, name + "_count", labels, snapshot.count);
+                } else if (metric instanceof Counter) {
+                    sample(sb, name, labels, ((Counter) metric).get());
+                } else {
+                    double value;
+                    try {
+                        value = ((DoubleSupplier) metric).getAsDouble();
+                    } catch (RuntimeException e) {
+                        // 取值出错的瞬时值不导出，不影响其它指标
+                        e.printStackTrace();
+                        continue;
+                    }
+                    sample(sb, name, labels, value);
+                }
+            }
+        }
+        return sb.toString();
+    }
+
+    private static void sample(StringBuilder sb, String name, String labels, double value) {
+        sb.append(name);
+        if (!labels.isEmpty()) {
+            sb.append('{').append(labels).append('}');
+        }
+        sb.append(' ');
+        if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            sb.append((long) value);
+        } else {
+            sb.append(value);
+        }
+        sb.append('\n');
+    }
+
+    private static final class Family {
+        final String help;
+        final String type;
+        final Map<String, Object> children = new LinkedHashMap<>();
+
+        Family(String help, String type) {
+            this.help = help;
+            this.type = type;
+        }
+    }
+}
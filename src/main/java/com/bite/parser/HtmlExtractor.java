@@ -0,0 +1,324 @@
+package com.bite.parser;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+
+// 通过这个类从 html 中提取正文，替代 readFile + parseContentByRegex
+// 1、通过 NIO 把整个文件一次读到一个复用的 ByteBuffer 中，按 UTF-8 解码到一个复用的 CharBuffer 中
+// 2、用一个状态机从头到尾扫描一遍：去掉标签、注释、<script>/<style>/<noscript> 块，把 &lt; 这种实体转换成字符，
+//    合并连续的空白，结果直接写到一个复用的 StringBuilder 中
+// 3、Javadoc 页面顶部和底部的导航栏（START OF TOP NAVBAR ... END OF TOP NAVBAR）每一页都一样，对搜索没有意义，也一起去掉
+// 整个过程没有正则表达式，也不会对整篇文档做多次拷贝
+// 内部的缓冲区是复用的，所以一个对象不能被多个线程同时使用，每个线程用自己的对象
+public class HtmlExtractor {
+
+    private ByteBuffer bytes = ByteBuffer.allocate(64 * 1024);
+    private CharBuffer chars = CharBuffer.allocate(64 * 1024);
+    private final StringBuilder out = new StringBuilder(64 * 1024);
+    private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+    // 是否在导航栏里面
+    private boolean inNavbar;
+    // 上一个输出的字符是不是空白，用来合并连续的空白
+    private boolean pendingSpace;
+
+    // 读取并提取一个 html 文件的正文
+    public String extract(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException(file + " 太大了");
+            }
+            if (bytes.capacity() < size) {
+                bytes = ByteBuffer.allocate((int) size);
+            }
+            bytes.clear();
+            while (bytes.position() < size && channel.read(bytes) >= 0) {
+                // 一直读到文件末尾
+            }
+            bytes.flip();
+        }
+        return extract(bytes);
+    }
+
+    // 提取已经读到内存中的 html 的正文，bytes 是 UTF-8 编码的
+    public String extract(byte[] html, int length) {
+        return extract(ByteBuffer.wrap(html, 0, length));
+    }
+
+    private String extract(ByteBuffer input) {
+        // UTF-8 解码出来的字符个数不会超过字节数
+        if (chars.capacity() < input.remaining()) {
+            chars = CharBuffer.allocate(input.remaining());
+        }
+        chars.clear();
+        decoder.reset();
+        decoder.decode(input, chars, true);
+        decoder.flush(chars);
+        chars.flip();
+        return extract(chars.array(), chars.arrayOffset(), chars.arrayOffset() + chars.limit());
+    }
+
+    // 提取已经解码好的 html 的正文
+    public String extract(CharSequence html) {
+        char[] array = new char[html.length()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = html.charAt(i);
+        }
+        return extract(array, 0, array.length);
+    }
+
+    private String extract(char[] c, int pos, int end) {
+        out.setLength(0);
+        inNavbar = false;
+        pendingSpace = false;
+        while (pos < end) {
+            char ch = c[pos];
+            if (ch == '<') {
+                pos = skipMarkup(c, pos, end);
+                // 标签相当于一个空白，避免 <td>a</td><td>b</td> 这种情况把两个单元格的内容连在一起
+                pendingSpace = true;
+            } else if (inNavbar) {
+                pos++;
+            } else if (ch == '&') {
+                pos = appendEntity(c, pos, end);
+            } else {
+                appendChar(ch);
+                pos++;
+            }
+        }
+        return out.toString();
+    }
+
+    private void appendChar(char ch) {
+        // 空白字符以及 &nbsp; 都当作空格
+        if (ch <= ' ' || ch == '\u00A0') {
+            pendingSpace = true;
+            return;
+        }
+        if (pendingSpace) {
+            if (out.length() > 0) {
+                out.append(' ');
+            }
+            pendingSpace = false;
+        }
+        out.append(ch);
+    }
+
+    // pos 指向 '<'，跳过一个标签/注释/脚本块，返回之后的位置
+    private int skipMarkup(char[] c, int pos, int end) {
+        // 注释，顺便识别导航栏的开始和结束标记
+        if (startsWith(c, pos, end, "<!--")) {
+            int close = indexOf(c, pos + 4, end, "-->");
+            int commentEnd = close < 0 ? end : close;
+            if (contains(c, pos + 4, commentEnd, "START OF TOP NAVBAR")
+                    || contains(c, pos + 4, commentEnd, "START OF BOTTOM NAVBAR")) {
+                inNavbar = true;
+            } else if (contains(c, pos + 4, commentEnd, "END OF TOP NAVBAR")
+                    || contains(c, pos + 4, commentEnd, "END OF BOTTOM NAVBAR")) {
+                inNavbar = false;
+            }
+            return close < 0 ? end : close + 3;
+        }
+        // 内容不是正文的块，整个跳过
+        String block = rawTextTag(c, pos + 1, end);
+        int tagEnd = skipTag(c, pos, end);
+        if (block != null) {
+            int close = indexOfIgnoreCase(c, tagEnd, end, block);
+            if (close < 0) {
+                return end;
+            }
+            return skipTag(c, close, end);
+        }
+        return tagEnd;
+    }
+
+    // 跳过一个标签，属性值中的 '>' 不算标签的结束
+    private static int skipTag(char[] c, int pos, int end) {
+        char quote = 0;
+        for (int i = pos + 1; i < end; i++) {
+            char ch = c[i];
+            if (quote != 0) {
+                if (ch == quote) {
+                    quote = 0;
+                }
+            } else if (ch == '"' || ch == '\'') {
+                quote = ch;
+            } else if (ch == '>') {
+                return i + 1;
+            }
+        }
+        return end;
+    }
+
+    // 如果是 <script>、<style>、<noscript> 的开始标签，返回对应的结束标签
+    private static String rawTextTag(char[] c, int pos, int end) {
+        if (matchesTag(c, pos, end, "script")) {
+            return "</script";
+        }
+        if (matchesTag(c, pos, end, "style")) {
+            return "</style";
+        }
+        if (matchesTag(c, pos, end, "noscript")) {
+            return "</noscript";
+        }
+        return null;
+    }
+
+    private static boolean matchesTag(char[] c, int pos, int end, String name) {
+        int length = name.length();
+        if (pos + length > end) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (Character.toLowerCase(c[pos + i]) != name.charAt(i)) {
+                return false;
+            }
+        }
+        // 后面必须是标签名的结束，避免把 <scripts> 这种当成 <script>
+        if (pos + length == end) {
+            return true;
+        }
+        char next = c[pos + length];
+        return next == '>' || next == '/' || next <= ' ';
+    }
+
+    // pos 指向 '&'，把实体转换成对应的字符，不认识的实体原样保留
+    private int appendEntity(char[] c, int pos, int end) {
+        int semicolon = -1;
+        for (int i = pos + 1; i < end && i <= pos + 10; i++) {
+            if (c[i] == ';') {
+                semicolon = i;
+                break;
+            }
+        }
+        int codePoint = semicolon < 0 ? -1 : decodeEntity(c, pos + 1, semicolon);
+        if (codePoint < 0) {
+            appendChar('&');
+            return pos + 1;
+        }
+        if (Character.isBmpCodePoint(codePoint)) {
+            appendChar((char) codePoint);
+        } else {
+            appendChar(Character.highSurrogate(codePoint));
+            out.append(Character.lowSurrogate(codePoint));
+        }
+        return semicolon + 1;
+    }
+
+    private static int decodeEntity(char[] c, int start, int end) {
+        if (start >= end) {
+            return -1;
+        }
+        if (c[start] == '#') {
+            int radix = 10;
+            int i = start + 1;
+            if (i < end && (c[i] == 'x' || c[i] == 'X')) {
+                radix = 16;
+                i++;
+            }
+            if (i >= end) {
+                return -1;
+            }
+            int value = 0;
+            for (; i < end; i++) {
+                int digit = Character.digit(c[i], radix);
+                if (digit < 0) {
+                    return -1;
+                }
+                value = value * radix + digit;
+                if (value > Character.MAX_CODE_POINT) {
+                    return -1;
+                }
+            }
+            return value;
+        }
+        switch (new String(c, start, end - start)) {
+            case "lt":
+                return '<';
+            case "gt":
+                return '>';
+            case "amp":
+                return '&';
+            case "quot":
+                return '"';
+            case "apos":
+                return '\'';
+            case "nbsp":
+                return ' ';
+            case "copy":
+                return '©';
+            case "reg":
+                return '®';
+            case "trade":
+                return '™';
+            case "hellip":
+                return '…';
+            case "mdash":
+                return '—';
+            case "ndash":
+                return '–';
+            case "lsquo":
+                return '‘';
+            case "rsquo":
+                return '’';
+            case "ldquo":
+                return '“';
+            case "rdquo":
+                return '”';
+            case "middot":
+                return '·';
+            default:
+                return -1;
+        }
+    }
+
+    private static boolean startsWith(char[] c, int pos, int end, String s) {
+        if (pos + s.length() > end) {
+            return false;
+        }
+        for (int i = 0; i < s.length(); i++) {
+            if (c[pos + i] != s.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int indexOf(char[] c, int from, int end, String s) {
+        for (int i = from; i + s.length() <= end; i++) {
+            if (startsWith(c, i, end, s)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean contains(char[] c, int from, int end, String s) {
+        return indexOf(c, from, end, s) >= 0;
+    }
+
+    // s 是小写的
+    private static int indexOfIgnoreCase(char[] c, int from, int end, String s) {
+        int length = s.length();
+        for (int i = from; i + length <= end; i++) {
+            int j = 0;
+            while (j < length && Character.toLowerCase(c[i + j]) == s.charAt(j)) {
+                j++;
+            }
+            if (j == length) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,414 @@
+package com.bite.parser;
+
+import com.bite.config.FileConfig;
+import com.bite.index.Index;
+import com.bite.index.ManifestEntry;
+import com.bite.metrics.LatencyHistogram;
+import com.bite.metrics.Metrics;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+// 通过这个类实现流水线式的多线程制作索引
+// 发现文件 -> 读文件 -> 去标签 -> 分词 -> 写索引，每个阶段有自己的线程数，阶段之间通过有界队列连接
+// 下游处理不过来的时候，上游往队列里放数据会被阻塞（背压），所以不管文档有多少，同时在内存中的文档最多只有几个队列的容量，
+// 不再需要先把所有文件都枚举到一个 ArrayList 里面
+//
+// 增量制作索引的时候传入上一次的清单：大小和修改时间都没变的文件在发现阶段就跳过，
+// 变了的在读文件之后再比较内容的哈希值，内容也没变的只更新清单，真正变了的才继续解析
+public class IndexPipeline {
+
+    // 队列中的结束标记，一个阶段的所有线程都结束之后，给下一个阶段的每个线程各放一个
+    private static final Object END = new Object();
+
+    private final Path root;
+    private final Parser parser;
+    // 上一次制作索引的清单，key 是源文件的路径，全量制作索引的时候是空的
+    private final Map<String, ManifestEntry> previous;
+
+    // 发现文件的阶段只有一个线程，单独统计
+    private final AtomicLong discovered = new AtomicLong(0);
+    private final AtomicLong unchanged = new AtomicLong(0);
+    private final List<Stage> stages = new ArrayList<>();
+
+    // 这次遍历到的所有源文件的路径
+    private final Set<String> seen = ConcurrentHashMap.newKeySet();
+    // 内容变了、新版本已经加入索引、需要删掉旧文档的源文件的路径
+    // 在写索引的阶段才记下来，后面的阶段出错（见 Stage.work）的文件不在这里，旧版本继续有效，下一次增量制作的时候再试
+    private final Set<String> replaced = ConcurrentHashMap.newKeySet();
+    // 只有修改时间变了、内容没变的源文件
+    private final Queue<ManifestEntry> touched = new ConcurrentLinkedQueue<>();
+
+    public IndexPipeline(Index index, Parser parser, Path root) {
+        this(index, parser, root, Collections.emptyMap());
+    }
+
+    public IndexPipeline(Index index, Parser parser, Path root, Map<String, ManifestEntry> previous) {
+        this.root = root;
+        this.parser = parser;
+        this.previous = previous;
+
+        int capacity = FileConfig.queueCapacity;
+        Stage read = new Stage("读文件", "read", Metrics.INDEX_READ, FileConfig.readThreads, capacity,
+                item -> {
+                    SourceFile file = (SourceFile) item;
+                    byte[] html;
+                    try {
+                        // 一次把整个文件读到内存中，解码和去标签放到下一个阶段
+                        html = Files.readAllBytes(file.file.toPath());
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                    long hash = hash(html);
+                    ManifestEntry old = previous.get(file.path);
+                    if (old != null) {
+                        if (old.getHash() == hash) {
+                            // 只是修改时间变了，内容没变
+                            touched.add(new ManifestEntry(file.path, file.size, file.mtime, hash, old.getDocId()));
+                            return null;
+                        }
+                    }
+                    return new RawDoc(file.file, html, new ManifestEntry(file.path, file.size, file.mtime, hash, -1));
+                });
+        Stage strip = new Stage("去标签", "strip", Metrics.INDEX_STRIP, FileConfig.stripThreads, capacity,
+                item -> {
+                    RawDoc raw = (RawDoc) item;
+                    return new ParsedDoc(parser.parseTitle(raw.file), parser.parseUrl(raw.file),
+                            parser.parseContentFast(raw.html), raw.source);
+                });
+        Stage tokenize = new Stage("分词", "tokenize", Metrics.INDEX_TOKENIZE, FileConfig.tokenizeThreads, capacity,
+                item -> {
+                    ParsedDoc doc = (ParsedDoc) item;
+                    return index.tokenize(doc.title, doc.url, doc.content, doc.source);
+                });
+        Stage write = new Stage("写索引", "write", Metrics.INDEX_WRITE, FileConfig.indexThreads, capacity,
+                item -> {
+                    Index.TokenizedDoc doc = (Index.TokenizedDoc) item;
+                    index.addTokenized(doc);
+                    if (previous.containsKey(doc.getSource().getPath())) {
+                        replaced.add(doc.getSource().getPath());
+                    }
+                    return null;
+                });
+        read.next = strip;
+        strip.next = tokenize;
+        tokenize.next = write;
+        stages.add(read);
+        stages.add(strip);
+        stages.add(tokenize);
+        stages.add(write);
+    }
+
+    public List<Stage> getStages() {
+        return Collections.unmodifiableList(stages);
+    }
+
+    public long getDiscovered() {
+        return discovered.get();
+    }
+
+    // 大小和修改时间都没变，直接跳过的文件个数
+    public long getUnchanged() {
+        return unchanged.get();
+    }
+
+    public Set<String> getSeen() {
+        return seen;
+    }
+
+    public Set<String> getReplaced() {
+        return replaced;
+    }
+
+    public Collection<ManifestEntry> getTouched() {
+        return touched;
+    }
+
+    // 运行整个流水线，所有的文档都加入索引之后返回
+    public void run() throws InterruptedException {
+        long start = System.currentTimeMillis();
+        // 每个阶段的队列长度和吞吐量导出到 /metrics，和下面定时打印的进度是同样的数据
+        for (Stage stage : stages) {
+            String labels = "stage=\"" + stage.id + "\"";
+            Metrics.gauge("docsearch_index_queue_depth", "流水线每个阶段的输入队列中等待处理的文档数", labels,
+                    stage::getQueueDepth);
+            Metrics.gauge("docsearch_index_docs_per_second", "流水线每个阶段从开始到现在平均每秒处理的文档数", labels,
+                    () -> stage.getProcessed() * 1000.0 / Math.max(System.currentTimeMillis() - start, 1));
+        }
+        List<Thread> threads = new ArrayList<>();
+        for (Stage stage : stages) {
+            for (int i = 0; i < stage.threads; i++) {
+                Thread thread = new Thread(stage::work, "index-" + stage.name + "-" + i);
+                thread.start();
+                threads.add(thread);
+            }
+        }
+
+        // 每隔几秒打印一次每个阶段的进度，方便看出哪个阶段是瓶颈
+        Thread monitor = new Thread(() -> {
+            try {
+                while (true) {
+                    Thread.sleep(5000);
+                    report(System.currentTimeMillis() - start);
+                }
+            } catch (InterruptedException e) {
+                // 流水线结束了
+            }
+        }, "index-monitor");
+        monitor.setDaemon(true);
+        monitor.start();
+
+        // 在当前线程中遍历目录，发现的文件直接放到第一个阶段的队列里
+        Stage first = stages.get(0);
+        try {
+            Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                    // 排除枚举的所有文件中的 非HTML文件
+                    if (attrs.isRegularFile() && file.getFileName().toString().endsWith(".html")) {
+                        discovered.incrementAndGet();
+                        String path = parser.relativePath(file.toFile());
+                        if (!parser.inPartition(path)) {
+                            return FileVisitResult.CONTINUE;
+                        }
+                        long size = attrs.size();
+                        long mtime = attrs.lastModifiedTime().toMillis();
+                        seen.add(path);
+                        ManifestEntry old = previous.get(path);
+                        if (old != null && old.getSize() == size && old.getMtime() == mtime) {
+                            unchanged.incrementAndGet();
+                            return FileVisitResult.CONTINUE;
+                        }
+                        try {
+                            first.put(new SourceFile(file.toFile(), path, size, mtime));
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            return FileVisitResult.TERMINATE;
+                        }
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                    exc.printStackTrace();
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            first.finish();
+        }
+
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        monitor.interrupt();
+        report(System.currentTimeMillis() - start);
+    }
+
+    private void report(long elapsed) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("流水线已运行 ").append(elapsed).append(" ms，发现文件 ").append(discovered.get())
+                .append("，没有变化 ").append(unchanged.get());
+        for (Stage stage : stages) {
+            sb.append("\n  ").append(stage.name)
+                    .append(" 线程数: ").append(stage.threads)
+                    .append(" 已处理: ").append(stage.getProcessed())
+                    .append(" 失败: ").append(stage.getFailed())
+                    .append(" 吞吐: ").append(elapsed == 0 ? 0 : stage.getProcessed() * 1000 / elapsed).append("/s")
+                    .append(" 忙碌: ").append(stage.getBusyMillis()).append(" ms")
+                    .append(" 队列: ").append(stage.getQueueDepth()).append("/").append(stage.capacity)
+                    .append(" 最大: ").append(stage.getMaxQueueDepth());
+        }
+        System.out.println(sb);
+    }
+
+    // 流水线中的一个阶段：若干个线程从输入队列中取数据，处理之后放到下一个阶段的输入队列中
+    public static class Stage {
+        private final String name;
+        // 导出指标时使用的英文名
+        private final String id;
+        // 每处理一个数据的耗时
+        private final LatencyHistogram latency;
+        private final int threads;
+        private final int capacity;
+        private final BlockingQueue<Object> queue;
+        // 返回 null 表示这个数据不需要再往下传
+        private final Function<Object, Object> function;
+        private Stage next;
+
+        private final AtomicInteger running;
+        private final AtomicLong processed = new AtomicLong(0);
+        private final AtomicLong failed = new AtomicLong(0);
+        private final AtomicLong busyNanos = new AtomicLong(0);
+        private final AtomicInteger maxQueueDepth = new AtomicInteger(0);
+
+        Stage(String name, String id, LatencyHistogram latency, int threads, int capacity,
+              Function<Object, Object> function) {
+            this.name = name;
+            this.id = id;
+            this.latency = latency;
+            this.threads = Math.max(threads, 1);
+            this.capacity = Math.max(capacity, 1);
+            this.queue = new ArrayBlockingQueue<>(this.capacity);
+            this.function = function;
+            this.running = new AtomicInteger(this.threads);
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int getThreads() {
+            return threads;
+        }
+
+        public long getProcessed() {
+            return processed.get();
+        }
+
+        public long getFailed() {
+            return failed.get();
+        }
+
+        public long getBusyMillis() {
+            return busyNanos.get() / 1000000;
+        }
+
+        // 当前输入队列中等待处理的个数
+        public int getQueueDepth() {
+            return queue.size();
+        }
+
+        public int getMaxQueueDepth() {
+            return maxQueueDepth.get();
+        }
+
+        // 往这个阶段的输入队列放数据，队列满了会阻塞
+        void put(Object item) throws InterruptedException {
+            queue.put(item);
+            int depth = queue.size();
+            int max = maxQueueDepth.get();
+            while (depth > max && !maxQueueDepth.compareAndSet(max, depth)) {
+                max = maxQueueDepth.get();
+            }
+        }
+
+        // 上游已经没有数据了，给这个阶段的每个线程放一个结束标记
+        void finish() throws InterruptedException {
+            for (int i = 0; i < threads; i++) {
+                queue.put(END);
+            }
+        }
+
+        void work() {
+            try {
+                while (true) {
+                    Object item = queue.take();
+                    if (item == END) {
+                        break;
+                    }
+                    long beg = System.nanoTime();
+                    Object result = null;
+                    try {
+                        result = function.apply(item);
+                        processed.incrementAndGet();
+                    } catch (RuntimeException e) {
+                        // 单个文档处理失败不影响其它文档
+                        e.printStackTrace();
+                        failed.incrementAndGet();
+                    }
+                    long elapsed = System.nanoTime() - beg;
+                    busyNanos.addAndGet(elapsed);
+                    latency.record(elapsed);
+                    if (result != null && next != null) {
+                        next.put(result);
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                // 这个阶段最后一个结束的线程负责通知下一个阶段
+                if (running.decrementAndGet() == 0 && next != null) {
+                    try {
+                        next.finish();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }
+        }
+    }
+
+    // 文件内容的 64 位 FNV-1a 哈希值，用来判断文件内容有没有变
+    static long hash(byte[] bytes) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : bytes) {
+            h ^= b & 0xFF;
+            h *= 0x100000001b3L;
+        }
+        return h;
+    }
+
+    private static class SourceFile {
+        final File file;
+        final String path;
+        final long size;
+        final long mtime;
+
+        SourceFile(File file, String path, long size, long mtime) {
+            this.file = file;
+            this.path = path;
+            this.size = size;
+            this.mtime = mtime;
+        }
+    }
+
+    private static class RawDoc {
+        final File file;
+        final byte[] html;
+        final ManifestEntry source;
+
+        RawDoc(File file, byte[] html, ManifestEntry source) {
+            this.file = file;
+            this.html = html;
+            this.source = source;
+        }
+    }
+
+    private static class ParsedDoc {
+        final String title;
+        final String url;
+        final String content;
+        final ManifestEntry source;
+
+        ParsedDoc(String title, String url, String content, ManifestEntry source) {
+            this.title = title;
+            this.url = url;
+            this.content = content;
+            this.source = source;
+        }
+    }
+}
@@ -1,28 +1,56 @@
 package com.bite.parser;
 
+import com.bite.config.FileConfig;
 import com.bite.index.Index;
+import com.bite.index.ManifestEntry;
+import com.bite.metrics.Metrics;
 
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
-import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.atomic.AtomicLong;
 
 
 public class Parser {
 
-    // 指定加载文档的路径
-    private static final String INPUT_FILE ="C:/Users/rain7/Desktop/docs/api/";
+    // 指定加载文档的路径，见 FileConfig.inputPath
+    private final Path inputRoot;
+    // 索引目录，为 null 的时候用 Index 默认的目录
+    private final String indexPath;
 
-    private Index index = new Index();
+    private Index index;
+
+    // 每个线程一个正文提取器，内部的缓冲区可以复用
+    private final ThreadLocal<HtmlExtractor> extractors = ThreadLocal.withInitial(HtmlExtractor::new);
 
     private AtomicLong t1 = new AtomicLong(0);
     private AtomicLong t2 = new AtomicLong(0);
 
+    public Parser(){
+        this(Paths.get(FileConfig.inputPath),null);
+    }
+
+    // 测试的时候指定文档目录和索引目录
+    Parser(Path inputRoot,String indexPath){
+        this.inputRoot = inputRoot.toAbsolutePath();
+        this.indexPath = indexPath;
+        this.index = newIndex();
+    }
+
+    private Index newIndex(){
+        return indexPath==null?new Index():new Index(indexPath);
+    }
+
     // 通过这个方法实现单线程制作索引
     public void run(){
         long start = System.currentTimeMillis();
@@ -30,7 +58,7 @@ public class Parser {
         ArrayList<File> fileList = new ArrayList<File>();
 
         // 遍历文档路径,获取文档中所有的 HTML 文件
-        File rootFile = new File(INPUT_FILE);
+        File rootFile = inputRoot.toFile();
 
         long startEmnu = System.currentTimeMillis();
         emnuFile(rootFile,fileList);
@@ -55,51 +83,81 @@ public class Parser {
         System.out.println("枚举文件消耗时间："+(endEmnu-startEmnu)+" ms");
         System.out.println("遍历文件进行解析时间："+(endFor-startFor)+" ms");
         System.out.println("索引总共需要的制作时间： "+(end-start)+" ms");
+        System.out.println("t1解析内容的总时间:"+t1+"   t2制作索引的总时间:"+t2);
 
     }
 
     //通过这个方法实现多线程制作索引，通过打印时间发现遍历文件进行解析 消耗的时间非常多，需要多线程遍历解析
+    // 使用流水线（IndexPipeline）：边遍历目录边解析，读文件、去标签、分词、写索引分别由不同的线程池处理，
+    // 每个阶段的线程数见 FileConfig，阶段之间是有界队列，内存占用不会随着文档数增长
     public void runByThread(){
         long begin = System.currentTimeMillis();
 
-        ArrayList<File> fileList = new ArrayList<>();
-
-        // 遍历文档路径,获取文档中所有的 HTML 文件
-        File rootFile = new File(INPUT_FILE);
-        emnuFile(rootFile,fileList);
+        IndexPipeline pipeline = new IndexPipeline(index,this,inputRoot);
+        try {
+            pipeline.run();
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+            return;
+        }
+        // 把内存中构造好的索引数据结构，保存到指定的文件当中
+        index.save();
 
-        CountDownLatch latch = new CountDownLatch(fileList.size());
-        // 2、此处为了实现多线程遍历文件制作索引，就直接引入线程池实现索引
-        ExecutorService executorService = Executors.newFixedThreadPool(8 );
-        for(File file:fileList){
-            executorService.submit(new Runnable(){
-                @Override
-                public void run() {
-//                    System.out.println("开始解析:"+file.getAbsolutePath());
-                    parseHTML(file);
-                    latch.countDown();
-                }
-            });
+        long end = System.currentTimeMillis();
+        System.out.println("多线程的时间："+(end-begin)+" ms");
+    }
 
+    // 增量制作索引：只解析新增的、内容有变化的文件，删除的、被替换的旧文档在删除位图中标记为删除
+    // 删除的文档占的比例超过 FileConfig.compactRatio 的时候，顺便合并一次，把它们真正去掉
+    public void runIncremental(){
+        long begin = System.currentTimeMillis();
 
+        index.load();
+        Map<String,ManifestEntry> manifest;
+        try {
+            manifest = index.getManifest();
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+        if(manifest.isEmpty()){
+            System.out.println("没有找到上一次制作索引的清单，执行全量制作");
+            // load 可能退回了旧的 JSON 索引，它的正排、倒排已经是冻结的了，在它上面加文档再 save 写出去的还是 JSON 中的旧内容，
+            // 所以全量制作要换一个新的 Index
+            index = newIndex();
+            runByThread();
+            return;
         }
 
+        IndexPipeline pipeline = new IndexPipeline(index,this,inputRoot,manifest);
         try {
-            // 等待所有线程全部完成任务
-            latch.await();//await方法会阻塞，直到所有的选手都调用 countDown 撞线完毕后，才能阻塞结束
-            executorService.shutdown();//干掉线程池中的线程,解决 main方法已经结束，进程还未结束的问题
-            // 线程池的线程不是后台线程，main方法执行完了还在等待新任务的到来，所以总进程无法结束，需要我们手动结束线程池里面的线程
+            pipeline.run();
         } catch (InterruptedException e) {
             e.printStackTrace();
+            return;
         }
-        // 把内存中构造好的索引数据结构，保存到指定的文件当中
-        index.save();
 
-        long end = System.currentTimeMillis();
-        System.out.println("多线程的时间："+(end-begin)+" ms");
+        // 清单中有、这次没有遍历到的是删除的文件；内容变了的文件，旧的文档也要删掉
+        Set<String> deleted = new HashSet<>(pipeline.getReplaced());
+        for(String path:manifest.keySet()){
+            if(!pipeline.getSeen().contains(path)){
+                deleted.add(path);
+            }
+        }
+        index.saveIncremental(deleted,pipeline.getTouched());
 
+        if(index.getDeletedDocCount()>index.getDocCount()*FileConfig.compactRatio){
+            index.compact();
+        }
 
-        System.out.println("t1解析内容的总时间:"+t1+"   t2制作索引的总时间:"+t2);
+        long end = System.currentTimeMillis();
+        System.out.println("增量制作索引的时间："+(end-begin)+" ms");
+    }
+
+    // 合并索引，去掉所有已经删除的文档
+    public void compact(){
+        index.load();
+        index.compact();
     }
 
     /**
@@ -122,17 +180,22 @@ public class Parser {
 
         long beg = System.nanoTime();
         //3、解析出HTML 对应的正文
-        String content = parseContentByRegex(file);
+        String content = parseContentFast(file);
         long mid = System.nanoTime();
 
-        // 只有这一步是写操作，所以要保证线程安全，加锁synchronized
-        //4、把解析后的数据添加到索引当中
-        index.addDoc(title,url,content);
+        // 只有这一步是写操作，Index 内部每个线程写自己私有的段，不需要加锁
+        //4、把解析后的数据添加到索引当中，分词和写索引分开计时，和流水线的阶段对应
+        Index.TokenizedDoc doc = index.tokenize(title,url,content);
+        long tokenized = System.nanoTime();
+        index.addTokenized(doc);
         long end = System.nanoTime();
 
         // parseHTML 会循环调用很多次，单次调用时间较短
         t1.addAndGet(mid-beg);
         t2.addAndGet(end-mid);
+        Metrics.INDEX_STRIP.record(mid-beg);
+        Metrics.INDEX_TOKENIZE.record(tokenized-mid);
+        Metrics.INDEX_WRITE.record(end-tokenized);
     }
 
     /**
@@ -177,10 +240,29 @@ public class Parser {
         return null;
     }
 
+    // 通过 HtmlExtractor 一次扫描提取正文：NIO 读文件、UTF-8 解码、去标签/脚本/导航栏、转换实体、合并空白
+    public String parseContentFast(File file){
+        try {
+            return extractors.get().extract(file);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return "";
+    }
+
+    // 从已经读到内存中的 html 文件内容中提取正文，流水线的去标签阶段使用
+    String parseContentFast(byte[] html){
+        return extractors.get().extract(html,html.length);
+    }
+
     // 这个方法内部基于正则表达式，实现去标签，以及去除 <script>
     public String parseContentByRegex(File file){
         // 把整个文件的内容读取到 content中
-        String content  = readFile(file);
+        return stripHtml(readFile(file));
+    }
+
+    // 去掉已经读到内存中的 html 的标签
+    String stripHtml(String content){
         //  把<srcipt>标签去了
         content = content.replaceAll("<script.*?>(.*?)</script>"," ");
         // 把 普通标签<> 替换掉
@@ -217,7 +299,7 @@ public class Parser {
      * 解析html文件的url
      * @return
      */
-    private String parseUrl(File file) {
+    String parseUrl(File file) {
         // 这里展示的url，我们希望能够跳转到线上java文档的地址
         // 所以展示的是 java线上文档的url
 
@@ -228,13 +310,41 @@ public class Parser {
         String part1 ="https://docs.oracle.com/javase/8/docs/api/";
 
         // 截取本地文档中 除前半部分的固定url 的后半内容
-        String part2 = file.getAbsolutePath().substring(INPUT_FILE.length());
-        // part2中的反斜杠全部替换成正斜杠，其实浏览器自身的容错能力也支持 反斜杠、正斜杠识别
-        part2 = part2.replaceAll("\\\\","/");
+        String part2 = relativePath(file);
 
         return part1+part2;
     }
 
+    // 分布式部署时这个进程只处理其中一个分区的文件，见 FileConfig.partition
+    private final int partition;
+    private final int partitions;
+
+    {
+        if(FileConfig.partition==null){
+            partition = 0;
+            partitions = 1;
+        }else{
+            String[] parts = FileConfig.partition.split("/");
+            partition = Integer.parseInt(parts[0].trim());
+            partitions = Integer.parseInt(parts[1].trim());
+            if(partitions<1 || partition<0 || partition>=partitions){
+                throw new IllegalArgumentException("分区的格式是 i/n，0 <= i < n: "+FileConfig.partition);
+            }
+        }
+    }
+
+    // 文件是否属于这个进程处理的分区，按照相对路径的哈希值分，同一个文件在增量制作索引的时候总是落在同一个分区
+    boolean inPartition(String relativePath){
+        return partitions==1 || Math.floorMod(relativePath.hashCode(),partitions)==partition;
+    }
+
+    // 文件相对于文档根目录的路径
+    String relativePath(File file){
+        String path = inputRoot.relativize(file.toPath().toAbsolutePath()).toString();
+        // 反斜杠全部替换成正斜杠，其实浏览器自身的容错能力也支持 反斜杠、正斜杠识别
+        return path.replace('\\','/');
+    }
+
 //    public static void main(String[] args) {
 //        Parser parser = new Parser();
 //        Index index = new Index();
@@ -246,7 +356,7 @@ public class Parser {
      * 解析html文件的标题
      * @return 返回搜索结果的标题
      */
-    private String parseTitle(File file) {
+    String parseTitle(File file) {
         // 通过查看html文件的源码，发现title 标签的内容就是文件名
 
         int index = file.getName().lastIndexOf('.');
@@ -271,7 +381,7 @@ public class Parser {
             }else{ // 如果不是目录，只是普通的文件
 
                 // 排除枚举的所有文件中的 非HTML文件
-                if(file.getAbsolutePath().endsWith(".html")){
+                if(file.getAbsolutePath().endsWith(".html") && inPartition(relativePath(file))){
                     fileList.add(file);
                 }
             }
@@ -279,10 +389,37 @@ public class Parser {
     }
 
 
+    // 参数 incremental：增量制作索引；compact：合并索引；不带参数：全量制作索引
     public static void main(String[] args) {
         Parser parser = new Parser();
-        System.out.println("多线程开始制作索引!");
-        parser.runByThread();
-        System.out.println("多线程制作索引完成!");
+        String mode = args.length>0?args[0]:"full";
+        if("incremental".equals(mode)){
+            System.out.println("开始增量制作索引!");
+            parser.runIncremental();
+            System.out.println("增量制作索引完成!");
+        }else if("compact".equals(mode)){
+            parser.compact();
+        }else{
+            System.out.println("多线程开始制作索引!");
+            parser.runByThread();
+            System.out.println("多线程制作索引完成!");
+        }
+        writeMetrics();
+    }
+
+    // 制作索引是一个跑完就退出的进程，Prometheus 抓取不到，指定了 FileConfig.metricsFile 的时候把指标写到这个文件中，
+    // 交给 node_exporter 的 textfile collector 导出；先写临时文件再改名，不会被读到写了一半的文件
+    private static void writeMetrics(){
+        if(!Metrics.ENABLED || FileConfig.metricsFile==null){
+            return;
+        }
+        Path target = Paths.get(FileConfig.metricsFile);
+        Path tmp = target.resolveSibling(target.getFileName()+".tmp");
+        try {
+            Files.write(tmp,Metrics.scrape().getBytes(StandardCharsets.UTF_8));
+            Files.move(tmp,target,StandardCopyOption.REPLACE_EXISTING,StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
     }
 }
@@ -0,0 +1,177 @@
+package com.bite.search;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+// 解析之后的查询（见 QueryParser），是一棵由词、短语、组合条件构成的树
+// 组合条件（GroupNode）和 Lucene 的 BooleanQuery 一样有三种子句：
+//   must    必须满足，"a b"、"a AND b"、"+a" 都是
+//   should  "a OR b" 中的每一项，没有 must 的时候至少要满足一个；有 must 的时候不影响匹配，只参与算分
+//   mustNot 必须不满足，"-a"、"NOT a"
+// 匹配只决定哪些文档算命中，分数还是和以前一样：所有正向（不在 NOT 下面）的查询词在文档中的权重之和
+final class BooleanQuery {
+
+    abstract static class Node {
+    }
+
+    static final class TermNode extends Node {
+        final String word;
+
+        TermNode(String word) {
+            this.word = word;
+        }
+
+        @Override
+        public String toString() {
+            return word;
+        }
+    }
+
+    static final class PhraseNode extends Node {
+        final Phrase phrase;
+
+        PhraseNode(Phrase phrase) {
+            this.phrase = phrase;
+        }
+
+        @Override
+        public String toString() {
+            return "\"" + phrase + "\"";
+        }
+    }
+
+    static final class GroupNode extends Node {
+        final List<Node> must = new ArrayList<>();
+        final List<Node> should = new ArrayList<>();
+        final List<Node> mustNot = new ArrayList<>();
+
+        // 子句之间的顺序不影响结果（匹配是交集、并集，分数是相加），排序之后 "a b" 和 "b a" 可以共用一个缓存的结果
+        @Override
+        public String toString() {
+            List<String> clauses = new ArrayList<>();
+            for (Node node : must) {
+                clauses.add("+" + node);
+            }
+            for (Node node : should) {
+                clauses.add("?" + node);
+            }
+            for (Node node : mustNot) {
+                clauses.add("-" + node);
+            }
+            Collections.sort(clauses);
+            return "(" + String.join(" ", clauses) + ")";
+        }
+    }
+
+    // 整个查询都是空的（例如全是停用词）的时候为 null
+    private final Node root;
+    // 所有正向的查询词，重复的词也保留，和以前一样重复的词会重复累加权重
+    private final List<String> words = new ArrayList<>();
+    private final List<Phrase> phrases = new ArrayList<>();
+    // 分面过滤条件：字段 -> 允许的取值（多个取值之间是 OR），和整个查询是 AND 的关系，见 Facets
+    private final TreeMap<String, TreeSet<String>> filters = new TreeMap<>();
+    // 是否要统计命中的文档的分面
+    private boolean countFacets = false;
+    // 分布式查询时每个词的权重换算系数（见 DocSearcher.searchShard），没有的词不换算；只在分片节点上设置，不走查询结果缓存，所以不在 toString 中
+    private Map<String, Double> termScales = null;
+
+    BooleanQuery(Node root) {
+        this.root = root;
+        collect(root);
+    }
+
+    private void collect(Node node) {
+        if (node instanceof TermNode) {
+            words.add(((TermNode) node).word);
+        } else if (node instanceof PhraseNode) {
+            Phrase phrase = ((PhraseNode) node).phrase;
+            phrases.add(phrase);
+            for (int i = 0; i < phrase.size(); i++) {
+                words.add(phrase.word(i));
+            }
+        } else if (node instanceof GroupNode) {
+            // NOT 下面的词不参与算分，也不需要在描述中标出来
+            for (Node child : ((GroupNode) node).must) {
+                collect(child);
+            }
+            for (Node child : ((GroupNode) node).should) {
+                collect(child);
+            }
+        }
+    }
+
+    Node getRoot() {
+        return root;
+    }
+
+    List<String> getWords() {
+        return words;
+    }
+
+    List<Phrase> getPhrases() {
+        return phrases;
+    }
+
+    void addFilter(String field, String value) {
+        filters.computeIfAbsent(field, k -> new TreeSet<>()).add(value);
+    }
+
+    Map<String, TreeSet<String>> getFilters() {
+        return filters;
+    }
+
+    boolean isCountFacets() {
+        return countFacets;
+    }
+
+    void setCountFacets(boolean countFacets) {
+        this.countFacets = countFacets;
+    }
+
+    double termScale(String word) {
+        Double scale = termScales == null ? null : termScales.get(word);
+        return scale == null ? 1 : scale;
+    }
+
+    void setTermScales(Map<String, Double> termScales) {
+        this.termScales = termScales;
+    }
+
+    // 只是几个词的 OR（或者只有一个词）：命中的文档就是所有倒排拉链的并集，可以直接走合并、WAND，不需要匹配器
+    // 有分面过滤、或者要统计分面（每个命中的文档都要访问到，不能被 WAND 跳过）的时候也要走匹配器
+    boolean isDisjunction() {
+        if (!filters.isEmpty() || countFacets) {
+            return false;
+        }
+        if (root instanceof TermNode) {
+            return true;
+        }
+        if (!(root instanceof GroupNode)) {
+            return false;
+        }
+        GroupNode group = (GroupNode) root;
+        if (!group.must.isEmpty() || !group.mustNot.isEmpty()) {
+            return false;
+        }
+        for (Node node : group.should) {
+            if (!(node instanceof TermNode)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // 查询结果缓存的 key、ETag 中使用，结构相同的查询得到相同的字符串
+    @Override
+    public String toString() {
+        String s = root == null ? "" : root.toString();
+        if (!filters.isEmpty()) {
+            s += " " + filters;
+        }
+        return countFacets ? s + " #facets" : s;
+    }
+}
@@ -0,0 +1,216 @@
+package com.bite.search;
+
+import com.bite.index.Facets;
+import com.bite.index.Index;
+import com.bite.index.PostingsCursor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+// 通过这个类完成带 AND、NOT、短语、分组的查询（见 BooleanQuery）：由匹配器（DocMatcher）找出命中的文档，再给它们算分
+// 1、AND 求交集的时候最短的倒排拉链领头，其它的拉链借助块头整块跳过，只有同时包含所有词的文档才会被访问到
+// 2、分数和以前一样，是所有正向查询词的权重之和；只有命中的文档才会算分，也只有它们才会进入 top-K、生成描述
+// 3、从根节点一路都是必须满足的词（例如 "a b" 中的 a、b），命中的时候游标一定停在这个文档上，算分直接用匹配器的游标；
+//    其它的词（OR 里面的、只影响分数的可选词）单独取一个游标，按照命中文档的 docId 往后 advance
+// 4、分面过滤（pkg=、kind=）的位图和整个查询一起求交集，"pkg=java.util.concurrent" 这种很小的位图会领头，
+//    只有这个包中的文档才会去倒排拉链中找，而不是先求出所有命中的文档再一个个过滤
+// 5、每命中一批文档检查一次时间预算（见 Deadline），超时就停下来，已经交给 collector 的就是 docId 较小的那部分文档中的前 K 个
+final class BooleanScorer {
+
+    private final Index index;
+    private final BooleanQuery query;
+    // 只处理 docId 在 [from, to) 中的文档，见 RangeCursor
+    private final int from;
+    private final int to;
+
+    // 算分用的游标，每个正向查询词一个
+    private final List<PostingsCursor> scoring = new ArrayList<>();
+    // 整个查询的匹配器，不可能有命中的时候为 null
+    private final DocMatcher matcher;
+
+    // 命中的文档数，也就是准确的命中总数
+    private int matchedDocs = 0;
+    // 统计命中的文档的分面，不需要统计的时候为 null
+    private final FacetCounts facetCounts;
+    private final Deadline deadline;
+
+    BooleanScorer(Index index, BooleanQuery query) {
+        this(index, query, 0, PostingsCursor.NO_MORE_DOCS, null, Deadline.NONE);
+    }
+
+    BooleanScorer(Index index, BooleanQuery query, int from, int to, FacetCounts facetCounts, Deadline deadline) {
+        this.index = index;
+        this.query = query;
+        this.from = from;
+        this.to = to;
+        this.facetCounts = facetCounts;
+        this.deadline = deadline;
+        DocMatcher root = query.getRoot() == null ? null : build(query.getRoot(), true, false, true);
+        this.matcher = root == null ? null : filter(root, query.getFilters());
+    }
+
+    int getMatchedDocs() {
+        return matchedDocs;
+    }
+
+    // 把命中的文档按照所有正向查询词的权重之和交给 collector，超时提前结束的时候 matchedDocs 只是一个下限
+    void score(TopKCollector collector) {
+        if (matcher == null) {
+            return;
+        }
+        for (int docId = matcher.nextDoc(); docId != DocMatcher.NO_MORE_DOCS; docId = matcher.nextDoc()) {
+            if ((matchedDocs & (Deadline.CHECK_INTERVAL - 1)) == 0 && deadline.check()) {
+                break;
+            }
+            matchedDocs++;
+            if (facetCounts != null) {
+                facetCounts.add(docId);
+            }
+            collector.collect(docId, scoreOf(docId));
+        }
+    }
+
+    // 命中的文档是按照 docId 升序来的，所以每个查询词的游标只需要往后 advance
+    private int scoreOf(int docId) {
+        int score = 0;
+        for (PostingsCursor cursor : scoring) {
+            if (cursor.advance(docId) == docId) {
+                score += cursor.weight();
+            }
+        }
+        return score;
+    }
+
+    // 查询和每个字段的过滤条件求交集，一个字段的多个取值之间是 OR（合并成一个位图）；有一个字段没有任何取值匹配的时候不可能有命中
+    private DocMatcher filter(DocMatcher root, Map<String, TreeSet<String>> filters) {
+        if (filters.isEmpty()) {
+            return root;
+        }
+        Facets facets = index.getFacets();
+        List<DocMatcher> matchers = new ArrayList<>();
+        matchers.add(root);
+        for (Map.Entry<String, TreeSet<String>> entry : filters.entrySet()) {
+            int field = Facets.field(entry.getKey());
+            TreeSet<Integer> ords = new TreeSet<>();
+            for (String value : entry.getValue()) {
+                for (int ord : facets.find(field, value)) {
+                    ords.add(ord);
+                }
+            }
+            int[] ordArray = new int[ords.size()];
+            int i = 0;
+            for (int ord : ords) {
+                ordArray[i++] = ord;
+            }
+            PostingsCursor cursor = facets.cursor(field, ordArray);
+            if (cursor == null) {
+                return null;
+            }
+            matchers.add(new DocMatcher.Term(RangeCursor.of(cursor, from, to)));
+        }
+        return new DocMatcher.Conjunction(matchers);
+    }
+
+    private PostingsCursor cursor(String word) {
+        PostingsCursor cursor = ScaledCursor.of(index.getInverted(word), query.termScale(word));
+        return cursor == null ? null : RangeCursor.of(cursor, from, to);
+    }
+
+    // 构建 node 的匹配器，返回 null 表示不可能有命中（或者 match 为 false）；同时把 node 中正向查询词的算分游标加到 scoring 中
+    // required：从根节点到这里都是必须满足的条件；negative：在 NOT 下面，不参与算分；match：false 的时候只需要算分的游标
+    private DocMatcher build(BooleanQuery.Node node, boolean required, boolean negative, boolean match) {
+        if (node instanceof BooleanQuery.TermNode) {
+            String word = ((BooleanQuery.TermNode) node).word;
+            PostingsCursor cursor = cursor(word);
+            if (cursor == null) {
+                return null;
+            }
+            if (!negative) {
+                scoring.add(cursor);
+                if (!match) {
+                    return null;
+                }
+                if (!required) {
+                    cursor = cursor(word);
+                }
+            }
+            return new DocMatcher.Term(cursor);
+        }
+        if (node instanceof BooleanQuery.PhraseNode) {
+            Phrase phrase = ((BooleanQuery.PhraseNode) node).phrase;
+            PostingsCursor[] cursors = new PostingsCursor[phrase.size()];
+            List<DocMatcher> terms = new ArrayList<>(phrase.size());
+            boolean missing = false;
+            for (int i = 0; i < phrase.size(); i++) {
+                PostingsCursor cursor = cursor(phrase.word(i));
+                if (cursor == null) {
+                    // 有一个词在索引中不存在，这个短语不可能匹配上
+                    missing = true;
+                    continue;
+                }
+                if (!negative) {
+                    scoring.add(cursor);
+                    if (match && !required) {
+                        cursor = cursor(phrase.word(i));
+                    }
+                }
+                cursors[i] = cursor;
+                terms.add(new DocMatcher.Term(cursor));
+            }
+            return missing || !match ? null : new DocMatcher.PhraseMatch(phrase, cursors, terms);
+        }
+        BooleanQuery.GroupNode group = (BooleanQuery.GroupNode) node;
+        if (!match) {
+            for (BooleanQuery.Node child : group.must) {
+                build(child, false, negative, false);
+            }
+            for (BooleanQuery.Node child : group.should) {
+                build(child, false, negative, false);
+            }
+            return null;
+        }
+        List<DocMatcher> must = new ArrayList<>();
+        boolean empty = false;
+        for (BooleanQuery.Node child : group.must) {
+            DocMatcher matcher = build(child, required, negative, true);
+            if (matcher == null) {
+                empty = true;
+            } else {
+                must.add(matcher);
+            }
+        }
+        List<DocMatcher> should = new ArrayList<>();
+        for (BooleanQuery.Node child : group.should) {
+            // 有必须满足的子句的时候，可选的子句只影响分数，不需要匹配器
+            DocMatcher matcher = build(child, false, negative, group.must.isEmpty());
+            if (matcher != null) {
+                should.add(matcher);
+            }
+        }
+        if (empty) {
+            return null;
+        }
+        DocMatcher include;
+        if (!must.isEmpty()) {
+            include = must.size() == 1 ? must.get(0) : new DocMatcher.Conjunction(must);
+        } else if (!should.isEmpty()) {
+            include = should.size() == 1 ? should.get(0) : new DocMatcher.Disjunction(should);
+        } else {
+            // 只有 NOT 的查询（例如 "-a"）没有命中
+            return null;
+        }
+        List<DocMatcher> mustNot = new ArrayList<>();
+        for (BooleanQuery.Node child : group.mustNot) {
+            DocMatcher matcher = build(child, false, true, true);
+            if (matcher != null) {
+                mustNot.add(matcher);
+            }
+        }
+        if (mustNot.isEmpty()) {
+            return include;
+        }
+        return new DocMatcher.Exclusion(include, mustNot.size() == 1 ? mustNot.get(0) : new DocMatcher.Disjunction(mustNot));
+    }
+}
@@ -0,0 +1,20 @@
+package com.bite.search;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+// 这个类是查询结果缓存的统计信息，/admin/cache 接口直接返回它
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class CacheStats {
+    private long hits;// 命中次数
+    private long misses;// 没有命中的次数
+    private long evictions;// 为了放新结果被淘汰掉的结果个数
+    private long rejections;// 因为不够热门或者太大没有放进缓存的结果个数
+    private int entries;// 当前缓存的结果个数
+    private long bytes;// 当前缓存的结果估算占用的内存
+    private long maxBytes;// 缓存最多占用的内存
+    private double hitRate;// 命中率
+}
@@ -0,0 +1,49 @@
+package com.bite.search;
+
+import java.util.concurrent.TimeUnit;
+
+// 一次查询的时间预算（见 FileConfig.searchTimeout），求值、合并、生成描述的循环每处理一批文档就检查一次，
+// 到时间了就停下来，用已经处理过的部分给出结果，结果标记 partial
+// 检查是协作式的：不会中断正在执行的线程，只是让循环自己提前结束，所以超出预算的时间最多是一批文档的处理时间
+// 一个查询拆成几个分片并行求值的时候，所有分片共用同一个 Deadline，有一个分片发现超时了，其它分片下一次检查时也会停下来
+final class Deadline {
+
+    // 每处理多少个文档检查一次时间，System.nanoTime() 虽然不慢，但是也没必要每个文档都调用
+    static final int CHECK_INTERVAL = 1024;
+
+    // 没有时间限制，永远不会超时
+    static final Deadline NONE = new Deadline(Long.MAX_VALUE);
+
+    private final long expiresAt;
+    // 一旦超时就一直是超时，查询结束的时候据此标记 partial
+    private volatile boolean expired = false;
+
+    private Deadline(long expiresAt) {
+        this.expiresAt = expiresAt;
+    }
+
+    // 从现在开始 millis 毫秒之后超时，<= 0 表示没有时间限制
+    static Deadline after(long millis) {
+        if (millis <= 0) {
+            return NONE;
+        }
+        return new Deadline(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis));
+    }
+
+    // 查看时间，超时了返回 true
+    boolean check() {
+        if (expired) {
+            return true;
+        }
+        if (this == NONE || System.nanoTime() - expiresAt < 0) {
+            return false;
+        }
+        expired = true;
+        return true;
+    }
+
+    // 之前的检查中是否已经超时了，不查看时间
+    boolean isExpired() {
+        return expired;
+    }
+}
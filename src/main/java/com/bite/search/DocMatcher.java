@@ -0,0 +1,242 @@
+package com.bite.search;
+
+import com.bite.index.PostingsCursor;
+
+import java.util.List;
+
+// 按照 docId 升序遍历满足一个布尔条件（见 BooleanQuery）的文档，和 PostingsCursor 一样只移动游标，不产生中间结果
+// 每种条件一个实现：词（倒排拉链）、AND（交集）、OR（并集）、NOT（差集）、短语
+abstract class DocMatcher {
+
+    static final int NO_MORE_DOCS = PostingsCursor.NO_MORE_DOCS;
+
+    // 当前所在的 docId，还没开始是 -1，遍历完了是 NO_MORE_DOCS
+    abstract int docId();
+
+    abstract int nextDoc();
+
+    // 移动到第一个 docId >= target 的满足条件的文档，当前文档已经满足的时候不动
+    abstract int advance(int target);
+
+    // 满足条件的文档数的估计值（上限），求交集的时候用来决定谁领头
+    abstract int cost();
+
+    // 一个词的倒排拉链，advance 直接用倒排拉链块头中记录的最后一个 docId 整块跳过（见 MappedPostingsCursor）
+    static final class Term extends DocMatcher {
+        private final PostingsCursor cursor;
+
+        Term(PostingsCursor cursor) {
+            this.cursor = cursor;
+        }
+
+        @Override
+        int docId() {
+            return cursor.docId();
+        }
+
+        @Override
+        int nextDoc() {
+            return cursor.nextDoc();
+        }
+
+        @Override
+        int advance(int target) {
+            return cursor.advance(target);
+        }
+
+        @Override
+        int cost() {
+            return cursor.cost();
+        }
+    }
+
+    // 交集：最短的拉链领头，其它的拉链依次 advance 到领头的 docId 上，有一个跳过了头，领头的拉链就跳到那个位置重新开始
+    // 这样一路上只在最短的拉链上逐个移动，其它的拉链都是大步地跳，"concurrent hash map" 这种查询
+    // 需要访问的文档数只和最短的那个词的文档频率有关，而不是像合并那样和所有词的文档频率之和有关
+    static final class Conjunction extends DocMatcher {
+        private final DocMatcher lead;
+        private final DocMatcher[] others;
+        private int docId = -1;
+
+        Conjunction(List<DocMatcher> matchers) {
+            matchers.sort((a, b) -> Integer.compare(a.cost(), b.cost()));
+            this.lead = matchers.get(0);
+            this.others = matchers.subList(1, matchers.size()).toArray(new DocMatcher[0]);
+        }
+
+        @Override
+        int docId() {
+            return docId;
+        }
+
+        @Override
+        int nextDoc() {
+            return docId = align(lead.nextDoc());
+        }
+
+        @Override
+        int advance(int target) {
+            if (docId >= target) {
+                return docId;
+            }
+            return docId = align(lead.advance(target));
+        }
+
+        private int align(int doc) {
+            while (doc != NO_MORE_DOCS) {
+                int next = doc;
+                for (int i = 0; i < others.length && next == doc; i++) {
+                    next = others[i].advance(doc);
+                }
+                if (next == doc) {
+                    return doc;
+                }
+                doc = lead.advance(next);
+            }
+            return NO_MORE_DOCS;
+        }
+
+        @Override
+        int cost() {
+            return lead.cost();
+        }
+    }
+
+    // 并集：当前的 docId 是所有子条件中最小的那个；子条件一般只有几个，直接遍历比维护一个堆更快
+    static final class Disjunction extends DocMatcher {
+        private final DocMatcher[] matchers;
+        private int docId = -1;
+
+        Disjunction(List<DocMatcher> matchers) {
+            this.matchers = matchers.toArray(new DocMatcher[0]);
+        }
+
+        @Override
+        int docId() {
+            return docId;
+        }
+
+        @Override
+        int nextDoc() {
+            if (docId == NO_MORE_DOCS) {
+                return docId;
+            }
+            return advance(docId + 1);
+        }
+
+        @Override
+        int advance(int target) {
+            if (docId >= target) {
+                return docId;
+            }
+            int min = NO_MORE_DOCS;
+            for (DocMatcher matcher : matchers) {
+                int doc = matcher.docId();
+                if (doc < target) {
+                    doc = matcher.advance(target);
+                }
+                min = Math.min(min, doc);
+            }
+            return docId = min;
+        }
+
+        @Override
+        int cost() {
+            long cost = 0;
+            for (DocMatcher matcher : matchers) {
+                cost += matcher.cost();
+            }
+            return (int) Math.min(cost, Integer.MAX_VALUE);
+        }
+    }
+
+    // 差集：满足 include 但是不满足 exclude 的文档，exclude 只需要跟着 include 的 docId 往后跳
+    static final class Exclusion extends DocMatcher {
+        private final DocMatcher include;
+        private final DocMatcher exclude;
+
+        Exclusion(DocMatcher include, DocMatcher exclude) {
+            this.include = include;
+            this.exclude = exclude;
+        }
+
+        @Override
+        int docId() {
+            return include.docId();
+        }
+
+        @Override
+        int nextDoc() {
+            return skipExcluded(include.nextDoc());
+        }
+
+        @Override
+        int advance(int target) {
+            return skipExcluded(include.advance(target));
+        }
+
+        private int skipExcluded(int doc) {
+            while (doc != NO_MORE_DOCS && exclude.advance(doc) == doc) {
+                doc = include.nextDoc();
+            }
+            return doc;
+        }
+
+        @Override
+        int cost() {
+            return include.cost();
+        }
+    }
+
+    // 短语：先求出包含短语中所有词的文档（交集），再检查词的位置是否对得上
+    // 位置信息只有交集中的候选文档才会去读（PostingsCursor.positions），绝大多数文档连位置都不用解码
+    static final class PhraseMatch extends DocMatcher {
+        private final Phrase phrase;
+        private final PostingsCursor[] cursors;
+        private final DocMatcher approximation;
+        private final int[][] positions;
+
+        PhraseMatch(Phrase phrase, PostingsCursor[] cursors, List<DocMatcher> terms) {
+            this.phrase = phrase;
+            this.cursors = cursors;
+            this.approximation = terms.size() == 1 ? terms.get(0) : new Conjunction(terms);
+            this.positions = new int[cursors.length][];
+        }
+
+        @Override
+        int docId() {
+            return approximation.docId();
+        }
+
+        @Override
+        int nextDoc() {
+            return confirm(approximation.nextDoc());
+        }
+
+        @Override
+        int advance(int target) {
+            if (approximation.docId() >= target) {
+                return approximation.docId();
+            }
+            return confirm(approximation.advance(target));
+        }
+
+        private int confirm(int doc) {
+            while (doc != NO_MORE_DOCS) {
+                for (int i = 0; i < cursors.length; i++) {
+                    positions[i] = cursors[i].positions();
+                }
+                if (phrase.matches(positions)) {
+                    return doc;
+                }
+                doc = approximation.nextDoc();
+            }
+            return NO_MORE_DOCS;
+        }
+
+        @Override
+        int cost() {
+            return approximation.cost();
+        }
+    }
+}
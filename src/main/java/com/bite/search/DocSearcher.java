@@ -1,30 +1,49 @@
 package com.bite.search;
 
+import com.bite.index.BM25FSimilarity;
 import com.bite.index.DocInfo;
+import com.bite.index.Facets;
 import com.bite.index.Index;
-import com.bite.index.Weight;
+import com.bite.index.PostingsCursor;
+import com.bite.index.Suggestion;
 import com.bite.config.FileConfig;
-import org.ansj.domain.Term;
-import org.ansj.splitWord.analysis.ToAnalysis;
+import com.bite.metrics.Metrics;
 
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Predicate;
 
-import static org.ansj.splitWord.analysis.ToAnalysis.parse;
 
 // 通过这个类，来完成整个的搜索流程
 public class DocSearcher {
 
     // 停用词的文件路径
     private static String STOP_WORD_PATH=null;
+    // 查询日志的文件路径，一行一个查询，启动的时候用来预热查询结果缓存，关闭的时候把热门查询写回去
+    private static String QUERY_LOG_PATH=null;
 
     static {
-        if (FileConfig.isOnline) {
+        if (FileConfig.indexPath != null) {
+            STOP_WORD_PATH= new File(FileConfig.indexPath,"stop_word.txt").getPath();
+            QUERY_LOG_PATH= new File(FileConfig.indexPath,"query_log.txt").getPath();
+        } else if (FileConfig.isOnline) {
             STOP_WORD_PATH= "/root/javadoc/stop_word.txt";
+            QUERY_LOG_PATH= "/root/javadoc/query_log.txt";
         } else {
             STOP_WORD_PATH = "C:\\Users\\rain7\\Desktop\\stop_word.txt";
+            QUERY_LOG_PATH = "C:\\Users\\rain7\\Desktop\\query_log.txt";
         }
     }
 
@@ -48,202 +67,703 @@ public class DocSearcher {
     }
 
     // 此处要加上索引对象的实例
-    private Index index = new Index();
+    // 索引可以在服务运行的过程中热加载（见 reload），所以不直接持有 Index，而是持有一个不可变的版本，
+    // 替换的时候只是原子地换掉这个引用，每次查询从头到尾都只用开始时拿到的那个版本
+    private final AtomicReference<IndexSnapshot> current = new AtomicReference<>();
+
+    // 热加载是串行的，后台的定时检查和 /admin/reload 不会同时加载
+    private final Object reloadLock = new Object();
+    private ScheduledExecutorService reloader = null;
+
+    // 查询结果缓存，见 FileConfig.queryCacheMB，不缓存的时候为 null
+    private final QueryCache cache = FileConfig.queryCacheMB>0?new QueryCache(FileConfig.queryCacheMB*1024*1024):null;
+
+    // 每个线程一个权重累加数组，Tomcat 的工作线程是复用的，所以数组也会被复用，不需要每次查询都重新分配
+    // 数组的长度在 reset 的时候按照当前索引的文档数调整
+    private final ThreadLocal<ScoreAccumulator> accumulators = new ThreadLocal<ScoreAccumulator>(){
+        @Override
+        protected ScoreAccumulator initialValue() {
+            return new ScoreAccumulator(0);
+        }
+    };
 
     public DocSearcher() {
         //在构造方法的时候进行加载索引
+        Index index = new Index();
         index.load();
+        current.set(new IndexSnapshot(index));
         loadStopWord();
+        // 热加载之后取到的是新版本的文档数
+        Metrics.gauge("docsearch_index_live_docs","当前查询使用的索引中有效的文档数","",
+                () -> liveDocCount(current.get().getIndex()));
     }
 
-    // 完成整个搜索过程的方法
-    // 参数（输入部分） 用户给出的查询词
-    // 返回值（输出部分）返回的包装类型的搜索结果
+    // 每页默认返回的结果条数
+    public static final int DEFAULT_LIMIT = 10;
+
+    // 多个词查询时的求值方式，见 FileConfig.queryMode
+    public static final String QUERY_MODE_WAND = "wand";
+    public static final String QUERY_MODE_BMW = "bmw";
+
+    // 完成整个搜索过程的方法，只返回第一页的结果
     public List<Result> search(String query){
+        return search(query,0,DEFAULT_LIMIT).getResults();
+    }
+
+    // 完成整个搜索过程的方法
+    // 参数（输入部分） 用户给出的查询词，以及要返回哪一段结果 [offset, offset+limit)
+    // 返回值（输出部分）返回的包装类型的搜索结果，包含当前页的结果以及总的命中数
+    public SearchResult search(String query,int offset,int limit){
+        return search(query,null,offset,limit);
+    }
+
+    // filter 是分面过滤条件以及是否统计分面（见 SearchFilter），为 null 表示没有
+    // 整个查询（包括分词）有一个时间预算（见 FileConfig.searchTimeout），超时的时候返回已经找到的最好的结果，标记 partial
+    public SearchResult search(String query,SearchFilter filter,int offset,int limit){
+        return search(query,filter,offset,limit,null).getSearchResult();
+    }
 
+    // /searcher 使用：同时返回查询结果的 ETag，ETag 和结果来自同一次分词、同一个索引版本
+    // ETag 是索引版本加上分词之后的查询（和查询结果缓存的 key 一样，见 cacheKey），
+    // 大小写、词的顺序不同，但是分词之后一样的查询，ETag 也一样；索引热加载之后所有的 ETag 都会变
+    // 浏览器带着 If-None-Match 重复同一个查询的时候，notModified 对这次的 ETag 返回 true，直接返回不求值，结果为 null
+    public TaggedResult search(String query,SearchFilter filter,int offset,int limit,Predicate<String> notModified){
+        Deadline deadline = Deadline.after(FileConfig.searchTimeout);
+        if(offset<0){
+            offset=0;
+        }
+        if(limit<0){
+            limit=0;
+        }
+
+        //1、【分词】针对 query 查询词进行分词，并去掉停用词，引号括起来的短语单独拿出来
+        // 每个阶段的耗时记录到 Metrics 中，见 /metrics 接口
+        long t = Metrics.now();
+        BooleanQuery booleanQuery = parse(query,filter);
+        t = Metrics.SEARCH_ANALYZE.since(t);
+
+        // 拿到当前版本的索引并增加引用计数，查询过程中即使被热加载替换掉，这个版本也要等查询结束才会释放
+        IndexSnapshot snapshot = acquire();
+        try {
+            // 分词之后的结果一样的查询，结果也一样，所以用分词的结果而不是原始的查询语句作为缓存的 key
+            String key = cacheKey(snapshot.getGeneration(),booleanQuery,offset,limit);
+            String etag = etag(key);
+            if(notModified!=null && notModified.test(etag)){
+                return new TaggedResult(etag,null);
+            }
+            if(cache==null){
+                return new TaggedResult(etag,search(snapshot,booleanQuery,offset,limit,deadline));
+            }
+            SearchResult searchResult = cache.get(key);
+            Metrics.SEARCH_CACHE.since(t);
+            if(searchResult!=null){
+                Metrics.SEARCH_CACHE_HITS.increment();
+            }else{
+                searchResult = search(snapshot,booleanQuery,offset,limit,deadline);
+                // 预热缓存的时候只会重放原始的查询语句，带过滤条件的查询不记下来
+                // 超时的结果不完整，不缓存，负载下去之后同样的查询可以拿到完整的结果
+                if(!searchResult.isPartial()){
+                    cache.put(key,filter==null || filter.isEmpty()?query:null,searchResult);
+                }
+            }
+            return new TaggedResult(etag,searchResult);
+        } finally {
+            snapshot.release();
+        }
+    }
+
+    // 返回的是弱 ETag，因为压缩和不压缩的响应内容不一样，但是语义上是同一个结果
+    private static String etag(String key){
+        // 64 位 FNV-1a，ETag 只需要区分同一个 url 在不同时候的结果，不需要防碰撞
+        long h = 0xcbf29ce484222325L;
+        for(int i=0;i<key.length();i++){
+            h ^= key.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        return "W/\""+Long.toHexString(h)+"\"";
+    }
+
+    // 分布式查询时分片节点返回查询词在自己的索引中的统计信息（/shard/stats），只查词典，不求值
+    public ShardStats shardStats(String query){
+        BooleanQuery booleanQuery = parse(query);
+        IndexSnapshot snapshot = acquire();
+        try {
+            Index index = snapshot.getIndex();
+            Map<String,Long> docFreqs = new HashMap<>();
+            for(String word:booleanQuery.getWords()){
+                PostingsCursor cursor = index.getInverted(word);
+                if(cursor!=null){
+                    docFreqs.put(word,(long)cursor.cost());
+                }
+            }
+            return new ShardStats(index.getSimilarityName(),liveDocCount(index),docFreqs);
+        } finally {
+            snapshot.release();
+        }
+    }
+
+    // 分布式查询时作为分片节点求值（/shard/search），见 ShardHits、ShardCoordinator
+    // 返回前 limit 个文档的 (docId, 分数) 以及每个查询词各自的权重，不查正排、不生成描述，也不走查询结果缓存
+    // global 是协调节点汇总的所有分片的统计信息（见 ShardStats），不为 null 的时候先把权重换算到全局的统计信息上再求值，
+    // 挑出来的前 limit 个和单机时按照全局的 idf 挑出来的一样；为 null 的时候按照这个分片自己的统计信息求值
+    // 分片节点上也有时间预算，超时的时候返回已经找到的部分，协调节点把整个结果标记为 partial
+    public ShardHits searchShard(String query,SearchFilter filter,int limit,ShardStats global){
+        Deadline deadline = Deadline.after(FileConfig.searchTimeout);
+        BooleanQuery booleanQuery = parse(query,filter);
+        IndexSnapshot snapshot = acquire();
+        try {
+            Index index = snapshot.getIndex();
+            boolean globalStats = global!=null && applyGlobalStats(index,booleanQuery,global);
+            TopHits top = topHits(index,booleanQuery,Math.max(limit,0),deadline);
+            int size = Math.min(Math.max(limit,0),top.docIds.length);
+            ShardHits hits = new ShardHits();
+            hits.generation = snapshot.getGeneration();
+            hits.similarity = index.getSimilarityName();
+            hits.docCount = liveDocCount(index);
+            hits.total = top.total;
+            hits.totalExact = top.totalExact;
+            hits.partial = deadline.isExpired();
+            hits.globalStats = globalStats;
+            hits.words = top.words.toArray(new String[0]);
+            hits.docFreqs = top.docFreqs;
+            hits.docIds = Arrays.copyOf(top.docIds,size);
+            hits.scores = Arrays.copyOf(top.scores,size);
+            hits.impacts = termImpacts(index,booleanQuery,top.words,hits.docIds);
+            // 分面统计返回全部的取值，协调节点把所有分片的加起来之后再取前几个
+            hits.facets = top.facets==null?null:top.facets.top(Integer.MAX_VALUE);
+            return hits;
+        } finally {
+            snapshot.release();
+        }
+    }
+
+    // 按照全局的统计信息换算这个分片中每个查询词的权重（见 ScaledCursor）：BM25F 的权重正比于 idf / maxIdf（见 BM25FSimilarity.relativeIdf），
+    // 乘上 relativeIdf(全局的 df, 全局的文档数) / relativeIdf(分片的 df, 分片的文档数) 就是按照全局的 idf 算出来的权重
+    // 不是 BM25F 的索引没法换算，返回 false
+    private static boolean applyGlobalStats(Index index,BooleanQuery query,ShardStats global){
+        if(!BM25FSimilarity.NAME.equals(index.getSimilarityName()) || !BM25FSimilarity.NAME.equals(global.getSimilarity())
+                || global.getDocFreqs()==null){
+            return false;
+        }
+        int docCount = liveDocCount(index);
+        Map<String,Double> scales = new HashMap<>();
+        for(String word:query.getWords()){
+            PostingsCursor cursor = index.getInverted(word);
+            Long docFreq = global.getDocFreqs().get(word);
+            if(cursor==null || docFreq==null){
+                continue;
+            }
+            double local = BM25FSimilarity.relativeIdf(cursor.cost(),docCount);
+            if(local>0){
+                scales.put(word,BM25FSimilarity.relativeIdf(docFreq,global.getDocCount())/local);
+            }
+        }
+        query.setTermScales(scales);
+        return true;
+    }
 
-        //1、【分词】针对 query 查询词进行分词
-        List<Term> oldTerms = ToAnalysis.parse(query).getTerms();
+    // 分布式查询时取最终一页中属于这个分片的文档（/shard/docs），描述和单机查询时一样生成
+    // generation 是 searchShard 时返回的索引版本，索引在这期间被热加载替换了的话 docId 已经对不上了，返回 null
+    public List<Result> fetchShardDocs(String query,String generation,int[] docIds){
+        BooleanQuery booleanQuery = parse(query);
+        IndexSnapshot snapshot = acquire();
+        try {
+            String current = snapshot.getGeneration()==null?"":snapshot.getGeneration();
+            if(!current.equals(generation)){
+                return null;
+            }
+            Index index = snapshot.getIndex();
+            for(int docId:docIds){
+                if(docId<0 || docId>=index.getDocCount()){
+                    return null;
+                }
+            }
+            return buildResults(snapshot,booleanQuery.getWords(),docIds,0,docIds.length,Deadline.after(FileConfig.searchTimeout));
+        } finally {
+            snapshot.release();
+        }
+    }
 
-        List<Term> terms = new ArrayList<>();
-        //1。5 针对分词结果，使用停用词表进行过滤，干掉停用词表中包含的内容
-        for (Term term:oldTerms) {
-            if(stopwords.contains(term.getName())){// 如果包含的话那么直接跳过
+    // 每个文档中每个词各自的权重，impacts[i * words.size() + j] 是第 i 个文档中第 j 个词的权重
+    // 游标只能往后移动，所以对每个词按照 docId 升序依次 advance
+    private static int[] termImpacts(Index index,BooleanQuery query,List<String> words,int[] docIds){
+        int[] impacts = new int[docIds.length*words.size()];
+        long[] byDocId = new long[docIds.length];
+        for(int i=0;i<docIds.length;i++){
+            byDocId[i] = ((long)docIds[i]<<32)|i;
+        }
+        Arrays.sort(byDocId);
+        for(int j=0;j<words.size();j++){
+            PostingsCursor cursor = ScaledCursor.of(index.getInverted(words.get(j)),query.termScale(words.get(j)));
+            if(cursor==null){
                 continue;
             }
-            // 如果不在暂停此表中，那么分词结果不干掉
-            terms.add(term);
+            for(long entry:byDocId){
+                int docId = (int)(entry>>>32);
+                int i = (int)entry;
+                if(cursor.advance(docId)==docId){
+                    impacts[i*words.size()+j] = cursor.weight();
+                }
+            }
         }
+        return impacts;
+    }
 
-        //2、【触发】针对分词结果进行查倒排
-        List<List<Weight>> termResult = new ArrayList<>();
+    // 把查询语句解析成布尔查询：分词、去掉停用词，AND、OR、NOT、括号、短语见 QueryParser
+    // 太长的查询语句先截断再分词，查询词的个数也有上限，见 FileConfig.maxQueryLength、maxQueryTerms
+    private BooleanQuery parse(String query){
+        if(FileConfig.maxQueryLength>0 && query.length()>FileConfig.maxQueryLength){
+            query = query.substring(0,FileConfig.maxQueryLength);
+        }
+        return new QueryParser(stopwords,!"or".equalsIgnoreCase(FileConfig.defaultOperator),FileConfig.maxQueryTerms).parse(query);
+    }
 
-        for (Term term:terms) {
-            String word = term.getName();
-            List<Weight> invertedList = index.getInverted(word);//根据查询词进行查倒排
+    // 再加上分面过滤条件，每个参数中逗号分隔的取值之间是 OR
+    private BooleanQuery parse(String query,SearchFilter filter){
+        BooleanQuery booleanQuery = parse(query);
+        if(filter!=null){
+            addFilter(booleanQuery,Facets.PACKAGE,filter.getPkg());
+            addFilter(booleanQuery,Facets.KIND,filter.getKind());
+            addFilter(booleanQuery,Facets.MODULE,filter.getModule());
+            booleanQuery.setCountFacets(filter.isFacets());
+        }
+        return booleanQuery;
+    }
+
+    private static void addFilter(BooleanQuery booleanQuery,String field,String values){
+        if(values==null){
+            return;
+        }
+        for(String value:values.split(",")){
+            value = value.trim();
+            if(!value.isEmpty()){
+                booleanQuery.addFilter(field,value);
+            }
+        }
+    }
+
+    // 缓存的 key：索引版本 + 分页参数 + 解析之后的查询
+    // 多个词的权重是直接相加的，AND、OR 也和子句的顺序无关，所以 BooleanQuery.toString 中子句是排好序的，
+    // "list java" 和 "java list" 可以共用一个结果；短语内部词的顺序是有意义的，不能排序；邻近度加权和词的顺序无关，不影响 key
+    private static String cacheKey(String generation,BooleanQuery query,int offset,int limit){
+        return generation+'\u0001'+offset+':'+limit+'\u0001'+query;
+    }
+
+    // 每次补全最多返回的词数
+    public static final int MAX_SUGGESTIONS = 20;
+
+    // 搜索框的前缀补全，返回以 prefix 开头的、包含它的文档最多的前 limit 个词
+    // 索引中的英文词都是小写的，所以前缀也先转成小写
+    public List<Suggestion> suggest(String prefix,int limit){
+        String word = prefix==null?"":prefix.trim().toLowerCase();
+        if(word.isEmpty() || limit<=0){
+            return Collections.emptyList();
+        }
+        IndexSnapshot snapshot = acquire();
+        try {
+            return snapshot.getIndex().suggest(word,Math.min(limit,MAX_SUGGESTIONS));
+        } finally {
+            snapshot.release();
+        }
+    }
+
+    private IndexSnapshot acquire(){
+        while(true){
+            IndexSnapshot snapshot = current.get();
+            if(snapshot.tryAcquire()){
+                return snapshot;
+            }
+            // 拿到引用之前这个版本刚好被替换并且释放了，重新读一次就能拿到新版本
+        }
+    }
+
+    private SearchResult search(IndexSnapshot snapshot,BooleanQuery query,int offset,int limit,Deadline deadline){
+        TopHits top = topHits(snapshot.getIndex(),query,(int)Math.min((long)offset+limit,Integer.MAX_VALUE),deadline);
+        int end = (int)Math.min((long)offset+limit,top.docIds.length);
+        List<Result> results = buildResults(snapshot,query.getWords(),top.docIds,offset,end,deadline);
+        SearchResult searchResult = new SearchResult(top.total,offset,limit,results,top.totalExact);
+        if(top.facets!=null){
+            searchResult.setFacets(top.facets.top(FileConfig.facetLimit));
+        }
+        // 求值或者生成描述的时候超时了：求值时超时的，结果是已经扫描过的文档中最好的那些，命中总数和分面统计也只算了扫描过的部分
+        // （见 topHits 中的 totalExact）；生成描述时超时的，后面几个结果的描述只从正文开头生成
+        if(deadline.isExpired()){
+            searchResult.setPartial(true);
+            Metrics.SEARCH_TIMEOUTS.increment();
+        }
+        return searchResult;
+    }
+
+    // 一次查询按分数排好序的前 K 个文档，以及分布式查询时协调节点需要的每个词的统计信息
+    private static class TopHits{
+        int[] docIds;
+        int[] scores;
+        int total;
+        boolean totalExact;
+        // 在索引中找到了的查询词（可能重复），以及它们的文档频率
+        List<String> words;
+        int[] docFreqs;
+        // 所有命中的文档的分面统计，没有请求的时候为 null
+        FacetCounts facets;
+    }
+
+    // 查倒排、求值、挑出前 limit 个并做邻近度加权，deadline 超时的时候求值提前结束，不再做邻近度加权
+    private TopHits topHits(Index index,BooleanQuery query,int limit,Deadline deadline){
+        //2、【触发】针对分词结果进行查倒排，拿到的是每个词的倒排拉链游标
+        long t = Metrics.now();
+        List<PostingsCursor> termResult = new ArrayList<>();
+        // 和 termResult 一一对应的词，分片求值的时候每个分片用它们重新取一遍游标
+        List<String> termWords = new ArrayList<>();
+
+        for (String word:query.getWords()) {
+            PostingsCursor invertedList = ScaledCursor.of(index.getInverted(word),query.termScale(word));//根据查询词进行查倒排
             //虽然倒排索引中有很多的词，但是这里的词一定是之前解析的文档中已经存在的
             // 但是如果word在倒排索引中查找不到的话
             if(invertedList==null){
                  continue;//跳过
             }
-            termResult.add(invertedList);//批量追加一组元素，所以是addAll()
+            termResult.add(invertedList);
+            termWords.add(word);
+        }
+        t = Metrics.SEARCH_POSTINGS.since(t);
+        if(Metrics.ENABLED){
+            for(PostingsCursor cursor:termResult){
+                Metrics.SEARCH_POSTINGS_SCANNED.add(cursor.cost());
+            }
         }
 
         //2、5针对多个分词结果触发的重复文档进行权重合并
-        List<Weight> allTermResult = mergeResult(termResult);
-
-        //3、【排序】针对触发的结果按照相关程度进行降序排序
-        allTermResult.sort(new Comparator<Weight>() {
-            @Override
-            public int compare(Weight o1, Weight o2) {
-                // 重写比较器，降序排序
-                return o2.getWeight()-o1.getWeight();
+        //3、【排序】不再对所有结果做全量排序，而是用一个大小为 offset+limit 的小根堆挑出前 K 个
+        // 像 "java"、"list" 这种词会命中几万个文档，全量排序 + 全量构造结果非常浪费
+        // 合并的结果直接交给 collector，不会生成中间的结果列表
+        // 需要做邻近度加权的时候，至少要挑出前 proximityWindow 个文档，加权之后再从中取出当前页
+        List<String> proximityWords = proximityWords(query.getWords());
+        int topK = limit;
+        if(proximityWords.size()>1 && FileConfig.proximityBoost>0){
+            topK = Math.max(topK,FileConfig.proximityWindow);
+        }
+        TopKCollector collector = new TopKCollector(topK);
+        FacetCounts facetCounts = query.isCountFacets()?new FacetCounts(index.getFacets()):null;
+        // 要扫描的倒排拉链很长的时候，按照 docId 区间拆成几个分片，在线程池中并行求值
+        int shards = shardCount(index,termResult);
+        long hits;
+        if(shards>1){
+            hits = scoreShards(index,query,termWords,topK,shards,collector,facetCounts,deadline);
+            Metrics.SEARCH_SHARDED.increment();
+        }else{
+            hits = scoreRange(index,query,termResult,collector,facetCounts,0,PostingsCursor.NO_MORE_DOCS,deadline);
+        }
+        int total = (int)Math.min(hits,Integer.MAX_VALUE);
+        boolean totalExact = !deadline.isExpired();
+        if(query.isDisjunction() && isWand(termResult)){
+            // WAND 跳过的文档没有被计数，所以命中总数只能给出一个下限：所有词中最大的文档频率
+            for(PostingsCursor cursor:termResult){
+                total = Math.max(total,cursor.cost());
             }
-        });
+            totalExact = false;
+        }
+        t = Metrics.SEARCH_SCORE.since(t);
+        Metrics.SEARCH_DOCS_SCORED.add(hits);
+        int[] topScores = new int[collector.size()];
+        int[] topDocIds = collector.drainDocIds(topScores);
+        if(!deadline.check()){
+            ProximityReranker.rerank(index,proximityWords,topDocIds,topScores,FileConfig.proximityWindow,FileConfig.proximityBoost);
+        }
+        Metrics.SEARCH_TOPK.since(t);
+
+        TopHits top = new TopHits();
+        top.docIds = topDocIds;
+        top.scores = topScores;
+        top.total = total;
+        top.totalExact = totalExact;
+        top.words = termWords;
+        top.facets = facetCounts;
+        top.docFreqs = new int[termResult.size()];
+        for(int i=0;i<top.docFreqs.length;i++){
+            top.docFreqs[i] = termResult.get(i).cost();
+        }
+        return top;
+    }
 
-        //4、【包装结果】针对排序的结果，去查正排，构造出要返回的数据.
+    //4、【包装结果】只针对当前页的结果去查正排，构造出要返回的数据.
+    // 结果是 docIds 中 [from, to) 这一段
+    // deadline 超时之后的结果不再定位、扫描整篇正文，只从正文开头的一段中生成描述
+    private List<Result> buildResults(IndexSnapshot snapshot,List<String> words,int[] docIds,int from,int to,Deadline deadline){
+        Index index = snapshot.getIndex();
+        long t = Metrics.now();
+        // 生成描述用的匹配器一次查询只构建一次，所有结果共用
+        SnippetGenerator snippetGenerator = new SnippetGenerator(words);
+        List<DocInfo> docInfos = new ArrayList<>();
+        for(int i=from;i<to;i++){
+            docInfos.add(index.getDocInfo(docIds[i]));
+        }
+        t = Metrics.SEARCH_DOCS.since(t);
+        // 根据索引中记录的词的位置，直接找到每个结果的正文中查询词最密集的那一段
+        int[] regionStarts = deadline.check()?new int[docInfos.size()]:SnippetLocator.locate(index,proximityWords(words),docInfos);
         List<Result> results = new ArrayList<>();
-        for(Weight weight:allTermResult){
-            DocInfo docInfo = index.getDocInfo(weight.getDocId());
+        for(int i=0;i<docInfos.size();i++){
+            DocInfo docInfo = docInfos.get(i);
             Result result = new Result();
             result.setTitle(docInfo.getTitle());
             result.setUrl(docInfo.getUrl());
+            result.setHead(snapshot.head(docIds[from+i],docInfo));
             //描述是 正文的一段内容的摘要，得包含查询词或者查询词的一部分
-            result.setDesc(GenDesc(docInfo.getContent(),terms));
-            //可以获取到所有的查询词结果
-            // 遍历分词结果，看那个结果在正文中出现
-
-            // 就针对这个包含的分词结果，去正文中查找，找到对应的位置，以这个词的位置为中心
-            // 往前截取60个字符，然后再以描述开始往后截取160个字符作为整个秒描述
+            // 在正文中找到查询词最密集的一段，截取160个字符作为整个描述
+            int regionStart = regionStarts[i]<0 && deadline.check()?0:regionStarts[i];
+            result.setDesc(snippetGenerator.generate(docInfo.getContent(),regionStart));
             results.add(result);
         }
+        Metrics.SEARCH_SNIPPET.since(t);
+        return results;
+    }
 
-         return results;
+    // 参与邻近度加权的词：去掉空白和重复之后的查询词
+    private static List<String> proximityWords(List<String> words){
+        LinkedHashSet<String> distinct = new LinkedHashSet<>();
+        for(String word:words){
+            if(!Index.isBlank(word)){
+                distinct.add(word);
+            }
+        }
+        return new ArrayList<>(distinct);
     }
 
-    // 通过这个内部类，来描述一个元素在二维数组中的位置
-    static class Pos{
-        public int row;
-        public int col;
+    private static boolean isWand(List<PostingsCursor> termResult){
+        return termResult.size()>1 && (QUERY_MODE_WAND.equals(FileConfig.queryMode) || QUERY_MODE_BMW.equals(FileConfig.queryMode));
+    }
 
-        public Pos(int row, int col) {
-            this.row = row;
-            this.col = col;
+    // 在 docId 属于 [from, to) 的文档中求值，结果交给 collector，返回命中的文档数（WAND 的时候是算过分的文档数）
+    // cursors 必须是还没有移动过的游标，只有纯 OR 的查询才会用到；facetCounts 不为 null 的时候统计命中的文档的分面
+    // deadline 超时的时候提前结束，返回的是超时之前命中的文档数
+    private long scoreRange(Index index,BooleanQuery query,List<PostingsCursor> cursors,TopKCollector collector,
+                            FacetCounts facetCounts,int from,int to,Deadline deadline){
+        if(!query.isDisjunction()){
+            // 带 AND、NOT、短语、分面过滤的查询：由匹配器求交集、差集，只有命中的文档才算分，依然按照所有查询词的权重之和排序
+            BooleanScorer booleanScorer = new BooleanScorer(index,query,from,to,facetCounts,deadline);
+            booleanScorer.score(collector);
+            return booleanScorer.getMatchedDocs();
         }
+        if(isWand(cursors)){
+            // 多个词的时候可以使用 WAND 动态剪枝，只对有可能进入 top-K 的文档算分，top-K 的结果和全量合并完全一样
+            WandScorer wandScorer = new WandScorer(cursors,QUERY_MODE_BMW.equals(FileConfig.queryMode));
+            wandScorer.score(collector,deadline);
+        }else{
+            mergeResult(index,cursors,collector,deadline);
+        }
+        return collector.getTotalHits();
     }
 
-    private List<Weight> mergeResult(List<List<Weight>> source) {
-        // 在进行合并的时候是把多个行合并成一行
-        //合并过程中是不需要操作这个二维list，里面的每个元素的
-        // 涉及到行和列
+    // 多个分片并行求值使用的线程池，所有查询共用，线程数就是最多的分片数；分片数 <= 1 的时候不创建
+    private static final ForkJoinPool SHARD_POOL = FileConfig.searchShards>1?new ForkJoinPool(FileConfig.searchShards):null;
+    // 每个分片至少包含这么多个文档，文档太少的时候拆开的开销比省下来的时间还多
+    private static final int MIN_SHARD_DOCS = 1024;
 
-        //1、针对每一行进行排序，按照id进行升序排序
-        for(List<Weight> curRow:source){
-            curRow.sort(new Comparator<Weight>() {
-                @Override
-                public int compare(Weight o1, Weight o2) {
-                    return o1.getDocId()-o2.getDocId();
-                }
-            });
-        }
-
-        //2、借助优先级队列对这些行进行合并
-        List<Weight> target = new ArrayList<>();
-        // 创建优先级队列，按照weight的 dociId 取小的更优先
-        PriorityQueue<Pos> queue = new PriorityQueue<>(new Comparator<Pos>() {
-            @Override
-            public int compare(Pos o1, Pos o2) {
-                // 现根据pos值找到对应的weight对象，再根据weight的id进行排序
-                Weight w1 = source.get(o1.row).get(o1.col);
-                Weight w2 = source.get(o2.row).get(o2.col);
-                return w1.getDocId()-w2.getDocId();
-            }
-        });
+    // 这个查询拆成几个分片，倒排拉链的总长度不到 FileConfig.shardMinPostings 的查询在当前线程中直接求值
+    private static int shardCount(Index index,List<PostingsCursor> termResult){
+        if(SHARD_POOL==null || termResult.isEmpty()){
+            return 1;
+        }
+        long postings = 0;
+        for(PostingsCursor cursor:termResult){
+            postings += cursor.cost();
+        }
+        if(postings<FileConfig.shardMinPostings){
+            return 1;
+        }
+        return Math.max(Math.min(FileConfig.searchShards,index.getDocCount()/MIN_SHARD_DOCS),1);
+    }
 
-        for(int row =0;row<source.size();row++){
-            //初始插入的元素的列为0
-            queue.offer(new Pos(row,0));
-        }
-        while(!queue.isEmpty()){
-            Pos minPos = queue.poll();
-            Weight curWeight = source.get(minPos.row).get(minPos.col);
-            //看看这个取到的Weight是否与前一个插入到 target中的结果是相同的docId
-            // 如果是，那么合并
-            if(target.size()>0){
-                //取出上此插入的最后元素
-                Weight lastWeight = target.get(target.size()-1);
-                if(lastWeight.getDocId()==curWeight.getDocId()){
-                    // 说明遇到了相同的文档
-                    lastWeight.setWeight(lastWeight.getWeight()+curWeight.getWeight());
-                }else{
-                    //如果文档不相同的话，那么就直接把curWeight给插入到target的末尾
-                    target.add(curWeight);
-                }
-            }else{
-                // 如果当前target 是空的，那么就直接把curWeight给插入到 target的末尾
-                target.add(curWeight);
+    // 把 docId 平均分成 shards 个区间，每个区间各自挑出前 topK 个，再合并到 collector 中
+    // 权重是在制作索引的时候按照整个索引的统计信息（文档总数、平均长度、文档频率）算好的，和文档在哪个分片无关，
+    // 所以每个分片的前 topK 个合起来之后，再挑出的前 topK 个和不分片的时候完全一样，分数相同时 docId 小的靠前也不变
+    // 第一个分片在当前线程中求值，其它的交给 SHARD_POOL，返回所有分片的命中数之和
+    // 所有分片共用一个 deadline，超时的时候每个分片都停在自己的半路上，合并的是各个分片已经扫描过的部分
+    private long scoreShards(Index index,BooleanQuery query,List<String> words,int topK,int shards,TopKCollector collector,
+                             FacetCounts facetCounts,Deadline deadline){
+        int maxDoc = index.getDocCount();
+        int step = (maxDoc+shards-1)/shards;
+        TopKCollector[] collectors = new TopKCollector[shards];
+        // 分面统计也是每个分片各自一份，最后加到 facetCounts 中
+        FacetCounts[] shardCounts = new FacetCounts[shards];
+        List<ForkJoinTask<Long>> tasks = new ArrayList<>(shards-1);
+        for(int s=1;s<shards;s++){
+            int from = s*step;
+            int to = s==shards-1?PostingsCursor.NO_MORE_DOCS:from+step;
+            TopKCollector shardCollector = collectors[s] = new TopKCollector(topK);
+            FacetCounts counts = shardCounts[s] = facetCounts==null?null:new FacetCounts(index.getFacets());
+            tasks.add(SHARD_POOL.submit(() -> scoreShard(index,query,words,shardCollector,counts,from,to,deadline)));
+        }
+        collectors[0] = new TopKCollector(topK);
+        long hits = scoreShard(index,query,words,collectors[0],facetCounts,0,step,deadline);
+        for(ForkJoinTask<Long> task:tasks){
+            hits += task.join();
+        }
+        for(int s=1;s<shards;s++){
+            if(shardCounts[s]!=null){
+                facetCounts.merge(shardCounts[s]);
             }
-
-            // 当前元素处理完之后，要把对应这个元素的光标往后移动，来取这一行的下一个元素
-            Pos newPos = new Pos(minPos.row,minPos.col+1);
-            if(newPos.col>=source.get(newPos.row).size()){
-                //说明到达这一行的末尾了，说明处理完毕了
-                continue;
+        }
+        for(TopKCollector shardCollector:collectors){
+            int[] scores = new int[shardCollector.size()];
+            int[] docIds = shardCollector.drainDocIds(scores);
+            for(int i=0;i<docIds.length;i++){
+                collector.collect(docIds[i],scores[i]);
             }
-            queue.offer(newPos);
         }
+        return hits;
+    }
 
-
-        return target;
+    // 游标不能在线程之间共享，每个分片按照词重新从索引中取一遍
+    private long scoreShard(Index index,BooleanQuery query,List<String> words,TopKCollector collector,FacetCounts facetCounts,
+                            int from,int to,Deadline deadline){
+        List<PostingsCursor> cursors = new ArrayList<>(words.size());
+        if(query.isDisjunction()){
+            for(String word:words){
+                cursors.add(RangeCursor.of(ScaledCursor.of(index.getInverted(word),query.termScale(word)),from,to));
+            }
+        }
+        return scoreRange(index,query,cursors,collector,facetCounts,from,to,deadline);
     }
 
-    private String GenDesc(String content, List<Term> terms) {
-        // 遍历分词结果，看看哪个分词结果在content结果中先出现
-        // 只体现描述与分词具有相关性即可，找到第一个出现的分词即可break
-        int firstPos = -1;
-        for(Term term:terms){
-            // 在分词库直接针对词进行转小写了，但是正文中不一定都是小写的字符
-            // 必须把正文先转成小写的在进行查询位置
-            String word = term.getName();
-            // 此处需要 " 全字匹配 "，word独立成词才能查找出来，而不是作为词的一部分 ArrayList List 老婆 老婆饼
-            // 这里的全字匹配不严谨，还需要使用正则表达式 abx list.  .... list) 并不符合全字匹配但是是符合查询条件的,indexOf不支持正则表达式
-            // 转换思路，把 后面带符号的形式 转换成 空格+单词+空格
-            content = content.toLowerCase().replaceAll("\\b"+word+"\\b"," "+word+" ");
-            firstPos = content.toLowerCase().indexOf(" "+word+" ");// 在正文中找到这个词的位置
-            if(firstPos>=0){
-                // 说明这个词找到了,直接break
+    // 合并多个词的倒排拉链，同一个文档的权重相加之后交给 collector
+    // 索引中的倒排拉链都是只读的，这里不会对它们做排序，也不会修改其中的权重，多个线程同时查询也是安全的
+    // 超时的时候后面的词不再累加，已经累加了的文档照样交给 collector，分数里只少了没来得及累加的那些词的权重
+    private void mergeResult(Index index,List<PostingsCursor> source,TopKCollector collector,Deadline deadline) {
+        if(source.size()==1){
+            // 只有一个词的时候不需要合并，直接遍历倒排拉链即可
+            PostingsCursor cursor = source.get(0);
+            int count = 0;
+            for(int docId=cursor.nextDoc();docId!=PostingsCursor.NO_MORE_DOCS;docId=cursor.nextDoc()){
+                if((++count&(Deadline.CHECK_INTERVAL-1))==0 && deadline.check()){
+                    break;
+                }
+                collector.collect(docId,cursor.weight());
+            }
+            return;
+        }
+        // 多个词的时候，借助每个线程自己的累加数组，按照 docId 把权重累加起来
+        ScoreAccumulator accumulator = accumulators.get();
+        accumulator.reset(index.getDocCount());
+        for(PostingsCursor cursor:source){
+            if(!accumulator.accumulate(cursor,deadline)){
                 break;
             }
         }
+        accumulator.collect(collector);
+    }
 
-        if(firstPos==-1){
-            // 所有的分词结果都不在正文中存在
-            // 这是属于比较极端的情况
-            // 返回一个正文的前160个字符即可
-            if(content.length()>160) {
-                return content.substring(0,160)+"...";
+    // 热加载索引：CURRENT 指向了新的版本时，在调用线程中打开并预热新索引，然后原子地替换掉当前的版本
+    // 加载的过程中查询继续使用旧版本，不会有停顿，也不会查到加载了一半的索引；加载失败的时候继续使用旧版本
+    // force 为 true 的时候即使版本没有变化也重新打开一次
+    public ReloadResult reload(boolean force){
+        synchronized (reloadLock){
+            IndexSnapshot old = current.get();
+            long start = System.currentTimeMillis();
+            try {
+                String generation = Index.currentGeneration();
+                if(generation==null){
+                    return new ReloadResult(false,old.getGeneration(),liveDocCount(old.getIndex()),0,"没有找到二进制索引");
+                }
+                if(!force && generation.equals(old.getGeneration())){
+                    return new ReloadResult(false,old.getGeneration(),liveDocCount(old.getIndex()),0,"索引没有变化");
+                }
+                System.out.println("热加载索引开始! "+old.getGeneration()+" -> "+generation);
+                Index index = Index.openCurrent();
+                // 先预热再替换，替换之后的第一批查询就不会因为缺页变慢
+                index.warmUp(FileConfig.reloadWarmupRate*1024*1024);
+                IndexSnapshot snapshot = new IndexSnapshot(index);
+                current.set(snapshot);
+                // 旧版本等正在进行的查询结束之后才会真正释放
+                old.retire();
+                // 缓存的 key 中带着索引版本，旧版本的结果本来就查不到了，这里清掉只是为了尽快释放内存
+                if(cache!=null){
+                    cache.clear();
+                }
+                long end = System.currentTimeMillis();
+                System.out.println("热加载索引完成! 当前版本: "+snapshot.getGeneration()+" 文档数: "+liveDocCount(index)
+                        +" 消耗时间: "+(end-start)+" ms");
+                return new ReloadResult(true,snapshot.getGeneration(),liveDocCount(index),end-start,"ok");
+            } catch (IOException e) {
+                e.printStackTrace();
+                return new ReloadResult(false,old.getGeneration(),liveDocCount(old.getIndex()),0,"加载失败: "+e.getMessage());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return new ReloadResult(false,old.getGeneration(),liveDocCount(old.getIndex()),0,"加载被中断");
             }
+        }
+    }
+
+    private static int liveDocCount(Index index){
+        return index.getDocCount()-index.getDeletedDocCount();
+    }
 
-            return content;
+    // 启动一个后台线程，每隔 intervalMillis 毫秒检查一次 CURRENT，有新版本就热加载，<= 0 表示不检查
+    public synchronized void startWatching(long intervalMillis){
+        if(intervalMillis<=0 || reloader!=null){
+            return;
         }
+        reloader = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r,"index-reloader");
+            thread.setDaemon(true);
+            return thread;
+        });
+        reloader.scheduleWithFixedDelay(() -> {
+            try {
+                reload(false);
+            } catch (Throwable e) {
+                // 某一次检查出错不能让定时任务停掉
+                e.printStackTrace();
+            }
+        },intervalMillis,intervalMillis,TimeUnit.MILLISECONDS);
+    }
 
-        // 从firstPos作为基准位置，往前找60个字符作为起始位置
-        String desc="";
+    // 查询结果缓存的统计信息，不缓存的时候返回 null
+    public CacheStats getCacheStats(){
+        return cache!=null?cache.stats():null;
+    }
 
-        int descBeg = firstPos<60?0:firstPos-60;
-        if(descBeg+160>content.length()){
-            desc = content.substring(descBeg);
-        }else{
-            desc = content.substring(descBeg,descBeg+160)+"...";
+    // 启动的时候用查询日志中的前 FileConfig.cacheWarmupQueries 个查询预热缓存，日志不存在的话什么都不做
+    public void warmUpCache(){
+        File logFile = new File(QUERY_LOG_PATH);
+        if(cache==null || !logFile.exists()){
+            return;
         }
+        long start = System.currentTimeMillis();
+        int count = 0;
+        try(BufferedReader bufferedReader = Files.newBufferedReader(logFile.toPath(),StandardCharsets.UTF_8)) {
+            String line;
+            while(count<FileConfig.cacheWarmupQueries && (line=bufferedReader.readLine())!=null){
+                String query = line.trim();
+                if(query.isEmpty()){
+                    continue;
+                }
+                search(query,0,DEFAULT_LIMIT);
+                count++;
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        long end = System.currentTimeMillis();
+        System.out.println("预热查询缓存完成! 查询数: "+count+" 消耗时间: "+(end-start)+" ms");
+    }
 
-        // 在此处加上一个替换操作，把描述中和分词结果中相同的部分，给加上一层<i>标签，通过replaceAll实现
-        for(Term term:terms){
-            String word = term.getName();
-            // 同样也是全字匹配,加上标签做上标记
-            desc = desc.replaceAll("(?i) "+word+" ","<i> "+word+" </i>");
+    // 把缓存中最热门的查询按照频率从高到低写到查询日志中，下次启动的时候用来预热
+    public void saveQueryLog(){
+        if(cache==null){
+            return;
+        }
+        List<String> queries = cache.hotQueries(FileConfig.cacheWarmupQueries);
+        if(queries.isEmpty()){
+            return;
+        }
+        try(PrintWriter writer = new PrintWriter(Files.newBufferedWriter(new File(QUERY_LOG_PATH).toPath(),StandardCharsets.UTF_8))) {
+            for(String query:queries){
+                // 查询语句中的换行换成空格，保证一行一个查询
+                writer.println(query.replace('\n',' ').replace('\r',' '));
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
         }
-        return desc;
     }
 
     public static void main(String[] args) {
@@ -252,7 +772,7 @@ public class DocSearcher {
         while(true){
             System.out.print("->");
             String query = scanner.next();
-            List<Result> results = docSearcher.search(query);
+            List<Result> results = docSearcher.search(query,0,DEFAULT_LIMIT).getResults();
             for (Result result:results) {
                 System.out.println(result.toString());
                 System.out.println("================================");
@@ -0,0 +1,89 @@
+package com.bite.search;
+
+import com.bite.index.Facets;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// 统计命中的文档在每个分面上的取值分布，例如 pkg 的 java.util 有 120 个、java.util.concurrent 有 35 个
+// 每个命中的文档查一次取值序号（Facets.ordinal）再计数，不需要构造任何对象
+// 一个查询拆成几个分片并行求值的时候，每个分片一个，最后合并起来
+final class FacetCounts {
+
+    private final Facets facets;
+    private final int[][] counts;
+
+    FacetCounts(Facets facets) {
+        this.facets = facets;
+        this.counts = new int[Facets.FIELDS.size()][];
+        for (int field = 0; field < counts.length; field++) {
+            counts[field] = new int[facets.valueCount(field)];
+        }
+    }
+
+    void add(int docId) {
+        for (int field = 0; field < counts.length; field++) {
+            int ord = facets.ordinal(field, docId);
+            if (ord >= 0) {
+                counts[field][ord]++;
+            }
+        }
+    }
+
+    void merge(FacetCounts other) {
+        for (int field = 0; field < counts.length; field++) {
+            for (int ord = 0; ord < counts[field].length; ord++) {
+                counts[field][ord] += other.counts[field][ord];
+            }
+        }
+    }
+
+    // 每个字段按照个数降序取前 limit 个取值（个数相同的按取值排序），没有命中的字段是空的
+    Map<String, Map<String, Integer>> top(int limit) {
+        Map<String, Map<String, Integer>> result = new LinkedHashMap<>();
+        for (int field = 0; field < counts.length; field++) {
+            int[] fieldCounts = counts[field];
+            List<Integer> ords = new ArrayList<>();
+            for (int ord = 0; ord < fieldCounts.length; ord++) {
+                if (fieldCounts[ord] > 0) {
+                    ords.add(ord);
+                }
+            }
+            ords.sort((a, b) -> fieldCounts[a] != fieldCounts[b] ? Integer.compare(fieldCounts[b], fieldCounts[a])
+                    : Integer.compare(a, b));
+            Map<String, Integer> values = new LinkedHashMap<>();
+            for (int i = 0; i < Math.min(limit, ords.size()); i++) {
+                values.put(facets.value(field, ords.get(i)), fieldCounts[ords.get(i)]);
+            }
+            result.put(Facets.FIELDS.get(field), values);
+        }
+        return result;
+    }
+
+    // 合并几个分布式分片返回的统计结果（每个分片返回的是全部的取值），再按照个数降序取前 limit 个
+    static Map<String, Map<String, Integer>> mergeTop(List<Map<String, Map<String, Integer>>> shards, int limit) {
+        Map<String, Map<String, Integer>> result = new LinkedHashMap<>();
+        for (String field : Facets.FIELDS) {
+            Map<String, Integer> merged = new LinkedHashMap<>();
+            for (Map<String, Map<String, Integer>> shard : shards) {
+                Map<String, Integer> values = shard.get(field);
+                if (values != null) {
+                    for (Map.Entry<String, Integer> entry : values.entrySet()) {
+                        merged.merge(entry.getKey(), entry.getValue(), Integer::sum);
+                    }
+                }
+            }
+            List<Map.Entry<String, Integer>> entries = new ArrayList<>(merged.entrySet());
+            entries.sort((a, b) -> !a.getValue().equals(b.getValue()) ? Integer.compare(b.getValue(), a.getValue())
+                    : a.getKey().compareTo(b.getKey()));
+            Map<String, Integer> values = new LinkedHashMap<>();
+            for (int i = 0; i < Math.min(limit, entries.size()); i++) {
+                values.put(entries.get(i).getKey(), entries.get(i).getValue());
+            }
+            result.put(field, values);
+        }
+        return result;
+    }
+}
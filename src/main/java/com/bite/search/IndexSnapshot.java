@@ -0,0 +1,75 @@
+package com.bite.search;
+
+import com.bite.index.DocInfo;
+import com.bite.index.Index;
+import com.fasterxml.jackson.core.io.SerializedString;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+// 一个加载完成、不会再改变的索引版本，DocSearcher 通过 AtomicReference 持有当前的版本
+// 每次查询开始时 acquire，结束时 release；热加载替换成新版本之后，旧版本调用 retire 去掉它自己的那一次引用，
+// 等所有还在用旧版本的查询都结束（引用计数变成0），旧版本才真正关闭，所以正在进行的查询不会受替换的影响
+final class IndexSnapshot {
+
+    private final Index index;
+    private final String generation;
+    // 引用计数，创建的时候为1，代表 DocSearcher 当前持有它；变成0之后就不能再 acquire 了
+    private final AtomicInteger refs = new AtomicInteger(1);
+    // 每个文档的标题、url 转义成 JSON 字符串并且编码成 UTF-8 之后的结果，第一次出现在查询结果中的时候算好，之后直接复用
+    // 返回结果的时候只有描述需要每次序列化，标题、url 直接把这些字节写到输出流里（见 SearchResult.writeTo）
+    // 和 docId 绑定，所以跟着索引版本走，热加载之后随着旧版本一起丢掉
+    private final AtomicReferenceArray<SerializedString[]> heads;
+
+    IndexSnapshot(Index index) {
+        this.index = index;
+        this.generation = index.getGeneration();
+        this.heads = new AtomicReferenceArray<>(index.getDocCount());
+    }
+
+    Index getIndex() {
+        return index;
+    }
+
+    String getGeneration() {
+        return generation;
+    }
+
+    // 文档的标题、url，两个线程同时算同一个文档的时候结果一样，谁写进去都可以
+    SerializedString[] head(int docId, DocInfo docInfo) {
+        SerializedString[] head = heads.get(docId);
+        if (head == null) {
+            head = new SerializedString[]{new SerializedString(docInfo.getTitle()), new SerializedString(docInfo.getUrl())};
+            // 提前把转义、编码之后的字节算出来，SerializedString 会把它们缓存下来
+            head[0].asQuotedUTF8();
+            head[1].asQuotedUTF8();
+            heads.set(docId, head);
+        }
+        return head;
+    }
+
+    // 增加一次引用，这个版本已经关闭的时候返回 false，调用方需要重新读取当前的版本
+    boolean tryAcquire() {
+        while (true) {
+            int count = refs.get();
+            if (count == 0) {
+                return false;
+            }
+            if (refs.compareAndSet(count, count + 1)) {
+                return true;
+            }
+        }
+    }
+
+    void release() {
+        if (refs.decrementAndGet() == 0) {
+            index.close();
+            System.out.println("旧版本的索引已经没有查询在使用，释放: " + generation);
+        }
+    }
+
+    // 被新版本替换掉的时候调用
+    void retire() {
+        release();
+    }
+}
@@ -0,0 +1,63 @@
+package com.bite.search;
+
+import java.util.Arrays;
+
+// 查询中用引号括起来的一个短语，例如 "thread pool"，要求这些词在文档中按顺序紧挨着出现
+// offsets 是每个词在短语中的相对位置，和制作索引时一样只按照非空白的词计数（见 Index.isBlank），
+// 停用词不参与匹配，但是要占一个位置，"list of string" 匹配的是 list 和 string 中间恰好隔了一个词
+final class Phrase {
+
+    private final String[] words;
+    private final int[] offsets;
+
+    Phrase(String[] words, int[] offsets) {
+        this.words = words;
+        this.offsets = offsets;
+    }
+
+    int size() {
+        return words.length;
+    }
+
+    String word(int i) {
+        return words[i];
+    }
+
+    // positions[i] 是第 i 个词在文档中出现的位置（升序），判断能不能找到一个起点让所有的词都对上
+    // 某个词没有位置信息（索引中没有记录位置）的时候为 null，这时候只能认为是匹配的，短语退化成 AND
+    boolean matches(int[][] positions) {
+        // 找一个有位置信息的词作为起点
+        for (int anchor = 0; anchor < positions.length; anchor++) {
+            if (positions[anchor] != null) {
+                return matchesFrom(positions, anchor);
+            }
+        }
+        return true;
+    }
+
+    private boolean matchesFrom(int[][] positions, int anchor) {
+        for (int position : positions[anchor]) {
+            int start = position - offsets[anchor];
+            boolean matched = true;
+            for (int i = 0; i < words.length && matched; i++) {
+                if (i != anchor && positions[i] != null) {
+                    matched = Arrays.binarySearch(positions[i], start + offsets[i]) >= 0;
+                }
+            }
+            if (matched) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // 缓存的 key 中使用，不同的短语（包括停用词留下的间隔不同）一定得到不同的字符串
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < words.length; i++) {
+            builder.append(i == 0 ? "" : " ").append(words[i]).append('@').append(offsets[i]);
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,99 @@
+package com.bite.search;
+
+import com.bite.index.Index;
+import com.bite.index.PostingsCursor;
+
+import java.util.Arrays;
+import java.util.List;
+
+// 通过这个类按照查询词在文档中的距离对排在前面的结果重新排序（邻近度加权）
+// 查询 "hash map" 的时候，两个词紧挨着出现的文档比两个词分别出现在开头和结尾的文档更相关，但是权重之和看不出这个区别
+//
+// 只对按照权重排好序的前 window 个文档计算：找出包含每个词至少一次的最短的一段，
+// 这一段比所有词紧挨着多出来的词数记为 slack，分数乘以 1 + boost / (1 + slack)
+// 加权只会让分数变大，所以 window 之后的文档不会因为加权排到 window 里面的文档前面，只需要对 window 内部重新排序
+final class ProximityReranker {
+
+    private ProximityReranker() {
+    }
+
+    // docIds、scores 是按照分数降序排列的结果，原地对前 window 个重新排序
+    // words 是去重之后的查询词（不含空白），少于两个词的时候什么都不做
+    static void rerank(Index index, List<String> words, int[] docIds, int[] scores, int window, double boost) {
+        int count = Math.min(window, docIds.length);
+        if (words.size() < 2 || count < 2 || boost <= 0) {
+            return;
+        }
+        // 游标只能往后移动，所以先按照 docId 升序依次计算
+        long[] byDocId = new long[count];
+        for (int i = 0; i < count; i++) {
+            byDocId[i] = ((long) docIds[i] << 32) | i;
+        }
+        Arrays.sort(byDocId);
+        PostingsCursor[] cursors = new PostingsCursor[words.size()];
+        for (int i = 0; i < cursors.length; i++) {
+            cursors[i] = index.getInverted(words.get(i));
+        }
+        double[] boosted = new double[count];
+        int[][] positions = new int[cursors.length][];
+        for (long entry : byDocId) {
+            int docId = (int) (entry >>> 32);
+            int rank = (int) entry;
+            int present = 0;
+            for (PostingsCursor cursor : cursors) {
+                if (cursor != null && cursor.advance(docId) == docId) {
+                    int[] p = cursor.positions();
+                    if (p != null && p.length > 0) {
+                        positions[present++] = p;
+                    }
+                }
+            }
+            double factor = 1;
+            if (present >= 2) {
+                int slack = minSpan(positions, present) - (present - 1);
+                factor = 1 + boost / (1 + slack);
+            }
+            boosted[rank] = scores[rank] * factor;
+        }
+
+        // 按照加权之后的分数重新排序，分数相同的时候 docId 小的靠前（和 TopKCollector 保持一致）
+        Integer[] order = new Integer[count];
+        for (int i = 0; i < count; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> {
+            int cmp = Double.compare(boosted[b], boosted[a]);
+            return cmp != 0 ? cmp : Integer.compare(docIds[a], docIds[b]);
+        });
+        int[] newDocIds = new int[count];
+        int[] newScores = new int[count];
+        for (int i = 0; i < count; i++) {
+            newDocIds[i] = docIds[order[i]];
+            newScores[i] = (int) Math.min(Math.round(boosted[order[i]]), Integer.MAX_VALUE);
+        }
+        System.arraycopy(newDocIds, 0, docIds, 0, count);
+        System.arraycopy(newScores, 0, scores, 0, count);
+    }
+
+    // 包含 positions[0, count) 中每一组至少一个位置的最短区间的长度（最后一个位置 - 第一个位置）
+    // 每组一个指针，每次把指向最小位置的指针往后移，移动过程中 最大值 - 最小值 的最小值就是答案
+    static int minSpan(int[][] positions, int count) {
+        int[] pointers = new int[count];
+        int best = Integer.MAX_VALUE;
+        while (true) {
+            int min = 0;
+            int max = Integer.MIN_VALUE;
+            for (int i = 0; i < count; i++) {
+                int position = positions[i][pointers[i]];
+                if (position < positions[min][pointers[min]]) {
+                    min = i;
+                }
+                max = Math.max(max, position);
+            }
+            best = Math.min(best, max - positions[min][pointers[min]]);
+            if (++pointers[min] == positions[min].length) {
+                return best;
+            }
+        }
+    }
+}
@@ -0,0 +1,295 @@
+package com.bite.search;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+// 通过这个类缓存查询结果，DocSearcher 在合并倒排、排序、生成描述之前先查缓存
+// 查询的流量非常集中，"String"、"HashMap" 这种几百个查询就占了大部分请求，缓存住它们可以省掉大部分的计算
+//
+// 1、key 由索引版本、分词并去掉停用词之后的词、分页参数组成，热加载了新版本的索引之后旧的 key 不会再被查到
+// 2、按照结果占用的内存（估算）来限制缓存的大小，而不是按照条数，一页 100 条结果和一页 10 条结果占的内存差别很大
+// 3、淘汰策略参考 TinyLFU：用一个 Count-Min Sketch 近似地记录每个 key 最近被查询的次数，
+//    缓存满了的时候，新结果只有比最久没有被访问的那个结果更 "热" 才能把它挤出去，只查一次的长尾查询进不了缓存
+// 4、读缓存不加锁，只有写缓存和调整访问顺序的时候加锁，调整访问顺序拿不到锁就跳过，不让读请求排队
+//    访问频率也不在读的时候直接记：读请求只把 key 放进一个环形缓冲区（见 ReadBuffer），攒够一半之后 tryLock 一次，
+//    拿到锁的那个读请求把缓冲区中的 key 都记到 sketch 中；缓冲区满了的时候新的记录直接丢掉，频率本来就是近似的
+final class QueryCache {
+
+    private final long maxBytes;
+    private final ConcurrentHashMap<String, Entry> map = new ConcurrentHashMap<>();
+    // 按照访问顺序排列的 key，最前面的是最久没有访问的，淘汰的时候从这里找，只能在持有 lock 的时候访问
+    private final LinkedHashMap<String, Entry> accessOrder = new LinkedHashMap<>(16, 0.75f, true);
+    private final ReentrantLock lock = new ReentrantLock();
+    // 只能在持有 lock 的时候访问
+    private final FrequencySketch sketch;
+    private final ReadBuffer readBuffer = new ReadBuffer();
+    // 当前缓存的结果估算占用的字节数，只能在持有 lock 的时候修改
+    private long bytes = 0;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong rejections = new AtomicLong();
+
+    QueryCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+        // 按照一个结果平均 4KB 估计最多能缓存多少条，计数器的个数是它的几倍，冲突才不会太多
+        this.sketch = new FrequencySketch((int) Math.min(Math.max(maxBytes / 4096, 64), 1 << 20));
+    }
+
+    SearchResult get(String key) {
+        boolean drain = readBuffer.offer(key);
+        Entry entry = map.get(key);
+        if (entry == null) {
+            misses.incrementAndGet();
+            if (drain && lock.tryLock()) {
+                try {
+                    readBuffer.drainTo(sketch);
+                } finally {
+                    lock.unlock();
+                }
+            }
+            return null;
+        }
+        hits.incrementAndGet();
+        if (lock.tryLock()) {
+            try {
+                accessOrder.get(key);
+                if (drain) {
+                    readBuffer.drainTo(sketch);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+        return entry.result;
+    }
+
+    // query 是原始的查询语句，只用来在关闭服务的时候保存热门查询（见 hotQueries），为 null 的不保存（例如带分面过滤条件的查询）
+    void put(String key, String query, SearchResult result) {
+        long size = estimateSize(key, query, result);
+        if (size > maxBytes / 8) {
+            // 单个结果太大，缓存它会挤掉很多别的结果，不划算
+            rejections.incrementAndGet();
+            return;
+        }
+        lock.lock();
+        try {
+            if (map.containsKey(key)) {
+                return;
+            }
+            // 先把还没记上的访问记到 sketch 中，比较的是最新的频率
+            readBuffer.drainTo(sketch);
+            int frequency = sketch.frequency(key);
+            Iterator<Entry> iterator = accessOrder.values().iterator();
+            // 先确认能腾出足够的空间，再真正淘汰，避免淘汰了一部分之后又发现新结果进不来
+            long freed = 0;
+            int victims = 0;
+            while (bytes - freed + size > maxBytes) {
+                Entry victim = iterator.next();
+                if (frequency <= sketch.frequency(victim.key)) {
+                    rejections.incrementAndGet();
+                    return;
+                }
+                freed += victim.size;
+                victims++;
+            }
+            iterator = accessOrder.values().iterator();
+            for (int i = 0; i < victims; i++) {
+                Entry victim = iterator.next();
+                iterator.remove();
+                map.remove(victim.key);
+                bytes -= victim.size;
+                evictions.incrementAndGet();
+            }
+            Entry entry = new Entry(key, query, result, size);
+            accessOrder.put(key, entry);
+            map.put(key, entry);
+            bytes += size;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // 清空所有的结果，统计信息和访问频率保留，热门的查询换了索引版本之后依然是热门的
+    void clear() {
+        lock.lock();
+        try {
+            map.clear();
+            accessOrder.clear();
+            bytes = 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    CacheStats stats() {
+        lock.lock();
+        try {
+            long hitCount = hits.get();
+            long missCount = misses.get();
+            double hitRate = hitCount + missCount == 0 ? 0 : (double) hitCount / (hitCount + missCount);
+            return new CacheStats(hitCount, missCount, evictions.get(), rejections.get(),
+                    map.size(), bytes, maxBytes, hitRate);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // 当前缓存中的查询语句，按照访问频率从高到低排列，去掉重复的（同一个查询的不同页是不同的 key）
+    List<String> hotQueries(int count) {
+        List<Entry> entries;
+        long[] order;
+        lock.lock();
+        try {
+            readBuffer.drainTo(sketch);
+            entries = new ArrayList<>(accessOrder.values());
+            // 先把频率取出来再排序
+            order = new long[entries.size()];
+            for (int i = 0; i < order.length; i++) {
+                order[i] = ((long) (FrequencySketch.MAX_COUNT - sketch.frequency(entries.get(i).key)) << 32) | i;
+            }
+        } finally {
+            lock.unlock();
+        }
+        Arrays.sort(order);
+        LinkedHashSet<String> queries = new LinkedHashSet<>();
+        for (long o : order) {
+            if (queries.size() >= count) {
+                break;
+            }
+            String query = entries.get((int) o).query;
+            if (query != null) {
+                queries.add(query);
+            }
+        }
+        return new ArrayList<>(queries);
+    }
+
+    // 粗略估算一个结果占用的内存：对象头、引用按 16 字节算，字符串按每个字符 2 字节再加 40 字节的对象开销算
+    private static long estimateSize(String key, String query, SearchResult result) {
+        long size = 64 + stringSize(key) + stringSize(query) + 48;
+        if (result.getResults() != null) {
+            size += 16 + 8L * result.getResults().size();
+            for (Result r : result.getResults()) {
+                size += 24 + stringSize(r.getTitle()) + stringSize(r.getUrl()) + stringSize(r.getDesc());
+            }
+        }
+        return size;
+    }
+
+    private static long stringSize(String s) {
+        return s == null ? 0 : 40 + 2L * s.length();
+    }
+
+    private static final class Entry {
+        final String key;
+        final String query;
+        final SearchResult result;
+        final long size;
+
+        Entry(String key, String query, SearchResult result, long size) {
+            this.key = key;
+            this.query = query;
+            this.result = result;
+            this.size = size;
+        }
+    }
+
+    // 读请求记录访问的环形缓冲区，写的时候只有一次 getAndIncrement 和一次 lazySet，不加锁
+    // 每个位置的编号是写入的序号对 SIZE 取模，drainTo 只能在持有 QueryCache.lock 的时候调用，
+    // 序号已经领了但是还没写进去的位置读到的是 null，这一次访问就不记了，和缓冲区满了丢掉记录一样
+    static final class ReadBuffer {
+        private static final int SIZE = 128;
+        private static final int MASK = SIZE - 1;
+
+        private final AtomicReferenceArray<String> keys = new AtomicReferenceArray<>(SIZE);
+        private final AtomicLong writes = new AtomicLong();
+        // 已经处理到的序号，只在 drainTo 中修改
+        private volatile long reads = 0;
+
+        // 返回 true 表示缓冲区中攒的记录已经过半，调用的地方应该试着 drainTo 一次
+        boolean offer(String key) {
+            long write = writes.getAndIncrement();
+            long pending = write - reads;
+            if (pending < SIZE) {
+                keys.lazySet((int) (write & MASK), key);
+            }
+            return pending >= SIZE / 2;
+        }
+
+        void drainTo(FrequencySketch sketch) {
+            long end = writes.get();
+            long read = reads;
+            for (long i = Math.max(read, end - SIZE); i < end; i++) {
+                String key = keys.getAndSet((int) (i & MASK), null);
+                if (key != null) {
+                    sketch.increment(key);
+                }
+            }
+            reads = end;
+        }
+    }
+
+    // 近似地记录每个 key 被访问的次数，4 行计数器，每个 key 在每一行中按不同的哈希函数找一个计数器，取 4 个中最小的值
+    // 计数器最大为 15，每记录 resetThreshold 次就把所有的计数器减半，让很久以前的热门查询慢慢冷下来
+    // 不是线程安全的，由 QueryCache.lock 保护
+    static final class FrequencySketch {
+        private static final int DEPTH = 4;
+        private static final int MAX_COUNT = 15;
+        private static final long[] SEEDS = {0x9E3779B97F4A7C15L, 0xC2B2AE3D27D4EB4FL, 0x165667B19E3779F9L, 0x27D4EB2F165667C5L};
+
+        private final byte[] table;
+        private final int mask;
+        private final int resetThreshold;
+        private int additions = 0;
+
+        FrequencySketch(int expectedEntries) {
+            int width = Integer.highestOneBit(Math.max(expectedEntries * 4, 256) - 1) << 1;
+            table = new byte[width * DEPTH];
+            mask = width - 1;
+            resetThreshold = width * 10;
+        }
+
+        void increment(String key) {
+            int hash = key.hashCode();
+            boolean added = false;
+            for (int i = 0; i < DEPTH; i++) {
+                int index = indexOf(hash, i);
+                if (table[index] < MAX_COUNT) {
+                    table[index]++;
+                    added = true;
+                }
+            }
+            if (added && ++additions >= resetThreshold) {
+                for (int i = 0; i < table.length; i++) {
+                    table[i] >>= 1;
+                }
+                additions = 0;
+            }
+        }
+
+        int frequency(String key) {
+            int hash = key.hashCode();
+            int frequency = MAX_COUNT;
+            for (int i = 0; i < DEPTH; i++) {
+                frequency = Math.min(frequency, table[indexOf(hash, i)]);
+            }
+            return frequency;
+        }
+
+        private int indexOf(int hash, int row) {
+            long h = (hash + SEEDS[row]) * SEEDS[row];
+            h ^= h >>> 32;
+            return row * (mask + 1) + ((int) h & mask);
+        }
+    }
+}
@@ -0,0 +1,339 @@
+package com.bite.search;
+
+import com.bite.index.Index;
+import org.ansj.domain.Term;
+import org.ansj.splitWord.analysis.ToAnalysis;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+// 通过这个类把用户输入的查询语句解析成 BooleanQuery
+// 语法：
+//   a b            默认是 AND，两个词都要包含（-Ddocsearch.defaultOperator=or 可以改回以前的 OR）
+//   a OR b         包含其中一个就行，OR 的优先级比 AND 低，"a b OR c" 是 (a AND b) OR c
+//   a AND b        显式的 AND，默认是 OR 的时候用
+//   -a / NOT a     不能包含 a
+//   +a             必须包含 a，默认是 OR 的时候用
+//   (a OR b) c     括号分组
+//   "a b"          短语，英文引号和中文引号都可以
+// 运算符只认大写的 AND、OR、NOT，小写的 and、or、not 是普通的词（一般都是停用词）
+// 不是运算符的部分还是交给 ansj 分词、去掉停用词、空白和单独的标点；一段文字分出多个词的时候（例如 "线程安全"、"HashMap.put"），
+// 这些词之间按照默认的运算符组合
+// 语法不完整的地方尽量宽松地处理：没有配对的右括号、多余的运算符直接忽略，缺少的右括号当作在结尾，没有配对的引号当作普通的字符
+// 查询词（包括短语中的词）最多保留 maxTerms 个，后面的直接丢掉，整段粘贴进来的异常堆栈也只会查前面这些词
+final class QueryParser {
+
+    private enum Type {LPAREN, RPAREN, AND, OR, NOT, PHRASE, TEXT}
+
+    // 词法分析的结果，+、- 前缀直接记在后面的词、短语、括号上
+    private static final class Token {
+        final Type type;
+        final String text;
+        final char prefix;
+
+        Token(Type type, String text, char prefix) {
+            this.type = type;
+            this.text = text;
+            this.prefix = prefix;
+        }
+    }
+
+    // 子句的修饰：没有修饰、+、-（NOT）
+    private static final char PLAIN = 0;
+
+    private final Set<String> stopwords;
+    private final boolean defaultAnd;
+    // <= 0 表示不限制
+    private final int maxTerms;
+
+    private List<Token> tokens;
+    private int next;
+    // 已经保留下来的查询词个数
+    private int terms;
+
+    QueryParser(Set<String> stopwords, boolean defaultAnd, int maxTerms) {
+        this.stopwords = stopwords;
+        this.defaultAnd = defaultAnd;
+        this.maxTerms = maxTerms;
+    }
+
+    // 一个 QueryParser 同一时刻只能解析一个查询，多个线程各自创建
+    BooleanQuery parse(String query) {
+        tokens = tokenize(query);
+        next = 0;
+        terms = 0;
+        BooleanQuery.Node root = null;
+        while (next < tokens.size()) {
+            BooleanQuery.Node node = parseOr();
+            if (node != null) {
+                // 多余的右括号跳过之后，后面的部分和前面的按照默认运算符组合
+                root = root == null ? node : combine(root, node);
+            }
+            if (next < tokens.size()) {
+                next++;
+            }
+        }
+        return new BooleanQuery(root);
+    }
+
+    private BooleanQuery.Node combine(BooleanQuery.Node a, BooleanQuery.Node b) {
+        BooleanQuery.GroupNode group = new BooleanQuery.GroupNode();
+        (defaultAnd ? group.must : group.should).add(a);
+        (defaultAnd ? group.must : group.should).add(b);
+        return group;
+    }
+
+    private static List<Token> tokenize(String query) {
+        List<Token> tokens = new ArrayList<>();
+        int i = 0;
+        int length = query.length();
+        while (i < length) {
+            char c = query.charAt(i);
+            if (Character.isWhitespace(c)) {
+                i++;
+                continue;
+            }
+            if (c == '(' || c == ')') {
+                tokens.add(new Token(c == '(' ? Type.LPAREN : Type.RPAREN, null, PLAIN));
+                i++;
+                continue;
+            }
+            char prefix = PLAIN;
+            if ((c == '+' || c == '-') && i + 1 < length && !Character.isWhitespace(query.charAt(i + 1))) {
+                prefix = c;
+                c = query.charAt(++i);
+                if (c == '(') {
+                    tokens.add(new Token(Type.LPAREN, null, prefix));
+                    i++;
+                    continue;
+                }
+            }
+            if (c == '"' || c == '“') {
+                int end = query.indexOf(c == '"' ? '"' : '”', i + 1);
+                if (end > 0) {
+                    tokens.add(new Token(Type.PHRASE, query.substring(i + 1, end), prefix));
+                    i = end + 1;
+                    continue;
+                }
+            }
+            int start = i;
+            while (i < length && !Character.isWhitespace(query.charAt(i)) && query.charAt(i) != '(' && query.charAt(i) != ')'
+                    && !(i > start && (query.charAt(i) == '"' || query.charAt(i) == '“') && closes(query, i))) {
+                i++;
+            }
+            String text = query.substring(start, i);
+            if (prefix == PLAIN && text.equals("AND")) {
+                tokens.add(new Token(Type.AND, text, PLAIN));
+            } else if (prefix == PLAIN && text.equals("OR")) {
+                tokens.add(new Token(Type.OR, text, PLAIN));
+            } else if (prefix == PLAIN && text.equals("NOT")) {
+                tokens.add(new Token(Type.NOT, text, PLAIN));
+            } else {
+                tokens.add(new Token(Type.TEXT, text, prefix));
+            }
+        }
+        return tokens;
+    }
+
+    // 位置 i 上的引号后面有配对的引号，可以作为一个短语的开始
+    private static boolean closes(String query, int i) {
+        return query.indexOf(query.charAt(i) == '"' ? '"' : '”', i + 1) > 0;
+    }
+
+    private Token peek() {
+        return next < tokens.size() ? tokens.get(next) : null;
+    }
+
+    // 可以作为一个子句开头的 token
+    private static boolean startsClause(Token token) {
+        return token != null && (token.type == Type.TEXT || token.type == Type.PHRASE
+                || token.type == Type.LPAREN || token.type == Type.NOT);
+    }
+
+    // orExpr := andExpr (OR andExpr)*，默认是 OR 的时候相邻的子句也是 OR
+    private BooleanQuery.Node parseOr() {
+        BooleanQuery.GroupNode group = new BooleanQuery.GroupNode();
+        while (true) {
+            parseAnd(group);
+            Token token = peek();
+            if (token != null && token.type == Type.OR) {
+                next++;
+            } else if (defaultAnd || !startsClause(token)) {
+                break;
+            }
+        }
+        return simplify(group);
+    }
+
+    // andExpr := clause (AND? clause)*，结果作为 or 的一个子句；只有一个子句的时候直接把它的修饰带到 or 中，
+    // 这样默认是 OR 的时候 "a +b -c" 的意思和 Lucene 一样：必须包含 b，不能包含 c，a 只影响分数
+    private void parseAnd(BooleanQuery.GroupNode or) {
+        BooleanQuery.GroupNode and = new BooleanQuery.GroupNode();
+        List<BooleanQuery.Node> nodes = new ArrayList<>();
+        List<Character> prefixes = new ArrayList<>();
+        while (true) {
+            Token token = peek();
+            if (token != null && token.type == Type.AND) {
+                next++;
+                continue;
+            }
+            if (!startsClause(token)) {
+                break;
+            }
+            char[] prefix = new char[1];
+            BooleanQuery.Node node = parseClause(prefix);
+            if (node != null) {
+                nodes.add(node);
+                prefixes.add(prefix[0]);
+            }
+            Token after = peek();
+            if (after != null && after.type == Type.AND) {
+                continue;
+            }
+            if (!defaultAnd || !startsClause(after)) {
+                break;
+            }
+        }
+        if (nodes.size() == 1) {
+            add(or, nodes.get(0), prefixes.get(0), false);
+            return;
+        }
+        for (int i = 0; i < nodes.size(); i++) {
+            add(and, nodes.get(i), prefixes.get(i), true);
+        }
+        BooleanQuery.Node node = simplify(and);
+        if (node != null) {
+            add(or, node, PLAIN, false);
+        }
+    }
+
+    private static void add(BooleanQuery.GroupNode group, BooleanQuery.Node node, char prefix, boolean conjunction) {
+        if (prefix == '-') {
+            group.mustNot.add(node);
+        } else if (prefix == '+' || conjunction) {
+            group.must.add(node);
+        } else {
+            group.should.add(node);
+        }
+    }
+
+    // clause := NOT clause | [+-] primary，prefix[0] 返回子句的修饰
+    private BooleanQuery.Node parseClause(char[] prefix) {
+        Token token = peek();
+        if (token.type == Type.NOT) {
+            next++;
+            char[] inner = new char[1];
+            if (!startsClause(peek())) {
+                return null;
+            }
+            BooleanQuery.Node node = parseClause(inner);
+            prefix[0] = '-';
+            // NOT -a 这种写法当作 NOT a
+            return node;
+        }
+        next++;
+        prefix[0] = token.prefix;
+        switch (token.type) {
+            case LPAREN: {
+                BooleanQuery.Node node = startsClause(peek()) ? parseOr() : null;
+                Token close = peek();
+                if (close != null && close.type == Type.RPAREN) {
+                    next++;
+                }
+                return node;
+            }
+            case PHRASE: {
+                Phrase phrase = toPhrase(analyze(token.text));
+                return phrase == null ? null : new BooleanQuery.PhraseNode(phrase);
+            }
+            default:
+                return text(token.text);
+        }
+    }
+
+    // 一段文字分词之后的词，按照默认的运算符组合
+    // 只有标点的词（例如没有配对的引号）也去掉：默认是 AND 的时候，一个索引中没有的标点会让整个查询一个结果都没有
+    private BooleanQuery.Node text(String text) {
+        BooleanQuery.GroupNode group = new BooleanQuery.GroupNode();
+        for (Term term : analyze(text)) {
+            String word = term.getName();
+            if (stopwords.contains(word) || Index.isBlank(word) || !hasLetterOrDigit(word)) {
+                continue;
+            }
+            if (full()) {
+                break;
+            }
+            terms++;
+            (defaultAnd ? group.must : group.should).add(new BooleanQuery.TermNode(word));
+        }
+        return simplify(group);
+    }
+
+    private boolean full() {
+        return maxTerms > 0 && terms >= maxTerms;
+    }
+
+    private static boolean hasLetterOrDigit(String word) {
+        for (int i = 0; i < word.length(); i++) {
+            if (Character.isLetterOrDigit(word.charAt(i))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // 去掉空的组合，只剩一个必须满足（或者只有一个可选）的子句的组合直接换成这个子句
+    private static BooleanQuery.Node simplify(BooleanQuery.GroupNode group) {
+        int clauses = group.must.size() + group.should.size() + group.mustNot.size();
+        if (clauses == 0) {
+            return null;
+        }
+        if (group.mustNot.isEmpty()) {
+            if (group.must.size() == 1 && group.should.isEmpty()) {
+                return group.must.get(0);
+            }
+            if (group.should.size() == 1 && group.must.isEmpty()) {
+                return group.should.get(0);
+            }
+        }
+        return group;
+    }
+
+    private static List<Term> analyze(String text) {
+        return text.isEmpty() ? new ArrayList<>() : ToAnalysis.parse(text).getTerms();
+    }
+
+    // 根据短语的分词结果得到要匹配的词和相对位置，位置的计算方式和制作索引的时候保持一致：
+    // 空白不占位置，停用词占位置但是不参与匹配；一个词都不剩的短语（全是停用词）返回 null
+    // 查询词个数到了上限的时候只保留短语开头的几个词，相对位置不变，依然是按顺序紧挨着匹配
+    private Phrase toPhrase(List<Term> phraseTerms) {
+        List<String> words = new ArrayList<>();
+        List<Integer> offsets = new ArrayList<>();
+        int position = 0;
+        for (Term term : phraseTerms) {
+            String word = term.getName();
+            if (Index.isBlank(word)) {
+                continue;
+            }
+            if (!stopwords.contains(word)) {
+                if (full()) {
+                    break;
+                }
+                terms++;
+                words.add(word);
+                offsets.add(position);
+            }
+            position++;
+        }
+        if (words.isEmpty()) {
+            return null;
+        }
+        int[] offsetArray = new int[offsets.size()];
+        for (int i = 0; i < offsetArray.length; i++) {
+            // 第一个词的相对位置从 0 开始，前面的停用词不需要匹配
+            offsetArray[i] = offsets.get(i) - offsets.get(0);
+        }
+        return new Phrase(words.toArray(new String[0]), offsetArray);
+    }
+}
@@ -0,0 +1,87 @@
+package com.bite.search;
+
+import com.bite.index.PostingsCursor;
+
+// 只遍历倒排拉链中 docId 在 [from, to) 之间的部分，用来把一个查询拆成几个分片并行求值（见 DocSearcher.scoreShards）
+// 第一次移动的时候直接 advance 到 from，借助倒排拉链的跳表跳过前面的块；超过 to 之后就当作遍历完了
+// 合并、WAND、布尔查询（BooleanScorer）这几种求值方式都只通过 PostingsCursor 访问倒排拉链，所以不需要为分片单独实现
+final class RangeCursor extends PostingsCursor {
+
+    private final PostingsCursor in;
+    private final int from;
+    private final int to;
+    private int docId = -1;
+
+    private RangeCursor(PostingsCursor in, int from, int to) {
+        this.in = in;
+        this.from = from;
+        this.to = to;
+    }
+
+    // 区间是整个索引的时候不需要包装
+    static PostingsCursor of(PostingsCursor in, int from, int to) {
+        if (from <= 0 && to == NO_MORE_DOCS) {
+            return in;
+        }
+        return new RangeCursor(in, from, to);
+    }
+
+    @Override
+    public int docId() {
+        return docId;
+    }
+
+    @Override
+    public int weight() {
+        return in.weight();
+    }
+
+    @Override
+    public int nextDoc() {
+        if (docId == NO_MORE_DOCS) {
+            return docId;
+        }
+        return docId = limit(docId < from ? in.advance(from) : in.nextDoc());
+    }
+
+    @Override
+    public int advance(int target) {
+        if (target <= docId) {
+            return docId;
+        }
+        return docId = limit(in.advance(Math.max(target, from)));
+    }
+
+    private int limit(int doc) {
+        return doc >= to ? NO_MORE_DOCS : doc;
+    }
+
+    // 整个倒排拉链的长度，分片中的命中数只会更少，排序、估计命中总数的下限时用它都没有问题
+    @Override
+    public int cost() {
+        return in.cost();
+    }
+
+    @Override
+    public int maxWeight() {
+        return in.maxWeight();
+    }
+
+    @Override
+    public int advanceShallow(int target) {
+        if (target >= to) {
+            return NO_MORE_DOCS;
+        }
+        return in.advanceShallow(Math.max(target, from));
+    }
+
+    @Override
+    public int blockMaxWeight() {
+        return in.blockMaxWeight();
+    }
+
+    @Override
+    public int[] positions() {
+        return in.positions();
+    }
+}
@@ -0,0 +1,17 @@
+package com.bite.search;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+// 这个类是一次热加载索引的结果，/admin/reload 接口直接返回它
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class ReloadResult {
+    private boolean reloaded;// 是否换成了新版本的索引
+    private String generation;// 换完之后正在使用的索引版本
+    private int docCount;// 正在使用的索引的文档数（不包括已删除的）
+    private long loadTime;// 打开和预热新索引花的时间，单位 ms
+    private String message;
+}
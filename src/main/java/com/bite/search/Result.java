@@ -1,5 +1,7 @@
 package com.bite.search;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.core.io.SerializedString;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
@@ -12,4 +14,13 @@ public class Result {
     private String title;
     private String url;
     private String desc;// 描述是 正文的一段摘要
+
+    // 标题、url 预先转义、编码好的 JSON 字符串，来自 IndexSnapshot.head，流式返回结果的时候直接写出去（见 SearchResult.writeTo）
+    // 分布式查询时从分片取回来的结果没有这个，为 null 的时候按照 title、url 正常序列化
+    @JsonIgnore
+    private SerializedString[] head;
+
+    public Result(String title, String url, String desc) {
+        this(title, url, desc, null);
+    }
 }
@@ -0,0 +1,75 @@
+package com.bite.search;
+
+import com.bite.index.PostingsCursor;
+
+// 把倒排拉链中的权重都乘上一个系数，分布式查询时分片节点用它把按照自己的统计信息算出来的权重换算到全局的统计信息上，
+// 见 DocSearcher.searchShard、ShardCoordinator
+// 权重、最大权重、块的最大权重用同一个单调的换算（乘上系数之后四舍五入，至少为 1），换算之后的最大权重依然是上界，
+// 所以合并、WAND、BMW、布尔查询都可以直接使用，不需要知道权重被换算过
+final class ScaledCursor extends PostingsCursor {
+
+    private final PostingsCursor in;
+    private final double scale;
+
+    private ScaledCursor(PostingsCursor in, double scale) {
+        this.in = in;
+        this.scale = scale;
+    }
+
+    // 系数是 1 的时候不需要包装
+    static PostingsCursor of(PostingsCursor in, double scale) {
+        if (in == null || scale == 1) {
+            return in;
+        }
+        return new ScaledCursor(in, scale);
+    }
+
+    private int scale(int weight) {
+        return weight <= 0 ? weight : (int) Math.max(Math.round(weight * scale), 1);
+    }
+
+    @Override
+    public int docId() {
+        return in.docId();
+    }
+
+    @Override
+    public int weight() {
+        return scale(in.weight());
+    }
+
+    @Override
+    public int nextDoc() {
+        return in.nextDoc();
+    }
+
+    @Override
+    public int advance(int target) {
+        return in.advance(target);
+    }
+
+    @Override
+    public int cost() {
+        return in.cost();
+    }
+
+    @Override
+    public int maxWeight() {
+        return scale(in.maxWeight());
+    }
+
+    @Override
+    public int advanceShallow(int target) {
+        return in.advanceShallow(target);
+    }
+
+    @Override
+    public int blockMaxWeight() {
+        return scale(in.blockMaxWeight());
+    }
+
+    @Override
+    public int[] positions() {
+        return in.positions();
+    }
+}
@@ -0,0 +1,75 @@
+package com.bite.search;
+
+import com.bite.index.PostingsCursor;
+
+import java.util.Arrays;
+
+// 通过这个类把多个词的倒排拉链中同一个文档的权重累加起来
+// 使用一个以 docId 为下标的 int 数组保存累加的分数，再用一个 touched 列表记录本次查询碰到过的文档
+// 每个线程复用同一个对象（见 DocSearcher 中的 ThreadLocal），查询过程中不需要分配内存，也不会修改索引中的数据
+//
+// 不需要在每次查询之前把数组清零：stamps[docId] 记录了这个文档最后一次被累加时的查询编号，
+// 编号和当前查询不一样，说明这是本次查询第一次碰到这个文档
+final class ScoreAccumulator {
+
+    private int[] scores;
+    private int[] stamps;
+    private int[] touched;
+    private int touchedCount = 0;
+    private int epoch = 0;
+
+    ScoreAccumulator(int maxDoc) {
+        scores = new int[maxDoc];
+        stamps = new int[maxDoc];
+        touched = new int[Math.min(maxDoc, 1024)];
+    }
+
+    // 开始一次新的查询，索引的文档数变多的时候（例如重新加载了索引）数组要跟着变大
+    void reset(int maxDoc) {
+        if (scores.length < maxDoc) {
+            scores = new int[maxDoc];
+            stamps = new int[maxDoc];
+            epoch = 0;
+        }
+        touchedCount = 0;
+        epoch++;
+        if (epoch == 0) {
+            // 编号用完一轮了，把 stamps 清零重新开始
+            Arrays.fill(stamps, 0);
+            epoch = 1;
+        }
+    }
+
+    // 把一个词的倒排拉链中所有文档的权重累加进来，超时的时候停在半路，返回 false
+    boolean accumulate(PostingsCursor cursor, Deadline deadline) {
+        int count = 0;
+        for (int docId = cursor.nextDoc(); docId != PostingsCursor.NO_MORE_DOCS; docId = cursor.nextDoc()) {
+            if ((++count & (Deadline.CHECK_INTERVAL - 1)) == 0 && deadline.check()) {
+                return false;
+            }
+            add(docId, cursor.weight());
+        }
+        return true;
+    }
+
+    void add(int docId, int weight) {
+        if (stamps[docId] != epoch) {
+            stamps[docId] = epoch;
+            scores[docId] = weight;
+            if (touchedCount == touched.length) {
+                touched = Arrays.copyOf(touched, Math.min(Math.max(touchedCount * 2, 16), scores.length));
+            }
+            touched[touchedCount++] = docId;
+        } else {
+            scores[docId] += weight;
+        }
+    }
+
+    // 把所有累加过的文档交给 collector
+    void collect(TopKCollector collector) {
+        for (int i = 0; i < touchedCount; i++) {
+            int docId = touched[i];
+            collector.collect(docId, scores[docId]);
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package com.bite.search;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+// 一次查询的分面过滤条件（/searcher 的 pkg、kind、module 参数），以及是否要返回分面统计（facets 参数），见 Facets
+// 每个参数可以用逗号分隔多个取值，取值之间是 OR，不同的参数之间是 AND；取值以 * 结尾的时候按照前缀匹配，例如 pkg=java.util*
+// 为空的参数表示不过滤
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class SearchFilter {
+    private String pkg;
+    private String kind;
+    private String module;
+    private boolean facets;
+
+    // 没有任何过滤条件，也不统计分面，和不带这些参数的查询完全一样
+    public boolean isEmpty() {
+        return isBlank(pkg) && isBlank(kind) && isBlank(module) && !facets;
+    }
+
+    private static boolean isBlank(String value) {
+        return value == null || value.trim().isEmpty();
+    }
+}
@@ -0,0 +1,104 @@
+package com.bite.search;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.io.SerializedString;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+// 这个类是一次分页搜索的返回结果，除了当前页的结果之外，还带上总的命中数
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class SearchResult {
+    private int total;// 一共命中了多少个文档
+    private int offset;// 当前页的第一条结果在所有结果中的位置
+    private int limit;// 每页最多返回多少条
+    private List<Result> results;// 当前页的结果
+    private boolean totalExact = true;// total 是否是精确值，使用 WAND 剪枝查询的时候 total 只是一个下限
+    private boolean partial = false;// 查询超过了时间预算，结果只来自超时之前扫描过的文档；或者分布式查询时有分片超时、出错，结果只来自其它的分片
+    private int failedShards = 0;// 超时或者出错的分片个数
+    // 所有命中的文档（不只是当前页）的分面统计：字段 -> 取值 -> 文档数，只有请求了 facets=true 的时候才有
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private Map<String, Map<String, Integer>> facets;
+
+    public SearchResult(int total, int offset, int limit, List<Result> results, boolean totalExact) {
+        this(total, offset, limit, results, totalExact, false, 0, null);
+    }
+
+    // 字段名也是预先编码好的
+    private static final SerializedString TOTAL = new SerializedString("total");
+    private static final SerializedString OFFSET = new SerializedString("offset");
+    private static final SerializedString LIMIT = new SerializedString("limit");
+    private static final SerializedString RESULTS = new SerializedString("results");
+    private static final SerializedString TITLE = new SerializedString("title");
+    private static final SerializedString URL = new SerializedString("url");
+    private static final SerializedString DESC = new SerializedString("desc");
+    private static final SerializedString TOTAL_EXACT = new SerializedString("totalExact");
+    private static final SerializedString PARTIAL = new SerializedString("partial");
+    private static final SerializedString FAILED_SHARDS = new SerializedString("failedShards");
+    private static final SerializedString FACETS = new SerializedString("facets");
+
+    // 用 Jackson 的流式接口把结果直接写到响应的输出流中，和 ObjectMapper 序列化出来的 JSON 完全一样，
+    // 但是不会先拼出一个完整的字符串：结果很多、描述很长的时候，每个请求都要多出几 MB 的临时对象
+    // 标题、url 直接写预先编码好的字节（Result.head），每次请求只有描述需要转义、编码
+    public void writeTo(JsonGenerator generator) throws IOException {
+        generator.writeStartObject();
+        generator.writeFieldName(TOTAL);
+        generator.writeNumber(total);
+        generator.writeFieldName(OFFSET);
+        generator.writeNumber(offset);
+        generator.writeFieldName(LIMIT);
+        generator.writeNumber(limit);
+        generator.writeFieldName(RESULTS);
+        generator.writeStartArray();
+        if (results != null) {
+            for (Result result : results) {
+                generator.writeStartObject();
+                SerializedString[] head = result.getHead();
+                generator.writeFieldName(TITLE);
+                if (head != null) {
+                    generator.writeString(head[0]);
+                } else {
+                    generator.writeString(result.getTitle());
+                }
+                generator.writeFieldName(URL);
+                if (head != null) {
+                    generator.writeString(head[1]);
+                } else {
+                    generator.writeString(result.getUrl());
+                }
+                generator.writeFieldName(DESC);
+                generator.writeString(result.getDesc());
+                generator.writeEndObject();
+            }
+        }
+        generator.writeEndArray();
+        generator.writeFieldName(TOTAL_EXACT);
+        generator.writeBoolean(totalExact);
+        generator.writeFieldName(PARTIAL);
+        generator.writeBoolean(partial);
+        generator.writeFieldName(FAILED_SHARDS);
+        generator.writeNumber(failedShards);
+        if (facets != null) {
+            generator.writeFieldName(FACETS);
+            generator.writeStartObject();
+            for (Map.Entry<String, Map<String, Integer>> field : facets.entrySet()) {
+                generator.writeFieldName(field.getKey());
+                generator.writeStartObject();
+                for (Map.Entry<String, Integer> value : field.getValue().entrySet()) {
+                    generator.writeFieldName(value.getKey());
+                    generator.writeNumber(value.getValue());
+                }
+                generator.writeEndObject();
+            }
+            generator.writeEndObject();
+        }
+        generator.writeEndObject();
+    }
+}
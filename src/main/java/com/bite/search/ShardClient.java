@@ -0,0 +1,142 @@
+package com.bite.search;
+
+import com.bite.config.FileConfig;
+import com.bite.metrics.Metrics;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// 协调节点访问一个分片的客户端，一个分片可以有多个副本（内容相同的分片节点），见 FileConfig.shards
+// 每次请求轮流从不同的副本开始，请求发出去 FileConfig.hedgeDelay 毫秒之后还没有返回，就再向下一个副本发一次（对冲请求），
+// 哪个先返回用哪个；某个副本出错的时候不等延迟，马上换下一个副本。这样一个副本卡住（GC、磁盘）的时候，整个查询的尾延迟
+// 只多出 hedgeDelay，而不是一直等到超时。所有副本都试过了还是失败，返回的 future 才以异常结束
+final class ShardClient {
+
+    // 发 HTTP 请求的线程，请求是阻塞的，线程数跟着并发的请求数走，空闲的线程一分钟之后回收
+    private static final ExecutorService IO = Executors.newCachedThreadPool(daemon("shard-client"));
+    // 到时间之后发对冲请求
+    private static final ScheduledExecutorService HEDGE = Executors.newSingleThreadScheduledExecutor(daemon("shard-hedge"));
+
+    private final String[] replicas;
+    private final AtomicInteger next = new AtomicInteger();
+
+    ShardClient(List<String> replicas) {
+        this.replicas = replicas.toArray(new String[0]);
+    }
+
+    // 所有副本的地址，打日志用
+    @Override
+    public String toString() {
+        return String.join("|", replicas);
+    }
+
+    // 向这个分片发一个 GET 请求，path 以 / 开头并且已经带上了编码好的参数，返回响应的内容
+    CompletableFuture<byte[]> get(String path) {
+        CompletableFuture<byte[]> result = new CompletableFuture<>();
+        new Attempts(path, result).launch();
+        return result;
+    }
+
+    // 一次 get 的所有尝试，launched 是已经发出去的请求数，failed 是已经失败的请求数
+    private final class Attempts {
+        private final String path;
+        private final CompletableFuture<byte[]> result;
+        private final int first = Math.floorMod(next.getAndIncrement(), replicas.length);
+        private int launched = 0;
+        private int failed = 0;
+
+        Attempts(String path, CompletableFuture<byte[]> result) {
+            this.path = path;
+            this.result = result;
+        }
+
+        // 发出下一个请求，所有副本都发过了的时候什么都不做
+        synchronized void launch() {
+            if (result.isDone() || launched == replicas.length) {
+                return;
+            }
+            String url = replicas[(first + launched) % replicas.length] + path;
+            if (launched > 0) {
+                Metrics.CLUSTER_HEDGES.increment();
+            }
+            launched++;
+            CompletableFuture.supplyAsync(() -> fetch(url), IO).whenComplete((bytes, e) -> {
+                if (e == null) {
+                    result.complete(bytes);
+                } else {
+                    fail(e);
+                }
+            });
+            if (launched < replicas.length && FileConfig.hedgeDelay > 0) {
+                HEDGE.schedule(this::launch, FileConfig.hedgeDelay, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        private void fail(Throwable e) {
+            boolean last;
+            synchronized (this) {
+                failed++;
+                last = failed == replicas.length;
+            }
+            if (last) {
+                result.completeExceptionally(e);
+            } else {
+                // 还有副本没试过就马上换一个，已经发出去的请求还在等的时候，新的请求和它们同时进行
+                launch();
+            }
+        }
+    }
+
+    private static byte[] fetch(String url) {
+        long start = Metrics.now();
+        HttpURLConnection connection = null;
+        try {
+            connection = (HttpURLConnection) new URL(url).openConnection();
+            connection.setConnectTimeout((int) FileConfig.shardTimeout);
+            connection.setReadTimeout((int) FileConfig.shardTimeout);
+            int status = connection.getResponseCode();
+            if (status != HttpURLConnection.HTTP_OK) {
+                throw new IOException("分片返回 " + status + ": " + url);
+            }
+            try (InputStream in = connection.getInputStream()) {
+                ByteArrayOutputStream out = new ByteArrayOutputStream(4096);
+                byte[] buffer = new byte[8192];
+                int n;
+                while ((n = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, n);
+                }
+                return out.toByteArray();
+            }
+        } catch (IOException e) {
+            // 出错的连接不再复用；正常读完的连接留给 HttpURLConnection 的 keep-alive 连接池
+            if (connection != null) {
+                connection.disconnect();
+            }
+            // 抛给 whenComplete 处理，由它决定是换一个副本还是整个分片失败
+            throw new UncheckedIOException(e);
+        } finally {
+            Metrics.CLUSTER_SHARD_REQUEST.since(start);
+        }
+    }
+
+    private static ThreadFactory daemon(String name) {
+        AtomicInteger count = new AtomicInteger();
+        return r -> {
+            Thread thread = new Thread(r, name + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
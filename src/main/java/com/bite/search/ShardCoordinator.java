@@ -0,0 +1,331 @@
+package com.bite.search;
+
+import com.bite.config.FileConfig;
+import com.bite.index.BM25FSimilarity;
+import com.bite.metrics.Metrics;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+// 分布式查询的协调节点：索引按照文档分成几个分区（见 FileConfig.partition），每个分区由一个或几个分片节点加载，
+// 协调节点自己不加载索引，一次查询分三步：
+// 1. 向所有分片取查询词的文档频率和文档数（/shard/stats），加起来就是全局的统计信息（见 ShardStats）
+// 2. 把查询和全局的统计信息同时发给所有分片（/shard/search），每个分片按照全局的 idf 换算权重之后求值，
+//    返回自己的前 offset + limit 个 (docId, 分数) 和算分用的统计信息，协调节点合并之后挑出最终的这一页
+// 3. 再同时向这一页涉及到的分片取标题、url、描述（/shard/docs），只有这一页的文档需要生成描述
+// 每一步都有超时（FileConfig.shardTimeout），超时或者出错的分片直接跳过，返回其它分片的结果，并且标记 partial
+// 分片自己超过了时间预算（FileConfig.searchTimeout）的时候返回的是部分结果，合并之后也标记 partial
+//
+// 和单机查询的结果并不完全一样，以下几处是近似的：
+// - 权重是制作索引的时候量化好的，分片只能把整个权重乘上 idf 的比例（见 ScaledCursor），换算之后再取整，
+//   BM25F 中按照字段长度归一化用的平均长度也还是分片自己的；文档随机分到各个分区，平均长度差别很小，
+//   所以一个文档的分数和单机时只差几个单位，分数相同或者非常接近的文档之间的顺序可能和单机时不一样
+// - 第 1 步失败了的分片不计入全局的统计信息；有分片不是 BM25F 的时候不换算，直接比较各个分片的原始分数
+// - 关掉 FileConfig.shardGlobalStats 的时候没有第 1 步，分片按照自己的 idf 挑出前 K 个，协调节点再换算（见 rescale），
+//   在某个分片中 idf 偏低的词，它的命中可能在分片里就没有进入前 K 个，全局的前 K 个会漏掉这样的文档
+public class ShardCoordinator {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final List<ShardClient> shards = new ArrayList<>();
+
+    public ShardCoordinator(String config) {
+        for (String shard : config.split(",")) {
+            List<String> replicas = new ArrayList<>();
+            for (String replica : shard.split("\\|")) {
+                replica = replica.trim();
+                if (!replica.isEmpty()) {
+                    // 去掉结尾的 /，后面拼接口路径的时候都以 / 开头
+                    replicas.add(replica.endsWith("/") ? replica.substring(0, replica.length() - 1) : replica);
+                }
+            }
+            if (!replicas.isEmpty()) {
+                shards.add(new ShardClient(replicas));
+            }
+        }
+        if (shards.isEmpty()) {
+            throw new IllegalArgumentException("没有配置分片: " + config);
+        }
+        System.out.println("分布式查询，分片: " + shards);
+    }
+
+    // filter 原样转发给每个分片，分片各自过滤、统计分面，协调节点把分面统计加起来
+    public SearchResult search(String query, SearchFilter filter, int offset, int limit) {
+        int topK = offset + limit;
+        // 要做邻近度加权的时候，每个分片至少返回前 proximityWindow 个，协调节点才能挑出全局的加分窗口，见 rescale
+        int shardLimit = FileConfig.proximityBoost > 0 ? Math.max(topK, FileConfig.proximityWindow) : topK;
+        String encoded = encode(query);
+        String stats = FileConfig.shardGlobalStats ? globalStats(encoded) : "";
+        List<ShardHits> hits = collect(sendAll("/shard/search?query=" + encoded + "&limit=" + shardLimit + stats + filterParams(filter)),
+                bytes -> ShardHits.readFrom(new ByteArrayInputStream(bytes)));
+
+        int failedShards = 0;
+        int total = 0;
+        boolean totalExact = true;
+        boolean timedOut = false;
+        List<Map<String, Map<String, Integer>>> facets = new ArrayList<>();
+        for (ShardHits shardHits : hits) {
+            if (shardHits == null) {
+                failedShards++;
+                continue;
+            }
+            total += shardHits.total;
+            totalExact &= shardHits.totalExact;
+            timedOut |= shardHits.partial;
+            if (shardHits.facets != null) {
+                facets.add(shardHits.facets);
+            }
+        }
+
+        // 用全局的统计信息换算分数之后合并，一个文档用 (分片, docId) 表示，分数相同的时候分片靠前、docId 小的在前面，
+        // 和单机查询时分数相同 docId 小的在前面一样，每次查询的顺序都是确定的
+        double[] scores = rescale(hits);
+        List<long[]> merged = new ArrayList<>();
+        int at = 0;
+        for (int s = 0; s < hits.size(); s++) {
+            ShardHits shardHits = hits.get(s);
+            if (shardHits == null) {
+                continue;
+            }
+            for (int i = 0; i < shardHits.size(); i++) {
+                merged.add(new long[]{Double.doubleToLongBits(scores[at++]), s, shardHits.docIds[i]});
+            }
+        }
+        merged.sort((a, b) -> {
+            int c = Double.compare(Double.longBitsToDouble(b[0]), Double.longBitsToDouble(a[0]));
+            if (c != 0) {
+                return c;
+            }
+            return a[1] != b[1] ? Long.compare(a[1], b[1]) : Long.compare(a[2], b[2]);
+        });
+        int from = Math.min(offset, merged.size());
+        int to = Math.min(topK, merged.size());
+        List<long[]> page = merged.subList(from, to);
+
+        // 这一页的文档按照分片分组，每个分片只请求一次
+        Map<Integer, List<Integer>> docsByShard = new HashMap<>();
+        for (long[] doc : page) {
+            docsByShard.computeIfAbsent((int) doc[1], k -> new ArrayList<>()).add((int) doc[2]);
+        }
+        List<CompletableFuture<byte[]>> fetches = new ArrayList<>(Collections.nCopies(hits.size(), (CompletableFuture<byte[]>) null));
+        for (Map.Entry<Integer, List<Integer>> entry : docsByShard.entrySet()) {
+            StringBuilder ids = new StringBuilder();
+            for (int docId : entry.getValue()) {
+                if (ids.length() > 0) {
+                    ids.append(',');
+                }
+                ids.append(docId);
+            }
+            int s = entry.getKey();
+            fetches.set(s, shards.get(s).get("/shard/docs?query=" + encoded + "&generation=" + encode(hits.get(s).generation)
+                    + "&ids=" + ids));
+        }
+        List<List<Result>> docs = collect(fetches,
+                bytes -> objectMapper.readValue(bytes, new TypeReference<List<Result>>() {}));
+
+        List<Result> results = new ArrayList<>(page.size());
+        Map<Integer, Integer> next = new HashMap<>();
+        for (long[] doc : page) {
+            int s = (int) doc[1];
+            int i = next.merge(s, 1, Integer::sum) - 1;
+            List<Result> shardDocs = docs.get(s);
+            if (shardDocs != null && i < shardDocs.size()) {
+                results.add(shardDocs.get(i));
+            }
+        }
+        for (Map.Entry<Integer, List<Integer>> entry : docsByShard.entrySet()) {
+            int s = entry.getKey();
+            if (docs.get(s) == null || docs.get(s).size() != entry.getValue().size()) {
+                // 这一页的内容没取到，可能是超时，也可能是分片在两步之间热加载了新的索引，这部分结果只能丢掉
+                failedShards++;
+            }
+        }
+        boolean partial = failedShards > 0 || timedOut;
+        return new SearchResult(total, offset, limit, results, totalExact && !partial, partial, failedShards,
+                filter != null && filter.isFacets() ? FacetCounts.mergeTop(facets, FileConfig.facetLimit) : null);
+    }
+
+    // 第 1 步：向所有分片取查询词的文档频率，加起来之后编码成 /shard/search 的 stats 参数
+    // 有分片不是 BM25F、或者一个分片都没有返回的时候返回空串，分片按照自己的统计信息求值，再由 rescale 换算
+    private String globalStats(String encoded) {
+        List<ShardStats> all = collect(sendAll("/shard/stats?query=" + encoded),
+                bytes -> objectMapper.readValue(bytes, ShardStats.class));
+        long docCount = 0;
+        Map<String, Long> docFreqs = new HashMap<>();
+        boolean found = false;
+        for (ShardStats shardStats : all) {
+            if (shardStats == null) {
+                continue;
+            }
+            if (!BM25FSimilarity.NAME.equals(shardStats.getSimilarity())) {
+                return "";
+            }
+            found = true;
+            docCount += shardStats.getDocCount();
+            if (shardStats.getDocFreqs() != null) {
+                for (Map.Entry<String, Long> entry : shardStats.getDocFreqs().entrySet()) {
+                    docFreqs.merge(entry.getKey(), entry.getValue(), Long::sum);
+                }
+            }
+        }
+        if (!found) {
+            return "";
+        }
+        try {
+            return "&stats=" + encode(objectMapper.writeValueAsString(new ShardStats(BM25FSimilarity.NAME, docCount, docFreqs)));
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String filterParams(SearchFilter filter) {
+        if (filter == null) {
+            return "";
+        }
+        StringBuilder params = new StringBuilder();
+        if (filter.getPkg() != null) {
+            params.append("&pkg=").append(encode(filter.getPkg()));
+        }
+        if (filter.getKind() != null) {
+            params.append("&kind=").append(encode(filter.getKind()));
+        }
+        if (filter.getModule() != null) {
+            params.append("&module=").append(encode(filter.getModule()));
+        }
+        if (filter.isFacets()) {
+            params.append("&facets=true");
+        }
+        return params.toString();
+    }
+
+    // 按照全局的统计信息换算每个分片返回的分数，返回值按照分片、分片中的顺序依次排列
+    // BM25F 的权重正比于 idf / maxIdf（见 BM25FSimilarity.relativeIdf），所以一个词在某个分片中的权重乘上
+    // relativeIdf(全局的 df, 全局的文档数) / relativeIdf(分片的 df, 分片的文档数) 就是按照全局统计信息算出来的权重；
+    // 分片已经按照第 1 步的全局统计信息换算过的（ShardHits.globalStats）不再换算，这里只处理没有换算过的分片
+    // 平均文档长度没有换算，文档随机分到各个分区之后，各个分片的平均长度差别很小
+    // 有分片不是 BM25F 的时候没法换算，直接比较原始的分数
+    //
+    // 分片返回的分数里还有邻近度的加分（见 ProximityReranker），它只加给按照权重之和排在前 proximityWindow 的文档
+    // 每个分片都给自己的前 proximityWindow 个加了分，合起来比单机时加分的文档多得多，全局排在几百名之后的文档也会被加分挤到前面
+    // 所以和单机一样，先按照换算后的权重之和挑出全局的前 proximityWindow 个，只有它们保留加分（按照比例换算），其它的只算权重之和
+    // 每个分片返回了自己按照权重之和排序的前 proximityWindow 个（加分只在窗口内部重新排序），全局的窗口一定在它们的并集里面
+    private static double[] rescale(List<ShardHits> hits) {
+        long docCount = 0;
+        Map<String, Long> docFreqs = new HashMap<>();
+        boolean bm25f = true;
+        int size = 0;
+        for (ShardHits shardHits : hits) {
+            if (shardHits == null) {
+                continue;
+            }
+            size += shardHits.size();
+            docCount += shardHits.docCount;
+            bm25f &= BM25FSimilarity.NAME.equals(shardHits.similarity);
+            // 同一个词在查询中出现多次的时候，words 中也有多个，文档频率只算一次
+            Map<String, Integer> distinct = new HashMap<>();
+            for (int j = 0; j < shardHits.words.length; j++) {
+                distinct.put(shardHits.words[j], shardHits.docFreqs[j]);
+            }
+            for (Map.Entry<String, Integer> entry : distinct.entrySet()) {
+                docFreqs.merge(entry.getKey(), (long) entry.getValue(), Long::sum);
+            }
+        }
+        double[] scores = new double[size];
+        double[] boosts = new double[size];
+        int at = 0;
+        for (ShardHits shardHits : hits) {
+            if (shardHits == null) {
+                continue;
+            }
+            int words = shardHits.words.length;
+            double[] factors = new double[words];
+            for (int j = 0; j < words; j++) {
+                double local = BM25FSimilarity.relativeIdf(shardHits.docFreqs[j], shardHits.docCount);
+                double global = BM25FSimilarity.relativeIdf(docFreqs.get(shardHits.words[j]), docCount);
+                factors[j] = bm25f && !shardHits.globalStats && local > 0 ? global / local : 1;
+            }
+            for (int i = 0; i < shardHits.size(); i++) {
+                long sum = 0;
+                double rescaled = 0;
+                for (int j = 0; j < words; j++) {
+                    int impact = shardHits.impacts[i * words + j];
+                    sum += impact;
+                    rescaled += impact * factors[j];
+                }
+                int score = shardHits.scores[i];
+                scores[at] = sum > 0 ? rescaled : score;
+                boosts[at++] = sum > 0 ? (double) score / sum : 1;
+            }
+        }
+        Integer[] order = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Double.compare(scores[b], scores[a]));
+        for (int i = 0; i < Math.min(FileConfig.proximityWindow, size); i++) {
+            scores[order[i]] *= boosts[order[i]];
+        }
+        return scores;
+    }
+
+    private List<CompletableFuture<byte[]>> sendAll(String path) {
+        List<CompletableFuture<byte[]>> futures = new ArrayList<>(shards.size());
+        for (ShardClient shard : shards) {
+            futures.add(shard.get(path));
+        }
+        return futures;
+    }
+
+    private interface Decoder<T> {
+        T decode(byte[] bytes) throws IOException;
+    }
+
+    // 在同一个截止时间之前等所有的请求，超时、出错或者解析失败的位置是 null，没有发请求（future 为 null）的位置也是 null
+    private static <T> List<T> collect(List<CompletableFuture<byte[]>> futures, Decoder<T> decoder) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(FileConfig.shardTimeout);
+        List<T> results = new ArrayList<>(Collections.nCopies(futures.size(), (T) null));
+        for (int s = 0; s < futures.size(); s++) {
+            CompletableFuture<byte[]> future = futures.get(s);
+            if (future == null) {
+                continue;
+            }
+            try {
+                byte[] bytes = future.get(Math.max(deadline - System.nanoTime(), 0), TimeUnit.NANOSECONDS);
+                results.set(s, decoder.decode(bytes));
+            } catch (TimeoutException e) {
+                future.cancel(false);
+                Metrics.CLUSTER_SHARD_FAILURES.increment();
+                System.out.println("分片超时: " + s);
+            } catch (ExecutionException | IOException e) {
+                Metrics.CLUSTER_SHARD_FAILURES.increment();
+                System.out.println("分片出错: " + s + ", " + e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        return results;
+    }
+
+    private static String encode(String value) {
+        try {
+            return URLEncoder.encode(value == null ? "" : value, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
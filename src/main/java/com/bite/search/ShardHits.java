@@ -0,0 +1,166 @@
+package com.bite.search;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// 分布式查询时一个分片节点返回给协调节点的结果（/shard/search），见 DocSearcher.searchShard、ShardCoordinator
+// 只有 (docId, 分数) 和算分需要的统计信息，不带标题、描述，协调节点合并出最终的一页之后，再去对应的分片取这一页的内容
+//
+// 分片中的权重是按照分片自己的文档数、文档频率算的，同一个词在不同分片中的 idf 不一样，直接比较分数会偏向这个词比较少见的分片
+// 协调节点带上了全局统计信息的时候分片已经换算过了（globalStats）；没有带的时候由协调节点重新换算分数，
+// 所以除了总分之外，还带上每个文档每个查询词各自的权重（impacts），以及每个查询词在这个分片中的文档频率
+//
+// 二进制格式：魔数、版本，之后整数都是 varint，字符串是 writeUTF
+public class ShardHits {
+
+    private static final int MAGIC = 0x44534852;// "DSHR"
+    // 版本2：最后增加了分面统计
+    // 版本3：totalExact 后面增加了 partial
+    // 版本4：partial 后面增加了 globalStats
+    private static final int VERSION = 4;
+
+    // 分片当前的索引版本，取这一页内容的时候带上，索引在两次请求之间被热加载替换了的话 docId 就对不上了
+    String generation;
+    String similarity;
+    // 分片中有效的文档数
+    int docCount;
+    int total;
+    boolean totalExact;
+    // 分片求值的时候超过了时间预算（见 Deadline），只返回了超时之前找到的文档
+    boolean partial;
+    // 分片已经按照协调节点发来的全局统计信息换算过权重（见 DocSearcher.searchShard），分数、impacts 不需要再换算
+    boolean globalStats;
+    // 在这个分片的索引中找到了的查询词（可能重复）和它们的文档频率
+    String[] words;
+    int[] docFreqs;
+    // 按分数降序排列的前 K 个文档
+    int[] docIds;
+    int[] scores;
+    // impacts[i * words.length + j] 是第 i 个文档中第 j 个词的权重，不包含这个词的时候是 0
+    int[] impacts;
+    // 这个分片中所有命中的文档的分面统计（全部取值，不截断，协调节点合并之后再取前几个），没有请求的时候为 null
+    Map<String, Map<String, Integer>> facets;
+
+    public String getGeneration() {
+        return generation;
+    }
+
+    public int size() {
+        return docIds.length;
+    }
+
+    public void writeTo(OutputStream stream) throws IOException {
+        DataOutputStream out = new DataOutputStream(stream);
+        out.writeInt(MAGIC);
+        out.writeByte(VERSION);
+        out.writeUTF(generation == null ? "" : generation);
+        out.writeUTF(similarity);
+        writeVInt(out, docCount);
+        writeVInt(out, total);
+        out.writeBoolean(totalExact);
+        out.writeBoolean(partial);
+        out.writeBoolean(globalStats);
+        writeVInt(out, words.length);
+        for (int i = 0; i < words.length; i++) {
+            out.writeUTF(words[i]);
+            writeVInt(out, docFreqs[i]);
+        }
+        writeVInt(out, docIds.length);
+        for (int i = 0; i < docIds.length; i++) {
+            writeVInt(out, docIds[i]);
+            writeVInt(out, scores[i]);
+            for (int j = 0; j < words.length; j++) {
+                writeVInt(out, impacts[i * words.length + j]);
+            }
+        }
+        out.writeBoolean(facets != null);
+        if (facets != null) {
+            writeVInt(out, facets.size());
+            for (Map.Entry<String, Map<String, Integer>> field : facets.entrySet()) {
+                out.writeUTF(field.getKey());
+                writeVInt(out, field.getValue().size());
+                for (Map.Entry<String, Integer> value : field.getValue().entrySet()) {
+                    out.writeUTF(value.getKey());
+                    writeVInt(out, value.getValue());
+                }
+            }
+        }
+        out.flush();
+    }
+
+    public static ShardHits readFrom(InputStream stream) throws IOException {
+        DataInputStream in = new DataInputStream(stream);
+        if (in.readInt() != MAGIC) {
+            throw new IOException("不是分片查询的结果");
+        }
+        int version = in.readUnsignedByte();
+        if (version != VERSION) {
+            throw new IOException("不支持的分片结果版本: " + version);
+        }
+        ShardHits hits = new ShardHits();
+        hits.generation = in.readUTF();
+        hits.similarity = in.readUTF();
+        hits.docCount = readVInt(in);
+        hits.total = readVInt(in);
+        hits.totalExact = in.readBoolean();
+        hits.partial = in.readBoolean();
+        hits.globalStats = in.readBoolean();
+        int wordCount = readVInt(in);
+        hits.words = new String[wordCount];
+        hits.docFreqs = new int[wordCount];
+        for (int i = 0; i < wordCount; i++) {
+            hits.words[i] = in.readUTF();
+            hits.docFreqs[i] = readVInt(in);
+        }
+        int size = readVInt(in);
+        hits.docIds = new int[size];
+        hits.scores = new int[size];
+        hits.impacts = new int[size * wordCount];
+        for (int i = 0; i < size; i++) {
+            hits.docIds[i] = readVInt(in);
+            hits.scores[i] = readVInt(in);
+            for (int j = 0; j < wordCount; j++) {
+                hits.impacts[i * wordCount + j] = readVInt(in);
+            }
+        }
+        if (in.readBoolean()) {
+            int fieldCount = readVInt(in);
+            hits.facets = new LinkedHashMap<>();
+            for (int i = 0; i < fieldCount; i++) {
+                String field = in.readUTF();
+                int valueCount = readVInt(in);
+                Map<String, Integer> values = new LinkedHashMap<>();
+                for (int j = 0; j < valueCount; j++) {
+                    values.put(in.readUTF(), readVInt(in));
+                }
+                hits.facets.put(field, values);
+            }
+        }
+        return hits;
+    }
+
+    private static void writeVInt(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    private static int readVInt(DataInputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("varint 格式错误");
+    }
+}
@@ -0,0 +1,18 @@
+package com.bite.search;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.Map;
+
+// 分布式查询时查询词的统计信息：分片节点在 /shard/stats 中返回自己的，协调节点把所有分片的加起来，
+// 再作为 /shard/search 的 stats 参数发给每个分片，分片按照全局的统计信息换算权重之后再挑前 K 个，见 ShardCoordinator
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class ShardStats {
+    private String similarity;// 索引使用的相关性公式，只有 BM25F 的权重可以换算
+    private long docCount;// 有效的文档数
+    private Map<String, Long> docFreqs;// 在索引中找到了的查询词 -> 文档频率
+}
@@ -0,0 +1,220 @@
+package com.bite.search;
+
+import java.util.Arrays;
+import java.util.List;
+
+// 通过这个类来生成搜索结果的描述（摘要），替代之前基于 replaceAll 的 GenDesc
+// 一次查询构造一个对象，内部的 TermMatcher 只构建一次，之后每个结果的正文只扫描一遍：
+// 1、扫描正文，记录下所有查询词出现的位置
+// 2、在这些位置上滑动一个固定长度的窗口，挑出查询词最密集的那个窗口
+// 3、只截取这个窗口的内容，并给其中的查询词加上 <i> 标签
+// 整个过程不会再对整篇正文做 toLowerCase、replaceAll 这种全文拷贝
+// 正文中的 &lt; 这种实体在制作索引的时候已经还原成了字符，所以生成描述的时候要重新转义，页面上才能原样显示
+// 索引中记录了词的位置的时候，先通过 SnippetLocator 找到正文中查询词最密集的那一段，只扫描那一段，
+// 生成描述的开销和正文的长度无关，index-all 这种几 MB 的页面也一样快
+public class SnippetGenerator {
+
+    // 描述的长度
+    private static final int DESC_LENGTH = 160;
+    // 第一个命中的词前面最多保留多少个字符
+    static final int LEAD_LENGTH = 60;
+    // 一篇文档最多记录多少个命中位置，避免超大的文档记录过多的位置
+    private static final int MAX_MATCHES = 4096;
+    // 只扫描一段正文的时候，这一段的长度，要能装下定位的误差（最多 Index.OFFSET_SAMPLE_INTERVAL 个词）再加上一个描述
+    static final int REGION_LENGTH = 2048;
+
+    private final TermMatcher matcher;
+
+    public SnippetGenerator(List<String> terms) {
+        this.matcher = new TermMatcher(terms);
+    }
+
+    public String generate(String content) {
+        return generate(content, 0, content == null ? 0 : content.length());
+    }
+
+    // 只在正文的 [regionStart, regionStart + REGION_LENGTH) 中找查询词，regionStart 由 SnippetLocator 给出
+    public String generate(String content, int regionStart) {
+        if (regionStart < 0) {
+            return generate(content);
+        }
+        return generate(content, regionStart, regionStart + REGION_LENGTH);
+    }
+
+    private String generate(String content, int from, int to) {
+        if (content == null) {
+            return "";
+        }
+
+        //1、扫描正文，记录所有的命中位置
+        Matches matches = new Matches();
+        matcher.scan(content, from, to, matches);
+
+        if (matches.size == 0) {
+            // 所有的分词结果都不在正文中存在
+            // 这是属于比较极端的情况
+            // 返回一个正文的前160个字符即可
+            // 只扫描了一段正文的时候，就返回这一段开头的160个字符
+            int descBeg = Math.min(from, content.length());
+            int descEnd = Math.min(descBeg + DESC_LENGTH, content.length());
+            StringBuilder desc = new StringBuilder(DESC_LENGTH + 16);
+            escape(desc, content, descBeg, descEnd);
+            if (content.length() > descEnd) {
+                desc.append("...");
+            }
+            return desc.toString();
+        }
+
+        //2、去掉互相重叠的命中，同一个位置开始的优先保留更长的词
+        matches.removeOverlaps();
+
+        //3、找出查询词最密集的窗口
+        int[] window = bestWindow(matches);
+        int first = window[0];
+        int last = window[1];
+
+        // 窗口中第一个词的位置作为基准，往前留出一部分上下文
+        int span = matches.ends[last] - matches.starts[first];
+        int slack = Math.max(DESC_LENGTH - span, 0);
+        int descBeg = Math.max(matches.starts[first] - Math.min(LEAD_LENGTH, slack), 0);
+        int descEnd = Math.min(descBeg + DESC_LENGTH, content.length());
+
+        //4、截取描述，同时给命中的词加上 <i> 标签
+        StringBuilder desc = new StringBuilder(descEnd - descBeg + 16 * (last - first + 1) + 3);
+        int pos = descBeg;
+        for (int i = 0; i < matches.size; i++) {
+            int start = matches.starts[i];
+            int end = matches.ends[i];
+            if (end <= descBeg || start < pos) {
+                continue;
+            }
+            if (start >= descEnd || end > descEnd) {
+                break;
+            }
+            escape(desc, content, pos, start);
+            desc.append("<i>");
+            escape(desc, content, start, end);
+            desc.append("</i>");
+            pos = end;
+        }
+        escape(desc, content, pos, descEnd);
+        if (descEnd < content.length()) {
+            desc.append("...");
+        }
+        return desc.toString();
+    }
+
+    // 把 content[start, end) 做 html 转义之后追加到 sb 中
+    private static void escape(StringBuilder sb, String content, int start, int end) {
+        for (int i = start; i < end; i++) {
+            char c = content.charAt(i);
+            switch (c) {
+                case '<':
+                    sb.append("&lt;");
+                    break;
+                case '>':
+                    sb.append("&gt;");
+                    break;
+                case '&':
+                    sb.append("&amp;");
+                    break;
+                case '"':
+                    sb.append("&quot;");
+                    break;
+                default:
+                    sb.append(c);
+            }
+        }
+    }
+
+    // 找出命中最密集的窗口，返回窗口中第一个和最后一个命中的下标
+    // 先比较窗口中包含的不同查询词的个数，再比较命中的总次数，都相同的时候取最靠前的窗口
+    private int[] bestWindow(Matches matches) {
+        int[] termCounts = new int[matcher.termCount()];
+        int distinct = 0;
+        int bestFirst = 0;
+        int bestLast = 0;
+        int bestDistinct = -1;
+        int bestTotal = -1;
+
+        int right = 0;
+        for (int left = 0; left < matches.size; left++) {
+            // 窗口的右边界尽可能往后扩展
+            while (right < matches.size && matches.ends[right] - matches.starts[left] <= DESC_LENGTH) {
+                if (termCounts[matches.words[right]]++ == 0) {
+                    distinct++;
+                }
+                right++;
+            }
+            int total = right - left;
+            if (distinct > bestDistinct || (distinct == bestDistinct && total > bestTotal)) {
+                bestDistinct = distinct;
+                bestTotal = total;
+                bestFirst = left;
+                bestLast = right - 1;
+            }
+            // 左边界往后移动一个位置
+            if (right > left) {
+                if (--termCounts[matches.words[left]] == 0) {
+                    distinct--;
+                }
+            } else {
+                right = left + 1;
+            }
+        }
+        // 单个命中就比窗口还长的时候，至少把这一个命中包含进来
+        if (bestLast < bestFirst) {
+            bestLast = bestFirst;
+        }
+        return new int[]{bestFirst, bestLast};
+    }
+
+    // 保存一篇文档中所有的命中位置
+    private static class Matches implements TermMatcher.MatchSink {
+        int[] starts = new int[16];
+        int[] ends = new int[16];
+        int[] words = new int[16];
+        int size = 0;
+
+        @Override
+        public boolean onMatch(int start, int end, int wordIndex) {
+            if (size == starts.length) {
+                int newLength = size * 2;
+                starts = Arrays.copyOf(starts, newLength);
+                ends = Arrays.copyOf(ends, newLength);
+                words = Arrays.copyOf(words, newLength);
+            }
+            starts[size] = start;
+            ends[size] = end;
+            words[size] = wordIndex;
+            size++;
+            return size < MAX_MATCHES;
+        }
+
+        // 扫描的时候是按照结束位置的顺序记录的，这里按照开始位置重新排序，然后去掉重叠的部分
+        void removeOverlaps() {
+            // 把 (开始位置, 长度, 词的下标) 打包成一个 long 进行排序，避免创建对象
+            long[] packed = new long[size];
+            for (int i = 0; i < size; i++) {
+                int length = ends[i] - starts[i];
+                packed[i] = ((long) starts[i] << 32) | ((long) (0xFFFF - Math.min(length, 0xFFFF)) << 16) | words[i];
+            }
+            Arrays.sort(packed);
+            int newSize = 0;
+            int lastEnd = -1;
+            for (long p : packed) {
+                int start = (int) (p >>> 32);
+                int length = 0xFFFF - (int) ((p >>> 16) & 0xFFFF);
+                if (start < lastEnd) {
+                    continue;
+                }
+                starts[newSize] = start;
+                ends[newSize] = start + length;
+                words[newSize] = (int) (p & 0xFFFF);
+                lastEnd = start + length;
+                newSize++;
+            }
+            size = newSize;
+        }
+    }
+}
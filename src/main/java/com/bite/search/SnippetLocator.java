@@ -0,0 +1,118 @@
+package com.bite.search;
+
+import com.bite.index.DocInfo;
+import com.bite.index.Index;
+import com.bite.index.PostingsCursor;
+
+import java.util.Arrays;
+import java.util.List;
+
+// 通过这个类在生成描述之前，利用倒排拉链中记录的词的位置，找出正文中查询词最密集的一段从哪个字符开始
+// 1、读出当前页每个结果中每个查询词出现的位置（只读这一页的十来个文档）
+// 2、在位置上滑动一个 WINDOW_POSITIONS 个词的窗口，和 SnippetGenerator.bestWindow 一样，先比不同的词数，再比总次数
+// 3、通过正排文档中的字符位置采样（DocInfo.offsetSamples），把窗口开始的词的位置换算成正文中的字符位置
+// 整个过程只和查询词出现的次数有关，不需要扫描正文
+final class SnippetLocator {
+
+    // 描述的 160 个字符大概能放下多少个词
+    private static final int WINDOW_POSITIONS = 20;
+
+    private SnippetLocator() {
+    }
+
+    // 返回每个文档要扫描的那一段正文的开始位置（见 SnippetGenerator.generate(String, int)）
+    // 索引中没有位置信息的文档返回 -1，表示扫描整篇正文；查询词都不在正文中的返回 0，只扫描正文的开头
+    static int[] locate(Index index, List<String> words, List<DocInfo> docs) {
+        int[] regionStarts = new int[docs.size()];
+        Arrays.fill(regionStarts, -1);
+        if (words.isEmpty()) {
+            return regionStarts;
+        }
+        // 游标只能往后移动，所以按照 docId 升序依次处理
+        long[] byDocId = new long[docs.size()];
+        for (int i = 0; i < byDocId.length; i++) {
+            byDocId[i] = ((long) docs.get(i).getDocId() << 32) | i;
+        }
+        Arrays.sort(byDocId);
+        PostingsCursor[] cursors = new PostingsCursor[words.size()];
+        for (int i = 0; i < cursors.length; i++) {
+            cursors[i] = index.getInverted(words.get(i));
+        }
+        for (long entry : byDocId) {
+            int docId = (int) (entry >>> 32);
+            int rank = (int) entry;
+            DocInfo docInfo = docs.get(rank);
+            if (docInfo.getOffsetSamples() == null || docInfo.getOffsetSamples().length == 0) {
+                continue;
+            }
+            long[] hits = new long[16];
+            int hitCount = 0;
+            boolean withPositions = true;
+            for (int w = 0; w < cursors.length; w++) {
+                PostingsCursor cursor = cursors[w];
+                if (cursor == null || cursor.advance(docId) != docId) {
+                    continue;
+                }
+                int[] positions = cursor.positions();
+                if (positions == null) {
+                    withPositions = false;
+                    break;
+                }
+                for (int position : positions) {
+                    // 标题中的位置在正文第一个词的前面，不参与
+                    if (position < docInfo.getContentPositionBase()) {
+                        continue;
+                    }
+                    if (hitCount == hits.length) {
+                        hits = Arrays.copyOf(hits, hitCount * 2);
+                    }
+                    hits[hitCount++] = ((long) position << 16) | w;
+                }
+            }
+            if (!withPositions) {
+                continue;
+            }
+            if (hitCount == 0) {
+                regionStarts[rank] = 0;
+                continue;
+            }
+            Arrays.sort(hits, 0, hitCount);
+            int start = (int) (bestWindow(hits, hitCount, words.size()) >>> 16);
+            int[] samples = docInfo.getOffsetSamples();
+            int sample = Math.min((start - docInfo.getContentPositionBase()) / Index.OFFSET_SAMPLE_INTERVAL,
+                    samples.length - 1);
+            // 往前留出描述前面的上下文，这部分中的查询词也要能被标出来
+            regionStarts[rank] = Math.max(samples[sample] - SnippetGenerator.LEAD_LENGTH, 0);
+        }
+        return regionStarts;
+    }
+
+    // hits 是按位置排好序的 (位置 << 16 | 词的下标)，返回最好的窗口的第一个元素
+    private static long bestWindow(long[] hits, int hitCount, int wordCount) {
+        int[] counts = new int[wordCount];
+        int distinct = 0;
+        int bestDistinct = -1;
+        int bestTotal = -1;
+        long best = hits[0];
+        int right = 0;
+        for (int left = 0; left < hitCount; left++) {
+            long leftPosition = hits[left] >>> 16;
+            while (right < hitCount && (hits[right] >>> 16) - leftPosition < WINDOW_POSITIONS) {
+                if (counts[(int) (hits[right] & 0xFFFF)]++ == 0) {
+                    distinct++;
+                }
+                right++;
+            }
+            int total = right - left;
+            if (distinct > bestDistinct || (distinct == bestDistinct && total > bestTotal)) {
+                bestDistinct = distinct;
+                bestTotal = total;
+                best = hits[left];
+            }
+            if (--counts[(int) (hits[left] & 0xFFFF)] == 0) {
+                distinct--;
+            }
+        }
+        return best;
+    }
+}
@@ -0,0 +1,14 @@
+package com.bite.search;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+// 这个类是 /searcher 单机查询的结果加上它的 ETag，两者来自同一次分词、同一个索引版本，见 DocSearcher.search
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class TaggedResult {
+    private String etag;// 索引版本 + 分词之后的查询 + 分页参数算出来的弱 ETag
+    private SearchResult searchResult;// 浏览器带来的 If-None-Match 对上了 ETag 的时候没有求值，为 null
+}
@@ -0,0 +1,215 @@
+package com.bite.search;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// 通过这个类实现一个不区分大小写的多模式匹配器（Aho-Corasick 自动机）
+// 一次查询只需要构建一次，之后对每个文档的正文只需要从头到尾扫描一遍，就能找出所有查询词出现的位置
+// 整个过程不使用正则表达式，所以查询词里面有 c++、( 这种正则元字符也没有问题
+public class TermMatcher {
+
+    // 去重、转小写之后的查询词
+    private final String[] words;
+
+    // 自动机的状态转移表，使用开放寻址的哈希表保存 (状态, 字符) -> 下一个状态，避免为每个状态创建一个 Map
+    private long[] edgeKeys;
+    private int[] edgeValues;
+
+    // 用 "第一个孩子 + 下一个兄弟" 的方式记录 trie 树的结构，计算失败指针的时候按层遍历要用到
+    private int[] firstChild;
+    private int[] nextSibling;
+    private char[] edgeChar;
+
+    // 失败指针
+    private int[] fail;
+    // 以这个状态结尾的最长的查询词下标，没有则为 -1
+    private int[] output;
+    // 沿着失败指针往上，第一个有输出的状态，没有则为 -1（用来找出同一个位置结尾的更短的词）
+    private int[] dictLink;
+    // 从根节点到这个状态的深度，也就是匹配到的字符串长度
+    private int[] depth;
+    private int stateCount = 1;
+
+    public TermMatcher(List<String> terms) {
+        // 对查询词去重、去掉空白的词
+        List<String> list = new ArrayList<>();
+        for (String term : terms) {
+            if (term == null) {
+                continue;
+            }
+            String word = term.trim().toLowerCase();
+            if (word.isEmpty() || list.contains(word)) {
+                continue;
+            }
+            list.add(word);
+        }
+        words = list.toArray(new String[0]);
+
+        int maxStates = 1;
+        for (String word : words) {
+            maxStates += word.length();
+        }
+        int capacity = Integer.highestOneBit(Math.max(maxStates * 2, 16)) << 1;
+        edgeKeys = new long[capacity];
+        Arrays.fill(edgeKeys, -1L);
+        edgeValues = new int[capacity];
+        fail = new int[maxStates];
+        output = new int[maxStates];
+        dictLink = new int[maxStates];
+        depth = new int[maxStates];
+        firstChild = new int[maxStates];
+        nextSibling = new int[maxStates];
+        edgeChar = new char[maxStates];
+        Arrays.fill(output, -1);
+        Arrays.fill(firstChild, -1);
+        Arrays.fill(dictLink, -1);
+
+        // 1、把所有的词插入到 trie 树中
+        for (int i = 0; i < words.length; i++) {
+            String word = words[i];
+            int state = 0;
+            for (int j = 0; j < word.length(); j++) {
+                char c = word.charAt(j);
+                int next = getEdge(state, c);
+                if (next < 0) {
+                    next = stateCount++;
+                    depth[next] = depth[state] + 1;
+                    putEdge(state, c, next);
+                    edgeChar[next] = c;
+                    nextSibling[next] = firstChild[state];
+                    firstChild[state] = next;
+                }
+                state = next;
+            }
+            output[state] = i;
+        }
+
+        // 2、按层遍历 trie 树，计算失败指针
+        int[] queue = new int[stateCount];
+        int head = 0;
+        int tail = 0;
+        queue[tail++] = 0;
+        while (head < tail) {
+            int state = queue[head++];
+            for (int child = firstChild[state]; child >= 0; child = nextSibling[child]) {
+                char c = edgeChar[child];
+                if (state == 0) {
+                    fail[child] = 0;
+                } else {
+                    int f = fail[state];
+                    while (f != 0 && getEdge(f, c) < 0) {
+                        f = fail[f];
+                    }
+                    int next = getEdge(f, c);
+                    fail[child] = next >= 0 ? next : 0;
+                }
+                int f = fail[child];
+                dictLink[child] = output[f] >= 0 ? f : dictLink[f];
+                queue[tail++] = child;
+            }
+        }
+    }
+
+    public int termCount() {
+        return words.length;
+    }
+
+    public boolean isEmpty() {
+        return words.length == 0;
+    }
+
+    // 在 content 中查找所有查询词出现的位置，每找到一个就回调一次 sink
+    // 只有 "全字匹配" 的结果才算数：词的首尾如果是英文字母/数字，那么它的左右两边就不能再是英文字母/数字
+    // 这和之前用 \b 实现的全字匹配的效果是一样的
+    public void scan(CharSequence content, MatchSink sink) {
+        if (content == null) {
+            return;
+        }
+        scan(content, 0, content.length(), sink);
+    }
+
+    // 只在 content 的 [from, to) 范围内查找，范围外面的字符只用来判断是不是全字匹配
+    public void scan(CharSequence content, int from, int to, MatchSink sink) {
+        if (words.length == 0 || content == null) {
+            return;
+        }
+        int state = 0;
+        int length = Math.min(to, content.length());
+        for (int i = Math.max(from, 0); i < length; i++) {
+            char c = Character.toLowerCase(content.charAt(i));
+            int next = getEdge(state, c);
+            while (next < 0 && state != 0) {
+                state = fail[state];
+                next = getEdge(state, c);
+            }
+            state = next < 0 ? 0 : next;
+
+            // 依次检查在 i 位置结尾的所有词
+            int s = output[state] >= 0 ? state : dictLink[state];
+            while (s >= 0) {
+                int end = i + 1;
+                int start = end - depth[s];
+                int wordIndex = output[s];
+                if (isWholeWord(content, start, end, words[wordIndex])) {
+                    if (!sink.onMatch(start, end, wordIndex)) {
+                        return;
+                    }
+                }
+                s = dictLink[s];
+            }
+        }
+    }
+
+    private static boolean isWholeWord(CharSequence content, int start, int end, String word) {
+        if (isWordChar(word.charAt(0)) && start > 0 && isWordChar(content.charAt(start - 1))) {
+            return false;
+        }
+        if (isWordChar(word.charAt(word.length() - 1)) && end < content.length() && isWordChar(content.charAt(end))) {
+            return false;
+        }
+        return true;
+    }
+
+    // 和正则表达式中的 \w 保持一致，只把英文字母、数字和下划线当作单词字符
+    private static boolean isWordChar(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_';
+    }
+
+    private int getEdge(int state, char c) {
+        long key = ((long) state << 16) | c;
+        int mask = edgeKeys.length - 1;
+        int slot = hash(key) & mask;
+        while (true) {
+            long k = edgeKeys[slot];
+            if (k == -1L) {
+                return -1;
+            }
+            if (k == key) {
+                return edgeValues[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    private void putEdge(int state, char c, int next) {
+        long key = ((long) state << 16) | c;
+        int mask = edgeKeys.length - 1;
+        int slot = hash(key) & mask;
+        while (edgeKeys[slot] != -1L) {
+            slot = (slot + 1) & mask;
+        }
+        edgeKeys[slot] = key;
+        edgeValues[slot] = next;
+    }
+
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    // 匹配结果的回调，返回 false 表示不需要再继续扫描了
+    public interface MatchSink {
+        boolean onMatch(int start, int end, int wordIndex);
+    }
+}
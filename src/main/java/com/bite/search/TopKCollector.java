@@ -0,0 +1,150 @@
+package com.bite.search;
+
+import java.util.Arrays;
+
+// 通过这个类，用一个固定大小的小根堆来挑选出得分最高的 K 个文档
+// 堆里只保存基本类型的 (docId, score)，不会为每个命中的文档创建对象
+// 堆顶是当前 K 个结果里 "最差" 的那一个，新来的文档只要比堆顶好，就把堆顶替换掉
+// 数组不是一开始就按照 K 分配的，而是随着命中的文档数增长，最多到 K：
+// 翻到很后面的页的时候 K 很大，但是命中的文档往往没有那么多，不会为用不上的位置分配内存
+public class TopKCollector {
+
+    // 数组的初始长度
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final int k;
+
+    // 两个平行数组表示堆中的元素，下标相同的是同一个元素
+    private int[] docIds;
+    private int[] scores;
+
+    private int size = 0;
+
+    // 一共命中了多少个文档（不只是堆中保留下来的）
+    private int totalHits = 0;
+
+    public TopKCollector(int k) {
+        this.k = Math.max(k, 0);
+        this.docIds = new int[Math.min(this.k, INITIAL_CAPACITY)];
+        this.scores = new int[docIds.length];
+    }
+
+    // 收集一个命中的文档
+    public void collect(int docId, int score) {
+        totalHits++;
+        if (k == 0) {
+            return;
+        }
+        if (size < k) {
+            // 堆还没满，直接放到末尾然后向上调整
+            if (size == docIds.length) {
+                grow();
+            }
+            docIds[size] = docId;
+            scores[size] = score;
+            siftUp(size);
+            size++;
+            return;
+        }
+        // 堆满了，只有比堆顶（最差的那个）更好，才有资格进来
+        if (better(docId, score, docIds[0], scores[0])) {
+            docIds[0] = docId;
+            scores[0] = score;
+            siftDown(0);
+        }
+    }
+
+    // 数组翻倍，但是不超过 k
+    private void grow() {
+        int capacity = (int) Math.min((long) docIds.length * 2, k);
+        docIds = Arrays.copyOf(docIds, capacity);
+        scores = Arrays.copyOf(scores, capacity);
+    }
+
+    // 当前进入 topK 的最低分数，堆没满的时候返回 Integer.MIN_VALUE
+    public int threshold() {
+        return size < k ? Integer.MIN_VALUE : scores[0];
+    }
+
+    public int getTotalHits() {
+        return totalHits;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // 把堆中的元素按照得分降序取出来，得分相同的按照 docId 升序
+    // 注意：这个方法会清空堆，只能调用一次
+    public int[] drainDocIds() {
+        return drainDocIds(null);
+    }
+
+    // 同上，sortedScores 不为 null 的时候（长度至少是 size()）同时按相同的顺序取出得分
+    public int[] drainDocIds(int[] sortedScores) {
+        int[] sorted = new int[size];
+        // 小根堆每次弹出的都是最差的元素，所以从数组末尾往前放
+        for (int i = size - 1; i >= 0; i--) {
+            sorted[i] = docIds[0];
+            if (sortedScores != null) {
+                sortedScores[i] = scores[0];
+            }
+            size--;
+            docIds[0] = docIds[size];
+            scores[0] = scores[size];
+            siftDown(0);
+        }
+        return sorted;
+    }
+
+    // 判断 (d1,s1) 是否比 (d2,s2) 排名更靠前
+    // 得分高的靠前，得分相同的时候 docId 小的靠前（和之前稳定排序的结果保持一致）
+    private static boolean better(int d1, int s1, int d2, int s2) {
+        if (s1 != s2) {
+            return s1 > s2;
+        }
+        return d1 < d2;
+    }
+
+    private void siftUp(int child) {
+        int docId = docIds[child];
+        int score = scores[child];
+        while (child > 0) {
+            int parent = (child - 1) >>> 1;
+            // 父节点比当前元素还要好，说明当前元素应该往上走
+            if (!better(docIds[parent], scores[parent], docId, score)) {
+                break;
+            }
+            docIds[child] = docIds[parent];
+            scores[child] = scores[parent];
+            child = parent;
+        }
+        docIds[child] = docId;
+        scores[child] = score;
+    }
+
+    private void siftDown(int parent) {
+        if (size == 0) {
+            return;
+        }
+        int docId = docIds[parent];
+        int score = scores[parent];
+        int half = size >>> 1;
+        while (parent < half) {
+            int child = 2 * parent + 1;
+            int right = child + 1;
+            // 找出两个孩子中更差的那个
+            if (right < size && better(docIds[child], scores[child], docIds[right], scores[right])) {
+                child = right;
+            }
+            if (!better(docId, score, docIds[child], scores[child])) {
+                break;
+            }
+            docIds[parent] = docIds[child];
+            scores[parent] = scores[child];
+            parent = child;
+        }
+        docIds[parent] = docId;
+        scores[parent] = score;
+    }
+}
@@ -0,0 +1,148 @@
+package com.bite.search;
+
+import com.bite.index.PostingsCursor;
+
+import java.util.List;
+
+// 通过这个类实现 WAND / Block-Max WAND 动态剪枝，用于多个词的 top-K 查询
+// 全量合并需要把每个词倒排拉链中的每个文档都累加一遍，而实际上只有能进入 top-K 的文档才有必要算分
+// WAND 利用每个词的最大权重估计一个文档分数的上限，上限都达不到当前 top-K 门槛（堆顶的分数）的文档直接跳过
+// Block-Max WAND 在此基础上再用倒排拉链每个块内的最大权重，得到更紧的上限，能跳过更多的文档
+//
+// 文档是按照 docId 升序处理的，分数相同的时候 docId 小的排在前面，
+// 所以后来的文档只有分数严格大于门槛才能进入 top-K，剪枝不会改变最终的 top-K 结果
+final class WandScorer {
+
+    private final PostingsCursor[] cursors;
+    private int size;
+    private final boolean blockMax;
+
+    // 完整算分的文档数，用来观察剪枝的效果
+    private int scoredDocs = 0;
+    // 所有词中最大的文档频率，WAND 跳过了部分文档，命中总数只能给出这个下限
+    private int maxDocFreq = 0;
+
+    WandScorer(List<PostingsCursor> source, boolean blockMax) {
+        this.blockMax = blockMax;
+        this.cursors = new PostingsCursor[source.size()];
+        for (PostingsCursor cursor : source) {
+            maxDocFreq = Math.max(maxDocFreq, cursor.cost());
+            if (cursor.nextDoc() != PostingsCursor.NO_MORE_DOCS) {
+                cursors[size++] = cursor;
+            }
+        }
+    }
+
+    int getScoredDocs() {
+        return scoredDocs;
+    }
+
+    int getMaxDocFreq() {
+        return maxDocFreq;
+    }
+
+    // 每轮循环处理一个 pivot，每 Deadline.CHECK_INTERVAL 轮检查一次时间预算，超时就停下来
+    void score(TopKCollector collector, Deadline deadline) {
+        int rounds = 0;
+        while (size > 0) {
+            if ((++rounds & (Deadline.CHECK_INTERVAL - 1)) == 0 && deadline.check()) {
+                break;
+            }
+            sortByDocId();
+            int threshold = collector.threshold();
+
+            //1、找到 pivot：按照 docId 的顺序累加最大权重，第一个让累加值超过门槛的游标
+            // pivot 之前的游标所在的文档，即使包含了这些词，分数也不可能超过门槛
+            long upperBound = 0;
+            int pivot = -1;
+            for (int i = 0; i < size; i++) {
+                upperBound += cursors[i].maxWeight();
+                if (upperBound > threshold) {
+                    pivot = i;
+                    break;
+                }
+            }
+            if (pivot < 0) {
+                // 所有词的最大权重加起来都达不到门槛了，后面不会再有文档能进入 top-K
+                break;
+            }
+            int pivotDoc = cursors[pivot].docId();
+            if (pivotDoc == PostingsCursor.NO_MORE_DOCS) {
+                break;
+            }
+            // 停在同一个文档上的游标都算进来
+            while (pivot + 1 < size && cursors[pivot + 1].docId() == pivotDoc) {
+                pivot++;
+            }
+
+            //2、Block-Max：用各个词在 pivotDoc 所在块的最大权重再估计一次上限
+            if (blockMax) {
+                long blockBound = 0;
+                int next = PostingsCursor.NO_MORE_DOCS;
+                for (int i = 0; i <= pivot; i++) {
+                    int blockLast = cursors[i].advanceShallow(pivotDoc);
+                    blockBound += cursors[i].blockMaxWeight();
+                    next = Math.min(next, blockLast == PostingsCursor.NO_MORE_DOCS ? blockLast : blockLast + 1);
+                }
+                if (blockBound <= threshold) {
+                    // [pivotDoc, next) 中的文档都落在这些块里，分数上限不超过门槛，全部跳过
+                    if (pivot + 1 < size) {
+                        next = Math.min(next, cursors[pivot + 1].docId());
+                    }
+                    for (int i = 0; i <= pivot; i++) {
+                        if (cursors[i].docId() < next) {
+                            cursors[i].advance(next);
+                        }
+                    }
+                    removeExhausted();
+                    continue;
+                }
+            }
+
+            //3、pivot 之前的游标都已经停在 pivotDoc 上了，这个文档需要完整地算分
+            if (cursors[0].docId() == pivotDoc) {
+                int score = 0;
+                for (int i = 0; i <= pivot; i++) {
+                    score += cursors[i].weight();
+                    cursors[i].nextDoc();
+                }
+                scoredDocs++;
+                collector.collect(pivotDoc, score);
+            } else {
+                //4、否则把 pivot 之前的游标都移动到 pivotDoc，中间的文档都不可能进入 top-K
+                for (int i = 0; i < pivot; i++) {
+                    if (cursors[i].docId() < pivotDoc) {
+                        cursors[i].advance(pivotDoc);
+                    }
+                }
+            }
+            removeExhausted();
+        }
+    }
+
+    // 按照当前的 docId 升序排列游标，查询词一般只有几个，直接插入排序
+    private void sortByDocId() {
+        for (int i = 1; i < size; i++) {
+            PostingsCursor cur = cursors[i];
+            int j = i - 1;
+            while (j >= 0 && cursors[j].docId() > cur.docId()) {
+                cursors[j + 1] = cursors[j];
+                j--;
+            }
+            cursors[j + 1] = cur;
+        }
+    }
+
+    private void removeExhausted() {
+        int n = 0;
+        for (int i = 0; i < size; i++) {
+            if (cursors[i].docId() != PostingsCursor.NO_MORE_DOCS) {
+                cursors[n++] = cursors[i];
+            }
+        }
+        for (int i = n; i < size; i++) {
+            cursors[i] = null;
+        }
+        size = n;
+    }
+}
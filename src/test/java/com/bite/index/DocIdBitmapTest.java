@@ -0,0 +1,148 @@
+package com.bite.index;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.BitSet;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+// 压缩位图和 java.util.BitSet 比较：contains、cursor 遍历、advance、写出再读回来
+// 每个容器 65536 个 docId，文档数不超过 4096 的容器用数组，超过的用位图，两种都要覆盖到，也要覆盖跨容器的跳转
+class DocIdBitmapTest {
+
+    private static final int CONTAINER = 65536;
+
+    @Test
+    void emptyBitmap() throws IOException {
+        check(new BitSet());
+    }
+
+    @Test
+    void containerSizesAroundArrayLimit() throws IOException {
+        Random random = new Random(11L);
+        // 每种大小单独一个容器，再放在同一个位图的不同容器中
+        int[] sizes = {1, 4095, 4096, 4097, 30000, CONTAINER};
+        BitSet all = new BitSet();
+        for (int i = 0; i < sizes.length; i++) {
+            BitSet single = fill(random, i * CONTAINER, sizes[i]);
+            check(single);
+            all.or(single);
+        }
+        check(all);
+    }
+
+    @Test
+    void sparseMultiContainer() throws IOException {
+        Random random = new Random(5L);
+        BitSet set = new BitSet();
+        // 中间有很多空的容器，还有容器的第一个、最后一个 docId
+        for (int container = 0; container < 40; container += 1 + random.nextInt(6)) {
+            int base = container * CONTAINER;
+            set.set(base);
+            set.set(base + CONTAINER - 1);
+            for (int i = 0; i < random.nextInt(50); i++) {
+                set.set(base + random.nextInt(CONTAINER));
+            }
+        }
+        check(set);
+    }
+
+    @Test
+    void docIdsMustIncrease() {
+        DocIdBitmap.Builder builder = new DocIdBitmap.Builder();
+        builder.add(5);
+        assertThrows(IllegalArgumentException.class, () -> builder.add(5));
+    }
+
+    // 在 [base, base + CONTAINER) 中随机挑 count 个不同的 docId
+    private static BitSet fill(Random random, int base, int count) {
+        BitSet set = new BitSet();
+        if (count == CONTAINER) {
+            set.set(base, base + CONTAINER);
+            return set;
+        }
+        while (set.cardinality() < count) {
+            set.set(base + random.nextInt(CONTAINER));
+        }
+        return set;
+    }
+
+    private static void check(BitSet expected) throws IOException {
+        DocIdBitmap bitmap = build(expected);
+        checkBitmap(expected, bitmap);
+        checkBitmap(expected, roundTrip(bitmap));
+    }
+
+    private static DocIdBitmap build(BitSet set) {
+        DocIdBitmap.Builder builder = new DocIdBitmap.Builder();
+        for (int docId = set.nextSetBit(0); docId >= 0; docId = set.nextSetBit(docId + 1)) {
+            builder.add(docId);
+        }
+        return builder.build();
+    }
+
+    private static DocIdBitmap roundTrip(DocIdBitmap bitmap) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (BinaryOutput out = new BinaryOutput(bytes)) {
+            bitmap.write(out);
+        }
+        return DocIdBitmap.read(new BinaryInput(ByteBuffer.wrap(bytes.toByteArray()), 0));
+    }
+
+    private static void checkBitmap(BitSet expected, DocIdBitmap bitmap) {
+        assertEquals(expected.cardinality(), bitmap.cardinality());
+
+        // contains：所有命中的，以及它们前后的、容器边界上的
+        int limit = expected.length() + CONTAINER;
+        for (int docId = expected.nextSetBit(0); docId >= 0; docId = expected.nextSetBit(docId + 1)) {
+            assertEquals(true, bitmap.contains(docId), "contains " + docId);
+            if (docId > 0) {
+                assertEquals(expected.get(docId - 1), bitmap.contains(docId - 1), "contains " + (docId - 1));
+            }
+            assertEquals(expected.get(docId + 1), bitmap.contains(docId + 1), "contains " + (docId + 1));
+        }
+        for (int docId = 0; docId < limit; docId += CONTAINER / 4) {
+            assertEquals(expected.get(docId), bitmap.contains(docId), "contains " + docId);
+            assertEquals(expected.get(docId + CONTAINER / 4 - 1), bitmap.contains(docId + CONTAINER / 4 - 1));
+        }
+
+        // 逐个遍历
+        PostingsCursor cursor = bitmap.cursor();
+        assertEquals(expected.cardinality(), cursor.cost());
+        for (int docId = expected.nextSetBit(0); docId >= 0; docId = expected.nextSetBit(docId + 1)) {
+            assertEquals(docId, cursor.nextDoc());
+            assertEquals(docId, cursor.docId());
+        }
+        assertEquals(PostingsCursor.NO_MORE_DOCS, cursor.nextDoc());
+        assertEquals(PostingsCursor.NO_MORE_DOCS, cursor.nextDoc());
+
+        // 随机步长的 advance，步长有小有大，会跨过整个容器，advance 之后再 nextDoc 也要对
+        Random random = new Random(expected.cardinality());
+        cursor = bitmap.cursor();
+        int target = 0;
+        while (true) {
+            int step = random.nextBoolean() ? 1 + random.nextInt(64) : 1 + random.nextInt(3 * CONTAINER);
+            target += step;
+            int next = expected.nextSetBit(target);
+            int docId = cursor.advance(target);
+            if (next < 0) {
+                assertEquals(PostingsCursor.NO_MORE_DOCS, docId);
+                break;
+            }
+            assertEquals(next, docId, "advance(" + target + ")");
+            // advance 到当前文档或者更前面的位置不动
+            assertEquals(docId, cursor.advance(target));
+            int following = expected.nextSetBit(docId + 1);
+            assertEquals(following < 0 ? PostingsCursor.NO_MORE_DOCS : following, cursor.nextDoc());
+            if (following < 0) {
+                break;
+            }
+            target = following;
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package com.bite.index;
+
+import com.bite.config.FileConfig;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// 补全词典和暴力排序比较：把几个段写成一次提交，合并出 suggest.dat，
+// 每个前缀的结果都要和"所有段的文档数相加、筛出以前缀开头的词、按文档数从高到低、相同时字节序从小到大排序"的前 N 个一样
+// 词表很小、文档数大量相同，会覆盖到块的第一个词上的二分查找、按块最大文档数整块跳过、以及堆中文档数相同时的先后顺序
+class SuggestDictionaryTest {
+
+    private static final int[] COUNTS = {1, 8, 20};
+
+    @TempDir
+    Path temp;
+
+    @Test
+    void randomMultiSegment() throws IOException {
+        Random random = new Random(14L);
+        // 有 ASCII 也有三个字节的汉字，相邻的词有很长的公共前缀
+        String[] alphabet = {"a", "b", "c", "中", "文"};
+        List<Map<String, Integer>> segments = new ArrayList<>();
+        for (int s = 0; s < 3; s++) {
+            Map<String, Integer> segment = new HashMap<>();
+            for (int i = 0; i < 400; i++) {
+                StringBuilder term = new StringBuilder();
+                int length = 1 + random.nextInt(5);
+                for (int j = 0; j < length; j++) {
+                    term.append(alphabet[random.nextInt(alphabet.length)]);
+                }
+                // 大部分词的文档数只有 1~3，偶尔有很大的
+                segment.put(term.toString(), random.nextInt(10) == 0 ? 1 + random.nextInt(40) : 1 + random.nextInt(3));
+            }
+            segments.add(segment);
+        }
+        // 超过解码缓冲区初始大小（256 字节）的词
+        segments.get(1).put(repeat("a", 300), 2);
+        segments.get(2).put(repeat("中", 100), 7);
+
+        Set<String> prefixes = new LinkedHashSet<>();
+        prefixes.add("");
+        // 排在所有词前面、后面的前缀
+        prefixes.add("0");
+        prefixes.add("\uFFFF");
+        for (Map<String, Integer> segment : segments) {
+            for (String term : segment.keySet()) {
+                for (int i = 1; i <= term.length(); i++) {
+                    prefixes.add(term.substring(0, i));
+                }
+            }
+        }
+        // 词典中没有的前缀
+        String[] noise = {"a", "b", "c", "d", "中", "文", "字"};
+        while (prefixes.size() < 3000 + 3) {
+            StringBuilder prefix = new StringBuilder();
+            int length = 1 + random.nextInt(6);
+            for (int j = 0; j < length; j++) {
+                prefix.append(noise[random.nextInt(noise.length)]);
+            }
+            prefixes.add(prefix.toString());
+        }
+        check(segments, prefixes);
+    }
+
+    // 文档数大的词分散在不同的块中，前面的块找满 N 个之后，后面文档数小的块要整块跳过，文档数大的块不能跳过
+    // 同一个词在每个段中的文档数都不大，相加之后比其他词都大，块的最大文档数必须是相加之后的
+    @Test
+    void blockMaxSkipping() throws IOException {
+        List<Map<String, Integer>> segments = new ArrayList<>();
+        for (int s = 0; s < 3; s++) {
+            Map<String, Integer> segment = new HashMap<>();
+            for (int i = 0; i < 40 * SuggestDictionary.BLOCK_SIZE; i++) {
+                String term = String.format("p%04d", i);
+                int docFreq = 1;
+                if (i % 37 == 0) {
+                    docFreq = 10 + i % 5;
+                } else if (i % 53 == 0) {
+                    // 只在一个段中
+                    docFreq = s == 0 ? 9 : 0;
+                }
+                if (docFreq > 0) {
+                    segment.put(term, docFreq);
+                }
+            }
+            segment.put("p0500x", 6);
+            segments.add(segment);
+        }
+        Set<String> prefixes = new LinkedHashSet<>(Arrays.asList("", "p", "p0", "p00", "p05", "p0500", "p0500x", "p06", "p1", "q"));
+        for (int i = 0; i < 40 * SuggestDictionary.BLOCK_SIZE; i += 7) {
+            prefixes.add(String.format("p%04d", i).substring(0, 4));
+        }
+        check(segments, prefixes);
+    }
+
+    @Test
+    void emptyDictionary() throws IOException {
+        List<Map<String, Integer>> segments = new ArrayList<>();
+        segments.add(new HashMap<>());
+        check(segments, Arrays.asList("", "a"));
+    }
+
+    // segments 中每个段是词到文档数的映射，依次写成同一个索引目录中的段，最后一次提交包含所有的段
+    private void check(List<Map<String, Integer>> segments, Iterable<String> prefixes) throws IOException {
+        File indexDir = temp.toFile();
+        List<IndexCommit.SegmentRef> refs = new ArrayList<>();
+        File genDir = null;
+        for (Map<String, Integer> segment : segments) {
+            int docCount = 1;
+            Map<String, Postings> inverted = new HashMap<>();
+            for (Map.Entry<String, Integer> entry : segment.entrySet()) {
+                int[] docIds = new int[entry.getValue()];
+                int[] weights = new int[entry.getValue()];
+                for (int i = 0; i < docIds.length; i++) {
+                    docIds[i] = i;
+                    weights[i] = 1;
+                }
+                inverted.put(entry.getKey(), new Postings(docIds, weights));
+                docCount = Math.max(docCount, docIds.length);
+            }
+            List<DocInfo> forward = new ArrayList<>();
+            for (int docId = 0; docId < docCount; docId++) {
+                forward.add(new DocInfo(docId, "title", "url" + docId, "content", 1, 1, 0, null));
+            }
+            genDir = IndexWriter.commit(indexDir, forward, inverted, FileConfig.similarity,
+                    new CollectionStats(docCount, docCount, docCount), refs, Collections.emptyList());
+            refs.add(new IndexCommit.SegmentRef(genDir.getName(), docCount, null));
+        }
+
+        // 暴力计算：按照 UTF-8 字节序排好的所有词以及相加之后的文档数
+        TreeMap<String, Integer> merged = new TreeMap<>((a, b) -> IndexFormat.compareBytes(
+                a.getBytes(StandardCharsets.UTF_8), b.getBytes(StandardCharsets.UTF_8)));
+        for (Map<String, Integer> segment : segments) {
+            for (Map.Entry<String, Integer> entry : segment.entrySet()) {
+                merged.merge(entry.getKey(), entry.getValue(), Integer::sum);
+            }
+        }
+
+        SuggestDictionary dictionary = SuggestDictionary.open(genDir);
+        assertEquals(merged.size(), dictionary.termCount());
+        int checked = 0;
+        for (String prefix : prefixes) {
+            List<Suggestion> all = new ArrayList<>();
+            for (Map.Entry<String, Integer> entry : merged.entrySet()) {
+                if (entry.getKey().startsWith(prefix)) {
+                    all.add(new Suggestion(entry.getKey(), entry.getValue()));
+                }
+            }
+            // TreeMap 已经是字节序，稳定排序之后文档数相同的保持字节序
+            all.sort((a, b) -> Integer.compare(b.getDocFreq(), a.getDocFreq()));
+            for (int count : COUNTS) {
+                List<Suggestion> expected = all.subList(0, Math.min(count, all.size()));
+                assertEquals(expected, dictionary.suggest(prefix, count), "prefix=" + prefix + " count=" + count);
+            }
+            checked++;
+        }
+        assertTrue(checked > 0);
+        assertEquals(Collections.emptyList(), dictionary.suggest("", 0));
+    }
+
+    private static String repeat(String s, int times) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < times; i++) {
+            builder.append(s);
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,72 @@
+package com.bite.index;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+// 测试用的倒排拉链：不经过分词、制作索引，直接由 (docId, 权重) 构造游标
+// 同一份数据可以取内存中的游标（Postings.cursor），也可以先按照 postings.dat 的块格式编码，
+// 再取解码用的 MappedPostingsCursor，两种游标的行为应该完全一样
+public final class TestPostings {
+
+    private final int[] docIds;
+    private final int[] weights;
+    private final Postings postings;
+    private final ByteBuffer mapped;
+
+    public TestPostings(int[] docIds, int[] weights) {
+        this.docIds = docIds;
+        this.weights = weights;
+        this.postings = new Postings(docIds, weights);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (BinaryOutput out = new BinaryOutput(bytes)) {
+            IndexWriter.writePostings(out, postings, new byte[IndexFormat.BLOCK_SIZE * 10]);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        this.mapped = ByteBuffer.wrap(bytes.toByteArray());
+    }
+
+    // 在 [0, maxDoc) 中按照 density 的概率随机挑文档，权重在 [1, maxWeight] 中随机
+    public static TestPostings random(Random random, int maxDoc, double density, int maxWeight) {
+        int[] docIds = new int[maxDoc];
+        int[] weights = new int[maxDoc];
+        int size = 0;
+        for (int docId = 0; docId < maxDoc; docId++) {
+            if (random.nextDouble() < density) {
+                docIds[size] = docId;
+                weights[size++] = 1 + random.nextInt(maxWeight);
+            }
+        }
+        return new TestPostings(Arrays.copyOf(docIds, size), Arrays.copyOf(weights, size));
+    }
+
+    public static int blockSize() {
+        return IndexFormat.BLOCK_SIZE;
+    }
+
+    public int size() {
+        return docIds.length;
+    }
+
+    public int[] docIds() {
+        return docIds.clone();
+    }
+
+    public int[] weights() {
+        return weights.clone();
+    }
+
+    // 内存中的游标
+    public PostingsCursor cursor() {
+        return postings.cursor();
+    }
+
+    // 在编码之后的块上解码的游标，和查询二进制索引时用的一样
+    public PostingsCursor mappedCursor() {
+        return new MappedPostingsCursor(mapped.duplicate(), 0, postings.size(), postings.maxWeight(), null, -1);
+    }
+}
@@ -0,0 +1,202 @@
+package com.bite.parser;
+
+import com.bite.config.FileConfig;
+import com.bite.index.DocInfo;
+import com.bite.index.Index;
+import com.bite.index.ManifestEntry;
+import com.bite.index.PostingsCursor;
+import com.bite.index.Weight;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// 在临时目录中制作索引：全量、增量（新增、替换、删除、新版本解析失败）、合并，以及只有旧的 JSON 索引时的增量制作
+// 每次制作完都用一个新的 Index 重新加载，和搜索服务看到的一样
+class IncrementalIndexTest {
+
+    private static final String URL_PREFIX = "https://docs.oracle.com/javase/8/docs/api/";
+
+    @TempDir
+    Path temp;
+
+    private Path docs;
+    private String indexPath;
+    private double compactRatio;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        docs = Files.createDirectories(temp.resolve("docs"));
+        indexPath = Files.createDirectories(temp.resolve("index")).toString();
+        compactRatio = FileConfig.compactRatio;
+    }
+
+    @AfterEach
+    void tearDown() {
+        FileConfig.compactRatio = compactRatio;
+    }
+
+    private void write(String path, String content) throws IOException {
+        Path file = docs.resolve(path);
+        Files.createDirectories(file.getParent());
+        Files.write(file, ("<html><head><title>" + path + "</title></head><body><div class=\"block\">"
+                + content + "</div></body></html>").getBytes(StandardCharsets.UTF_8));
+        // 修改时间和上一次不一样，增量制作的时候才会去比较内容
+        file.toFile().setLastModified(file.toFile().lastModified() + 2000);
+    }
+
+    private Index load() {
+        Index index = new Index(indexPath);
+        index.load();
+        return index;
+    }
+
+    // 包含这个词的有效文档，按照相对路径表示
+    private static TreeSet<String> matching(Index index, String term) {
+        TreeSet<String> paths = new TreeSet<>();
+        PostingsCursor cursor = index.getInverted(term);
+        if (cursor == null) {
+            return paths;
+        }
+        int previous = -1;
+        for (int docId = cursor.nextDoc(); docId != PostingsCursor.NO_MORE_DOCS; docId = cursor.nextDoc()) {
+            assertTrue(docId > previous, previous + " -> " + docId);
+            assertTrue(index.isLive(docId), "已删除的文档 " + docId);
+            paths.add(index.getDocInfo(docId).getUrl().substring(URL_PREFIX.length()));
+            previous = docId;
+        }
+        return paths;
+    }
+
+    private static TreeSet<String> paths(String... paths) {
+        return new TreeSet<>(Arrays.asList(paths));
+    }
+
+    @Test
+    void incrementalAddReplaceDelete() throws IOException {
+        write("java/util/Alpha.html", "common shared zebra");
+        write("java/util/Beta.html", "common shared quokka");
+        write("java/io/Gamma.html", "common narwhal");
+        new Parser(docs, indexPath).runByThread();
+
+        Index full = load();
+        assertEquals(3, full.getDocCount());
+        assertEquals(paths("java/io/Gamma.html", "java/util/Alpha.html", "java/util/Beta.html"), matching(full, "common"));
+
+        // 替换 Beta，删除 Gamma，新增 Delta；不让它自动合并，已删除的文档留在删除位图中
+        FileConfig.compactRatio = 1.0;
+        write("java/util/Beta.html", "common okapi");
+        Files.delete(docs.resolve("java/io/Gamma.html"));
+        write("java/lang/Delta.html", "common shared okapi");
+        new Parser(docs, indexPath).runIncremental();
+
+        Index incremental = load();
+        // 新的文档在第二个段中，docId 排在已有的文档后面，旧的 Beta、Gamma 只是标记为删除
+        assertEquals(5, incremental.getDocCount());
+        assertEquals(2, incremental.getDeletedDocCount());
+        assertEquals(paths("java/lang/Delta.html", "java/util/Alpha.html", "java/util/Beta.html"), matching(incremental, "common"));
+        assertEquals(paths("java/lang/Delta.html", "java/util/Alpha.html"), matching(incremental, "shared"));
+        assertEquals(paths("java/lang/Delta.html", "java/util/Beta.html"), matching(incremental, "okapi"));
+        assertEquals(paths(), matching(incremental, "quokka"));
+        assertEquals(paths(), matching(incremental, "narwhal"));
+        Map<String, ManifestEntry> manifest = incremental.getManifest();
+        assertEquals(paths("java/lang/Delta.html", "java/util/Alpha.html", "java/util/Beta.html"), new TreeSet<>(manifest.keySet()));
+        for (ManifestEntry entry : manifest.values()) {
+            assertTrue(incremental.isLive(entry.getDocId()), entry.getPath());
+            assertEquals(URL_PREFIX + entry.getPath(), incremental.getDocInfo(entry.getDocId()).getUrl());
+        }
+
+        // 没有变化的时候再做一次增量，什么都不变
+        new Parser(docs, indexPath).runIncremental();
+        Index unchanged = load();
+        assertEquals(5, unchanged.getDocCount());
+        assertEquals(paths("java/lang/Delta.html", "java/util/Alpha.html", "java/util/Beta.html"), matching(unchanged, "common"));
+
+        // 合并之后已删除的文档真正去掉，查询结果不变
+        new Parser(docs, indexPath).compact();
+        Index compacted = load();
+        assertEquals(3, compacted.getDocCount());
+        assertEquals(0, compacted.getDeletedDocCount());
+        assertEquals(paths("java/lang/Delta.html", "java/util/Alpha.html", "java/util/Beta.html"), matching(compacted, "common"));
+        assertEquals(paths("java/lang/Delta.html", "java/util/Beta.html"), matching(compacted, "okapi"));
+        assertEquals(3, compacted.getManifest().size());
+    }
+
+    // 新版本在流水线中处理失败（例如去标签的时候抛出异常），旧版本要继续有效，下一次增量制作的时候再替换
+    @Test
+    void failedReparseKeepsOldVersion() throws IOException {
+        write("java/util/Alpha.html", "common zebra");
+        write("java/util/Beta.html", "common quokka");
+        new Parser(docs, indexPath).runByThread();
+
+        FileConfig.compactRatio = 1.0;
+        write("java/util/Beta.html", "common okapi");
+        new Parser(docs, indexPath) {
+            @Override
+            String parseTitle(File file) {
+                if (file.getName().equals("Beta.html")) {
+                    throw new IllegalStateException("解析失败: " + file);
+                }
+                return super.parseTitle(file);
+            }
+        }.runIncremental();
+
+        Index failed = load();
+        assertEquals(0, failed.getDeletedDocCount());
+        assertEquals(paths("java/util/Beta.html"), matching(failed, "quokka"));
+        assertEquals(paths(), matching(failed, "okapi"));
+        assertTrue(failed.getManifest().containsKey("java/util/Beta.html"));
+
+        new Parser(docs, indexPath).runIncremental();
+        Index retried = load();
+        assertEquals(1, retried.getDeletedDocCount());
+        assertEquals(paths(), matching(retried, "quokka"));
+        assertEquals(paths("java/util/Beta.html"), matching(retried, "okapi"));
+        assertEquals(paths("java/util/Alpha.html", "java/util/Beta.html"), matching(retried, "common"));
+    }
+
+    // 只有旧的 JSON 索引、没有清单的时候，增量制作退回全量制作，写出来的必须是这次解析的文档，而不是 JSON 中的旧内容
+    @Test
+    void incrementalOverLegacyJsonRebuildsFromDocuments() throws IOException {
+        DocInfo stale = new DocInfo(0, "Stale", URL_PREFIX + "java/util/Stale.html", "legacy", 0, 0, 0, null);
+        Map<String, List<Weight>> inverted = new HashMap<>();
+        inverted.put("legacy", new ArrayList<>(Collections.singletonList(new Weight(0, 10))));
+        ObjectMapper objectMapper = new ObjectMapper();
+        objectMapper.writeValue(new File(indexPath, "forword.txt"), Collections.singletonList(stale));
+        objectMapper.writeValue(new File(indexPath, "inverted.txt"), inverted);
+        Index json = load();
+        assertEquals(1, json.getDocCount());
+        assertNull(json.getGeneration());
+
+        write("java/util/Alpha.html", "common zebra");
+        write("java/util/Beta.html", "common quokka");
+        new Parser(docs, indexPath).runIncremental();
+
+        Index rebuilt = load();
+        assertNotNull(rebuilt.getGeneration());
+        assertEquals(FileConfig.similarity, rebuilt.getSimilarityName());
+        assertEquals(2, rebuilt.getDocCount());
+        assertEquals(paths(), matching(rebuilt, "legacy"));
+        assertEquals(paths("java/util/Alpha.html", "java/util/Beta.html"), matching(rebuilt, "common"));
+        assertEquals(paths("java/util/Alpha.html", "java/util/Beta.html"), new TreeSet<>(rebuilt.getManifest().keySet()));
+    }
+}
@@ -0,0 +1,88 @@
+package com.bite.search;
+
+import com.bite.index.Index;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+// 从查询语句一直到命中的文档：QueryParser 解析，BooleanScorer 在内存中的索引上求值
+// 文档内容很短，每条查询命中哪些文档可以直接数出来
+class BooleanScorerTest {
+
+    // docId 就是下标
+    private static final List<String> DOCS = Arrays.asList(
+            "alpha beta gamma",     // 0
+            "alpha gamma beta",     // 1
+            "beta delta",           // 2
+            "alpha",                // 3
+            "gamma delta epsilon",  // 4
+            "beta alpha delta",     // 5
+            "epsilon");             // 6
+
+    private static final Index INDEX = new Index();
+
+    static {
+        for (int i = 0; i < DOCS.size(); i++) {
+            INDEX.addDoc("doc" + i, "https://docs.oracle.com/javase/8/docs/api/doc" + i + ".html", DOCS.get(i));
+        }
+    }
+
+    private static Set<Integer> search(String query) {
+        BooleanQuery booleanQuery = new QueryParser(Collections.emptySet(), true, 0).parse(query);
+        BooleanScorer scorer = new BooleanScorer(INDEX, booleanQuery);
+        TopKCollector collector = new TopKCollector(DOCS.size());
+        scorer.score(collector);
+        Set<Integer> hits = new TreeSet<>();
+        for (int docId : collector.drainDocIds()) {
+            hits.add(docId);
+        }
+        assertEquals(hits.size(), scorer.getMatchedDocs());
+        return hits;
+    }
+
+    private static Set<Integer> docs(Integer... docIds) {
+        return new TreeSet<>(Arrays.asList(docIds));
+    }
+
+    @Test
+    void andOrNot() {
+        assertEquals(docs(0, 1, 5), search("alpha beta"));
+        assertEquals(docs(0, 1, 2, 3, 5), search("alpha OR beta"));
+        assertEquals(docs(3), search("alpha -beta"));
+        assertEquals(docs(0, 1, 3), search("alpha NOT delta"));
+        assertEquals(docs(0, 1, 4, 5), search("(alpha OR epsilon) (gamma OR delta)"));
+        assertEquals(docs(0, 1, 2, 4, 5), search("(alpha beta) OR delta"));
+        assertEquals(docs(3), search("alpha -(beta OR gamma)"));
+    }
+
+    @Test
+    void phrases() {
+        assertEquals(docs(0), search("\"alpha beta\""));
+        assertEquals(docs(1), search("\"gamma beta\""));
+        assertEquals(docs(5), search("\"beta alpha\" delta"));
+        assertEquals(docs(1, 3, 5), search("alpha -\"alpha beta\""));
+    }
+
+    // 只有 NOT 的查询没有命中，不会变成 "除了这些之外的所有文档"
+    @Test
+    void pureNegativeMatchesNothing() {
+        assertEquals(docs(), search("-alpha"));
+        assertEquals(docs(), search("NOT alpha"));
+        assertEquals(docs(), search("-alpha -beta"));
+        assertEquals(docs(), search("(-alpha) -beta"));
+    }
+
+    @Test
+    void missingTermsMatchNothingUnderAnd() {
+        assertEquals(docs(), search("alpha zeta"));
+        assertEquals(docs(0, 1, 3, 5), search("alpha OR zeta"));
+        assertEquals(docs(0, 1, 3, 5), search("alpha -zeta"));
+        assertEquals(docs(), search("\"alpha zeta\""));
+    }
+}
@@ -0,0 +1,125 @@
+package com.bite.search;
+
+import com.bite.index.TestPostings;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+// 交集、并集、差集的匹配器和直接在 BitSet 上做集合运算的结果比较
+// 倒排拉链是固定种子随机生成的，有很稠密的也有很稀疏的，游标分别用内存中的和解码块格式的两种
+class DocMatcherTest {
+
+    private static final int MAX_DOC = 30000;
+    private static final double[] DENSITIES = {0.6, 0.3, 0.05, 0.01, 0.002};
+
+    private final List<TestPostings> postings = new ArrayList<>();
+
+    DocMatcherTest() {
+        Random random = new Random(42L);
+        for (double density : DENSITIES) {
+            postings.add(TestPostings.random(random, MAX_DOC, density, 5));
+        }
+    }
+
+    private DocMatcher term(int i, boolean mapped) {
+        return new DocMatcher.Term(mapped ? postings.get(i).mappedCursor() : postings.get(i).cursor());
+    }
+
+    private BitSet set(int i) {
+        BitSet set = new BitSet(MAX_DOC);
+        for (int docId : postings.get(i).docIds()) {
+            set.set(docId);
+        }
+        return set;
+    }
+
+    @Test
+    void conjunctionIsIntersection() {
+        for (boolean mapped : new boolean[]{false, true}) {
+            for (int[] terms : new int[][]{{0, 1}, {0, 1, 2}, {1, 3}, {0, 4}, {2, 3, 4}, {0, 1, 2, 3}}) {
+                List<DocMatcher> matchers = new ArrayList<>();
+                BitSet expected = set(terms[0]);
+                for (int t : terms) {
+                    matchers.add(term(t, mapped));
+                    expected.and(set(t));
+                }
+                assertEquals(expected, iterate(new DocMatcher.Conjunction(matchers)), Arrays.toString(terms));
+            }
+        }
+    }
+
+    @Test
+    void disjunctionIsUnion() {
+        for (boolean mapped : new boolean[]{false, true}) {
+            BitSet expected = set(2);
+            expected.or(set(3));
+            expected.or(set(4));
+            assertEquals(expected, iterate(new DocMatcher.Disjunction(
+                    Arrays.asList(term(2, mapped), term(3, mapped), term(4, mapped)))));
+        }
+    }
+
+    @Test
+    void exclusionIsDifference() {
+        for (boolean mapped : new boolean[]{false, true}) {
+            // (0 AND 1) NOT (2 OR 3)
+            BitSet expected = set(0);
+            expected.and(set(1));
+            BitSet excluded = set(2);
+            excluded.or(set(3));
+            expected.andNot(excluded);
+            DocMatcher include = new DocMatcher.Conjunction(Arrays.asList(term(0, mapped), term(1, mapped)));
+            DocMatcher exclude = new DocMatcher.Disjunction(Arrays.asList(term(2, mapped), term(3, mapped)));
+            assertEquals(expected, iterate(new DocMatcher.Exclusion(include, exclude)));
+
+            // 稀疏的减去稠密的
+            BitSet sparse = set(4);
+            sparse.andNot(set(0));
+            assertEquals(sparse, iterate(new DocMatcher.Exclusion(term(4, mapped), term(0, mapped))));
+        }
+    }
+
+    // advance 到随机的目标，和 BitSet.nextSetBit 比较
+    @Test
+    void advanceMatchesNextSetBit() {
+        Random random = new Random(3L);
+        for (boolean mapped : new boolean[]{false, true}) {
+            BitSet expected = set(0);
+            expected.and(set(1));
+            expected.andNot(set(3));
+            DocMatcher matcher = new DocMatcher.Exclusion(
+                    new DocMatcher.Conjunction(Arrays.asList(term(0, mapped), term(1, mapped))), term(3, mapped));
+            int target = 0;
+            while (true) {
+                target += 1 + random.nextInt(700);
+                int next = target >= MAX_DOC ? -1 : expected.nextSetBit(target);
+                int docId = matcher.advance(target);
+                if (next < 0) {
+                    assertEquals(DocMatcher.NO_MORE_DOCS, docId);
+                    break;
+                }
+                assertEquals(next, docId, "advance(" + target + ")");
+                target = docId;
+            }
+        }
+    }
+
+    private static BitSet iterate(DocMatcher matcher) {
+        BitSet result = new BitSet(MAX_DOC);
+        int previous = -1;
+        for (int docId = matcher.nextDoc(); docId != DocMatcher.NO_MORE_DOCS; docId = matcher.nextDoc()) {
+            // 必须严格递增
+            assertEquals(true, docId > previous, previous + " -> " + docId);
+            assertEquals(docId, matcher.docId());
+            result.set(docId);
+            previous = docId;
+        }
+        return result;
+    }
+}
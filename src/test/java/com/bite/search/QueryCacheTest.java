@@ -0,0 +1,97 @@
+package com.bite.search;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+// 读请求只把访问记到 ReadBuffer 中，写缓存的时候才记到 sketch 上，准入判断用的频率不能因此丢掉
+class QueryCacheTest {
+
+    // 空结果估算出来大约 180 字节，2000 字节能放十来个
+    private static final long MAX_BYTES = 2000;
+
+    private static SearchResult empty() {
+        return new SearchResult(0, 0, 10, Collections.emptyList(), true);
+    }
+
+    private static void missAndPut(QueryCache cache, String key) {
+        assertNull(cache.get(key));
+        cache.put(key, key, empty());
+    }
+
+    @Test
+    void onlyHotterKeysAreAdmittedWhenFull() {
+        QueryCache cache = new QueryCache(MAX_BYTES);
+        for (int i = 0; cache.stats().getEvictions() == 0 && cache.stats().getRejections() == 0; i++) {
+            missAndPut(cache, "cold" + i);
+        }
+        int entries = cache.stats().getEntries();
+
+        // 只查过一次的新 key 不比最久没有访问的旧 key 热，进不来
+        missAndPut(cache, "once");
+        assertNull(cache.get("once"));
+
+        // 查过很多次的可以把旧的挤出去
+        for (int i = 0; i < 5; i++) {
+            assertNull(cache.get("hot"));
+        }
+        cache.put("hot", "hot", empty());
+        assertNotNull(cache.get("hot"));
+        assertEquals(entries, cache.stats().getEntries());
+    }
+
+    // 很多线程同时读，缓冲区会被反复写满、drain，热门的 key 记下来的频率还是明显比冷门的高
+    @Test
+    void concurrentReadsStillCountTowardsFrequency() throws InterruptedException {
+        QueryCache cache = new QueryCache(MAX_BYTES);
+        List<String> hot = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            hot.add("hot" + i);
+            cache.put("hot" + i, "hot" + i, empty());
+        }
+        int threads = 8;
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            int seed = t;
+            new Thread(() -> {
+                try {
+                    start.await();
+                    for (int i = 0; i < 20000; i++) {
+                        cache.get(hot.get((i + seed) % hot.size()));
+                        if (i % 50 == 0) {
+                            cache.get("rare" + (seed * 20000 + i));
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    done.countDown();
+                }
+            }).start();
+        }
+        start.countDown();
+        done.await();
+
+        assertEquals(threads * 20000L, cache.stats().getHits());
+        // 缓存中的几个热门 key 按照频率排在前面
+        assertEquals(hot.size(), cache.hotQueries(hot.size()).size());
+        assertEquals(new TreeSet<>(hot), new TreeSet<>(cache.hotQueries(hot.size())));
+
+        // 缓存满了之后，只查过一次的 key 挤不掉这些热门的
+        for (int i = 0; i < 20; i++) {
+            missAndPut(cache, "cold" + i);
+        }
+        for (String key : hot) {
+            assertNotNull(cache.get(key), key);
+        }
+    }
+}
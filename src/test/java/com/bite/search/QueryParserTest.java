@@ -0,0 +1,94 @@
+package com.bite.search;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+// 查询语法的解析结果，用 BooleanQuery.toString 比较：+ 是 must，? 是 should，- 是 mustNot，子句排好序
+class QueryParserTest {
+
+    private static final Set<String> STOPWORDS = new HashSet<>(Arrays.asList("the", "of", "a", "and", "or", "not"));
+
+    private static String parse(String query) {
+        return new QueryParser(STOPWORDS, true, 0).parse(query).toString();
+    }
+
+    private static String parseOr(String query) {
+        return new QueryParser(STOPWORDS, false, 0).parse(query).toString();
+    }
+
+    @Test
+    void adjacentTermsDefaultToAnd() {
+        assertEquals("(+alpha +beta)", parse("alpha beta"));
+        assertEquals("(+alpha +beta)", parse("alpha AND beta"));
+        // 小写的 and 不是运算符，是停用词
+        assertEquals("(+alpha +beta)", parse("alpha and beta"));
+    }
+
+    @Test
+    void orBindsLooserThanAnd() {
+        assertEquals("(?(+alpha +beta) ?gamma)", parse("alpha beta OR gamma"));
+        // toString 中子句是排好序的，"?(" 排在 "?a" 前面
+        assertEquals("(?(+beta +gamma) ?alpha)", parse("alpha OR beta gamma"));
+        assertEquals("(?alpha ?beta ?gamma)", parse("alpha OR beta OR gamma"));
+    }
+
+    @Test
+    void parenthesesGroup() {
+        assertEquals("(+(?alpha ?beta) +gamma)", parse("(alpha OR beta) gamma"));
+        assertEquals("(+alpha -(?beta ?gamma))", parse("alpha -(beta OR gamma)"));
+        // 缺少的右括号当作在结尾，多余的右括号忽略
+        assertEquals("(+(?alpha ?beta) +gamma)", parse("(alpha OR beta) gamma)"));
+        assertEquals("(?(+beta +gamma) ?alpha)", parse("(alpha OR beta gamma"));
+        assertEquals("(+alpha +beta)", parse("alpha) beta"));
+    }
+
+    @Test
+    void negation() {
+        assertEquals("(+alpha -beta)", parse("alpha -beta"));
+        assertEquals("(+alpha -beta)", parse("alpha NOT beta"));
+        assertEquals("(-alpha)", parse("-alpha"));
+        // 默认是 OR 的时候和 Lucene 一样：+ 必须包含，- 不能包含，其它的只影响分数
+        assertEquals("(+beta -gamma ?alpha)", parseOr("alpha +beta -gamma"));
+        assertEquals("(?alpha ?beta)", parseOr("alpha beta"));
+    }
+
+    @Test
+    void quotedPhrases() {
+        assertEquals("(+\"alpha@0 beta@1\" +gamma)", parse("\"alpha beta\" gamma"));
+        assertEquals("(+\"alpha@0 beta@1\" +gamma)", parse("“alpha beta” gamma"));
+        // 短语中的停用词占位置但是不参与匹配
+        assertEquals("\"alpha@0 beta@2\"", parse("\"alpha of beta\""));
+        assertEquals("(+alpha -\"beta@0 gamma@1\")", parse("alpha -\"beta gamma\""));
+        // 没有配对的引号当作普通的字符，只有标点的词被丢掉
+        assertEquals("(+alpha +beta)", parse("alpha \" beta"));
+    }
+
+    @Test
+    void emptyQueries() {
+        assertNull(new QueryParser(STOPWORDS, true, 0).parse("the of").getRoot());
+        assertNull(new QueryParser(STOPWORDS, true, 0).parse("( ) OR AND").getRoot());
+        assertEquals("", parse("\" \""));
+    }
+
+    @Test
+    void termCountIsCapped() {
+        StringBuilder query = new StringBuilder();
+        for (int i = 0; i < 40; i++) {
+            query.append("word").append((char) ('a' + i % 26)).append((char) ('a' + i / 26)).append(' ');
+        }
+        BooleanQuery capped = new QueryParser(STOPWORDS, true, 5).parse(query.toString());
+        assertEquals(Arrays.asList("wordaa", "wordba", "wordca", "wordda", "wordea"), capped.getWords());
+        assertEquals(40, new QueryParser(STOPWORDS, true, 0).parse(query.toString()).getWords().size());
+
+        // 短语也算在里面，到了上限之后只保留短语开头的几个词
+        BooleanQuery phrase = new QueryParser(STOPWORDS, true, 3).parse("alpha \"beta gamma delta\" epsilon");
+        assertEquals(Arrays.asList("alpha", "beta", "gamma"), phrase.getWords());
+        assertEquals("(+\"beta@0 gamma@1\" +alpha)", phrase.toString());
+    }
+}
@@ -0,0 +1,184 @@
+package com.bite.search;
+
+import com.bite.index.PostingsCursor;
+import com.bite.index.TestPostings;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// WAND、Block-Max WAND 的 top-K 必须和全量合并完全一样（包括分数相同时 docId 小的靠前）
+// 语料是固定种子随机生成的，倒排拉链都有很多个块；有的词权重只有 1~3，分数大量相同，
+// 有的词只在几段 docId 区间中权重很高，块内最大权重差别很大，Block-Max 会整块跳过
+class WandScorerTest {
+
+    private static final int MAX_DOC = 20000;
+    private static final int[] TOP_KS = {1, 10, 100, 1000};
+
+    private final List<TestPostings> terms = new ArrayList<>();
+
+    WandScorerTest() {
+        Random random = new Random(20240601L);
+        for (int t = 0; t < 12; t++) {
+            double density = 0.005 + random.nextDouble() * 0.4;
+            if (t % 3 == 0) {
+                terms.add(bursty(random, density));
+            } else {
+                terms.add(TestPostings.random(random, MAX_DOC, density, t % 3 == 1 ? 3 : 60));
+            }
+        }
+    }
+
+    // 大部分文档的权重是 1~2，只有几段连续的 docId 区间中权重是 40~99
+    private static TestPostings bursty(Random random, double density) {
+        int[] docIds = new int[MAX_DOC];
+        int[] weights = new int[MAX_DOC];
+        int size = 0;
+        int burstStart = -1;
+        int burstEnd = -1;
+        for (int docId = 0; docId < MAX_DOC; docId++) {
+            if (docId >= burstEnd && random.nextInt(2000) == 0) {
+                burstStart = docId;
+                burstEnd = docId + 100 + random.nextInt(400);
+            }
+            if (random.nextDouble() < density) {
+                docIds[size] = docId;
+                weights[size++] = docId >= burstStart && docId < burstEnd ? 40 + random.nextInt(60) : 1 + random.nextInt(2);
+            }
+        }
+        return new TestPostings(Arrays.copyOf(docIds, size), Arrays.copyOf(weights, size));
+    }
+
+    @Test
+    void corpusHasMultiBlockPostings() {
+        for (TestPostings term : terms) {
+            assertTrue(term.size() > 4 * TestPostings.blockSize(), "倒排拉链太短: " + term.size());
+        }
+    }
+
+    @Test
+    void wandAndBlockMaxMatchExhaustiveOnInMemoryPostings() {
+        compareAll(TestPostings::cursor);
+    }
+
+    @Test
+    void wandAndBlockMaxMatchExhaustiveOnEncodedBlocks() {
+        compareAll(TestPostings::mappedCursor);
+    }
+
+    // 分布式查询时分片按照全局的 idf 换算权重（ScaledCursor），换算之后的最大权重、块的最大权重依然是上界，剪枝的结果也要一样
+    @Test
+    void wandAndBlockMaxMatchExhaustiveOnScaledCursors() {
+        Random random = new Random(9L);
+        double[] factors = {0.3, 0.77, 1.0, 1.6, 3.2};
+        for (int q = 0; q < 30; q++) {
+            List<TestPostings> query = pick(random, 3 + q % 4);
+            Map<TestPostings, Double> scales = new IdentityHashMap<>();
+            for (TestPostings term : query) {
+                scales.put(term, factors[random.nextInt(factors.length)]);
+            }
+            Function<TestPostings, PostingsCursor> cursorOf = term -> ScaledCursor.of(term.mappedCursor(), scales.get(term));
+            for (int k : TOP_KS) {
+                long[] expected = bruteForce(query, k, scales::get);
+                String message = "query=" + q + " k=" + k;
+                assertArrayEquals(expected, exhaustive(query, k, cursorOf), message + " exhaustive");
+                assertArrayEquals(expected, wand(query, k, false, cursorOf), message + " wand");
+                assertArrayEquals(expected, wand(query, k, true, cursorOf), message + " bmw");
+            }
+        }
+    }
+
+    private void compareAll(Function<TestPostings, PostingsCursor> cursorOf) {
+        Random random = new Random(7L);
+        for (int q = 0; q < 60; q++) {
+            List<TestPostings> query = pick(random, 3 + q % 4);
+            for (int k : TOP_KS) {
+                long[] expected = bruteForce(query, k);
+                String message = "query=" + q + " k=" + k;
+                assertArrayEquals(expected, exhaustive(query, k, cursorOf), message + " exhaustive");
+                assertArrayEquals(expected, wand(query, k, false, cursorOf), message + " wand");
+                assertArrayEquals(expected, wand(query, k, true, cursorOf), message + " bmw");
+            }
+        }
+    }
+
+    private List<TestPostings> pick(Random random, int count) {
+        List<TestPostings> shuffled = new ArrayList<>(terms);
+        Collections.shuffle(shuffled, random);
+        return shuffled.subList(0, count);
+    }
+
+    // 直接按照 docId 把权重加起来，再按照 分数降序、docId 升序 排序，结果用 (分数 << 32 | docId) 表示
+    private static long[] bruteForce(List<TestPostings> query, int k) {
+        return bruteForce(query, k, term -> 1.0);
+    }
+
+    // 每个词的权重先乘上 scaleOf 给出的系数，四舍五入，至少为 1
+    private static long[] bruteForce(List<TestPostings> query, int k, Function<TestPostings, Double> scaleOf) {
+        int[] sums = new int[MAX_DOC];
+        boolean[] hit = new boolean[MAX_DOC];
+        for (TestPostings term : query) {
+            int[] docIds = term.docIds();
+            int[] weights = term.weights();
+            double scale = scaleOf.apply(term);
+            for (int i = 0; i < docIds.length; i++) {
+                sums[docIds[i]] += (int) Math.max(Math.round(weights[i] * scale), 1);
+                hit[docIds[i]] = true;
+            }
+        }
+        List<long[]> all = new ArrayList<>();
+        for (int docId = 0; docId < MAX_DOC; docId++) {
+            if (hit[docId]) {
+                all.add(new long[]{sums[docId], docId});
+            }
+        }
+        all.sort((a, b) -> a[0] != b[0] ? Long.compare(b[0], a[0]) : Long.compare(a[1], b[1]));
+        long[] top = new long[Math.min(k, all.size())];
+        for (int i = 0; i < top.length; i++) {
+            top[i] = all.get(i)[0] << 32 | all.get(i)[1];
+        }
+        return top;
+    }
+
+    // 和 DocSearcher.mergeResult 一样：累加数组 + 小根堆
+    private static long[] exhaustive(List<TestPostings> query, int k, Function<TestPostings, PostingsCursor> cursorOf) {
+        ScoreAccumulator accumulator = new ScoreAccumulator(MAX_DOC);
+        accumulator.reset(MAX_DOC);
+        for (TestPostings term : query) {
+            accumulator.accumulate(cursorOf.apply(term), Deadline.NONE);
+        }
+        TopKCollector collector = new TopKCollector(k);
+        accumulator.collect(collector);
+        return drain(collector);
+    }
+
+    private static long[] wand(List<TestPostings> query, int k, boolean blockMax,
+                               Function<TestPostings, PostingsCursor> cursorOf) {
+        List<PostingsCursor> cursors = new ArrayList<>();
+        for (TestPostings term : query) {
+            cursors.add(cursorOf.apply(term));
+        }
+        TopKCollector collector = new TopKCollector(k);
+        new WandScorer(cursors, blockMax).score(collector, Deadline.NONE);
+        return drain(collector);
+    }
+
+    private static long[] drain(TopKCollector collector) {
+        int[] scores = new int[collector.size()];
+        int[] docIds = collector.drainDocIds(scores);
+        long[] result = new long[docIds.length];
+        for (int i = 0; i < docIds.length; i++) {
+            result[i] = (long) scores[i] << 32 | docIds[i];
+        }
+        return result;
+    }
+}